@@ -5,7 +5,7 @@
  * @format
  */
 
-import React from 'react';
+import React, { useEffect } from 'react';
 import { NavigationContainer } from '@react-navigation/native';
 import { createStackNavigator } from '@react-navigation/stack';
 import { View, ActivityIndicator, StyleSheet } from 'react-native';
@@ -31,12 +31,46 @@ import { SnackbarProvider } from './application/providers/SnackbarProvider';
 import InternetGuard from './application/components/InternetGuard';
 import { useAuth } from './application/hooks/useAuth';
 import { KeyboardProvider } from 'react-native-keyboard-controller';
+import { replayPendingJournal } from './application/utils/paymentJournal';
+import { configureUploader } from './application/services/transactionUpload';
+import { scheduleCustomerCreditSync } from './application/services/customerCredit';
+import { useBackgroundRefresh } from './application/hooks/useApi';
+import { configureReceiptTemplate } from './application/services/receipt';
 
 // Create the stack navigator
 const Stack = createStackNavigator();
 
+const CUSTOMER_SYNC_INTERVAL_MS = 10 * 60 * 1000;
+
 function AppContent(): React.JSX.Element {
-  const { isAuthenticated, isLoading, selectedBranch } = useAuth();
+  const { isAuthenticated, isLoading, selectedBranch, businessProfile } = useAuth();
+
+  // Settle card payments that were approved but never reached the backend. Sales
+  // whose PSP result never came back are searched for only when the cashier asks
+  // (the Service screen), since each search opens the PSP app.
+  useEffect(() => {
+    if (isAuthenticated) {
+      configureUploader().then(replayPendingJournal);
+    }
+  }, [isAuthenticated]);
+
+  // Bring the branch's customer credit index up to date, then keep it there in the
+  // background
+  useEffect(() => {
+    if (isAuthenticated && selectedBranch?.id) {
+      configureUploader().then(() => scheduleCustomerCreditSync(selectedBranch.id, CUSTOMER_SYNC_INTERVAL_MS));
+    }
+  }, [isAuthenticated, selectedBranch?.id]);
+
+  // Branches, credits, operators and prices refreshed natively in the background
+  useBackgroundRefresh(isAuthenticated);
+
+  // Receipt header and footer for the selected branch
+  useEffect(() => {
+    if (isAuthenticated && selectedBranch) {
+      configureReceiptTemplate(businessProfile, selectedBranch);
+    }
+  }, [isAuthenticated, selectedBranch, businessProfile]);
 
   // Show loading screen while checking authentication status
   if (isLoading) {
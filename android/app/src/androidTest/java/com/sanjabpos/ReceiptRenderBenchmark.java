@@ -0,0 +1,109 @@
+package com.sanjabpos;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.Log;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// One sale's receipt, 24 lines under a business template with logo, title, subtitle
+// and footer, rendered by ReceiptRenderer with its header/footer strips cached (warm)
+// and with them evicted before every receipt (cold, the first receipt after a
+// template change or a process start). The rule reports time and allocation count
+// per receipt; the renderer's own stats, logged at the end, give the bytes each
+// receipt bitmap took.
+@RunWith(AndroidJUnit4.class)
+public class ReceiptRenderBenchmark {
+    private static final String TAG = "ReceiptRenderBenchmark";
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private Context context;
+    private File logo;
+    private ReceiptRenderer renderer;
+    private ReceiptTemplate template;
+    private List<ReceiptRenderer.Line> lines;
+
+    @Before
+    public void setUp() throws IOException {
+        context = ApplicationProvider.getApplicationContext();
+        logo = new File(context.getCacheDir(), "benchmark-logo.png");
+        Bitmap image = Bitmap.createBitmap(320, 120, Bitmap.Config.ARGB_8888);
+        new Canvas(image).drawCircle(160, 60, 50, paint());
+        try (FileOutputStream out = new FileOutputStream(logo)) {
+            image.compress(Bitmap.CompressFormat.PNG, 100, out);
+        }
+        image.recycle();
+        template = new ReceiptTemplate("business-12:branch-3", "فروشگاه سنجاب", "شعبه مرکزی",
+                logo.getPath(), "از خرید شما سپاسگزاریم\nsanjabpos.ir", false, 22);
+        renderer = new ReceiptRenderer();
+        renderer.setTemplate(template);
+        lines = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            lines.add(new ReceiptRenderer.Line("کالای شماره " + (i + 1), (120_000 + i * 7_500) + " ریال", false));
+        }
+        lines.add(new ReceiptRenderer.Line("جمع کل", "1,537,500 ریال", false));
+        lines.add(new ReceiptRenderer.Line("از اعتبار", "200,000 ریال", false));
+        lines.add(new ReceiptRenderer.Line("کارت", "1,337,500 ریال", false));
+        lines.add(new ReceiptRenderer.Line("شماره کارت", "603799******1234", false));
+        lines.add(new ReceiptRenderer.Line("شماره پیگیری", "123456", false));
+        lines.add(new ReceiptRenderer.Line("شماره مرجع", "998877665544", false));
+        lines.add(new ReceiptRenderer.Line("تاریخ", "1402/08/23 10:15", false));
+        lines.add(new ReceiptRenderer.Line("پایانه", "12345678", false));
+        for (int i = 0; i < 6; i++) {
+            lines.add(new ReceiptRenderer.Line("--------", "", true));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        Log.i(TAG, "renderer stats: " + renderer.getStats());
+        logo.delete();
+    }
+
+    @Test
+    public void warm() {
+        renderer.render(context, template.key, lines).recycle();
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            renderer.render(context, template.key, lines).recycle();
+        }
+    }
+
+    @Test
+    public void cold() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            // Drops the cached header and footer strips.
+            renderer.setTemplate(template);
+            state.resumeTiming();
+            renderer.render(context, template.key, lines).recycle();
+        }
+    }
+
+    private static Paint paint() {
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.BLACK);
+        return paint;
+    }
+}
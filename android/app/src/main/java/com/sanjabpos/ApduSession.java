@@ -0,0 +1,118 @@
+package com.sanjabpos;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.sanjabpos.core.ApduScript;
+import com.sanjabpos.core.SimulatedCard;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Runs PaymentModule.runApduScript: the script goes to core ApduScript, which sends
+// each command as an ICCRead request through the engine and waits for its result
+// here, off the JS thread. The SDK takes one command per request, so every command
+// is still a PSP round trip, but the next one is sent as soon as the last result
+// arrives instead of after a trip through JS, and the status words, branches and
+// GET RESPONSE chaining never leave native code.
+final class ApduSession {
+    private static final long COMMAND_TIMEOUT_MS = 30 * 1000;
+
+    private final PaymentEngine engine;
+    private final IkcPaymentProvider ikc;
+    // Set by setSimulatedCard; the loyalty card with this latency, or -1 for the PSP.
+    private volatile long simulatedLatencyMs = -1;
+
+    ApduSession(PaymentEngine engine, IkcPaymentProvider ikc) {
+        this.engine = engine;
+        this.ikc = ikc;
+    }
+
+    void setSimulated(boolean enabled, long latencyMs) {
+        simulatedLatencyMs = enabled ? Math.max(0, latencyMs) : -1;
+    }
+
+    // Throws IllegalArgumentException on a malformed script.
+    static ApduScript parse(ReadableArray items) {
+        if (items == null) {
+            throw new IllegalArgumentException("دستورهای APDU مشخص نشده است");
+        }
+        List<ApduScript.Step> steps = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            ReadableMap item = items.getMap(i);
+            String[] expect = null;
+            if (item.hasKey("expect") && !item.isNull("expect")) {
+                ReadableArray words = item.getArray("expect");
+                expect = new String[words.size()];
+                for (int w = 0; w < expect.length; w++) {
+                    expect[w] = words.getString(w);
+                }
+            }
+            steps.add(new ApduScript.Step(string(item, "label"), string(item, "apdu"), expect,
+                    string(item, "next"), string(item, "onMismatch")));
+        }
+        return new ApduScript(steps);
+    }
+
+    // Blocks until the script ends; call it off the main and JS threads.
+    ApduScript.Result run(ApduScript script) throws InterruptedException {
+        long latency = simulatedLatencyMs;
+        return script.run(latency >= 0 ? SimulatedCard.loyalty(latency) : this::transmit);
+    }
+
+    static Map<String, Object> toMap(ApduScript.Result result) {
+        List<Object> responses = new ArrayList<>(result.responses.size());
+        for (ApduScript.Response response : result.responses) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("step", (double) response.step);
+            map.put("label", response.label);
+            map.put("apdu", response.command);
+            map.put("data", response.data);
+            map.put("sw", response.sw);
+            map.put("matched", response.matched);
+            map.put("commands", (double) response.commands);
+            map.put("elapsedMs", response.elapsedNanos / 1e6);
+            responses.add(map);
+        }
+        Map<String, Object> map = new HashMap<>();
+        map.put("completed", result.outcome == ApduScript.Outcome.COMPLETED);
+        map.put("outcome", result.outcome.name());
+        map.put("message", result.message);
+        map.put("failedStep", (double) result.failedStep);
+        map.put("commands", (double) result.commands);
+        map.put("elapsedMs", result.elapsedNanos / 1e6);
+        map.put("responses", responses);
+        return map;
+    }
+
+    // One ICCRead round trip, sent and awaited like PaymentReconciler's searches.
+    private String transmit(String command) throws IOException, InterruptedException {
+        BlockingQueue<Object> sentAnswer = new ArrayBlockingQueue<>(1);
+        engine.dispatch(() -> ikc.sendApdu(command), PaymentEngine.blockingPromise(sentAnswer));
+        Object sent = sentAnswer.poll(COMMAND_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        if (!(sent instanceof ReadableMap) || !((ReadableMap) sent).hasKey("requestId")) {
+            throw new IOException(sent instanceof ReadableMap ? string((ReadableMap) sent, "message") : "خطا در ارسال");
+        }
+        BlockingQueue<Object> resultAnswer = new ArrayBlockingQueue<>(1);
+        engine.awaitResult(((ReadableMap) sent).getString("requestId"), COMMAND_TIMEOUT_MS, PaymentEngine.blockingPromise(resultAnswer));
+        Object result = resultAnswer.poll(COMMAND_TIMEOUT_MS + 5000, TimeUnit.MILLISECONDS);
+        if (!(result instanceof ReadableMap)) {
+            throw new IOException("پاسخی از کارت دریافت نشد");
+        }
+        String response = string((ReadableMap) result, "iccresponse");
+        if (response == null) {
+            String message = string((ReadableMap) result, "errorMessage");
+            throw new IOException(message != null ? message : "پاسخی از کارت دریافت نشد");
+        }
+        return response;
+    }
+
+    private static String string(ReadableMap map, String key) {
+        return map.hasKey(key) && !map.isNull(key) ? map.getString(key) : null;
+    }
+}
@@ -0,0 +1,53 @@
+package com.sanjabpos;
+
+import android.content.Context;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+// The OkHttp client the JS apiClient goes through. One instance for the process so
+// keep-alive connections (multiplexed over HTTP/2 when the server negotiates it)
+// are reused across requests, with a disk cache that OkHttp revalidates using the
+// server's ETag / Last-Modified. OkHttp also handles gzip transparently.
+final class ApiHttpClient {
+    private static final long CACHE_BYTES = 10L * 1024 * 1024;
+    // Terminals sit idle between customers; keep the connection for longer than that
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private static volatile OkHttpClient client;
+    private static volatile Cache cache;
+
+    private ApiHttpClient() {
+    }
+
+    static OkHttpClient get(Context context) {
+        OkHttpClient current = client;
+        if (current == null) {
+            synchronized (ApiHttpClient.class) {
+                if (client == null) {
+                    cache = new Cache(new File(context.getApplicationContext().getCacheDir(), "api-http"), CACHE_BYTES);
+                    client = new OkHttpClient.Builder()
+                            .cache(cache)
+                            .connectionPool(new ConnectionPool(4, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                            .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                            .connectTimeout(BackendHttp.TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                            .readTimeout(BackendHttp.TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                            .writeTimeout(BackendHttp.TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                            .build();
+                }
+                current = client;
+            }
+        }
+        return current;
+    }
+
+    static Cache cache() {
+        return cache;
+    }
+}
@@ -0,0 +1,75 @@
+package com.sanjabpos;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+import okhttp3.CacheControl;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+// Backend location and session token shared by the native modules that talk to
+// the API directly, over the process's OkHttp client (ApiHttpClient). Set from JS
+// through TransactionUploadModule.configure, and kept in the app's preferences for
+// background jobs that run before JS is up.
+final class BackendHttp {
+    static final int TIMEOUT_MS = 10000;
+    private static final String PREFERENCES = "backend";
+    private static final CacheControl NO_STORE = new CacheControl.Builder().noStore().build();
+
+    private static volatile String baseUrl;
+    private static volatile String authToken;
+
+    private BackendHttp() {
+    }
+
+    static void configure(Context context, String baseUrl, String authToken) {
+        BackendHttp.baseUrl = baseUrl;
+        BackendHttp.authToken = authToken;
+        context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE).edit()
+                .putString("baseUrl", baseUrl)
+                .putString("authToken", authToken)
+                .apply();
+    }
+
+    // The backend JS configured last, in a process where it has not yet.
+    static void restore(Context context) {
+        if (baseUrl != null) {
+            return;
+        }
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        authToken = preferences.getString("authToken", null);
+        baseUrl = preferences.getString("baseUrl", null);
+    }
+
+    // A request to the backend with the session token, for ApiHttpClient's client.
+    static Request.Builder request(String path) throws IOException {
+        String url = baseUrl;
+        if (url == null) {
+            throw new IOException("Backend is not configured");
+        }
+        Request.Builder request = new Request.Builder().url(url + path);
+        String token = authToken;
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        return request;
+    }
+
+    // Never from or into the HTTP cache: these answers are per customer.
+    static JSONObject getJson(Context context, String path) throws IOException, JSONException {
+        Request request = request(path).get().cacheControl(NO_STORE).build();
+        try (Response response = ApiHttpClient.get(context).newCall(request).execute()) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                throw new IOException("HTTP " + response.code());
+            }
+            return new JSONObject(body.string());
+        }
+    }
+}
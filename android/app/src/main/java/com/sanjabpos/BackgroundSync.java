@@ -0,0 +1,220 @@
+package com.sanjabpos;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.ListenableWorker;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.WorkRequest;
+
+import com.sanjabpos.core.SyncScheduler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Runs the background jobs (sale uploads, catalog and customer refreshes) as
+// WorkManager unique work named by the job's key, so they go on while the cashier
+// is in the PSP app or the app is in the background, not only while a screen that
+// fetches is mounted. WorkManager holds a run until the network is up (and the
+// battery is not low, for jobs that ask) and retries it with exponential backoff;
+// core SyncScheduler folds requests into the run already owed, so a key has at
+// most one run waiting behind the one in progress, and keeps the stats. Modules
+// register their jobs here and request them; every finished run goes to the
+// listener. A run WorkManager starts in a process where no module has registered
+// its job (after a reboot, or once the app was killed) builds the job from its
+// key.
+final class BackgroundSync {
+    private static final String TAG = "BackgroundSync";
+    private static final long BASE_BACKOFF_MS = WorkRequest.MIN_BACKOFF_MILLIS;
+
+    interface Job {
+        SyncScheduler.Result run() throws InterruptedException;
+    }
+
+    interface Listener {
+        void onFinished(String key, SyncScheduler.Result result, long elapsedMs);
+    }
+
+    private static final class Registered {
+        final int constraints;
+        final long periodMs;
+        final Job job;
+
+        Registered(int constraints, long periodMs, Job job) {
+            this.constraints = constraints;
+            this.periodMs = periodMs;
+            this.job = job;
+        }
+    }
+
+    private static BackgroundSync instance;
+
+    private final Context context;
+    private final SyncScheduler scheduler = new SyncScheduler(BASE_BACKOFF_MS, WorkRequest.MAX_BACKOFF_MILLIS);
+    private final Map<String, Registered> jobs = new ConcurrentHashMap<>();
+    // Keys with a run enqueued that has not started: true if it waits out a period,
+    // false if it is due now.
+    private final Map<String, Boolean> waiting = new ConcurrentHashMap<>();
+    private volatile Listener listener;
+
+    static synchronized BackgroundSync get(Context context) {
+        if (instance == null) {
+            instance = new BackgroundSync(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private BackgroundSync(Context context) {
+        this.context = context;
+    }
+
+    // Replaces a job registered under the same key, keeping what is owed on it. A
+    // periodic job runs right away the first time it is registered in the process;
+    // that replaces a run left waiting from the last one.
+    void register(String key, int constraints, long periodMs, Job job) {
+        boolean added = jobs.put(key, new Registered(constraints, periodMs, job)) == null;
+        scheduler.define(key, constraints, periodMs, SystemClock.elapsedRealtime());
+        if (added && periodMs > 0) {
+            waiting.put(key, false);
+            enqueue(key, 0, ExistingWorkPolicy.REPLACE);
+        }
+    }
+
+    void unregister(String key) {
+        jobs.remove(key);
+        scheduler.remove(key);
+        waiting.remove(key);
+        WorkManager.getInstance(context).cancelUniqueWork(key);
+    }
+
+    // Returns false if the request folded into a run already owed. Throws
+    // IllegalArgumentException for a job that was never registered.
+    boolean request(String key) {
+        boolean queued = scheduler.request(key, SystemClock.elapsedRealtime());
+        Boolean delayed = waiting.put(key, false);
+        if (delayed == null) {
+            // Appended, so it waits for a run in progress.
+            enqueue(key, 0, ExistingWorkPolicy.APPEND_OR_REPLACE);
+        } else if (delayed) {
+            // A periodic run brought forward.
+            enqueue(key, 0, ExistingWorkPolicy.REPLACE);
+        }
+        return queued;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    Map<String, Object> getStats() {
+        return scheduler.stats(SystemClock.elapsedRealtime());
+    }
+
+    // SyncWorker's run of the key, enqueued with the job's constraints and period.
+    // A failed run is not failed work, which would fail the run appended behind it;
+    // it is reported and the next request or period runs the job again.
+    ListenableWorker.Result run(String key, int constraints, long periodMs) {
+        waiting.remove(key);
+        Registered registered = jobs.get(key);
+        if (registered == null) {
+            registered = restore(key, constraints, periodMs);
+            if (registered == null) {
+                Log.w(TAG, "No background job " + key + "; its work is dropped");
+                return ListenableWorker.Result.failure();
+            }
+        }
+        // A run whose requests an earlier run already covered.
+        if (!scheduler.start(key)) {
+            return ListenableWorker.Result.success();
+        }
+        long start = SystemClock.elapsedRealtime();
+        SyncScheduler.Result result;
+        try {
+            result = registered.job.run();
+        } catch (InterruptedException e) {
+            // Stopped by WorkManager, which runs it again.
+            scheduler.finish(key, SyncScheduler.Result.RETRY, SystemClock.elapsedRealtime());
+            Thread.currentThread().interrupt();
+            return ListenableWorker.Result.retry();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Background job " + key + " failed", e);
+            result = SyncScheduler.Result.RETRY;
+        }
+        long end = SystemClock.elapsedRealtime();
+        scheduler.finish(key, result, end);
+        Listener current = listener;
+        if (current != null) {
+            current.onFinished(key, result, end - start);
+        }
+        if (result == SyncScheduler.Result.RETRY) {
+            return ListenableWorker.Result.retry();
+        }
+        if (registered.periodMs > 0 && jobs.containsKey(key) && waiting.putIfAbsent(key, true) == null) {
+            enqueue(key, registered.periodMs, ExistingWorkPolicy.APPEND_OR_REPLACE);
+        }
+        return ListenableWorker.Result.success();
+    }
+
+    // Builds the job under key the way the module that registers it would, owing it
+    // the run in progress. Null for a key no module registers.
+    private Registered restore(String key, int constraints, long periodMs) {
+        BackendHttp.restore(context);
+        Job job = null;
+        if (key.equals(SaleUploads.SALES_JOB)) {
+            // Opening the queue registers its job.
+            SaleUploads.get(context);
+        } else if (key.startsWith(BackgroundSyncModule.REFRESH_JOB_PREFIX)) {
+            job = BackgroundSyncModule.refreshJob(context, key.substring(BackgroundSyncModule.REFRESH_JOB_PREFIX.length()));
+        } else if (key.startsWith(CustomerCreditModule.SYNC_JOB_PREFIX)) {
+            try {
+                int branchId = Integer.parseInt(key.substring(CustomerCreditModule.SYNC_JOB_PREFIX.length()));
+                job = CustomerCreditModule.syncJob(context, branchId);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (job != null && jobs.putIfAbsent(key, new Registered(constraints, periodMs, job)) == null) {
+            // A periodic job is owed a run when defined.
+            scheduler.define(key, constraints, periodMs, now);
+        }
+        Registered registered = jobs.get(key);
+        if (registered != null && registered.periodMs == 0) {
+            scheduler.request(key, now);
+        }
+        return registered;
+    }
+
+    private void enqueue(String key, long delayMs, ExistingWorkPolicy policy) {
+        Registered registered = jobs.get(key);
+        if (registered == null) {
+            return;
+        }
+        Constraints.Builder constraints = new Constraints.Builder();
+        if ((registered.constraints & SyncScheduler.NETWORK) != 0) {
+            constraints.setRequiredNetworkType(NetworkType.CONNECTED);
+        }
+        if ((registered.constraints & SyncScheduler.BATTERY_NOT_LOW) != 0) {
+            constraints.setRequiresBatteryNotLow(true);
+        }
+        OneTimeWorkRequest work = new OneTimeWorkRequest.Builder(SyncWorker.class)
+                .setInputData(new Data.Builder()
+                        .putString(SyncWorker.KEY, key)
+                        .putInt(SyncWorker.CONSTRAINTS, registered.constraints)
+                        .putLong(SyncWorker.PERIOD_MS, registered.periodMs)
+                        .build())
+                .setConstraints(constraints.build())
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, BASE_BACKOFF_MS, TimeUnit.MILLISECONDS)
+                .setInitialDelay(delayMs, TimeUnit.MILLISECONDS)
+                .build();
+        WorkManager.getInstance(context).enqueueUniqueWork(key, policy, work);
+    }
+}
@@ -0,0 +1,141 @@
+package com.sanjabpos;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+import com.sanjabpos.core.SyncScheduler;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+// BackgroundSync for JS: catalog refreshes, requests for any registered job, and
+// its stats. A refresh GETs the path through the OkHttp client the JS apiClient
+// uses, so the response lands in its cache even with JS paused, and when JS is up
+// the body comes with the BackgroundSyncResult event for the query cache. Every
+// finished run is reported with that event, with how long it took.
+public class BackgroundSyncModule extends ReactContextBaseJavaModule implements BackgroundSync.Listener {
+    static final String REFRESH_JOB_PREFIX = "refresh:";
+
+    // Body of each refresh that succeeded, until its event is sent.
+    private static final Map<String, JSONObject> refreshed = new ConcurrentHashMap<>();
+
+    private final BackgroundSync sync;
+
+    public BackgroundSyncModule(ReactApplicationContext reactContext) {
+        super(reactContext);
+        sync = BackgroundSync.get(reactContext);
+        sync.setListener(this);
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return "BackgroundSyncModule";
+    }
+
+    // Refreshes the path now and then every intervalMs, on a network and a battery
+    // that is not low. Scheduling the same path again only changes the interval.
+    @ReactMethod
+    public void scheduleRefresh(String path, double intervalMs) {
+        if (path == null || !path.startsWith("/") || intervalMs <= 0) {
+            return;
+        }
+        sync.register(REFRESH_JOB_PREFIX + path, SyncScheduler.NETWORK | SyncScheduler.BATTERY_NOT_LOW,
+                (long) intervalMs, refreshJob(getReactApplicationContext(), path));
+    }
+
+    @ReactMethod
+    public void cancelRefresh(String path) {
+        sync.unregister(REFRESH_JOB_PREFIX + path);
+    }
+
+    // Resolves false if the job already had a run owed, which this joins.
+    @ReactMethod
+    public void request(String key, Promise promise) {
+        try {
+            promise.resolve(sync.request(key));
+        } catch (IllegalArgumentException e) {
+            promise.reject("UNKNOWN_JOB", e.getMessage());
+        }
+    }
+
+    @ReactMethod
+    public void getStats(Promise promise) {
+        promise.resolve(Arguments.makeNativeMap(sync.getStats()));
+    }
+
+    @Override
+    public void onFinished(String key, SyncScheduler.Result result, long elapsedMs) {
+        WritableMap event = Arguments.createMap();
+        event.putString("key", key);
+        event.putString("result", result.name());
+        event.putDouble("elapsedMs", elapsedMs);
+        if (key.startsWith(REFRESH_JOB_PREFIX)) {
+            String path = key.substring(REFRESH_JOB_PREFIX.length());
+            event.putString("path", path);
+            JSONObject body = refreshed.remove(path);
+            if (body != null) {
+                event.putMap("data", BridgeJson.toWritableMap(body));
+            }
+        }
+        ReactApplicationContext context = getReactApplicationContext();
+        if (context.hasActiveReactInstance()) {
+            context.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit("BackgroundSyncResult", event);
+        }
+    }
+
+    // Also what a run finds in a process without React: the response still lands in
+    // the HTTP cache for when JS asks.
+    static BackgroundSync.Job refreshJob(Context context, String path) {
+        OkHttpClient client = ApiHttpClient.get(context);
+        return () -> refresh(client, path);
+    }
+
+    // Server errors and no network are retried; a refused request waits for the next
+    // period, as does a body that is not JSON (the cache has it either way).
+    private static SyncScheduler.Result refresh(OkHttpClient client, String path) {
+        // Not configured yet throws too, and is retried.
+        try (Response response = client.newCall(BackendHttp.request(path).get().build()).execute()) {
+            if (response.code() >= 500) {
+                return SyncScheduler.Result.RETRY;
+            }
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                return SyncScheduler.Result.FAILURE;
+            }
+            refreshed.put(path, new JSONObject(body.string()));
+            return SyncScheduler.Result.SUCCESS;
+        } catch (IOException e) {
+            return SyncScheduler.Result.RETRY;
+        } catch (JSONException e) {
+            return SyncScheduler.Result.FAILURE;
+        }
+    }
+
+    @ReactMethod
+    public void addListener(String eventName) {
+        // Required for NativeEventEmitter
+    }
+
+    @ReactMethod
+    public void removeListeners(double count) {
+        // Required for NativeEventEmitter
+    }
+}
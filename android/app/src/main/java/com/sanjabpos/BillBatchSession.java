@@ -0,0 +1,270 @@
+package com.sanjabpos;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.sanjabpos.core.Bill;
+import com.sanjabpos.core.BillBatch;
+import com.sanjabpos.core.InquiryCache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Bill batches for PaymentModule: bills are checked locally (core Bill), inquired
+// through the PSP once per TTL, then paid through BILL_REQUEST_CODE one after
+// another by core BillBatch without the PSP showing or printing a receipt for each,
+// and the batch gets one combined receipt at the end. Like PaymentReconciler, every
+// request goes through the engine, so bill payments are journaled and correlated as
+// when they are sent one at a time.
+final class BillBatchSession {
+    private static final long INQUIRY_TTL_MS = 10 * 60 * 1000;
+    private static final int MAX_CACHED_INQUIRIES = 500;
+    private static final long REQUEST_TIMEOUT_MS = 3 * 60 * 1000;
+
+    // A request sent through the engine and its result; the result is null when the
+    // request was not sent or its result did not arrive in time.
+    private static final class Exchange {
+        final boolean sent;
+        final ReadableMap result;
+        final String message;
+
+        Exchange(boolean sent, ReadableMap result, String message) {
+            this.sent = sent;
+            this.result = result;
+            this.message = message;
+        }
+    }
+
+    private final PaymentEngine engine;
+    private final IkcPaymentProvider ikc;
+    private final PrintSpooler spooler;
+    private final InquiryCache<Map<String, Object>> inquiries =
+            new InquiryCache<>(INQUIRY_TTL_MS, MAX_CACHED_INQUIRIES);
+    private volatile BillBatch running;
+
+    BillBatchSession(PaymentEngine engine, IkcPaymentProvider ikc, PrintSpooler spooler) {
+        this.engine = engine;
+        this.ikc = ikc;
+        this.spooler = spooler;
+    }
+
+    // Each item is {billId, paymentId} or {barcode}. Throws IllegalArgumentException
+    // on the first bad bill, naming its row.
+    static List<Bill> parse(ReadableArray items) {
+        if (items == null) {
+            throw new IllegalArgumentException("قبضی مشخص نشده است");
+        }
+        List<Bill> bills = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            try {
+                bills.add(parse(items.getMap(i)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("قبض " + (i + 1) + ": " + e.getMessage());
+            }
+        }
+        return bills;
+    }
+
+    // What checking each bill locally says, without rejecting the list.
+    static List<Object> validate(ReadableArray items) {
+        List<Object> results = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            Map<String, Object> result;
+            try {
+                result = toMap(parse(items.getMap(i)));
+                result.put("valid", true);
+            } catch (IllegalArgumentException e) {
+                result = new HashMap<>();
+                result.put("valid", false);
+                result.put("message", e.getMessage());
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    // Blocks; call it off the main and JS threads. After an inquiry that cannot be
+    // sent, the bills left only get what the cache has.
+    List<Object> inquire(List<Bill> bills) throws InterruptedException {
+        List<Object> results = new ArrayList<>(bills.size());
+        boolean sending = true;
+        for (Bill bill : bills) {
+            Map<String, Object> item = toMap(bill);
+            Map<String, Object> cached = inquiries.get(bill.key(), System.currentTimeMillis());
+            if (cached != null) {
+                item.put("cached", true);
+                item.put("result", cached);
+            } else if (sending) {
+                Exchange exchange = exchange(() -> ikc.billInquiry(bill.billId, bill.paymentId, false, false));
+                if (exchange.result != null) {
+                    Map<String, Object> answer = exchange.result.toHashMap();
+                    answer.remove("requestId");
+                    if (exchange.result.hasKey("resultCode") && exchange.result.getInt("resultCode") == 0) {
+                        inquiries.put(bill.key(), answer, System.currentTimeMillis());
+                    }
+                    item.put("result", answer);
+                } else {
+                    item.put("message", exchange.message);
+                    sending = exchange.sent;
+                }
+                item.put("cached", false);
+            }
+            results.add(item);
+        }
+        return results;
+    }
+
+    // Blocks until the batch stops; call it off the main and JS threads.
+    Map<String, Object> pay(List<Bill> bills, boolean printReceipt) throws InterruptedException {
+        BillBatch batch = new BillBatch(bills);
+        running = batch;
+        BillBatch.Report report;
+        try {
+            report = batch.run(this::pay);
+        } finally {
+            running = null;
+        }
+        long jobId = -1;
+        if (printReceipt && report.paid + report.declined > 0) {
+            jobId = spooler.enqueueText(ikc.getTemplateKey(), receipt(batch, report));
+        }
+        List<Object> items = new ArrayList<>(bills.size());
+        for (BillBatch.Item item : batch.items()) {
+            Map<String, Object> map = toMap(item.bill);
+            map.put("status", item.status().name());
+            BillBatch.Payment payment = item.payment();
+            if (payment != null) {
+                map.put("stan", payment.stan);
+                map.put("rrn", payment.rrn);
+                map.put("message", payment.message);
+            }
+            items.add(map);
+        }
+        Map<String, Object> map = new HashMap<>();
+        map.put("paid", (double) report.paid);
+        map.put("paidAmount", (double) report.paidAmount);
+        map.put("declined", (double) report.declined);
+        map.put("pending", (double) report.pending);
+        map.put("stoppedAt", (double) report.stoppedAt);
+        map.put("message", report.message);
+        map.put("cancelled", report.cancelled);
+        map.put("elapsedMs", report.elapsedNanos / 1e6);
+        map.put("receiptJobId", (double) jobId);
+        map.put("items", items);
+        return map;
+    }
+
+    // Stops a running batch after the payment in flight.
+    boolean cancel() {
+        BillBatch batch = running;
+        if (batch == null) {
+            return false;
+        }
+        batch.cancel();
+        return true;
+    }
+
+    private BillBatch.Payment pay(Bill bill) throws InterruptedException {
+        Exchange exchange = exchange(() -> ikc.bill(bill.billId, bill.paymentId, false, false));
+        ReadableMap result = exchange.result;
+        if (result == null) {
+            BillBatch.Status status = exchange.sent ? BillBatch.Status.UNKNOWN : BillBatch.Status.NOT_SENT;
+            return new BillBatch.Payment(status, null, null, exchange.message, null);
+        }
+        BillBatch.Status status;
+        if (result.hasKey("outcomeUnknown") || !result.hasKey("resultCode")) {
+            status = BillBatch.Status.UNKNOWN;
+        } else {
+            status = result.hasKey("approved") && result.getBoolean("approved")
+                    ? BillBatch.Status.PAID : BillBatch.Status.DECLINED;
+        }
+        if (status == BillBatch.Status.PAID) {
+            inquiries.remove(bill.key());
+        }
+        String message = string(result, "txResponseTitle");
+        return new BillBatch.Payment(status, string(result, "stan"), string(result, "referenceCode"),
+                message != null ? message : string(result, "message"), result.toHashMap());
+    }
+
+    private Exchange exchange(PaymentEngine.CallFactory factory) throws InterruptedException {
+        BlockingQueue<Object> sentAnswer = new ArrayBlockingQueue<>(1);
+        engine.dispatch(factory, PaymentEngine.blockingPromise(sentAnswer));
+        Object sent = sentAnswer.poll(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        if (!(sent instanceof ReadableMap) || !((ReadableMap) sent).hasKey("requestId")) {
+            String message = sent instanceof ReadableMap ? string((ReadableMap) sent, "message") : null;
+            return new Exchange(false, null, message != null ? message : "خطا در ارسال");
+        }
+        BlockingQueue<Object> resultAnswer = new ArrayBlockingQueue<>(1);
+        engine.awaitResult(((ReadableMap) sent).getString("requestId"), REQUEST_TIMEOUT_MS,
+                PaymentEngine.blockingPromise(resultAnswer));
+        Object result = resultAnswer.poll(REQUEST_TIMEOUT_MS + 5000, TimeUnit.MILLISECONDS);
+        if (!(result instanceof ReadableMap)) {
+            return new Exchange(true, null, "نتیجه پرداخت دریافت نشد");
+        }
+        return new Exchange(true, (ReadableMap) result, null);
+    }
+
+    private static List<ReceiptRenderer.Line> receipt(BillBatch batch, BillBatch.Report report) {
+        List<ReceiptRenderer.Line> lines = new ArrayList<>();
+        lines.add(new ReceiptRenderer.Line("پرداخت گروهی قبوض", "", true));
+        for (BillBatch.Item item : batch.items()) {
+            BillBatch.Payment payment = item.payment();
+            if (payment == null) {
+                continue;
+            }
+            Bill bill = item.bill;
+            lines.add(new ReceiptRenderer.Line(bill.serviceName() + " " + bill.billId, rials(bill.amount), false));
+            String status;
+            switch (payment.status) {
+                case PAID:
+                    status = payment.rrn != null ? "مرجع " + payment.rrn : "پرداخت شد";
+                    break;
+                case DECLINED:
+                    status = "ناموفق";
+                    break;
+                default:
+                    status = "نامشخص";
+                    break;
+            }
+            lines.add(new ReceiptRenderer.Line("شناسه پرداخت " + bill.paymentId, status, false));
+        }
+        lines.add(new ReceiptRenderer.Line("قبوض پرداخت شده", String.valueOf(report.paid), false));
+        if (report.declined > 0) {
+            lines.add(new ReceiptRenderer.Line("قبوض ناموفق", String.valueOf(report.declined), false));
+        }
+        lines.add(new ReceiptRenderer.Line("جمع پرداخت", rials(report.paidAmount), false));
+        return lines;
+    }
+
+    private static Bill parse(ReadableMap item) {
+        String barcode = string(item, "barcode");
+        return barcode != null ? Bill.fromBarcode(barcode) : Bill.parse(string(item, "billId"), string(item, "paymentId"));
+    }
+
+    private static Map<String, Object> toMap(Bill bill) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("billId", bill.billId);
+        map.put("paymentId", bill.paymentId);
+        map.put("amount", (double) bill.amount);
+        map.put("serviceType", (double) bill.serviceType);
+        map.put("serviceName", bill.serviceName());
+        return map;
+    }
+
+    private static String rials(long amount) {
+        return String.format(Locale.US, "%,d ریال", amount);
+    }
+
+    private static String string(ReadableMap map, String key) {
+        if (!map.hasKey(key) || map.isNull(key)) {
+            return null;
+        }
+        String value = map.getString(key);
+        return value == null || value.isEmpty() ? null : value;
+    }
+}
@@ -0,0 +1,90 @@
+package com.sanjabpos;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+// Conversions between org.json values and bridge maps for data the native side keeps on disk.
+final class BridgeJson {
+    private BridgeJson() {
+    }
+
+    static JSONObject toJson(ReadableMap map) {
+        return new JSONObject(map.toHashMap());
+    }
+
+    static WritableMap toWritableMap(JSONObject json) {
+        WritableMap map = Arguments.createMap();
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = json.opt(key);
+            if (value == null || value == JSONObject.NULL) {
+                map.putNull(key);
+            } else if (value instanceof JSONObject) {
+                map.putMap(key, toWritableMap((JSONObject) value));
+            } else if (value instanceof JSONArray) {
+                map.putArray(key, toWritableArray((JSONArray) value));
+            } else if (value instanceof Boolean) {
+                map.putBoolean(key, (Boolean) value);
+            } else if (value instanceof Integer) {
+                map.putInt(key, (Integer) value);
+            } else if (value instanceof Number) {
+                map.putDouble(key, ((Number) value).doubleValue());
+            } else {
+                map.putString(key, value.toString());
+            }
+        }
+        return map;
+    }
+
+    static WritableArray toWritableArray(JSONArray json) {
+        WritableArray array = Arguments.createArray();
+        for (int i = 0; i < json.length(); i++) {
+            Object value = json.opt(i);
+            if (value == null || value == JSONObject.NULL) {
+                array.pushNull();
+            } else if (value instanceof JSONObject) {
+                array.pushMap(toWritableMap((JSONObject) value));
+            } else if (value instanceof JSONArray) {
+                array.pushArray(toWritableArray((JSONArray) value));
+            } else if (value instanceof Boolean) {
+                array.pushBoolean((Boolean) value);
+            } else if (value instanceof Integer) {
+                array.pushInt((Integer) value);
+            } else if (value instanceof Number) {
+                array.pushDouble(((Number) value).doubleValue());
+            } else {
+                array.pushString(value.toString());
+            }
+        }
+        return array;
+    }
+
+    static List<String> toStringList(ReadableArray array) {
+        List<String> list = new ArrayList<>();
+        if (array != null) {
+            for (int i = 0; i < array.size(); i++) {
+                list.add(array.isNull(i) ? null : array.getString(i));
+            }
+        }
+        return list;
+    }
+
+    static WritableArray toWritableArray(List<JSONObject> entries) {
+        WritableArray array = Arguments.createArray();
+        for (JSONObject entry : entries) {
+            array.pushMap(toWritableMap(entry));
+        }
+        return array;
+    }
+}
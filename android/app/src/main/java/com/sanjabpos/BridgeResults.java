@@ -0,0 +1,63 @@
+package com.sanjabpos;
+
+import android.os.Bundle;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+import com.sanjabpos.core.ResultDecoder;
+
+// Adapts PSP result Bundles and the JS result map to the payment-core decoder.
+final class BridgeResults {
+    private BridgeResults() {
+    }
+
+    static ResultDecoder.Source source(Bundle extras) {
+        if (extras == null) {
+            return null;
+        }
+        return new ResultDecoder.Source() {
+            @Override
+            public Iterable<String> keys() {
+                return extras.keySet();
+            }
+
+            @Override
+            public Object get(String key) {
+                return extras.get(key);
+            }
+        };
+    }
+
+    static ResultDecoder.Sink sink(WritableMap result) {
+        return new ResultDecoder.Sink() {
+            @Override
+            public void putString(String key, String value) {
+                result.putString(key, value);
+            }
+
+            @Override
+            public void putInt(String key, int value) {
+                result.putInt(key, value);
+            }
+
+            @Override
+            public void putDouble(String key, double value) {
+                result.putDouble(key, value);
+            }
+
+            @Override
+            public void putNull(String key) {
+                result.putNull(key);
+            }
+
+            @Override
+            public void putInts(String key, String[] names, int[] values, int count) {
+                WritableMap map = Arguments.createMap();
+                for (int i = 0; i < count; i++) {
+                    map.putInt(names[i], values[i]);
+                }
+                result.putMap(key, map);
+            }
+        };
+    }
+}
@@ -0,0 +1,88 @@
+package com.sanjabpos;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.sanjabpos.core.CreditAllocator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Bridges PaymentModule.allocateCredit to CreditAllocator. The basket comes in and
+// the result goes out in tomans, as the screens and /Transaction use them; only
+// payableRials, the amount handed to the PSP, is in rials.
+final class CreditBasket {
+    private static final String DEFAULT_METHOD = "پوز - پوز آبی";
+
+    private CreditBasket() {
+    }
+
+    static Map<String, Object> allocate(ReadableMap basket) {
+        ReadableArray items = basket.getArray("lines");
+        if (items == null) {
+            throw new IllegalArgumentException("اقلام سبد خرید مشخص نشده است");
+        }
+        List<CreditAllocator.Line> lines = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            ReadableMap item = items.getMap(i);
+            double maxCredit = number(item, "maxPayAmountByCashBack");
+            lines.add(new CreditAllocator.Line(item.getInt("lineId"), string(item, "title"),
+                    CreditAllocator.parseToman(item.getString("amount")),
+                    maxCredit > 0 ? Math.round(maxCredit * 10) : -1,
+                    CreditAllocator.basisPoints(number(item, "cashbackPercentage")),
+                    CreditAllocator.basisPoints(number(item, "branchSharePercentage"))));
+        }
+        double credit = number(basket, "credit");
+        if (credit < 0) {
+            throw new IllegalArgumentException("اعتبار نادرست است");
+        }
+        boolean useCredit = basket.hasKey("useCredit") && basket.getBoolean("useCredit");
+        String method = basket.hasKey("paymentMethod") && !basket.isNull("paymentMethod")
+                ? basket.getString("paymentMethod") : DEFAULT_METHOD;
+
+        CreditAllocator.Allocation allocation = CreditAllocator.allocate(lines, Math.round(credit * 10), useCredit);
+        List<Object> cashBackDto = new ArrayList<>(allocation.shares.size());
+        List<Object> results = new ArrayList<>(allocation.shares.size());
+        for (CreditAllocator.Share share : allocation.shares) {
+            Map<String, Object> dto = new HashMap<>();
+            dto.put("lineId", (double) share.line.lineId);
+            dto.put("lineTitle", share.line.title);
+            dto.put("price", CreditAllocator.formatToman(share.line.price));
+            dto.put("payFromCredit", toman(share.payFromCredit));
+            dto.put("description", "");
+            dto.put("PaymentMethod", method);
+            cashBackDto.add(dto);
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("lineId", (double) share.line.lineId);
+            result.put("payFromCredit", toman(share.payFromCredit));
+            result.put("payBackAmount", toman(share.payBack));
+            result.put("branchShare", toman(share.branchShare));
+            result.put("totalPrice", toman(share.totalPrice));
+            result.put("totalPriceWithoutCreditPayment", toman(share.line.price));
+            results.add(result);
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put("cashBackDto", cashBackDto);
+        result.put("results", results);
+        result.put("totalAmount", toman(allocation.total));
+        result.put("creditUsed", toman(allocation.creditUsed));
+        result.put("finalAmountToPay", toman(allocation.payable));
+        result.put("payableRials", (double) allocation.payable);
+        result.put("payBackAmount", toman(allocation.payBack));
+        return result;
+    }
+
+    private static double toman(long rials) {
+        return rials / 10.0;
+    }
+
+    private static double number(ReadableMap map, String key) {
+        return map.hasKey(key) && !map.isNull(key) ? map.getDouble(key) : 0;
+    }
+
+    private static String string(ReadableMap map, String key) {
+        return map.hasKey(key) && !map.isNull(key) ? map.getString(key) : "";
+    }
+}
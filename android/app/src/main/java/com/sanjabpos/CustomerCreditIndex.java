@@ -0,0 +1,178 @@
+package com.sanjabpos;
+
+import android.util.Log;
+
+import com.sanjabpos.core.CustomerTable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+
+// On-device customer/credit index for one branch: a CustomerTable kept current with
+// incremental deltas from the backend and with the credit movements of sales made on
+// this terminal, read and written here in the JSON shapes JS and the API use.
+public class CustomerCreditIndex {
+    private static final String TAG = "CustomerCreditIndex";
+
+    private final File file;
+    private final CustomerTable table = new CustomerTable();
+
+    public CustomerCreditIndex(File directory, int branchId) {
+        this.file = new File(directory, "customer-credit-" + branchId + ".bin");
+        try {
+            table.load(file);
+        } catch (IOException e) {
+            // A damaged file only costs a full resync from version 0.
+            Log.e(TAG, "Failed to load customer index", e);
+        }
+    }
+
+    public long getVersion() {
+        return table.getVersion();
+    }
+
+    public int size() {
+        return table.size();
+    }
+
+    public JSONObject lookup(String cardNumber) {
+        CustomerTable.Customer customer = table.get(cardNumber);
+        return customer == null ? null : toJson(customer);
+    }
+
+    public void put(String cardNumber, JSONObject data) {
+        table.put(cardNumber, fromJson(data));
+    }
+
+    public int cardCount() {
+        return table.cardCount();
+    }
+
+    // The customer a swiped card is linked to, with its key as cardNumber, or null.
+    public JSONObject lookupByPan(String hashedPan) {
+        String cardNumber = table.keyForPan(hashedPan);
+        CustomerTable.Customer customer = cardNumber == null ? null : table.get(cardNumber);
+        if (customer == null) {
+            return null;
+        }
+        JSONObject json = toJson(customer);
+        try {
+            json.put("cardNumber", cardNumber);
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to encode customer", e);
+        }
+        return json;
+    }
+
+    // Links a swiped card to a customer key, replacing any earlier link of that card.
+    public void linkCard(String hashedPan, String cardNumber) {
+        table.linkCard(hashedPan, cardNumber);
+    }
+
+    // Applies a delta page: { version, customers: [{ cardNumber, ..., hashedPans, deleted }] }.
+    // Returns the number of customers changed.
+    public int applyDelta(JSONObject delta) {
+        JSONArray changes = delta.optJSONArray("customers");
+        int changed = 0;
+        if (changes != null) {
+            for (int i = 0; i < changes.length(); i++) {
+                JSONObject change = changes.optJSONObject(i);
+                if (change == null) {
+                    continue;
+                }
+                String cardNumber = optText(change, "cardNumber");
+                if (cardNumber == null) {
+                    cardNumber = optText(change, "userPhoneNumber");
+                }
+                if (cardNumber == null) {
+                    continue;
+                }
+                if (change.optBoolean("deleted")) {
+                    table.remove(cardNumber);
+                } else {
+                    table.put(cardNumber, fromJson(change));
+                    JSONArray hashedPans = change.optJSONArray("hashedPans");
+                    for (int p = 0; hashedPans != null && p < hashedPans.length(); p++) {
+                        String hashedPan = hashedPans.optString(p, null);
+                        if (hashedPan != null && !hashedPan.isEmpty()) {
+                            table.linkCard(hashedPan, cardNumber);
+                        }
+                    }
+                }
+                changed++;
+            }
+        }
+        table.advanceVersion(delta.optLong("version", table.getVersion()));
+        return changed;
+    }
+
+    // Mirrors a settled sale locally until the next delta brings the server's figure.
+    public JSONObject reconcile(String cardNumber, long payFromCredit, long payBackAmount) {
+        CustomerTable.Customer customer = table.reconcile(cardNumber, payFromCredit, payBackAmount);
+        return customer == null ? null : toJson(customer);
+    }
+
+    // Callers serialize saves on a single I/O thread; lookups do not wait for them.
+    public void save() {
+        try {
+            table.save(file);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save customer index", e);
+        }
+    }
+
+    private static CustomerTable.Customer fromJson(JSONObject data) {
+        CustomerTable.Customer customer = new CustomerTable.Customer();
+        customer.credit = parseCredit(data.opt("credit"));
+        customer.userPhoneNumber = optText(data, "userPhoneNumber");
+        customer.subscriptionCode = optText(data, "subscriptionCode");
+        customer.name = optText(data, "name");
+        return customer;
+    }
+
+    // optString would turn a JSON null into the text "null".
+    private static String optText(JSONObject data, String key) {
+        return data.isNull(key) ? null : data.optString(key);
+    }
+
+    // The API sends credit as a (sometimes comma-grouped) string.
+    private static long parseCredit(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value == null) {
+            return 0;
+        }
+        String text = value.toString();
+        long credit = 0;
+        boolean negative = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                credit = credit * 10 + (c - '0');
+            } else if (c == '.') {
+                break;
+            } else if (c == '-' && credit == 0) {
+                negative = true;
+            }
+        }
+        return negative ? -credit : credit;
+    }
+
+    private static JSONObject toJson(CustomerTable.Customer customer) {
+        JSONObject json = new JSONObject();
+        try {
+            // Same shape as CustomerResponse.Data so screens can use it unchanged.
+            json.put("credit", String.valueOf(customer.credit));
+            json.putOpt("userPhoneNumber", customer.userPhoneNumber);
+            json.putOpt("subscriptionCode", customer.subscriptionCode);
+            json.putOpt("name", customer.name);
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to encode customer", e);
+        }
+        return json;
+    }
+}
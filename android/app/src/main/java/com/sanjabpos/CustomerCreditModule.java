@@ -0,0 +1,189 @@
+package com.sanjabpos;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+import com.sanjabpos.core.SyncScheduler;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class CustomerCreditModule extends ReactContextBaseJavaModule {
+    private static final int MAX_DELTA_PAGES = 100;
+    static final String SYNC_JOB_PREFIX = "customers:";
+
+    // One per process, shared with background runs that start without React.
+    private static final Map<Integer, CustomerCreditIndex> indexes = new HashMap<>();
+    private static final ExecutorService io = Executors.newSingleThreadExecutor();
+    // Branch synced in the background; only the selected branch is kept in sync.
+    private int backgroundBranchId = -1;
+
+    public CustomerCreditModule(ReactApplicationContext reactContext) {
+        super(reactContext);
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return "CustomerCreditModule";
+    }
+
+    private CustomerCreditIndex index(int branchId) {
+        return index(getReactApplicationContext(), branchId);
+    }
+
+    private static CustomerCreditIndex index(Context context, int branchId) {
+        synchronized (indexes) {
+            CustomerCreditIndex index = indexes.get(branchId);
+            if (index == null) {
+                index = new CustomerCreditIndex(context.getFilesDir(), branchId);
+                indexes.put(branchId, index);
+            }
+            return index;
+        }
+    }
+
+    @ReactMethod
+    public void lookup(String cardNumber, int branchId, Promise promise) {
+        if (cardNumber == null || cardNumber.isEmpty()) {
+            promise.reject("INVALID_INPUT", "شماره کارت نباید خالی باشد");
+            return;
+        }
+        JSONObject customer = index(branchId).lookup(cardNumber);
+        promise.resolve(customer == null ? null : BridgeJson.toWritableMap(customer));
+    }
+
+    // Resolves the customer a swiped card (hashed PAN from swipeCardForHash) is linked to.
+    @ReactMethod
+    public void lookupByPan(String hashedPan, int branchId, Promise promise) {
+        if (hashedPan == null || hashedPan.isEmpty()) {
+            promise.reject("INVALID_INPUT", "کارت خوانده نشد");
+            return;
+        }
+        JSONObject customer = index(branchId).lookupByPan(hashedPan);
+        promise.resolve(customer == null ? null : BridgeJson.toWritableMap(customer));
+    }
+
+    // Links a swiped card to the customer the cashier identified by phone number.
+    @ReactMethod
+    public void linkCard(String hashedPan, String cardNumber, int branchId) {
+        if (hashedPan == null || hashedPan.isEmpty() || cardNumber == null || cardNumber.isEmpty()) {
+            return;
+        }
+        CustomerCreditIndex index = index(branchId);
+        index.linkCard(hashedPan, cardNumber);
+        io.execute(index::save);
+    }
+
+    // Stores a customer fetched from /Customer/credit after a local miss.
+    @ReactMethod
+    public void remember(String cardNumber, int branchId, ReadableMap customer) {
+        if (cardNumber == null || cardNumber.isEmpty() || customer == null) {
+            return;
+        }
+        CustomerCreditIndex index = index(branchId);
+        index.put(cardNumber, BridgeJson.toJson(customer));
+        io.execute(index::save);
+    }
+
+    @ReactMethod
+    public void reconcile(String cardNumber, int branchId, double payFromCredit, double payBackAmount, Promise promise) {
+        CustomerCreditIndex index = index(branchId);
+        JSONObject customer = index.reconcile(cardNumber, Math.round(payFromCredit), Math.round(payBackAmount));
+        if (customer != null) {
+            io.execute(index::save);
+        }
+        promise.resolve(customer == null ? null : BridgeJson.toWritableMap(customer));
+    }
+
+    // Pulls changes since the stored version, page by page, from /Customer/delta.
+    @ReactMethod
+    public void sync(int branchId, Promise promise) {
+        io.execute(() -> {
+            CustomerCreditIndex index = index(branchId);
+            int changed;
+            try {
+                changed = pull(getReactApplicationContext(), branchId, index);
+            } catch (IOException | JSONException e) {
+                promise.reject("SYNC_FAILED", e.getMessage());
+                return;
+            }
+            WritableMap result = Arguments.createMap();
+            result.putInt("changed", changed);
+            result.putInt("size", index.size());
+            result.putInt("cards", index.cardCount());
+            result.putDouble("version", index.getVersion());
+            promise.resolve(result);
+        });
+    }
+
+    // Keeps the branch's index in sync from BackgroundSync every intervalMs, starting
+    // now, on a network and a battery that is not low. The pull itself still runs on
+    // io, so it never overlaps one started from sync(). Replaces the job of the branch
+    // synced before.
+    @ReactMethod
+    public void syncInBackground(int branchId, double intervalMs) {
+        if (intervalMs <= 0) {
+            return;
+        }
+        BackgroundSync sync = BackgroundSync.get(getReactApplicationContext());
+        if (backgroundBranchId != -1 && backgroundBranchId != branchId) {
+            sync.unregister(SYNC_JOB_PREFIX + backgroundBranchId);
+        }
+        backgroundBranchId = branchId;
+        sync.register(SYNC_JOB_PREFIX + branchId, SyncScheduler.NETWORK | SyncScheduler.BATTERY_NOT_LOW,
+                (long) intervalMs, syncJob(getReactApplicationContext(), branchId));
+    }
+
+    static BackgroundSync.Job syncJob(Context context, int branchId) {
+        Context application = context.getApplicationContext();
+        return () -> {
+            Future<Integer> pulled = io.submit(() -> pull(application, branchId, index(application, branchId)));
+            try {
+                pulled.get();
+                return SyncScheduler.Result.SUCCESS;
+            } catch (ExecutionException e) {
+                return SyncScheduler.Result.RETRY;
+            }
+        };
+    }
+
+    private static int pull(Context context, int branchId, CustomerCreditIndex index) throws IOException, JSONException {
+        int changed = 0;
+        for (int page = 0; page < MAX_DELTA_PAGES; page++) {
+            long since = index.getVersion();
+            JSONObject response = BackendHttp.getJson(context, "/Customer/delta?branchId=" + branchId + "&since=" + since);
+            JSONObject data = response.optJSONObject("Data");
+            if (data == null) {
+                break;
+            }
+            changed += index.applyDelta(data);
+            JSONArray customers = data.optJSONArray("customers");
+            if (!data.optBoolean("hasMore") || customers == null || customers.length() == 0
+                    || index.getVersion() == since) {
+                break;
+            }
+        }
+        if (changed > 0) {
+            index.save();
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,307 @@
+package com.sanjabpos;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
+import com.facebook.react.bridge.WritableMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Cache;
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+// Transport for the JS apiClient (see application/services/nativeHttp.ts). Requests
+// run on OkHttp's dispatcher threads, and JSON bodies are parsed there and handed
+// to JS as native maps, so neither the download nor the parse touches the JS thread.
+public class HttpClientModule extends NativeHttpClientModuleSpec {
+    // The disk cache is keyed by URL alone, so a response fetched with one user's
+    // token could be served to the next user. Authenticated requests skip it.
+    private static final CacheControl NO_STORE = new CacheControl.Builder().noCache().noStore().build();
+
+    private final OkHttpClient client;
+    private final Map<String, Call> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong fromCache = new AtomicLong();
+    private final AtomicLong revalidated = new AtomicLong();
+    private final AtomicLong http2 = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong totalMs = new AtomicLong();
+
+    public HttpClientModule(ReactApplicationContext reactContext) {
+        super(reactContext);
+        client = ApiHttpClient.get(reactContext);
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @ReactMethod
+    @Override
+    public void request(ReadableMap config, Promise promise) {
+        Request request;
+        String requestId = config.hasKey("requestId") ? config.getString("requestId") : null;
+        String responseType = config.hasKey("responseType") ? config.getString("responseType") : "json";
+        try {
+            request = buildRequest(config);
+        } catch (IllegalArgumentException e) {
+            promise.reject("INVALID_INPUT", e.getMessage());
+            return;
+        }
+
+        Call call = client.newCall(request);
+        if (config.hasKey("timeoutMs") && config.getDouble("timeoutMs") > 0) {
+            call.timeout().timeout((long) config.getDouble("timeoutMs"), TimeUnit.MILLISECONDS);
+        }
+        if (requestId != null) {
+            inFlight.put(requestId, call);
+        }
+        requests.incrementAndGet();
+        long start = System.nanoTime();
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                done();
+                fail(call, e);
+            }
+
+            private void fail(Call call, IOException e) {
+                failures.incrementAndGet();
+                if (call.isCanceled()) {
+                    promise.reject("CANCELED", "درخواست لغو شد");
+                } else if (e instanceof InterruptedIOException) {
+                    promise.reject("TIMEOUT", "زمان درخواست به پایان رسید", e);
+                } else {
+                    promise.reject("NETWORK_ERROR", "خطا در ارتباط با سرور", e);
+                }
+            }
+
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                try (ResponseBody body = response.body()) {
+                    WritableMap result = Arguments.createMap();
+                    result.putInt("status", response.code());
+                    result.putString("statusText", response.message());
+                    result.putMap("headers", headers(response.headers()));
+                    putBody(result, body == null ? "" : body.string(), responseType);
+                    result.putString("source", source(response));
+                    result.putDouble("durationMs", (System.nanoTime() - start) / 1e6);
+                    promise.resolve(result);
+                } catch (IOException e) {
+                    fail(call, e);
+                } finally {
+                    done();
+                }
+            }
+
+            private void done() {
+                if (requestId != null) {
+                    inFlight.remove(requestId);
+                }
+                totalMs.addAndGet(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        });
+    }
+
+    @ReactMethod
+    @Override
+    public void cancel(String requestId) {
+        Call call = inFlight.remove(requestId);
+        if (call != null) {
+            call.cancel();
+        }
+    }
+
+    // Opens a connection to the backend ahead of the first real request. Any status
+    // counts; only a transport failure resolves false.
+    @ReactMethod
+    @Override
+    public void warmUp(String url, Promise promise) {
+        Request request;
+        try {
+            request = new Request.Builder().url(url).head().build();
+        } catch (IllegalArgumentException e) {
+            promise.resolve(false);
+            return;
+        }
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                promise.resolve(false);
+            }
+
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                response.close();
+                promise.resolve(true);
+            }
+        });
+    }
+
+    @ReactMethod
+    @Override
+    public void getStats(Promise promise) {
+        WritableMap stats = Arguments.createMap();
+        long total = requests.get();
+        stats.putDouble("requests", total);
+        stats.putDouble("fromCache", fromCache.get());
+        stats.putDouble("revalidated", revalidated.get());
+        stats.putDouble("http2", http2.get());
+        stats.putDouble("failures", failures.get());
+        stats.putDouble("avgMs", total == 0 ? 0 : (double) totalMs.get() / total);
+        stats.putInt("connections", client.connectionPool().connectionCount());
+        stats.putInt("idleConnections", client.connectionPool().idleConnectionCount());
+        Cache cache = ApiHttpClient.cache();
+        if (cache != null) {
+            try {
+                stats.putDouble("cacheBytes", cache.size());
+            } catch (IOException e) {
+                stats.putDouble("cacheBytes", -1);
+            }
+        }
+        promise.resolve(stats);
+    }
+
+    @ReactMethod
+    @Override
+    public void clearCache(Promise promise) {
+        Cache cache = ApiHttpClient.cache();
+        try {
+            if (cache != null) {
+                cache.evictAll();
+            }
+            client.connectionPool().evictAll();
+            promise.resolve(true);
+        } catch (IOException e) {
+            promise.reject("CACHE_ERROR", e.getMessage(), e);
+        }
+    }
+
+    private static Request buildRequest(ReadableMap config) {
+        String url = config.getString("url");
+        String method = config.hasKey("method") ? config.getString("method").toUpperCase(Locale.ROOT) : "GET";
+        Request.Builder builder = new Request.Builder().url(url);
+
+        String contentType = null;
+        boolean authenticated = false;
+        if (config.hasKey("headers") && !config.isNull("headers")) {
+            ReadableMap headers = config.getMap("headers");
+            ReadableMapKeySetIterator keys = headers.keySetIterator();
+            while (keys.hasNextKey()) {
+                String name = keys.nextKey();
+                if (headers.isNull(name)) {
+                    continue;
+                }
+                String value = headers.getString(name);
+                // OkHttp negotiates gzip itself and only decompresses when it did
+                if ("accept-encoding".equalsIgnoreCase(name)) {
+                    continue;
+                }
+                if ("content-type".equalsIgnoreCase(name)) {
+                    contentType = value;
+                }
+                if ("authorization".equalsIgnoreCase(name)) {
+                    authenticated = true;
+                }
+                builder.header(name, value);
+            }
+        }
+
+        String body = config.hasKey("body") && !config.isNull("body") ? config.getString("body") : null;
+        RequestBody requestBody = null;
+        boolean bodyless = "GET".equals(method) || "HEAD".equals(method);
+        if (!bodyless && (body != null || "POST".equals(method) || "PUT".equals(method) || "PATCH".equals(method))) {
+            MediaType mediaType = contentType == null ? null : MediaType.parse(contentType);
+            requestBody = RequestBody.create(body == null ? "" : body, mediaType);
+        }
+        if (authenticated) {
+            builder.cacheControl(NO_STORE);
+        }
+        return builder.method(method, requestBody).build();
+    }
+
+    private String source(Response response) {
+        if (response.protocol() == Protocol.HTTP_2) {
+            http2.incrementAndGet();
+        }
+        Response network = response.networkResponse();
+        if (response.cacheResponse() == null) {
+            return "network";
+        }
+        if (network == null) {
+            fromCache.incrementAndGet();
+            return "cache";
+        }
+        if (network.code() == 304) {
+            revalidated.incrementAndGet();
+            return "revalidated";
+        }
+        return "network";
+    }
+
+    private static WritableMap headers(Headers headers) {
+        WritableMap map = Arguments.createMap();
+        for (String name : headers.names()) {
+            StringBuilder value = new StringBuilder();
+            for (String part : headers.values(name)) {
+                if (value.length() > 0) {
+                    value.append(", ");
+                }
+                value.append(part);
+            }
+            map.putString(name.toLowerCase(Locale.ROOT), value.toString());
+        }
+        return map;
+    }
+
+    // Bodies that are not valid JSON go to JS as text, like axios does
+    private static void putBody(WritableMap result, String text, String responseType) {
+        if (!"json".equals(responseType) || text.isEmpty()) {
+            result.putString("data", text);
+            return;
+        }
+        try {
+            Object value = new JSONTokener(text).nextValue();
+            if (value instanceof JSONObject) {
+                result.putMap("data", BridgeJson.toWritableMap((JSONObject) value));
+                return;
+            }
+            if (value instanceof JSONArray) {
+                result.putArray("data", BridgeJson.toWritableArray((JSONArray) value));
+                return;
+            }
+        } catch (JSONException e) {
+            // fall through to text
+        }
+        result.putString("data", text);
+    }
+}
@@ -0,0 +1,336 @@
+package com.sanjabpos;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.graphics.Bitmap;
+
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+import com.sanjabpos.core.PaymentValidation;
+import com.sanjabpos.core.ResultDecoder;
+import com.sanjabpos.core.SearchKey;
+import com.sanjabpos.core.TashimShare;
+import com.sanjabpos.core.TashimSplit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ir.ikccc.externalpayment.CheckUpdateReqest;
+import ir.ikccc.externalpayment.Installment;
+import ir.ikccc.externalpayment.PrinterRequest;
+import ir.ikccc.externalpayment.SearchRequest;
+import ir.ikccc.externalpayment.SwipeCardRequest;
+import ir.ikccc.externalpayment.SwipeCardForRequestHashedPan;
+import ir.ikccc.externalpayment.TashimAccount;
+import ir.ikccc.externalpayment.TransactionRequest;
+import ir.ikccc.externalpayment.TransactionType;
+
+import static ir.ikccc.externalpayment.Library.ASAN_KHARID_REQUEST_CODE;
+import static ir.ikccc.externalpayment.Library.BILL_REQUEST_CODE;
+import static ir.ikccc.externalpayment.Library.CHECK_UPDATE_REQUEST_CODE;
+import static ir.ikccc.externalpayment.Library.ICC_REQUEST_CODE;
+import static ir.ikccc.externalpayment.Library.MEDICAL_ASAN_KHARID_REQUEST_CODE;
+import static ir.ikccc.externalpayment.Library.PRINT_BIG_BITMAP_REQUEST_CODE;
+import static ir.ikccc.externalpayment.Library.PRINT_REQUEST_CODE;
+import static ir.ikccc.externalpayment.Library.PURCHASE_REQUEST_CODE;
+import static ir.ikccc.externalpayment.Library.SEARCH_REQUEST_CODE;
+import static ir.ikccc.externalpayment.Library.SWIPE_CARD_FORPAN_REQUEST_CODE;
+import static ir.ikccc.externalpayment.Library.SWIPE_CARD_REQUEST_CODE;
+import static ir.ikccc.externalpayment.Library.TASHIM_REQUEST_CODE;
+
+// IKC (ir.ikccc.externalpayment) terminals. Besides the common operations it offers
+// the IKC-only requests PaymentModule exposes (card swipe, APDU, installments...).
+public class IkcPaymentProvider implements PaymentProvider {
+    private static final int[] REQUEST_CODES = {
+            ASAN_KHARID_REQUEST_CODE, BILL_REQUEST_CODE, CHECK_UPDATE_REQUEST_CODE, ICC_REQUEST_CODE,
+            MEDICAL_ASAN_KHARID_REQUEST_CODE, PRINT_BIG_BITMAP_REQUEST_CODE, PRINT_REQUEST_CODE,
+            PURCHASE_REQUEST_CODE, SEARCH_REQUEST_CODE, SWIPE_CARD_FORPAN_REQUEST_CODE,
+            SWIPE_CARD_REQUEST_CODE, TASHIM_REQUEST_CODE
+    };
+
+    // Fields every IKC transaction result carries.
+    private static final ResultDecoder.Schema TRANSACTION = new ResultDecoder.Schema()
+            .amount("paymentAmount").string("paymentId").string("message").string("cardNumber")
+            .string("cardBank").string("referenceCode").dateTime("dateTime").string("merchantID")
+            .string("terminalID").string("stan").string("txResponseCode").string("txResponseTitle")
+            .string("phoneNumber").string("serial").string("merchantName");
+
+    private static final ResultDecoder DECODER = new ResultDecoder()
+            .register(TRANSACTION, PURCHASE_REQUEST_CODE, TASHIM_REQUEST_CODE,
+                    MEDICAL_ASAN_KHARID_REQUEST_CODE, SEARCH_REQUEST_CODE)
+            .register(TRANSACTION.extend().string("installmentCount").string("installmentDate"),
+                    ASAN_KHARID_REQUEST_CODE)
+            .register(TRANSACTION.extend().string("billId").string("billPaymentId"), BILL_REQUEST_CODE)
+            .register(new ResultDecoder.Schema().string("message"),
+                    PRINT_REQUEST_CODE, PRINT_BIG_BITMAP_REQUEST_CODE)
+            .register(new ResultDecoder.Schema().string("message").string("currentVersion")
+                    .string("lastVersion").string("phoneNumber").string("serial").string("merchantName"),
+                    CHECK_UPDATE_REQUEST_CODE)
+            .register(new ResultDecoder.Schema().string("message").string("cardNumber"),
+                    SWIPE_CARD_REQUEST_CODE)
+            .register(new ResultDecoder.Schema().string("message").string("cardNumber").string("merchantID")
+                    .string("terminalID").string("merchantName").string("serial"),
+                    SWIPE_CARD_FORPAN_REQUEST_CODE)
+            .register(new ResultDecoder.Schema().string("iccresponse").integer("errorcode"), ICC_REQUEST_CODE);
+
+    private final ReceiptRenderer renderer = new ReceiptRenderer();
+    private volatile String templateKey = ReceiptTemplate.DEFAULT_KEY;
+
+    @Override
+    public String getName() {
+        return "ikc";
+    }
+
+    @Override
+    public String getResultEvent() {
+        return "PaymentResult";
+    }
+
+    @Override
+    public boolean handlesResult(int requestCode) {
+        for (int code : REQUEST_CODES) {
+            if (code == requestCode) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public PaymentCall purchase(String amount, String id, boolean print, boolean showReceipt) {
+        PaymentValidation.requireAmountAndId(amount, id);
+        return new PaymentCall(PURCHASE_REQUEST_CODE, activity -> {
+            TransactionRequest transactionRequest = transaction(activity, TransactionType.PURCHASE_WITH_ID, print, showReceipt);
+            transactionRequest.setAmount(amount);
+            transactionRequest.setId(id);
+            return transactionRequest.send();
+        }).journaled(TransactionType.PURCHASE_WITH_ID.name(), amount, id);
+    }
+
+    @Override
+    public PaymentCall tashim(String amount, String id, List<TashimShare> shares, boolean print, boolean showReceipt) {
+        PaymentValidation.requireAmountAndId(amount, id);
+        long total = TashimSplit.parseRials(amount);
+        // IKC takes whole percents and splits the rials itself.
+        ArrayList<TashimAccount> accounts = new ArrayList<>();
+        for (TashimSplit.Allocation allocation : TashimSplit.allocate(total, shares)) {
+            int percent = allocation.wholePercent(total);
+            if (percent < 0) {
+                throw new IllegalArgumentException("سهم هر حساب در این پایانه باید درصد صحیح باشد");
+            }
+            accounts.add(new TashimAccount(allocation.iban, percent));
+        }
+        return new PaymentCall(TASHIM_REQUEST_CODE, activity -> {
+            TransactionRequest transactionRequest = transaction(activity, TransactionType.TASHIM, print, showReceipt);
+            transactionRequest.setTashimAccounts(accounts);
+            transactionRequest.setAmount(amount);
+            transactionRequest.setId(id);
+            return transactionRequest.send();
+        }).journaled(TransactionType.TASHIM.name(), amount, id);
+    }
+
+    @Override
+    public PaymentCall bill(String billId, String billPaymentId, boolean print, boolean showReceipt) {
+        PaymentValidation.requireBill(billId, billPaymentId);
+        return new PaymentCall(BILL_REQUEST_CODE, activity -> {
+            TransactionRequest transactionRequest = transaction(activity, TransactionType.BILL_PAYMENT, print, showReceipt);
+            transactionRequest.setBillId(billId);
+            transactionRequest.setBillPaymentId(billPaymentId);
+            return transactionRequest.send();
+        }).journaled(TransactionType.BILL_PAYMENT.name(), null, billPaymentId);
+    }
+
+    @Override
+    public PaymentCall search(SearchKey key, String value, String persianDate) {
+        PaymentValidation.requireSearchValue(key, value);
+        return new PaymentCall(SEARCH_REQUEST_CODE, activity -> {
+            SearchRequest searchRequest;
+            switch (key) {
+                case STAN:
+                    searchRequest = new SearchRequest(activity, SearchRequest.SearchType.SEARCH_BY_STAN);
+                    searchRequest.setStan(value);
+                    break;
+                case RRN:
+                    searchRequest = new SearchRequest(activity, SearchRequest.SearchType.SEARCH_BY_RRN);
+                    searchRequest.setRrn(value);
+                    break;
+                default:
+                    searchRequest = new SearchRequest(activity, SearchRequest.SearchType.SEARCH_BY_PAYMENT_ID);
+                    searchRequest.setPaymentId(value);
+                    searchRequest.setPersianDate(persianDate);
+                    break;
+            }
+            return searchRequest.send();
+        });
+    }
+
+    static List<ReceiptRenderer.Line> receiptLines(String[] leftTexts, String[] rightTexts, String[] centerTexts) {
+        ArrayList<ReceiptRenderer.Line> lines = new ArrayList<>();
+
+        // Add left and right aligned lines
+        if (leftTexts != null && rightTexts != null) {
+            int maxLines = Math.max(leftTexts.length, rightTexts.length);
+            for (int i = 0; i < maxLines; i++) {
+                String leftText = i < leftTexts.length ? leftTexts[i] : "";
+                String rightText = i < rightTexts.length ? rightTexts[i] : "";
+                lines.add(new ReceiptRenderer.Line(rightText, leftText, false));
+            }
+        }
+
+        // Add center aligned lines
+        if (centerTexts != null) {
+            for (String centerText : centerTexts) {
+                lines.add(new ReceiptRenderer.Line(centerText, "", true));
+            }
+        }
+        return lines;
+    }
+
+    static List<ReceiptRenderer.Line> sampleLines() {
+        ArrayList<ReceiptRenderer.Line> lines = new ArrayList<>();
+        lines.add(new ReceiptRenderer.Line("right", "1-left", false));
+        lines.add(new ReceiptRenderer.Line("right", "2-left", false));
+        lines.add(new ReceiptRenderer.Line("right", "3-left", false));
+        lines.add(new ReceiptRenderer.Line("right", "4-left", false));
+        lines.add(new ReceiptRenderer.Line("5-center", "", true));
+        lines.add(new ReceiptRenderer.Line("", "6-center", false));
+        lines.add(new ReceiptRenderer.Line("right", "7-left", false));
+        return lines;
+    }
+
+    // The terminal printer as seen by PrintSpooler; outcomes arrive as activity results.
+    static PrintSpooler.Printer printer() {
+        return new PrintSpooler.Printer() {
+            @Override
+            public boolean print(Activity activity, Bitmap receipt, boolean big) {
+                PrinterRequest printerRequest = new PrinterRequest(activity);
+                return big ? printerRequest.sendBigBitmap(receipt) : printerRequest.send(receipt);
+            }
+
+            @Override
+            public boolean printImagePath(Activity activity, String imagePath) {
+                return new PrinterRequest(activity).sendImagePath(imagePath);
+            }
+
+            @Override
+            public int resultRequestCode(boolean big) {
+                return big ? PRINT_BIG_BITMAP_REQUEST_CODE : PRINT_REQUEST_CODE;
+            }
+        };
+    }
+
+    String getTemplateKey() {
+        return templateKey;
+    }
+
+    // Header and footer come from the active template (see setReceiptTemplate).
+    void setReceiptTemplate(ReceiptTemplate template) {
+        renderer.setTemplate(template);
+        templateKey = template.key;
+    }
+
+    ReceiptRenderer getRenderer() {
+        return renderer;
+    }
+
+    PaymentCall billInquiry(String billId, String billPaymentId, boolean print, boolean showReceipt) {
+        return new PaymentCall(BILL_REQUEST_CODE, activity -> {
+            TransactionRequest transactionRequest = transaction(activity, TransactionType.BILL_INQUIRY, print, showReceipt);
+            transactionRequest.setBillId(billId);
+            transactionRequest.setBillPaymentId(billPaymentId);
+            return transactionRequest.send();
+        });
+    }
+
+    PaymentCall checkUpdate() {
+        return new PaymentCall(CHECK_UPDATE_REQUEST_CODE, activity -> new CheckUpdateReqest(activity).send());
+    }
+
+    PaymentCall swipeCard() {
+        return new PaymentCall(SWIPE_CARD_REQUEST_CODE, activity -> new SwipeCardRequest(activity).send());
+    }
+
+    PaymentCall swipeCardForHash() {
+        return new PaymentCall(SWIPE_CARD_FORPAN_REQUEST_CODE,
+                activity -> new SwipeCardForRequestHashedPan(activity).send());
+    }
+
+    PaymentCall sendApdu(String apdu) {
+        PaymentValidation.requireApdu(apdu);
+        return new PaymentCall(ICC_REQUEST_CODE, activity -> {
+            TransactionRequest transactionRequest = new TransactionRequest(activity);
+            transactionRequest.setRequestType(TransactionType.ICCRead.getTransactionType());
+            transactionRequest.setSendRequestCommand(apdu);
+            return transactionRequest.send();
+        });
+    }
+
+    PaymentCall asanKharid(String amount, int installmentCount, String installmentDate, boolean print, boolean showReceipt) {
+        PaymentValidation.requireInstallments(amount, installmentDate);
+        return new PaymentCall(ASAN_KHARID_REQUEST_CODE, activity -> {
+            TransactionRequest transactionRequest = transaction(activity, TransactionType.EASY_PURCHASE, print, showReceipt);
+            transactionRequest.setAmount(amount);
+            transactionRequest.setInstallmentCount(installmentCount);
+            transactionRequest.setInstallmentDate(installmentDate);
+            return transactionRequest.send();
+        }).journaled(TransactionType.EASY_PURCHASE.name(), amount, null);
+    }
+
+    PaymentCall testMedicalAsanKharid() {
+        return new PaymentCall(MEDICAL_ASAN_KHARID_REQUEST_CODE, activity -> {
+            ArrayList<Installment> installments = new ArrayList<>();
+            Installment e = new Installment();
+            e.setAmount("5000");
+            e.setDate("14010415");
+            installments.add(e);
+            TransactionRequest transactionRequest = transaction(activity, TransactionType.MEDICAL_EASY_PURCHASE, false, false);
+            transactionRequest.setId("20000");
+            transactionRequest.setInstallments(installments);
+            return transactionRequest.send();
+        }).journaled(TransactionType.MEDICAL_EASY_PURCHASE.name(), "5000", "20000");
+    }
+
+    private static TransactionRequest transaction(Activity activity, TransactionType type, boolean print, boolean showReceipt) {
+        TransactionRequest transactionRequest = new TransactionRequest(activity);
+        transactionRequest.setRequestType(type.getTransactionType());
+        transactionRequest.setPrint(print);
+        transactionRequest.setShowReceipt(showReceipt);
+        return transactionRequest;
+    }
+
+    @Override
+    public boolean isApproved(int requestCode, int resultCode, ReadableMap result) {
+        return resultCode == 0;
+    }
+
+    @Override
+    public String resultReference(int requestCode, ReadableMap result) {
+        // A search answers with the stan of the transaction it found, which may be asked for again.
+        if (requestCode == SEARCH_REQUEST_CODE) {
+            return null;
+        }
+        return result.hasKey("stan") && !result.isNull("stan") ? result.getString("stan") : null;
+    }
+
+    @Override
+    public void decodeResult(int requestCode, int resultCode, Intent data, WritableMap result) {
+        DECODER.decode(requestCode, BridgeResults.source(data.getExtras()), BridgeResults.sink(result));
+        if (requestCode == ICC_REQUEST_CODE && !data.hasExtra("iccresponse")) {
+            int iccerror = data.getIntExtra("errorcode", 2);
+            String errorMessage;
+            switch (iccerror) {
+                case 5:
+                    errorMessage = "خطا در برقراری ارتباط با کارت";
+                    break;
+                case 3:
+                    errorMessage = "کد درخواست اشتباه است";
+                    break;
+                default:
+                    errorMessage = "خطای نامشخص";
+                    break;
+            }
+            result.putInt("errorcode", iccerror);
+            result.putString("errorMessage", errorMessage);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.sanjabpos;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.sanjabpos.core.TashimSplit;
+import com.sanjabpos.core.TransactionStore;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// The app's TransactionStore, fed from the three places a sale shows up natively:
+// the PSP result in PaymentEngine, the sale handed to TransactionUploadModule, and
+// the backend's answer for it. All three use the sale's idempotency key, so they
+// land on one row. Writes and reads run on one background thread, which first opens
+// the store: replaying the log of a busy terminal takes seconds, and modules are
+// built on the startup path.
+final class LocalTransactions {
+    private static final String TAG = "LocalTransactions";
+    private static final String FILE_NAME = "transactions.log";
+
+    private static LocalTransactions instance;
+
+    // Set on io; null there if the store file could not be opened.
+    private TransactionStore store;
+    private final ExecutorService io = Executors.newSingleThreadExecutor();
+
+    interface Query<T> {
+        T run(TransactionStore store) throws IOException;
+    }
+
+    interface Callback<T> {
+        void done(T value, IOException error);
+    }
+
+    static synchronized LocalTransactions get(Context context) {
+        if (instance == null) {
+            instance = new LocalTransactions(new File(context.getFilesDir(), FILE_NAME));
+        }
+        return instance;
+    }
+
+    // Tests open their own store rather than the process's.
+    LocalTransactions(File file) {
+        io.execute(() -> {
+            try {
+                store = new TransactionStore(file, TimeZone.getTimeZone("Asia/Tehran"));
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to open transaction store", e);
+            }
+        });
+    }
+
+    // If the store could not be opened, queries fail and reports fall back to the
+    // backend.
+    <T> void query(Query<T> query, Callback<T> callback) {
+        io.execute(() -> {
+            if (store == null) {
+                callback.done(null, new IOException("transaction store is not available"));
+                return;
+            }
+            try {
+                callback.done(query.run(store), null);
+            } catch (IOException e) {
+                callback.done(null, e);
+            }
+        });
+    }
+
+    // An approved card payment. Its sale payload is on the journal entry when JS
+    // attached one, so the lines are usually known from the start.
+    void recordCardPayment(long journalId, String provider, JSONObject journalEntry, JSONObject result) {
+        long createdAt = journalEntry != null ? journalEntry.optLong("createdAt", System.currentTimeMillis())
+                : System.currentTimeMillis();
+        TransactionStore.Sale sale = new TransactionStore.Sale("journal-" + journalId, createdAt);
+        sale.provider = provider;
+        sale.paid = amount(result, "paymentAmountValue", "amountValue");
+        sale.stan = string(result, "stan", "traceNo");
+        sale.rrn = string(result, "referenceCode", null);
+        sale.card = string(result, "cardNumber", "maskedPan");
+        JSONObject intent = journalEntry == null ? null : journalEntry.optJSONObject("intent");
+        JSONObject payload = intent == null ? null : intent.optJSONObject("sale");
+        if (payload != null) {
+            sale.lines = lines(payload, null);
+        }
+        record(sale);
+    }
+
+    // A sale JS handed over for upload, queued or not.
+    void recordSale(String idempotencyKey, String payloadJson) {
+        try {
+            TransactionStore.Sale sale = new TransactionStore.Sale(idempotencyKey, System.currentTimeMillis());
+            sale.lines = lines(new JSONObject(payloadJson), null);
+            record(sale);
+        } catch (JSONException e) {
+            Log.w(TAG, "Sale payload is not JSON; not recorded", e);
+        }
+    }
+
+    // The backend accepted the sale; its per-line results carry the cashback.
+    void recordSettled(String idempotencyKey, String payloadJson, JSONObject response) {
+        if (payloadJson == null) {
+            return;
+        }
+        try {
+            JSONObject data = response == null ? null : response.optJSONObject("Data");
+            TransactionStore.Sale sale = new TransactionStore.Sale(idempotencyKey, System.currentTimeMillis());
+            sale.lines = lines(new JSONObject(payloadJson), data == null ? null : data.optJSONArray("result"));
+            sale.settled = true;
+            record(sale);
+        } catch (JSONException e) {
+            Log.w(TAG, "Sale payload is not JSON; not recorded", e);
+        }
+    }
+
+    private void record(TransactionStore.Sale sale) {
+        io.execute(() -> {
+            if (store == null) {
+                Log.w(TAG, "Transaction store is not available; sale " + sale.key + " not recorded");
+                return;
+            }
+            try {
+                store.record(sale);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to record sale " + sale.key, e);
+            }
+        });
+    }
+
+    // cashBackDto lines of a /Transaction payload; results, when given, are the
+    // backend's per-line answers in the same order.
+    private static List<TransactionStore.Line> lines(JSONObject payload, JSONArray results) {
+        List<TransactionStore.Line> lines = new ArrayList<>();
+        JSONArray items = payload.optJSONArray("cashBackDto");
+        for (int i = 0; items != null && i < items.length(); i++) {
+            JSONObject item = items.optJSONObject(i);
+            if (item == null) {
+                continue;
+            }
+            JSONObject answer = results != null && i < results.length() ? results.optJSONObject(i) : null;
+            long cashback = answer == null ? 0 : Math.round(answer.optDouble("payBackAmount", 0));
+            lines.add(new TransactionStore.Line(item.optInt("lineId"),
+                    item.isNull("PaymentMethod") ? null : item.optString("PaymentMethod"),
+                    parseAmount(item.optString("price", "0")), Math.round(item.optDouble("payFromCredit", 0)),
+                    cashback));
+        }
+        return lines;
+    }
+
+    private static long parseAmount(String price) {
+        try {
+            return TashimSplit.parseRials(price);
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    private static long amount(JSONObject result, String key, String fallback) {
+        double value = result.optDouble(key, result.optDouble(fallback, -1));
+        return Double.isNaN(value) ? -1 : (long) value;
+    }
+
+    private static String string(JSONObject result, String key, String fallback) {
+        String value = result.isNull(key) ? "" : result.optString(key, "");
+        if (value.isEmpty() && fallback != null && !result.isNull(fallback)) {
+            value = result.optString(fallback, "");
+        }
+        return value.isEmpty() ? null : value;
+    }
+
+    static Map<String, Object> toMap(TransactionStore.Sale sale) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("key", sale.key);
+        map.put("time", (double) sale.time);
+        map.put("amount", (double) sale.amount());
+        if (sale.paid >= 0) {
+            map.put("paid", (double) sale.paid);
+        }
+        map.put("stan", sale.stan);
+        map.put("rrn", sale.rrn);
+        map.put("card", sale.card);
+        map.put("provider", sale.provider);
+        map.put("settled", sale.settled);
+        map.put("shift", (double) sale.shift);
+        List<Object> lines = new ArrayList<>();
+        for (TransactionStore.Line line : sale.lines) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("lineId", (double) line.lineId);
+            item.put("method", line.method);
+            item.put("amount", (double) line.amount);
+            item.put("credit", (double) line.credit);
+            item.put("cashback", (double) line.cashback);
+            lines.add(item);
+        }
+        map.put("lines", lines);
+        return map;
+    }
+
+    static List<Object> toList(List<TransactionStore.Sale> sales) {
+        List<Object> list = new ArrayList<>(sales.size());
+        for (TransactionStore.Sale sale : sales) {
+            list.add(toMap(sale));
+        }
+        return list;
+    }
+
+    static Map<String, Object> toMap(TransactionStore.Totals totals) {
+        Map<String, Object> map = sums(totals);
+        List<Object> groups = new ArrayList<>();
+        for (TransactionStore.Group group : totals.groups) {
+            Map<String, Object> item = sums(group);
+            item.put("lineId", (double) group.lineId);
+            item.put("method", group.method);
+            groups.add(item);
+        }
+        map.put("groups", groups);
+        return map;
+    }
+
+    private static Map<String, Object> sums(TransactionStore.Sums sums) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("count", (double) sums.count);
+        map.put("amount", (double) sums.amount);
+        map.put("credit", (double) sums.credit);
+        map.put("cashback", (double) sums.cashback);
+        return map;
+    }
+}
@@ -4,6 +4,7 @@ import com.facebook.react.ReactActivity
 import com.facebook.react.ReactActivityDelegate
 import com.facebook.react.defaults.DefaultNewArchitectureEntryPoint.fabricEnabled
 import com.facebook.react.defaults.DefaultReactActivityDelegate
+import android.content.Intent
 import android.os.Bundle
 
 class MainActivity : ReactActivity() {
@@ -18,6 +19,13 @@ class MainActivity : ReactActivity() {
     super.onCreate(null)
   }
 
+  // PSP results go to PaymentEngine from here, so one that comes back before React
+  // has created the payment modules is held for them rather than lost.
+  override fun onActivityResult(requestCode: Int, resultCode: Int, data: Intent?) {
+    super.onActivityResult(requestCode, resultCode, data)
+    PaymentEngine.deliver(this, requestCode, resultCode, data)
+  }
+
   /**
    * Returns the instance of the [ReactActivityDelegate]. We use [DefaultReactActivityDelegate]
    * which allows you to enable New Architecture with a single boolean flags [fabricEnabled]
@@ -0,0 +1,45 @@
+package com.sanjabpos;
+
+import android.app.Activity;
+
+// A single PSP request as built by a PaymentProvider and run by PaymentEngine.
+public final class PaymentCall {
+    public interface Sender {
+        // Launches the PSP activity; returns false if the request could not be sent.
+        boolean send(Activity activity) throws Exception;
+    }
+
+    final int requestCode;
+    final Sender sender;
+    // Journaled when set, so an approved payment survives the app dying before Success.
+    String journalType;
+    String amount;
+    String id;
+    // Prints do not always come back with a result, so they are not correlated.
+    boolean correlated = true;
+    String sentMessage = "ارسال موفق";
+    String failedMessage = "خطا در ارسال";
+
+    public PaymentCall(int requestCode, Sender sender) {
+        this.requestCode = requestCode;
+        this.sender = sender;
+    }
+
+    public PaymentCall journaled(String transactionType, String amount, String id) {
+        this.journalType = transactionType;
+        this.amount = amount;
+        this.id = id;
+        return this;
+    }
+
+    public PaymentCall uncorrelated() {
+        this.correlated = false;
+        return this;
+    }
+
+    public PaymentCall messages(String sentMessage, String failedMessage) {
+        this.sentMessage = sentMessage;
+        this.failedMessage = failedMessage;
+        return this;
+    }
+}
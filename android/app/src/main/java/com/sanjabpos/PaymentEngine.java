@@ -0,0 +1,393 @@
+package com.sanjabpos;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.util.Log;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.PromiseImpl;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Runs PSP requests for every registered PaymentProvider: checks for an activity,
+// correlates the request with its result, journals payments, sends, and routes each
+// activity result back through the provider that launched it. One engine is shared
+// by all payment modules of a React context so they write a single journal.
+//
+// Results come from MainActivity through deliver rather than a React activity
+// listener. When the PSP app returns to a process that was killed meanwhile, the
+// result arrives before React has built the payment modules; it is held until a
+// provider that handles its request code is registered.
+final class PaymentEngine {
+    private static final String TAG = "PaymentEngine";
+    private static final long SNAPSHOT_INTERVAL_NANOS = 30_000_000_000L;
+    private static final int MAX_EARLY_RESULTS = 16;
+    private static final int RECENT_REFERENCES = 64;
+
+    interface CallFactory {
+        PaymentCall create();
+    }
+
+    // Sees every PSP activity result, e.g. the print spooler waiting on PRINT results.
+    interface ResultListener {
+        void onResult(int requestCode, int resultCode);
+    }
+
+    private static final class EarlyResult {
+        final int requestCode;
+        final int resultCode;
+        final Intent data;
+
+        EarlyResult(int requestCode, int resultCode, Intent data) {
+            this.requestCode = requestCode;
+            this.resultCode = resultCode;
+            this.data = data;
+        }
+    }
+
+    private static PaymentEngine instance;
+    // Results no registered provider handled yet, oldest first. Guarded by PaymentEngine.class.
+    private static final List<EarlyResult> earlyResults = new ArrayList<>();
+
+    private final ReactApplicationContext reactContext;
+    private final TransactionJournal journal;
+    private final LocalTransactions transactions;
+    private final RequestCorrelator correlator = new RequestCorrelator();
+    private final List<PaymentProvider> providers = new CopyOnWriteArrayList<>();
+    private final List<ResultListener> resultListeners = new CopyOnWriteArrayList<>();
+    // Backend sale payload set by JS right before a payment call, stored with the next journal intent.
+    private volatile String saleContext;
+
+    private final PaymentMetrics metrics;
+    private final ExecutorService snapshotWriter = Executors.newSingleThreadExecutor();
+    private volatile long lastSnapshotAt;
+    // Constructor time of each payment module, engine start-up included for the first one.
+    private final Map<String, Object> moduleInitMs = new ConcurrentHashMap<>();
+    // "requestCode:reference" of the latest results, to drop a result the PSP delivers
+    // twice. Only touched on the main thread.
+    private final Map<String, Boolean> recentReferences = new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > RECENT_REFERENCES;
+        }
+    };
+
+    static synchronized PaymentEngine get(ReactApplicationContext reactContext) {
+        if (instance == null || instance.reactContext != reactContext) {
+            if (instance != null) {
+                instance.close();
+            }
+            instance = new PaymentEngine(reactContext);
+        }
+        return instance;
+    }
+
+    private PaymentEngine(ReactApplicationContext reactContext) {
+        this(reactContext, TransactionJournal.get(reactContext), LocalTransactions.get(reactContext));
+    }
+
+    // Tests pass their own journal and store rather than the process's.
+    PaymentEngine(ReactApplicationContext reactContext, TransactionJournal journal, LocalTransactions transactions) {
+        this.reactContext = reactContext;
+        this.journal = journal;
+        this.transactions = transactions;
+        this.metrics = new PaymentMetrics(reactContext.getFilesDir());
+    }
+
+    // The engine of a React context that was replaced, e.g. by a bridge reload. The
+    // journal is the process's and stays open for the next engine.
+    private void close() {
+        snapshotWriter.execute(metrics::save);
+        snapshotWriter.shutdown();
+    }
+
+    // Every activity result, from MainActivity. Results for request codes no provider
+    // handles yet are held for the provider that registers next.
+    static void deliver(Activity activity, int requestCode, int resultCode, Intent data) {
+        PaymentEngine engine;
+        synchronized (PaymentEngine.class) {
+            engine = instance;
+            if (engine == null || engine.providerFor(requestCode) == null) {
+                if (earlyResults.size() >= MAX_EARLY_RESULTS) {
+                    earlyResults.remove(0);
+                }
+                earlyResults.add(new EarlyResult(requestCode, resultCode, data));
+                return;
+            }
+        }
+        engine.onActivityResult(activity, requestCode, resultCode, data);
+    }
+
+    // Hands the provider the results that arrived before it was registered.
+    void register(PaymentProvider provider) {
+        providers.add(provider);
+        List<EarlyResult> held = new ArrayList<>();
+        synchronized (PaymentEngine.class) {
+            for (Iterator<EarlyResult> it = earlyResults.iterator(); it.hasNext(); ) {
+                EarlyResult early = it.next();
+                if (provider.handlesResult(early.requestCode)) {
+                    held.add(early);
+                    it.remove();
+                }
+            }
+        }
+        for (EarlyResult early : held) {
+            Log.i(TAG, "Delivering result for request " + early.requestCode + " that arrived before start-up");
+            onActivityResult(reactContext.getCurrentActivity(), early.requestCode, early.resultCode, early.data);
+        }
+    }
+
+    void addResultListener(ResultListener listener) {
+        resultListeners.add(listener);
+    }
+
+    boolean isInFlight(int requestCode) {
+        return correlator.isInFlight(requestCode);
+    }
+
+    // True when no correlated request on any code is waiting for the PSP.
+    boolean isIdle() {
+        return correlator.isIdle();
+    }
+
+    void recordModuleInit(String module, long nanos) {
+        moduleInitMs.put(module, nanos / 1e6);
+    }
+
+    void setSaleContext(String saleJson) {
+        saleContext = saleJson;
+    }
+
+    TransactionJournal getJournal() {
+        return journal;
+    }
+
+    void dispatch(CallFactory factory, Promise promise) {
+        dispatch(factory, false, promise);
+    }
+
+    // Sends only if no other request is in flight, and keeps any other from starting
+    // until this one's result is in; for requests the cashier did not start.
+    void dispatchExclusive(CallFactory factory, Promise promise) {
+        dispatch(factory, true, promise);
+    }
+
+    private void dispatch(CallFactory factory, boolean exclusive, Promise promise) {
+        long start = System.nanoTime();
+        Activity activity = reactContext.getCurrentActivity();
+        if (activity == null) {
+            promise.reject("NO_ACTIVITY", "No current activity");
+            return;
+        }
+        PaymentCall call;
+        try {
+            call = factory.create();
+        } catch (IllegalArgumentException e) {
+            promise.reject("INVALID_INPUT", e.getMessage());
+            return;
+        }
+        if (call == null) {
+            promise.reject("NOT_SUPPORTED", "این عملیات در این پایانه پشتیبانی نمی‌شود");
+            return;
+        }
+        String requestId = null;
+        if (call.correlated) {
+            requestId = correlator.begin(call.requestCode, exclusive, promise);
+            if (requestId == null) {
+                // The sale attached for this duplicate belongs to the request already open.
+                if (call.journalType != null) {
+                    saleContext = null;
+                }
+                return;
+            }
+        }
+        long journalId = call.journalType != null ? journalIntent(call) : -1;
+        if (call.journalType != null && journalId < 0) {
+            // Write-ahead: a payment whose intent is not on disk is never sent.
+            if (requestId != null) {
+                correlator.abort(requestId);
+            }
+            promise.reject("JOURNAL_UNAVAILABLE", "ثبت تراکنش در حافظه دستگاه ممکن نشد");
+            return;
+        }
+        metrics.count(call.requestCode, PaymentMetrics.Counter.REQUESTS);
+        boolean sent;
+        String error = null;
+        try {
+            sent = call.sender.send(activity);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to launch payment request", e);
+            sent = false;
+            error = e.getMessage();
+        }
+        long sentAt = System.nanoTime();
+        metrics.record(call.requestCode, PaymentMetrics.Phase.DISPATCH, sentAt - start);
+        if (sent) {
+            metrics.sent(call.requestCode, sentAt);
+        } else {
+            metrics.count(call.requestCode, PaymentMetrics.Counter.SEND_FAILURES);
+            if (requestId != null) {
+                correlator.abort(requestId);
+            }
+            if (journalId >= 0) {
+                journal.acknowledge(journalId);
+            }
+        }
+        WritableMap result = Arguments.createMap();
+        result.putBoolean("success", sent);
+        String message = sent ? call.sentMessage : call.failedMessage;
+        result.putString("message", error != null ? message + ": " + error : message);
+        if (journalId >= 0) {
+            result.putDouble("journalId", journalId);
+        }
+        if (requestId != null) {
+            result.putString("requestId", requestId);
+        }
+        promise.resolve(result);
+    }
+
+    void awaitResult(String requestId, long timeoutMs, Promise promise) {
+        correlator.await(requestId, timeoutMs, promise);
+    }
+
+    // A promise for callers that dispatch and await from a thread of their own:
+    // resolutions arrive as the value, rejections wrapped in a one-element array.
+    static PromiseImpl blockingPromise(BlockingQueue<Object> answer) {
+        return new PromiseImpl(args -> answer.offer(args[0]), args -> answer.offer(new Object[]{args[0]}));
+    }
+
+    boolean cancel(String requestId) {
+        return correlator.cancel(requestId);
+    }
+
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("requests", (double) metrics.total(PaymentMetrics.Counter.REQUESTS));
+        stats.put("sendFailures", (double) metrics.total(PaymentMetrics.Counter.SEND_FAILURES));
+        stats.put("results", (double) metrics.total(PaymentMetrics.Counter.RESULTS));
+        stats.put("approved", (double) metrics.total(PaymentMetrics.Counter.APPROVED));
+        stats.put("moduleInitMs", new HashMap<>(moduleInitMs));
+        return stats;
+    }
+
+    Map<String, Object> getMetrics() {
+        return metrics.toMap();
+    }
+
+    void saveMetrics() {
+        snapshotWriter.execute(metrics::save);
+    }
+
+    void resetMetrics() {
+        snapshotWriter.execute(metrics::reset);
+    }
+
+    private long journalIntent(PaymentCall call) {
+        JSONObject payload = new JSONObject();
+        String sale = saleContext;
+        saleContext = null;
+        try {
+            payload.put("transactionType", call.journalType);
+            payload.putOpt("amount", call.amount);
+            payload.putOpt("id", call.id);
+            if (sale != null) {
+                payload.put("sale", new JSONObject(sale));
+            }
+        } catch (JSONException e) {
+            // Still journal the payment itself even if the sale payload is malformed.
+        }
+        return journal.recordIntent(call.requestCode, payload);
+    }
+
+    private PaymentProvider providerFor(int requestCode) {
+        for (PaymentProvider candidate : providers) {
+            if (candidate.handlesResult(requestCode)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    void onActivityResult(Activity activity, int requestCode, int resultCode, Intent data) {
+        long arrivedAt = System.nanoTime();
+        PaymentProvider provider = providerFor(requestCode);
+        if (provider == null) {
+            return;
+        }
+        metrics.count(requestCode, PaymentMetrics.Counter.RESULTS);
+        metrics.resultArrived(requestCode, arrivedAt);
+
+        WritableMap result = Arguments.createMap();
+        result.putInt("requestCode", requestCode);
+        result.putInt("resultCode", resultCode);
+        if (data == null) {
+            result.putString("error", "Intent data is null");
+            // The PSP may still have charged the card; PaymentReconciler finds out
+            result.putBoolean("outcomeUnknown", true);
+            metrics.count(requestCode, PaymentMetrics.Counter.NULL_INTENTS);
+        } else {
+            long start = System.nanoTime();
+            provider.decodeResult(requestCode, resultCode, data, result);
+            metrics.record(requestCode, PaymentMetrics.Phase.DECODE, System.nanoTime() - start);
+            // A repeat of a result already handled would complete the next sale on this code.
+            String reference = provider.resultReference(requestCode, result);
+            if (reference != null && recentReferences.put(requestCode + ":" + reference, Boolean.TRUE) != null) {
+                Log.w(TAG, "Dropping repeated result " + reference + " for request " + requestCode);
+                metrics.count(requestCode, PaymentMetrics.Counter.DUPLICATE_RESULTS);
+                return;
+            }
+        }
+        boolean isApproved = data != null && provider.isApproved(requestCode, resultCode, result);
+        result.putBoolean("approved", isApproved);
+        if (isApproved) {
+            metrics.count(requestCode, PaymentMetrics.Counter.APPROVED);
+        }
+
+        JSONObject resultJson = BridgeJson.toJson(result);
+        long journalId = journal.recordResult(requestCode, resultCode, resultJson);
+        if (journalId >= 0) {
+            result.putDouble("journalId", journalId);
+            if (isApproved) {
+                transactions.recordCardPayment(journalId, provider.getName(), journal.get(journalId), resultJson);
+            }
+        }
+
+        // Handing the result to waiting promises, listeners and the JS event.
+        long emitStart = System.nanoTime();
+        correlator.complete(requestCode, result);
+        for (ResultListener listener : resultListeners) {
+            listener.onResult(requestCode, resultCode);
+        }
+        reactContext
+            .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+            .emit(provider.getResultEvent(), result);
+        long emitEnd = System.nanoTime();
+        metrics.record(requestCode, PaymentMetrics.Phase.EMIT, emitEnd - emitStart);
+        maybeSnapshot(emitEnd);
+    }
+
+    // At most one metrics snapshot per interval, written off the main thread.
+    private void maybeSnapshot(long now) {
+        if (now - lastSnapshotAt >= SNAPSHOT_INTERVAL_NANOS) {
+            lastSnapshotAt = now;
+            snapshotWriter.execute(metrics::save);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.sanjabpos;
+
+import android.util.Log;
+
+import com.sanjabpos.core.LatencyHistogram;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Timings of the PSP bridge per request code: dispatch (tap to send() returning),
+// PSP dwell (send to onActivityResult), result decode and event emission, plus
+// counters. Everything on the hot path is an atomic add. The totals are saved to a
+// small binary snapshot so they survive restarts and can be compared per terminal.
+final class PaymentMetrics {
+    private static final String TAG = "PaymentMetrics";
+    private static final String FILE_NAME = "payment-metrics.bin";
+    private static final int FILE_MAGIC = 0x504d5331; // "PMS1"
+
+    enum Phase {
+        DISPATCH("dispatch"), DWELL("pspDwell"), DECODE("decode"), EMIT("emit");
+
+        final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+    }
+
+    enum Counter {
+        REQUESTS("requests"), SEND_FAILURES("sendFailures"), RESULTS("results"),
+        NULL_INTENTS("nullIntents"), APPROVED("approved"), UNMATCHED_RESULTS("unmatchedResults"),
+        DUPLICATE_RESULTS("duplicateResults");
+
+        final String key;
+
+        Counter(String key) {
+            this.key = key;
+        }
+    }
+
+    static final class CodeMetrics {
+        final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+        final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+        // When the last request under this code was sent, for the dwell time.
+        final AtomicLong sentAt = new AtomicLong();
+
+        CodeMetrics() {
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = new LatencyHistogram();
+            }
+        }
+    }
+
+    private final File file;
+    private final ConcurrentHashMap<Integer, CodeMetrics> codes = new ConcurrentHashMap<>();
+    // When recording started, kept across restarts with the snapshot.
+    private volatile long since = System.currentTimeMillis();
+
+    PaymentMetrics(File directory) {
+        file = new File(directory, FILE_NAME);
+        load();
+    }
+
+    CodeMetrics forCode(int requestCode) {
+        CodeMetrics metrics = codes.get(requestCode);
+        if (metrics == null) {
+            CodeMetrics created = new CodeMetrics();
+            metrics = codes.putIfAbsent(requestCode, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    void record(int requestCode, Phase phase, long nanos) {
+        forCode(requestCode).phases[phase.ordinal()].recordNanos(nanos);
+    }
+
+    void count(int requestCode, Counter counter) {
+        forCode(requestCode).counters.incrementAndGet(counter.ordinal());
+    }
+
+    void sent(int requestCode, long nanoTime) {
+        forCode(requestCode).sentAt.set(nanoTime);
+    }
+
+    // Records the dwell time if a send is outstanding under this code.
+    void resultArrived(int requestCode, long nanoTime) {
+        long sentAt = forCode(requestCode).sentAt.getAndSet(0);
+        if (sentAt != 0) {
+            record(requestCode, Phase.DWELL, nanoTime - sentAt);
+        } else {
+            count(requestCode, Counter.UNMATCHED_RESULTS);
+        }
+    }
+
+    long total(Counter counter) {
+        long total = 0;
+        for (CodeMetrics metrics : codes.values()) {
+            total += metrics.counters.get(counter.ordinal());
+        }
+        return total;
+    }
+
+    // { sinceMs, codes: { "<requestCode>": { requests, ..., dispatch: {count, p50Ms, ...}, ... } } }
+    Map<String, Object> toMap() {
+        Map<String, Object> byCode = new HashMap<>();
+        for (Map.Entry<Integer, CodeMetrics> entry : codes.entrySet()) {
+            CodeMetrics metrics = entry.getValue();
+            Map<String, Object> code = new HashMap<>();
+            for (Counter counter : Counter.values()) {
+                code.put(counter.key, (double) metrics.counters.get(counter.ordinal()));
+            }
+            for (Phase phase : Phase.values()) {
+                code.put(phase.key, metrics.phases[phase.ordinal()].summarize());
+            }
+            byCode.put(String.valueOf(entry.getKey()), code);
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put("sinceMs", (double) since);
+        result.put("codes", byCode);
+        return result;
+    }
+
+    void reset() {
+        codes.clear();
+        since = System.currentTimeMillis();
+        file.delete();
+    }
+
+    // Callers run this off the bridge thread; writers keep recording meanwhile.
+    synchronized void save() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp, false);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 8 * 1024))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeLong(since);
+            Map<Integer, CodeMetrics> snapshot = new HashMap<>(codes);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<Integer, CodeMetrics> entry : snapshot.entrySet()) {
+                CodeMetrics metrics = entry.getValue();
+                out.writeInt(entry.getKey());
+                out.writeByte(Counter.values().length);
+                for (int i = 0; i < Counter.values().length; i++) {
+                    out.writeLong(metrics.counters.get(i));
+                }
+                out.writeByte(metrics.phases.length);
+                for (LatencyHistogram histogram : metrics.phases) {
+                    histogram.write(out);
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save payment metrics", e);
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.e(TAG, "Failed to replace payment metrics");
+        }
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 8 * 1024))) {
+            if (in.readInt() != FILE_MAGIC) {
+                return;
+            }
+            since = in.readLong();
+            int count = in.readInt();
+            for (int c = 0; c < count; c++) {
+                CodeMetrics metrics = forCode(in.readInt());
+                int counters = in.readUnsignedByte();
+                for (int i = 0; i < counters; i++) {
+                    long value = in.readLong();
+                    if (i < Counter.values().length) {
+                        metrics.counters.set(i, value);
+                    }
+                }
+                int phases = in.readUnsignedByte();
+                for (int i = 0; i < phases; i++) {
+                    LatencyHistogram histogram = i < metrics.phases.length ? metrics.phases[i] : new LatencyHistogram();
+                    histogram.read(in);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load payment metrics, starting over", e);
+            codes.clear();
+        }
+    }
+}
@@ -1,579 +1,459 @@
 package com.sanjabpos;
 
 import androidx.annotation.NonNull;
-import android.app.Activity;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.content.Intent;
 
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
-import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
-import com.facebook.react.bridge.ActivityEventListener;
-import com.facebook.react.modules.core.DeviceEventManagerModule;
+import com.sanjabpos.core.ApduScript;
+import com.sanjabpos.core.Bill;
+import com.sanjabpos.core.BillBatch;
+import com.sanjabpos.core.Reconciler;
+import com.sanjabpos.core.SearchKey;
+import com.sanjabpos.core.TashimShare;
+import com.sanjabpos.core.TashimSplit;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// IKC terminal API for JS, a thin adapter over PaymentEngine and IkcPaymentProvider.
+public class PaymentModule extends NativePaymentModuleSpec {
+    private final PaymentEngine engine;
+    private final IkcPaymentProvider ikc = new IkcPaymentProvider();
+    private final PrintSpooler spooler;
+    private final PaymentReconciler reconciler;
+    // Runs blocking reconciliation off the JS thread, one run at a time.
+    private final ExecutorService reconcileExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean reconciling = new AtomicBoolean();
+    private final ApduSession apduSession;
+    // Runs APDU scripts, which wait on the PSP between commands, one at a time.
+    private final ExecutorService cardExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean cardBusy = new AtomicBoolean();
+    private final BillBatchSession bills;
+    // Runs bill inquiries and batches, which wait on the PSP per bill, one at a time.
+    private final ExecutorService billExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean billsBusy = new AtomicBoolean();
 
-import ir.ikccc.externalpayment.CheckUpdateReqest;
-import ir.ikccc.externalpayment.Installment;
-import ir.ikccc.externalpayment.PrinterRequest;
-import ir.ikccc.externalpayment.SearchRequest;
-import ir.ikccc.externalpayment.SwipeCardRequest;
-import ir.ikccc.externalpayment.SwipeCardForRequestHashedPan;
-import ir.ikccc.externalpayment.TashimAccount;
-import ir.ikccc.externalpayment.TransactionRequest;
-import ir.ikccc.externalpayment.TransactionType;
-import net.netafarin.receipt_module.PrintableLine;
-import net.netafarin.receipt_module.PrintableReceiptBuilder;
-
-import static ir.ikccc.externalpayment.Library.ASAN_KHARID_REQUEST_CODE;
-import static ir.ikccc.externalpayment.Library.BILL_REQUEST_CODE;
-import static ir.ikccc.externalpayment.Library.CHECK_UPDATE_REQUEST_CODE;
-import static ir.ikccc.externalpayment.Library.ICC_REQUEST_CODE;
-import static ir.ikccc.externalpayment.Library.MEDICAL_ASAN_KHARID_REQUEST_CODE;
-import static ir.ikccc.externalpayment.Library.PRINT_BIG_BITMAP_REQUEST_CODE;
-import static ir.ikccc.externalpayment.Library.PRINT_REQUEST_CODE;
-import static ir.ikccc.externalpayment.Library.PURCHASE_REQUEST_CODE;
-import static ir.ikccc.externalpayment.Library.SEARCH_REQUEST_CODE;
-import static ir.ikccc.externalpayment.Library.SWIPE_CARD_FORPAN_REQUEST_CODE;
-import static ir.ikccc.externalpayment.Library.SWIPE_CARD_REQUEST_CODE;
-import static ir.ikccc.externalpayment.Library.TASHIM_REQUEST_CODE;
-
-public class PaymentModule extends ReactContextBaseJavaModule implements ActivityEventListener {
     public PaymentModule(ReactApplicationContext reactContext) {
         super(reactContext);
-        reactContext.addActivityEventListener(this);
+        long start = System.nanoTime();
+        engine = PaymentEngine.get(reactContext);
+        engine.register(ikc);
+        spooler = PrintSpooler.get(reactContext, ikc.getRenderer(), IkcPaymentProvider.printer());
+        engine.addResultListener(spooler);
+        reconciler = new PaymentReconciler(engine, ikc);
+        apduSession = new ApduSession(engine, ikc);
+        bills = new BillBatchSession(engine, ikc, spooler);
+        engine.recordModuleInit(NAME, System.nanoTime() - start);
+    }
+
+    @Override
+    public void invalidate() {
+        reconcileExecutor.shutdownNow();
+        cardExecutor.shutdownNow();
+        billExecutor.shutdownNow();
+        engine.saveMetrics();
+        super.invalidate();
     }
 
     @NonNull
     @Override
     public String getName() {
-        return "PaymentModule";
+        return NAME;
     }
 
     @ReactMethod
+    @Override
     public void purchaseWithId(String amount, String id, boolean print, boolean showReceipt, Promise promise) {
-        Activity activity = getCurrentActivity();
-        if (activity == null) {
-            promise.reject("NO_ACTIVITY", "No current activity");
-            return;
-        }
-        if (amount == null || amount.isEmpty() || id == null || id.isEmpty()) {
-            promise.reject("INVALID_INPUT", "مبلغ و شناسه نباید خالی باشند");
-            return;
-        }
-        TransactionRequest transactionRequest = new TransactionRequest(activity);
-        transactionRequest.setRequestType(TransactionType.PURCHASE_WITH_ID.getTransactionType());
-        transactionRequest.setAmount(amount);
-        transactionRequest.setPrint(print);
-        transactionRequest.setShowReceipt(showReceipt);
-        transactionRequest.setId(id);
-        boolean sent = transactionRequest.send();
-        WritableMap result = Arguments.createMap();
-        result.putBoolean("success", sent);
-        result.putString("message", sent ? "ارسال موفق" : "خطا در ارسال");
-        promise.resolve(result);
+        engine.dispatch(() -> ikc.purchase(amount, id, print, showReceipt), promise);
     }
 
     @ReactMethod
+    @Override
     public void billInquiry(String billId, String billPaymentId, boolean print, boolean showReceipt, Promise promise) {
-        Activity activity = getCurrentActivity();
-        if (activity == null) {
-            promise.reject("NO_ACTIVITY", "No current activity");
-            return;
-        }
-        TransactionRequest transactionRequest = new TransactionRequest(activity);
-        transactionRequest.setRequestType(TransactionType.BILL_INQUIRY.getTransactionType());
-        transactionRequest.setBillId(billId);
-        transactionRequest.setBillPaymentId(billPaymentId);
-        transactionRequest.setPrint(print);
-        transactionRequest.setShowReceipt(showReceipt);
-        boolean sent = transactionRequest.send();
-        WritableMap result = Arguments.createMap();
-        result.putBoolean("success", sent);
-        result.putString("message", sent ? "ارسال موفق" : "خطا در ارسال");
-        promise.resolve(result);
+        engine.dispatch(() -> ikc.billInquiry(billId, billPaymentId, print, showReceipt), promise);
     }
 
     @ReactMethod
+    @Override
     public void searchByStan(String stan, Promise promise) {
-        Activity activity = getCurrentActivity();
-        if (activity == null) {
-            promise.reject("NO_ACTIVITY", "No current activity");
-            return;
-        }
-        if (stan == null || stan.isEmpty()) {
-            promise.reject("INVALID_INPUT", "شماره پیگیری نباید خالی باشد");
-            return;
-        }
-        SearchRequest searchRequest = new SearchRequest(activity, SearchRequest.SearchType.SEARCH_BY_STAN);
-        searchRequest.setStan(stan);
-        boolean sent = searchRequest.send();
-        WritableMap result = Arguments.createMap();
-        result.putBoolean("success", sent);
-        result.putString("message", sent ? "ارسال موفق" : "خطا در ارسال");
-        promise.resolve(result);
+        engine.dispatch(() -> ikc.search(SearchKey.STAN, stan, null), promise);
     }
 
     @ReactMethod
+    @Override
     public void searchByRrn(String rrn, Promise promise) {
-        Activity activity = getCurrentActivity();
-        if (activity == null) {
-            promise.reject("NO_ACTIVITY", "No current activity");
-            return;
-        }
-        if (rrn == null || rrn.isEmpty()) {
-            promise.reject("INVALID_INPUT", "شماره مرجع نباید خالی باشد");
-            return;
-        }
-        SearchRequest searchRequest = new SearchRequest(activity, SearchRequest.SearchType.SEARCH_BY_RRN);
-        searchRequest.setRrn(rrn);
-        boolean sent = searchRequest.send();
-        WritableMap result = Arguments.createMap();
-        result.putBoolean("success", sent);
-        result.putString("message", sent ? "ارسال موفق" : "خطا در ارسال");
-        promise.resolve(result);
+        engine.dispatch(() -> ikc.search(SearchKey.RRN, rrn, null), promise);
     }
 
     @ReactMethod
+    @Override
     public void searchByPaymentId(String paymentId, String persianDate, Promise promise) {
-        Activity activity = getCurrentActivity();
-        if (activity == null) {
-            promise.reject("NO_ACTIVITY", "No current activity");
-            return;
-        }
-        if (paymentId == null || paymentId.isEmpty()) {
-            promise.reject("INVALID_INPUT", "شناسه نباید خالی باشد");
-            return;
-        }
-        SearchRequest searchRequest = new SearchRequest(activity, SearchRequest.SearchType.SEARCH_BY_PAYMENT_ID);
-        searchRequest.setPaymentId(paymentId);
-        searchRequest.setPersianDate(persianDate);
-        boolean sent = searchRequest.send();
-        WritableMap result = Arguments.createMap();
-        result.putBoolean("success", sent);
-        result.putString("message", sent ? "ارسال موفق" : "خطا در ارسال");
-        promise.resolve(result);
+        engine.dispatch(() -> ikc.search(SearchKey.PAYMENT_ID, paymentId, persianDate), promise);
     }
 
+    // Prints go through the spooler: the promise resolves once the job is queued.
     @ReactMethod
+    @Override
     public void printReceipt(Promise promise) {
-        Activity activity = getCurrentActivity();
-        if (activity == null) {
-            promise.reject("NO_ACTIVITY", "No current activity");
-            return;
-        }
-        ArrayList<PrintableLine> printableLines = new ArrayList<>();
-        printableLines.add(new PrintableLine("right", "1-left"));
-        printableLines.add(new PrintableLine("right", "2-left"));
-        printableLines.add(new PrintableLine("right", "3-left"));
-        printableLines.add(new PrintableLine("right", "4-left"));
-        printableLines.add(new PrintableLine("5-center", ""));
-        printableLines.add(new PrintableLine("", "6-center"));
-        printableLines.add(new PrintableLine("right", "7-left"));
-        PrintableReceiptBuilder receiptBuilder = new PrintableReceiptBuilder(activity,
-                printableLines, PrintableReceiptBuilder.PrinterSize.TWO_INCH, 22, false,
-                false, "header bitmap.bmp", "footer bitmap.bmp", "footer message");
-        PrinterRequest printerRequest = new PrinterRequest(activity);
-        boolean sent = printerRequest.send(receiptBuilder.getReceipt(10,1));
-        WritableMap result = Arguments.createMap();
-        result.putBoolean("success", sent);
-        result.putString("message", sent ? "ارسال موفق" : "خطا در ارسال");
-        promise.resolve(result);
+        spooled(spooler.enqueueText(ikc.getTemplateKey(), IkcPaymentProvider.sampleLines()), promise);
     }
 
     @ReactMethod
-    public void printCustomReceipt(String[] leftTexts, String[] rightTexts, String[] centerTexts, Promise promise) {
-        Activity activity = getCurrentActivity();
-        if (activity == null) {
-            promise.reject("NO_ACTIVITY", "No current activity");
+    @Override
+    public void printCustomReceipt(ReadableArray leftTexts, ReadableArray rightTexts, ReadableArray centerTexts, Promise promise) {
+        spooled(spooler.enqueueText(ikc.getTemplateKey(), IkcPaymentProvider.receiptLines(
+                toArray(leftTexts), toArray(rightTexts), toArray(centerTexts))), promise);
+    }
+
+    // Compiles the receipt layout for a business/branch and makes it the one prints use.
+    @ReactMethod
+    @Override
+    public void setReceiptTemplate(String key, ReadableMap template, Promise promise) {
+        if (key == null || key.isEmpty()) {
+            promise.reject("INVALID_INPUT", "کلید قالب رسید نباید خالی باشد");
             return;
         }
-        ArrayList<PrintableLine> printableLines = new ArrayList<>();
-        
-        // Add left and right aligned lines
-        if (leftTexts != null && rightTexts != null) {
-            int maxLines = Math.max(leftTexts.length, rightTexts.length);
-            for (int i = 0; i < maxLines; i++) {
-                String leftText = i < leftTexts.length ? leftTexts[i] : "";
-                String rightText = i < rightTexts.length ? rightTexts[i] : "";
-                printableLines.add(new PrintableLine(rightText, leftText));
-            }
-        }
-        
-        // Add center aligned lines
-        if (centerTexts != null) {
-            for (String centerText : centerTexts) {
-                printableLines.add(new PrintableLine(centerText, ""));
-            }
-        }
-        
-        PrintableReceiptBuilder receiptBuilder = new PrintableReceiptBuilder(activity,
-                printableLines, PrintableReceiptBuilder.PrinterSize.TWO_INCH, 22, false,
-                false, "header bitmap.bmp", "footer bitmap.bmp", "footer message");
-        PrinterRequest printerRequest = new PrinterRequest(activity);
-        boolean sent = printerRequest.send(receiptBuilder.getReceipt(10, 1));
-        WritableMap result = Arguments.createMap();
-        result.putBoolean("success", sent);
-        result.putString("message", sent ? "ارسال موفق" : "خطا در ارسال");
-        promise.resolve(result);
+        ikc.setReceiptTemplate(ReceiptTemplate.fromMap(key, template));
+        promise.resolve(true);
     }
 
     @ReactMethod
+    @Override
+    public void getReceiptStats(Promise promise) {
+        promise.resolve(Arguments.makeNativeMap(ikc.getRenderer().getStats()));
+    }
+
+    @ReactMethod
+    @Override
     public void printBigBitmap(Promise promise) {
-        Activity activity = getCurrentActivity();
-        if (activity == null) {
-            promise.reject("NO_ACTIVITY", "No current activity");
-            return;
-        }
-        // NOTE: This assumes R.drawable.factor exists. You may need to adjust resource access.
-        Bitmap largeIcon = BitmapFactory.decodeResource(activity.getResources(), activity.getResources().getIdentifier("factor", "drawable", activity.getPackageName()));
-        PrinterRequest printerRequest = new PrinterRequest(activity);
-        boolean sent = printerRequest.sendBigBitmap(largeIcon);
-        WritableMap result = Arguments.createMap();
-        result.putBoolean("success", sent);
-        result.putString("message", sent ? "ذخیره و ارسال موفق" : "خطا در ذخیره یا ارسال");
-        promise.resolve(result);
+        spooled(spooler.enqueueDrawable("factor", dots()), promise);
     }
 
     @ReactMethod
+    @Override
     public void printImagePath(String imagePath, Promise promise) {
-        Activity activity = getCurrentActivity();
-        if (activity == null) {
-            promise.reject("NO_ACTIVITY", "No current activity");
-            return;
-        }
-        PrinterRequest printerRequest = new PrinterRequest(activity);
-        boolean sent = printerRequest.sendImagePath(imagePath);
-        WritableMap result = Arguments.createMap();
-        result.putBoolean("success", sent);
-        result.putString("message", sent ? "ارسال موفق" : "خطا در ارسال");
-        promise.resolve(result);
+        spooled(spooler.enqueueImagePath(imagePath, dots()), promise);
+    }
+
+    // Images are prepared for the paper of the active receipt template.
+    private int dots() {
+        return ikc.getRenderer().width(ikc.getTemplateKey());
     }
 
     @ReactMethod
+    @Override
+    public void getPrintStats(Promise promise) {
+        promise.resolve(Arguments.makeNativeMap(spooler.getStats()));
+    }
+
+    @ReactMethod
+    @Override
     public void checkUpdate(Promise promise) {
-        Activity activity = getCurrentActivity();
-        if (activity == null) {
-            promise.reject("NO_ACTIVITY", "No current activity");
-            return;
-        }
-        CheckUpdateReqest checkUpdateReqest = new CheckUpdateReqest(activity);
-        boolean sent = checkUpdateReqest.send();
-        WritableMap result = Arguments.createMap();
-        result.putBoolean("success", sent);
-        result.putString("message", sent ? "ارسال موفق" : "خطا در ارسال");
-        promise.resolve(result);
+        engine.dispatch(ikc::checkUpdate, promise);
     }
 
     @ReactMethod
+    @Override
     public void swipeCard(Promise promise) {
-        Activity activity = getCurrentActivity();
-        if (activity == null) {
-            promise.reject("NO_ACTIVITY", "No current activity");
-            return;
-        }
-        SwipeCardRequest swipeCardReqest = new SwipeCardRequest(activity);
-        boolean sent = swipeCardReqest.send();
-        WritableMap result = Arguments.createMap();
-        result.putBoolean("success", sent);
-        result.putString("message", sent ? "ارسال موفق" : "خطا در ارسال");
-        promise.resolve(result);
+        engine.dispatch(ikc::swipeCard, promise);
+    }
+
+    // Synchronous: checks each bill's check digits and reads its amount and service
+    // from the ids, without the PSP.
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    @Override
+    public WritableArray validateBills(ReadableArray items) {
+        return Arguments.makeNativeArray(BillBatchSession.validate(items));
     }
 
+    // Inquires each bill through the PSP, or answers from the inquiry cache.
     @ReactMethod
-    public void sendApdu(String apdu, Promise promise) {
-        Activity activity = getCurrentActivity();
-        if (activity == null) {
-            promise.reject("NO_ACTIVITY", "No current activity");
+    @Override
+    public void inquireBills(ReadableArray items, Promise promise) {
+        List<Bill> parsed = parseBills(items, promise);
+        if (parsed == null) {
             return;
         }
-        if (apdu == null || apdu.isEmpty()) {
-            promise.reject("INVALID_INPUT", "کد APDU نباید خالی باشد");
+        runBills(promise, () -> Arguments.makeNativeArray(bills.inquire(parsed)));
+    }
+
+    // Pays the bills one after another and prints one receipt for all of them.
+    // Resolves with the batch report once it stops, however it stopped.
+    @ReactMethod
+    @Override
+    public void payBills(ReadableArray items, boolean printReceipt, Promise promise) {
+        List<Bill> parsed = parseBills(items, promise);
+        if (parsed == null) {
             return;
         }
-        TransactionRequest transactionRequest = new TransactionRequest(activity);
-        transactionRequest.setRequestType(TransactionType.ICCRead.getTransactionType());
-        transactionRequest.setSendRequestCommand(apdu);
-        boolean sent = transactionRequest.send();
-        WritableMap result = Arguments.createMap();
-        result.putBoolean("success", sent);
-        result.putString("message", sent ? "ارسال موفق" : "خطا در ارسال");
-        promise.resolve(result);
+        runBills(promise, () -> Arguments.makeNativeMap(bills.pay(parsed, printReceipt)));
     }
 
     @ReactMethod
-    public void asanKharidSend(String amount, int installmentCount, String installmentDate, boolean print, boolean showReceipt, Promise promise) {
-        Activity activity = getCurrentActivity();
-        if (activity == null) {
-            promise.reject("NO_ACTIVITY", "No current activity");
-            return;
+    @Override
+    public void cancelBillBatch(Promise promise) {
+        promise.resolve(bills.cancel());
+    }
+
+    private interface BillWork {
+        Object run() throws InterruptedException;
+    }
+
+    private List<Bill> parseBills(ReadableArray items, Promise promise) {
+        try {
+            List<Bill> parsed = BillBatchSession.parse(items);
+            if (parsed.isEmpty() || parsed.size() > BillBatch.MAX_BILLS) {
+                promise.reject("INVALID_INPUT", "تعداد قبض‌ها نادرست است");
+                return null;
+            }
+            return parsed;
+        } catch (IllegalArgumentException e) {
+            promise.reject("INVALID_INPUT", e.getMessage());
+            return null;
         }
-        if (amount == null || amount.isEmpty() || installmentDate == null || installmentDate.isEmpty() || installmentDate.length() != 10) {
-            promise.reject("INVALID_INPUT", "اطلاعات نادرست");
+    }
+
+    private void runBills(Promise promise, BillWork work) {
+        if (!billsBusy.compareAndSet(false, true)) {
+            promise.reject("BILLS_RUNNING", "پرداخت قبوض در حال انجام است");
             return;
         }
-        TransactionRequest transactionRequest = new TransactionRequest(activity);
-        transactionRequest.setRequestType(TransactionType.EASY_PURCHASE.getTransactionType());
-        transactionRequest.setAmount(amount);
-        transactionRequest.setPrint(print);
-        transactionRequest.setShowReceipt(showReceipt);
-        transactionRequest.setInstallmentCount(installmentCount);
-        transactionRequest.setInstallmentDate(installmentDate);
-        boolean sent = transactionRequest.send();
-        WritableMap result = Arguments.createMap();
-        result.putBoolean("success", sent);
-        result.putString("message", sent ? "ارسال موفق" : "خطا در ارسال");
-        promise.resolve(result);
+        billExecutor.execute(() -> {
+            try {
+                promise.resolve(work.run());
+            } catch (IllegalArgumentException e) {
+                promise.reject("INVALID_INPUT", e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                promise.reject("INTERRUPTED", "پرداخت قبوض متوقف شد");
+            } finally {
+                billsBusy.set(false);
+            }
+        });
     }
 
     @ReactMethod
-    public void sendTestAsankharid(Promise promise) {
-        Activity activity = getCurrentActivity();
-        if (activity == null) {
-            promise.reject("NO_ACTIVITY", "No current activity");
-            return;
-        }
-        ArrayList<Installment> installments = new ArrayList<>();
-        Installment e = new Installment();
-        e.setAmount("5000");
-        e.setDate("14010415");
-        installments.add(e);
-        TransactionRequest transactionRequest = new TransactionRequest(activity);
-        transactionRequest.setRequestType(TransactionType.MEDICAL_EASY_PURCHASE.getTransactionType());
-        transactionRequest.setPrint(false);
-        transactionRequest.setShowReceipt(false);
-        transactionRequest.setId("20000");
-        transactionRequest.setInstallments(installments);
-        boolean sent = transactionRequest.send();
-        WritableMap result = Arguments.createMap();
-        result.putBoolean("success", sent);
-        result.putString("message", sent ? "ارسال موفق" : "خطا در ارسال");
-        promise.resolve(result);
+    @Override
+    public void sendApdu(String apdu, Promise promise) {
+        engine.dispatch(() -> ikc.sendApdu(apdu), promise);
     }
 
+    // Runs the whole script natively and resolves once with every response, however
+    // it ended; only a malformed script or one already running rejects.
     @ReactMethod
-    public void sendTashim(String amount, String id, boolean print, boolean showReceipt, Promise promise) {
-        Activity activity = getCurrentActivity();
-        if (activity == null) {
-            promise.reject("NO_ACTIVITY", "No current activity");
+    @Override
+    public void runApduScript(ReadableArray steps, Promise promise) {
+        ApduScript script;
+        try {
+            script = ApduSession.parse(steps);
+        } catch (IllegalArgumentException e) {
+            promise.reject("INVALID_INPUT", e.getMessage());
             return;
         }
-        if (amount == null || amount.isEmpty() || id == null || id.isEmpty()) {
-            promise.reject("INVALID_INPUT", "مبلغ و شناسه نباید خالی باشند");
+        if (!cardBusy.compareAndSet(false, true)) {
+            promise.reject("CARD_BUSY", "دستورهای کارت در حال اجرا است");
             return;
         }
-        ArrayList<TashimAccount> tashimAccountArrayList = new ArrayList<>();
-        tashimAccountArrayList.add(new TashimAccount("IR170180000000000306824171", 30));
-        tashimAccountArrayList.add(new TashimAccount("IR740190000000100663926004", 70));
-        TransactionRequest transactionRequest = new TransactionRequest(activity);
-        transactionRequest.setRequestType(TransactionType.TASHIM.getTransactionType());
-        transactionRequest.setAmount(amount);
-        transactionRequest.setTashimAccounts(tashimAccountArrayList);
-        transactionRequest.setPrint(print);
-        transactionRequest.setShowReceipt(showReceipt);
-        transactionRequest.setId(id);
-        boolean sent = transactionRequest.send();
-        WritableMap result = Arguments.createMap();
-        result.putBoolean("success", sent);
-        result.putString("message", sent ? "ارسال موفق" : "خطا در ارسال");
-        promise.resolve(result);
+        cardExecutor.execute(() -> {
+            try {
+                promise.resolve(Arguments.makeNativeMap(ApduSession.toMap(apduSession.run(script))));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                promise.reject("INTERRUPTED", "اجرای دستورهای کارت متوقف شد");
+            } finally {
+                cardBusy.set(false);
+            }
+        });
     }
 
+    // Swaps the PSP for the simulated loyalty card in runApduScript, for latency tests.
     @ReactMethod
-    public void buttonTashim(String amount, String id, int percent1, int percent2, String iban1, String iban2, boolean print, boolean showReceipt, Promise promise) {
-        Activity activity = getCurrentActivity();
-        if (activity == null) {
-            promise.reject("NO_ACTIVITY", "No current activity");
-            return;
-        }
-        if (amount == null || amount.isEmpty() || id == null || id.isEmpty()) {
-            promise.reject("INVALID_INPUT", "مبلغ و شناسه نباید خالی باشند");
-            return;
-        }
-        if (percent1 < 0 || percent2 < 0) {
-            promise.reject("INVALID_INPUT", "درصد نادرست است");
-            return;
-        }
-        TransactionRequest transactionRequest = new TransactionRequest(activity);
-        transactionRequest.setRequestType(TransactionType.TASHIM.getTransactionType());
-        ArrayList<TashimAccount> accounts = new ArrayList<>();
-        
-        // Only add tashim accounts if they have valid IBANs and percentages > 0
-        if (percent1 > 0 && iban1 != null && !iban1.trim().isEmpty()) {
-            TashimAccount tashim1 = new TashimAccount(iban1, percent1);
-            accounts.add(tashim1);
-        }
-        
-        if (percent2 > 0 && iban2 != null && !iban2.trim().isEmpty()) {
-            TashimAccount tashim2 = new TashimAccount(iban2, percent2);
-            accounts.add(tashim2);
-        }
-        
-        // Check if we have at least one valid account
-        if (accounts.isEmpty()) {
-            promise.reject("INVALID_INPUT", "حداقل یک حساب شبا معتبر مورد نیاز است");
+    @Override
+    public void setSimulatedCard(boolean enabled, double latencyMs) {
+        if (!BuildConfig.DEBUG) {
             return;
         }
-        
-        transactionRequest.setTashimAccounts(accounts);
-        transactionRequest.setAmount(amount);
-        transactionRequest.setPrint(print);
-        transactionRequest.setShowReceipt(showReceipt);
-        transactionRequest.setId(id);
-        boolean sent = transactionRequest.send();
-        WritableMap result = Arguments.createMap();
-        result.putBoolean("success", sent);
-        result.putString("message", sent ? "ارسال موفق" : "خطا در ارسال");
-        promise.resolve(result);
+        apduSession.setSimulated(enabled, (long) latencyMs);
+    }
+
+    @ReactMethod
+    @Override
+    public void asanKharidSend(String amount, double installmentCount, String installmentDate, boolean print, boolean showReceipt, Promise promise) {
+        engine.dispatch(() -> ikc.asanKharid(amount, (int) installmentCount, installmentDate, print, showReceipt), promise);
     }
 
     @ReactMethod
+    @Override
+    public void sendTestAsankharid(Promise promise) {
+        engine.dispatch(ikc::testMedicalAsanKharid, promise);
+    }
+
+    @ReactMethod
+    @Override
+    public void sendTashim(String amount, String id, boolean print, boolean showReceipt, Promise promise) {
+        List<TashimShare> shares = new ArrayList<>();
+        shares.add(new TashimShare("IR170180000000000306824171", 30));
+        shares.add(new TashimShare("IR740190000000100663926004", 70));
+        engine.dispatch(() -> ikc.tashim(amount, id, shares, print, showReceipt), promise);
+    }
+
+    @ReactMethod
+    @Override
+    public void buttonTashim(String amount, String id, double percent1, double percent2, String iban1, String iban2, boolean print, boolean showReceipt, Promise promise) {
+        List<TashimShare> shares = new ArrayList<>();
+        shares.add(TashimShare.ofPercent(iban1, percent1));
+        shares.add(TashimShare.ofPercent(iban2, percent2));
+        engine.dispatch(() -> ikc.tashim(amount, id, shares, print, showReceipt), promise);
+    }
+
+    // Split payment over any number of accounts; each line is "IBAN:amount" or "IBAN:percent%".
+    @ReactMethod
+    @Override
+    public void purchaseTashim(String amount, String id, ReadableArray tashimData, boolean print, boolean showReceipt, Promise promise) {
+        engine.dispatch(() -> ikc.tashim(amount, id, TashimSplit.parseLines(BridgeJson.toStringList(tashimData)), print, showReceipt), promise);
+    }
+
+    @ReactMethod
+    @Override
     public void sendBill(String billId, String billPaymentId, boolean print, boolean showReceipt, Promise promise) {
-        Activity activity = getCurrentActivity();
-        if (activity == null) {
-            promise.reject("NO_ACTIVITY", "No current activity");
-            return;
-        }
-        if (billId == null || billId.isEmpty() || billPaymentId == null || billPaymentId.isEmpty()) {
-            promise.reject("INVALID_INPUT", "شناسه قبض و شناسه پرداخت نباید خالی باشند");
-            return;
-        }
-        TransactionRequest transactionRequest = new TransactionRequest(activity);
-        transactionRequest.setRequestType(TransactionType.BILL_PAYMENT.getTransactionType());
-        transactionRequest.setBillId(billId);
-        transactionRequest.setBillPaymentId(billPaymentId);
-        transactionRequest.setPrint(print);
-        transactionRequest.setShowReceipt(showReceipt);
-        boolean sent = transactionRequest.send();
-        WritableMap result = Arguments.createMap();
-        result.putBoolean("success", sent);
-        result.putString("message", sent ? "ارسال موفق" : "خطا در ارسال");
-        promise.resolve(result);
+        engine.dispatch(() -> ikc.bill(billId, billPaymentId, print, showReceipt), promise);
     }
 
     @ReactMethod
+    @Override
     public void swipeCardForHash(Promise promise) {
-        Activity activity = getCurrentActivity();
-        if (activity == null) {
-            promise.reject("NO_ACTIVITY", "No current activity");
-            return;
-        }
-        SwipeCardForRequestHashedPan swipeCardForRequestHashedPan = new SwipeCardForRequestHashedPan(activity);
-        boolean sent = swipeCardForRequestHashedPan.send();
-        WritableMap result = Arguments.createMap();
-        result.putBoolean("success", sent);
-        result.putString("message", sent ? "ارسال موفق" : "خطا در ارسال");
-        promise.resolve(result);
+        engine.dispatch(ikc::swipeCardForHash, promise);
     }
 
+    // Resolves with the onActivityResult payload of the request started under this id.
+    @ReactMethod
     @Override
-    public void onActivityResult(Activity activity, int requestCode, int resultCode, Intent data) {
-        if (data == null) {
-            WritableMap errorResult = Arguments.createMap();
-            errorResult.putInt("requestCode", requestCode);
-            errorResult.putInt("resultCode", resultCode);
-            errorResult.putString("error", "Intent data is null");
-            getReactApplicationContext()
-                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                .emit("PaymentResult", errorResult);
+    public void awaitResult(String requestId, double timeoutMs, Promise promise) {
+        engine.awaitResult(requestId, (long) timeoutMs, promise);
+    }
+
+    @ReactMethod
+    @Override
+    public void cancelRequest(String requestId, Promise promise) {
+        promise.resolve(engine.cancel(requestId));
+    }
+
+    @ReactMethod
+    @Override
+    public void getStats(Promise promise) {
+        promise.resolve(Arguments.makeNativeMap(engine.getStats()));
+    }
+
+    // Per-request-code latency histograms (dispatch, PSP dwell, decode, emit) and counters.
+    @ReactMethod
+    @Override
+    public void getMetrics(Promise promise) {
+        promise.resolve(Arguments.makeNativeMap(engine.getMetrics()));
+    }
+
+    @ReactMethod
+    @Override
+    public void resetMetrics() {
+        engine.resetMetrics();
+    }
+
+    @ReactMethod
+    @Override
+    public void setSaleContext(String saleJson) {
+        engine.setSaleContext(saleJson);
+    }
+
+    @ReactMethod
+    @Override
+    public void getPendingJournalEntries(Promise promise) {
+        promise.resolve(BridgeJson.toWritableArray(engine.getJournal().getPending()));
+    }
+
+    @ReactMethod
+    @Override
+    public void acknowledgeJournalEntry(double journalId, Promise promise) {
+        promise.resolve(engine.getJournal().acknowledge((long) journalId));
+    }
+
+    // Searches the PSP for journaled sales whose result never arrived, within the
+    // given budget, and journals what it finds. Resolves with the run's report. Only
+    // for the cashier to start: searches open PSP screens, so none starts while any
+    // other request is in flight.
+    @ReactMethod
+    @Override
+    public void reconcilePending(double maxSearches, double maxDurationMs, Promise promise) {
+        if (!engine.isIdle()) {
+            promise.reject("REQUEST_IN_FLIGHT", "درخواست دیگری در برنامه پرداخت در حال انجام است");
             return;
         }
-
-        WritableMap result = Arguments.createMap();
-        result.putInt("requestCode", requestCode);
-        result.putInt("resultCode", resultCode);
-
-        // Handle different request codes with specific response parsing
-        if (requestCode == ICC_REQUEST_CODE) {
-            String iccresponse = data.getStringExtra("iccresponse");
-            if (iccresponse != null) {
-                result.putString("iccresponse", iccresponse);
-            } else {
-                int iccerror = data.getIntExtra("errorcode", 2);
-                String errorMessage;
-                switch (iccerror) {
-                    case 4:
-                    case 2:
-                        errorMessage = "خطای نامشخص";
-                        break;
-                    case 5:
-                        errorMessage = "خطا در برقراری ارتباط با کارت";
-                        break;
-                    case 3:
-                        errorMessage = "کد درخواست اشتباه است";
-                        break;
-                    default:
-                        errorMessage = "خطای نامشخص";
-                        break;
-                }
-                result.putInt("errorcode", iccerror);
-                result.putString("errorMessage", errorMessage);
-            }
-        } else if (requestCode == PURCHASE_REQUEST_CODE || requestCode == TASHIM_REQUEST_CODE) {
-            // Common fields for purchase and tashim transactions
-            addCommonTransactionFields(result, data);
-        } else if (requestCode == ASAN_KHARID_REQUEST_CODE) {
-            addCommonTransactionFields(result, data);
-            if (data.hasExtra("installmentCount")) result.putString("installmentCount", data.getStringExtra("installmentCount"));
-            if (data.hasExtra("installmentDate")) result.putString("installmentDate", data.getStringExtra("installmentDate"));
-        } else if (requestCode == MEDICAL_ASAN_KHARID_REQUEST_CODE) {
-            addCommonTransactionFields(result, data);
-        } else if (requestCode == BILL_REQUEST_CODE) {
-            addCommonTransactionFields(result, data);
-            if (data.hasExtra("billId")) result.putString("billId", data.getStringExtra("billId"));
-            if (data.hasExtra("billPaymentId")) result.putString("billPaymentId", data.getStringExtra("billPaymentId"));
-        } else if (requestCode == PRINT_REQUEST_CODE || requestCode == PRINT_BIG_BITMAP_REQUEST_CODE) {
-            if (data.hasExtra("message")) result.putString("message", data.getStringExtra("message"));
-        } else if (requestCode == SEARCH_REQUEST_CODE) {
-            addCommonTransactionFields(result, data);
-        } else if (requestCode == CHECK_UPDATE_REQUEST_CODE) {
-            if (data.hasExtra("message")) result.putString("message", data.getStringExtra("message"));
-            if (data.hasExtra("currentVersion")) result.putString("currentVersion", data.getStringExtra("currentVersion"));
-            if (data.hasExtra("lastVersion")) result.putString("lastVersion", data.getStringExtra("lastVersion"));
-            if (data.hasExtra("phoneNumber")) result.putString("phoneNumber", data.getStringExtra("phoneNumber"));
-            if (data.hasExtra("serial")) result.putString("serial", data.getStringExtra("serial"));
-            if (data.hasExtra("merchantName")) result.putString("merchantName", data.getStringExtra("merchantName"));
-        } else if (requestCode == SWIPE_CARD_REQUEST_CODE) {
-            if (data.hasExtra("message")) result.putString("message", data.getStringExtra("message"));
-            if (data.hasExtra("cardNumber")) result.putString("cardNumber", data.getStringExtra("cardNumber"));
-        } else if (requestCode == SWIPE_CARD_FORPAN_REQUEST_CODE) {
-            if (data.hasExtra("message")) result.putString("message", data.getStringExtra("message"));
-            if (data.hasExtra("cardNumber")) result.putString("cardNumber", data.getStringExtra("cardNumber"));
-            if (data.hasExtra("merchantID")) result.putString("merchantID", data.getStringExtra("merchantID"));
-            if (data.hasExtra("terminalID")) result.putString("terminalID", data.getStringExtra("terminalID"));
-            if (data.hasExtra("merchantName")) result.putString("merchantName", data.getStringExtra("merchantName"));
-            if (data.hasExtra("serial")) result.putString("serial", data.getStringExtra("serial"));
+        if (!reconciling.compareAndSet(false, true)) {
+            promise.reject("RECONCILE_RUNNING", "تطبیق تراکنش‌ها در حال انجام است");
+            return;
         }
+        Reconciler.Limits limits = new Reconciler.Limits();
+        limits.maxSearches = (int) maxSearches;
+        limits.maxDurationMs = (long) maxDurationMs;
+        reconcileExecutor.execute(() -> {
+            try {
+                promise.resolve(Arguments.makeNativeMap(PaymentReconciler.toMap(reconciler.run(limits))));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                promise.reject("INTERRUPTED", "تطبیق تراکنش‌ها متوقف شد");
+            } finally {
+                reconciling.set(false);
+            }
+        });
+    }
 
-        getReactApplicationContext()
-            .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-            .emit("PaymentResult", result);
+    // Synchronous: the credit screen recomputes it as the cashier edits the basket.
+    // Throws on a malformed basket, which surfaces in JS as an exception.
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    @Override
+    public WritableMap allocateCredit(ReadableMap basket) {
+        return Arguments.makeNativeMap(CreditBasket.allocate(basket));
     }
 
-    private void addCommonTransactionFields(WritableMap result, Intent data) {
-        if (data.hasExtra("paymentAmount")) result.putString("paymentAmount", data.getStringExtra("paymentAmount"));
-        if (data.hasExtra("paymentId")) result.putString("paymentId", data.getStringExtra("paymentId"));
-        if (data.hasExtra("message")) result.putString("message", data.getStringExtra("message"));
-        if (data.hasExtra("cardNumber")) result.putString("cardNumber", data.getStringExtra("cardNumber"));
-        if (data.hasExtra("cardBank")) result.putString("cardBank", data.getStringExtra("cardBank"));
-        if (data.hasExtra("referenceCode")) result.putString("referenceCode", data.getStringExtra("referenceCode"));
-        if (data.hasExtra("dateTime")) result.putString("dateTime", data.getStringExtra("dateTime"));
-        if (data.hasExtra("merchantID")) result.putString("merchantID", data.getStringExtra("merchantID"));
-        if (data.hasExtra("terminalID")) result.putString("terminalID", data.getStringExtra("terminalID"));
-        if (data.hasExtra("stan")) result.putString("stan", data.getStringExtra("stan"));
-        if (data.hasExtra("txResponseCode")) result.putString("txResponseCode", data.getStringExtra("txResponseCode"));
-        if (data.hasExtra("txResponseTitle")) result.putString("txResponseTitle", data.getStringExtra("txResponseTitle"));
-        if (data.hasExtra("phoneNumber")) result.putString("phoneNumber", data.getStringExtra("phoneNumber"));
-        if (data.hasExtra("serial")) result.putString("serial", data.getStringExtra("serial"));
-        if (data.hasExtra("merchantName")) result.putString("merchantName", data.getStringExtra("merchantName"));
+    // Resolves right away, so JS can time a bridge round trip.
+    @ReactMethod
+    @Override
+    public void ping(Promise promise) {
+        promise.resolve((double) System.nanoTime());
     }
 
+    // Results go out as RCTDeviceEventEmitter events; NativeEventEmitter needs these.
+    @ReactMethod
     @Override
-    public void onNewIntent(Intent intent) {
-        // Not needed
+    public void addListener(String eventName) {
+    }
+
+    @ReactMethod
+    @Override
+    public void removeListeners(double count) {
+    }
+
+    private void spooled(long jobId, Promise promise) {
+        if (jobId < 0) {
+            promise.reject("PRINT_QUEUE_FULL", "صف چاپ پر است");
+            return;
+        }
+        WritableMap result = Arguments.createMap();
+        result.putBoolean("success", true);
+        result.putString("message", "به صف چاپ اضافه شد");
+        result.putDouble("jobId", jobId);
+        result.putInt("queueDepth", spooler.depth());
+        promise.resolve(result);
+    }
+
+    private static String[] toArray(ReadableArray array) {
+        return array == null ? null : BridgeJson.toStringList(array).toArray(new String[0]);
     }
-} 
\ No newline at end of file
+}
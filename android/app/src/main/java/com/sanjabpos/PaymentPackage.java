@@ -1,28 +1,66 @@
 package com.sanjabpos;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
-import com.facebook.react.ReactPackage;
+import com.facebook.react.TurboReactPackage;
 import com.facebook.react.bridge.NativeModule;
 import com.facebook.react.bridge.ReactApplicationContext;
-import com.facebook.react.uimanager.ViewManager;
+import com.facebook.react.module.model.ReactModuleInfo;
+import com.facebook.react.module.model.ReactModuleInfoProvider;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 
-public class PaymentPackage implements ReactPackage {
-    @NonNull
+// Modules are created on first use from JS rather than at startup. The payment
+// modules need no eager init either: a PSP result that comes back to a restarted
+// process before they exist is held by PaymentEngine.deliver until their provider
+// registers, which is when the bundle's specs first look them up.
+// PaymentModule, HttpClientModule and TransactionStoreModule are codegen TurboModules;
+// the upload, credit and background sync modules still run through the interop layer.
+public class PaymentPackage extends TurboReactPackage {
+    @Nullable
     @Override
-    public List<NativeModule> createNativeModules(@NonNull ReactApplicationContext reactContext) {
-        List<NativeModule> modules = new ArrayList<>();
-        modules.add(new PaymentModule(reactContext));
-        return modules;
+    public NativeModule getModule(@NonNull String name, @NonNull ReactApplicationContext reactContext) {
+        switch (name) {
+            case NativePaymentModuleSpec.NAME:
+                return new PaymentModule(reactContext);
+            case NativeHttpClientModuleSpec.NAME:
+                return new HttpClientModule(reactContext);
+            case NativeTransactionStoreModuleSpec.NAME:
+                return new TransactionStoreModule(reactContext);
+            case "TransactionUploadModule":
+                return new TransactionUploadModule(reactContext);
+            case "CustomerCreditModule":
+                return new CustomerCreditModule(reactContext);
+            case "BackgroundSyncModule":
+                return new BackgroundSyncModule(reactContext);
+            default:
+                return null;
+        }
     }
 
-    @NonNull
     @Override
-    public List<ViewManager> createViewManagers(@NonNull ReactApplicationContext reactContext) {
-        return Collections.emptyList();
+    public ReactModuleInfoProvider getReactModuleInfoProvider() {
+        return () -> {
+            Map<String, ReactModuleInfo> modules = new HashMap<>();
+            modules.put(NativePaymentModuleSpec.NAME, info(NativePaymentModuleSpec.NAME, PaymentModule.class, true));
+            modules.put(NativeHttpClientModuleSpec.NAME, info(NativeHttpClientModuleSpec.NAME, HttpClientModule.class, true));
+            modules.put(NativeTransactionStoreModuleSpec.NAME,
+                    info(NativeTransactionStoreModuleSpec.NAME, TransactionStoreModule.class, true));
+            modules.put("TransactionUploadModule", info("TransactionUploadModule", TransactionUploadModule.class, false));
+            modules.put("CustomerCreditModule", info("CustomerCreditModule", CustomerCreditModule.class, false));
+            modules.put("BackgroundSyncModule", info("BackgroundSyncModule", BackgroundSyncModule.class, false));
+            return modules;
+        };
     }
-} 
\ No newline at end of file
+
+    static ReactModuleInfo info(String name, Class<?> moduleClass, boolean turboModule) {
+        return new ReactModuleInfo(name, moduleClass.getName(),
+                false, // canOverrideExistingModule
+                false, // needsEagerInit
+                false, // hasConstants
+                false, // isCxxModule
+                turboModule);
+    }
+}
@@ -0,0 +1,42 @@
+package com.sanjabpos;
+
+import android.content.Intent;
+
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+import com.sanjabpos.core.SearchKey;
+import com.sanjabpos.core.TashimShare;
+
+import java.util.List;
+
+// A PSP integration. Providers only describe how to launch each operation and how
+// to read its result; PaymentEngine owns activity checks, correlation, journaling,
+// result dispatch and stats. Printing is not part of it: receipts go through
+// PrintSpooler and the provider's printer (IkcPaymentProvider.printer()). Operations a PSP does not offer return null, and
+// invalid arguments throw IllegalArgumentException with a message for the cashier.
+public interface PaymentProvider {
+    String getName();
+
+    // Event name results of this provider are emitted under.
+    String getResultEvent();
+
+    boolean handlesResult(int requestCode);
+
+    PaymentCall purchase(String amount, String id, boolean print, boolean showReceipt);
+
+    PaymentCall tashim(String amount, String id, List<TashimShare> shares, boolean print, boolean showReceipt);
+
+    PaymentCall bill(String billId, String billPaymentId, boolean print, boolean showReceipt);
+
+    PaymentCall search(SearchKey key, String value, String persianDate);
+
+    // Copies the provider's result extras into the map sent to JS; data is never null.
+    void decodeResult(int requestCode, int resultCode, Intent data, WritableMap result);
+
+    boolean isApproved(int requestCode, int resultCode, ReadableMap result);
+
+    // The PSP's own reference for the transaction a decoded result is about (stan,
+    // trace number), or null if the result has none. A second result with the same
+    // reference is a repeat delivery and is dropped.
+    String resultReference(int requestCode, ReadableMap result);
+}
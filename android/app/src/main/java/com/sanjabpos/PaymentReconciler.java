@@ -0,0 +1,203 @@
+package com.sanjabpos;
+
+import android.util.Log;
+
+import com.facebook.react.bridge.ReadableMap;
+import com.sanjabpos.core.JalaliDate;
+import com.sanjabpos.core.Reconciler;
+import com.sanjabpos.core.SearchKey;
+import com.sanjabpos.core.TashimSplit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import ir.ikccc.externalpayment.ResponseError;
+
+// Runs core Reconciler over the journal: each IKC sale left without a usable result
+// is looked up with the same search requests the cashier could make by hand, and
+// the answer is written back to the journal, where replayPendingJournal settles it
+// with the backend. Progress is journaled per entry, so a run cut short by the
+// budget, a crash or the app closing carries on from there next time.
+//
+// Searches are sent exclusively: a run stops, without counting it against any sale,
+// as soon as another PSP request is in flight, and a sale cannot start meanwhile.
+final class PaymentReconciler {
+    private static final String TAG = "PaymentReconciler";
+    private static final long SEARCH_TIMEOUT_MS = 2 * 60 * 1000;
+
+    private final PaymentEngine engine;
+    private final IkcPaymentProvider ikc;
+    private final TransactionJournal journal;
+
+    PaymentReconciler(PaymentEngine engine, IkcPaymentProvider ikc) {
+        this.engine = engine;
+        this.ikc = ikc;
+        this.journal = engine.getJournal();
+    }
+
+    // Blocks for the whole run; call it off the main and JS threads.
+    Reconciler.Report run(Reconciler.Limits limits) throws InterruptedException {
+        List<Reconciler.Sale> sales = new ArrayList<>();
+        for (JSONObject entry : journal.getUnsettled()) {
+            // Sepehr has no search request
+            if (ikc.handlesResult(entry.optInt("requestCode", -1))) {
+                sales.add(toSale(entry));
+            }
+        }
+        Reconciler reconciler = new Reconciler(this::search, new JournalListener(), limits);
+        Reconciler.Report report = reconciler.run(sales, System.currentTimeMillis());
+        Log.i(TAG, "Reconciled " + report.searches + " searches: " + report.approved + " approved, "
+                + report.declined + " declined, " + report.flagged + " flagged in " + report.elapsedMs + "ms");
+        return report;
+    }
+
+    static Map<String, Object> toMap(Reconciler.Report report) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("candidates", (double) report.candidates);
+        map.put("searches", (double) report.searches);
+        map.put("approved", (double) report.approved);
+        map.put("declined", (double) report.declined);
+        map.put("flagged", (double) report.flagged);
+        map.put("retryLater", (double) report.retryLater);
+        map.put("truncated", report.truncated);
+        map.put("elapsedMs", (double) report.elapsedMs);
+        return map;
+    }
+
+    private static Reconciler.Sale toSale(JSONObject entry) {
+        JSONObject intent = entry.optJSONObject("intent");
+        JSONObject result = entry.optJSONObject("result");
+        long amount;
+        try {
+            amount = TashimSplit.parseRials(intent == null ? null : intent.optString("amount", null));
+        } catch (IllegalArgumentException e) {
+            amount = -1;
+        }
+        Reconciler.Sale sale = new Reconciler.Sale(entry.optLong("id"), entry.optLong("createdAt"), amount,
+                intent == null ? null : intent.optString("id", null),
+                result == null ? null : result.optString("stan", null),
+                result == null ? null : result.optString("referenceCode", null));
+        JSONObject state = entry.optJSONObject("reconcile");
+        if (state != null) {
+            sale.attempts = state.optInt("attempts");
+            sale.notFound = state.optInt("notFound");
+            sale.lastAttemptAt = state.optLong("lastAttemptAt");
+        }
+        return sale;
+    }
+
+    // Sends a search through the engine and waits for its correlated result.
+    private Reconciler.Found search(SearchKey key, String value, long createdAt) throws InterruptedException {
+        String persianDate = key == SearchKey.PAYMENT_ID ? JalaliDate.packed(createdAt) : null;
+        BlockingQueue<Object> sentAnswer = new ArrayBlockingQueue<>(1);
+        engine.dispatchExclusive(() -> ikc.search(key, value, persianDate), PaymentEngine.blockingPromise(sentAnswer));
+        Object sent = sentAnswer.poll(SEARCH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        if (!(sent instanceof ReadableMap) || !((ReadableMap) sent).hasKey("requestId")) {
+            return Reconciler.Found.unavailable(describe(sent));
+        }
+        BlockingQueue<Object> resultAnswer = new ArrayBlockingQueue<>(1);
+        engine.awaitResult(((ReadableMap) sent).getString("requestId"), SEARCH_TIMEOUT_MS, PaymentEngine.blockingPromise(resultAnswer));
+        Object result = resultAnswer.poll(SEARCH_TIMEOUT_MS + 5000, TimeUnit.MILLISECONDS);
+        if (!(result instanceof ReadableMap)) {
+            return Reconciler.Found.error(describe(result));
+        }
+        return toFound((ReadableMap) result);
+    }
+
+    // An IKC search answers with the transaction's own fields. An answer without a
+    // stan or reference code is NOT_FOUND only if the PSP said so in as many words;
+    // a failed search, a network error or a cashier backing out of the search
+    // screen look the same otherwise and say nothing about the sale.
+    static Reconciler.Found toFound(ReadableMap result) {
+        if (result.hasKey("outcomeUnknown") || !result.hasKey("resultCode")) {
+            return Reconciler.Found.error(result.toHashMap());
+        }
+        String stan = string(result, "stan");
+        String rrn = string(result, "referenceCode");
+        Reconciler.Verdict verdict;
+        if (stan == null && rrn == null) {
+            verdict = result.getInt("resultCode") != 0 && saysNotFound(string(result, "message"))
+                    ? Reconciler.Verdict.NOT_FOUND
+                    : Reconciler.Verdict.ERROR;
+        } else {
+            String response = string(result, "txResponseCode");
+            boolean approved = result.getInt("resultCode") == 0 && (response == null || "00".equals(response));
+            verdict = approved ? Reconciler.Verdict.APPROVED : Reconciler.Verdict.DECLINED;
+        }
+        long amount = result.hasKey("paymentAmountValue") ? (long) result.getDouble("paymentAmountValue") : -1;
+        return new Reconciler.Found(verdict, amount, string(result, "paymentId"), stan, rrn, result.toHashMap());
+    }
+
+    // The IKC app's own texts for a search that found nothing. A payment id search
+    // has none, so it never proves a sale missing.
+    private static boolean saysNotFound(String message) {
+        return message != null && (message.trim().equals(ResponseError.RRN_NOT_FOUND)
+                || message.trim().equals(ResponseError.STAN_NOT_FOUND));
+    }
+
+    private static String string(ReadableMap map, String key) {
+        if (!map.hasKey(key) || map.isNull(key)) {
+            return null;
+        }
+        String value = map.getString(key);
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private static Object describe(Object answer) {
+        if (answer instanceof Object[]) {
+            Object error = ((Object[]) answer)[0];
+            return error instanceof ReadableMap ? ((ReadableMap) error).toHashMap() : String.valueOf(error);
+        }
+        return answer == null ? "timeout" : String.valueOf(answer);
+    }
+
+    private final class JournalListener implements Reconciler.Listener {
+        @Override
+        public void settled(Reconciler.Sale sale, Reconciler.Verdict verdict, Reconciler.Found found) {
+            boolean approved = verdict == Reconciler.Verdict.APPROVED;
+            JSONObject payload = found.details instanceof Map
+                    ? new JSONObject((Map<?, ?>) found.details)
+                    : new JSONObject();
+            try {
+                payload.put("approved", approved);
+                payload.put("reconciled", true);
+                payload.put("verdict", found.verdict == verdict ? verdict.name() : "NOT_FOUND");
+                payload.remove("requestId");
+            } catch (JSONException e) {
+                Log.e(TAG, "Failed to build reconciled result", e);
+            }
+            journal.recordReconciled(sale.journalId, approved ? 0 : 1, payload);
+        }
+
+        @Override
+        public void attempted(Reconciler.Sale sale) {
+            journal.recordReconcileState(sale.journalId, state(sale, null));
+        }
+
+        @Override
+        public void flagged(Reconciler.Sale sale, String reason) {
+            journal.recordReconcileState(sale.journalId, state(sale, reason));
+        }
+
+        private JSONObject state(Reconciler.Sale sale, String flag) {
+            JSONObject state = new JSONObject();
+            try {
+                state.put("attempts", sale.attempts);
+                state.put("notFound", sale.notFound);
+                state.put("lastAttemptAt", sale.lastAttemptAt);
+                state.putOpt("flag", flag);
+            } catch (JSONException e) {
+                Log.e(TAG, "Failed to build reconcile state", e);
+            }
+            return state;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.sanjabpos;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import com.sanjabpos.core.PrintRaster;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Prepares images for the thermal printer instead of handing the PSP a file or a
+// full-resolution drawable. The image is measured first, decoded in bands of rows
+// with the largest subsampling that keeps it at least as wide as the paper, and each
+// band is pushed through PrintRaster, which scales it to the printer's dots and
+// dithers it to black and white. The band bitmap and the output bitmaps are pooled,
+// so after the first image printing allocates almost nothing; a 4000x3000 photo is
+// never in memory as more than 64 rows of its 500 pixel wide subsampled decode.
+final class PrintImagePipeline {
+    private static final int BAND_ROWS = 64;
+    private static final int MAX_POOLED = 2;
+
+    private interface Source {
+        InputStream open() throws IOException;
+    }
+
+    // Output bitmaps waiting to be reused; guarded by this.
+    private final List<Bitmap> pool = new ArrayList<>();
+    // Prepared drawables by "name:dots"; printBigBitmap prints the same one every time.
+    private final Map<String, Bitmap> drawables = new HashMap<>();
+    private final Rect region = new Rect();
+    private Bitmap band;
+    private int[] bandPixels = new int[0];
+    private int[] outputPixels = new int[0];
+
+    private long images;
+    private long fallbacks;
+    private long prepareNanos;
+    private long maxWorkingBytes;
+
+    // Returns null if the image cannot be decoded; the caller then sends the file as is.
+    synchronized Bitmap prepareFile(String path, int dots) {
+        try {
+            return prepare(() -> new FileInputStream(path), dots);
+        } catch (IOException | RuntimeException e) {
+            fallbacks++;
+            return null;
+        }
+    }
+
+    // The result is cached and must not be released.
+    synchronized Bitmap prepareDrawable(Context context, String name, int dots) {
+        String key = name + ":" + dots;
+        Bitmap bitmap = drawables.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        int id = context.getResources().getIdentifier(name, "drawable", context.getPackageName());
+        try {
+            bitmap = prepare(() -> context.getResources().openRawResource(id), dots);
+        } catch (IOException | RuntimeException e) {
+            fallbacks++;
+            return null;
+        }
+        drawables.put(key, bitmap);
+        return bitmap;
+    }
+
+    // Gives a prepareFile bitmap back once the printer has it.
+    synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || drawables.containsValue(bitmap)) {
+            return;
+        }
+        if (pool.size() < MAX_POOLED) {
+            pool.add(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+
+    synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("images", (double) images);
+        stats.put("imageFallbacks", (double) fallbacks);
+        stats.put("msPerImage", images == 0 ? 0.0 : prepareNanos / 1e6 / images);
+        stats.put("maxImageBytes", (double) maxWorkingBytes);
+        return stats;
+    }
+
+    private Bitmap prepare(Source source, int dots) throws IOException {
+        long start = System.nanoTime();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = source.open()) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Not a decodable image");
+        }
+        int fullWidth = options.outWidth;
+        int fullHeight = options.outHeight;
+        int sample = PrintRaster.sampleSize(fullWidth, dots);
+        int width = Math.max(1, fullWidth / sample);
+        int height = Math.max(1, fullHeight / sample);
+
+        Bitmap[] output = new Bitmap[1];
+        int[] flushed = new int[1];
+        PrintRaster raster = new PrintRaster(width, height, dots, (y, row) -> {
+            // Rows are collected into a band and written to the bitmap one band at a time.
+            int inBand = y - flushed[0];
+            System.arraycopy(row, 0, outputPixels, inBand * row.length, row.length);
+            if (inBand + 1 == BAND_ROWS) {
+                output[0].setPixels(outputPixels, 0, row.length, 0, flushed[0], row.length, BAND_ROWS);
+                flushed[0] += BAND_ROWS;
+            }
+        });
+        output[0] = acquire(raster.width(), raster.height());
+        if (outputPixels.length < raster.width() * BAND_ROWS) {
+            outputPixels = new int[raster.width() * BAND_ROWS];
+        }
+
+        options = new BitmapFactory.Options();
+        options.inSampleSize = sample;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        BitmapRegionDecoder decoder = null;
+        try (InputStream in = source.open()) {
+            decoder = BitmapRegionDecoder.newInstance(in, false);
+        } catch (IOException e) {
+            // Formats the region decoder does not support (GIF, BMP) are decoded whole,
+            // already subsampled.
+        }
+        int lastRow = 0;
+        try {
+            if (decoder != null) {
+                long bandBytes = 4L * ((fullWidth + sample - 1) / sample) * BAND_ROWS;
+                for (int top = 0; top < fullHeight && !raster.done(); top += BAND_ROWS * sample) {
+                    region.set(0, top, fullWidth, Math.min(fullHeight, top + BAND_ROWS * sample));
+                    // A pooled band too small for this image would make decodeRegion throw.
+                    options.inBitmap = band != null && band.getAllocationByteCount() >= bandBytes ? band : null;
+                    Bitmap decoded = decoder.decodeRegion(region, options);
+                    if (decoded == null) {
+                        throw new IOException("Failed to decode image band");
+                    }
+                    if (band != null && band != decoded) {
+                        band.recycle();
+                    }
+                    band = decoded;
+                    lastRow = push(raster, decoded, width);
+                }
+            } else {
+                Bitmap whole;
+                try (InputStream in = source.open()) {
+                    whole = BitmapFactory.decodeStream(in, null, options);
+                }
+                if (whole == null) {
+                    throw new IOException("Failed to decode image");
+                }
+                lastRow = push(raster, whole, width);
+                whole.recycle();
+            }
+        } catch (IOException | RuntimeException e) {
+            release(output[0]);
+            throw e;
+        } finally {
+            if (decoder != null) {
+                decoder.recycle();
+            }
+        }
+        // Rounding in the decoder can leave the last row or two short.
+        while (!raster.done()) {
+            raster.push(bandPixels, lastRow);
+        }
+        int pending = raster.height() - flushed[0];
+        if (pending > 0) {
+            output[0].setPixels(outputPixels, 0, raster.width(), 0, flushed[0], raster.width(), pending);
+        }
+
+        images++;
+        prepareNanos += System.nanoTime() - start;
+        long working = (band != null ? band.getAllocationByteCount() : 0) + 4L * bandPixels.length
+                + 4L * outputPixels.length + raster.footprintBytes() + output[0].getAllocationByteCount();
+        if (working > maxWorkingBytes) {
+            maxWorkingBytes = working;
+        }
+        return output[0];
+    }
+
+    // Returns the offset of the last row pushed.
+    private int push(PrintRaster raster, Bitmap decoded, int width) {
+        int columns = Math.min(width, decoded.getWidth());
+        int rows = decoded.getHeight();
+        if (bandPixels.length < width * rows) {
+            bandPixels = new int[width * rows];
+        }
+        decoded.getPixels(bandPixels, 0, width, 0, 0, columns, rows);
+        int r = 0;
+        for (; r < rows && !raster.done(); r++) {
+            raster.push(bandPixels, r * width);
+        }
+        return Math.max(0, r - 1) * width;
+    }
+
+    // The printer only needs black and white, so output bitmaps are RGB_565.
+    private Bitmap acquire(int width, int height) {
+        int needed = width * height * 2;
+        for (int i = 0; i < pool.size(); i++) {
+            Bitmap pooled = pool.get(i);
+            if (pooled.getAllocationByteCount() >= needed) {
+                pool.remove(i);
+                pooled.reconfigure(width, height, Bitmap.Config.RGB_565);
+                return pooled;
+            }
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+    }
+}
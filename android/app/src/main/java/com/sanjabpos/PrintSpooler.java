@@ -0,0 +1,529 @@
+package com.sanjabpos;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.sanjabpos.core.JournalLog;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Serializes print jobs so overlapping prints (customer copy, merchant copy,
+// reprints) reach the PSP one at a time. A single consumer thread takes jobs in
+// order, renders adjacent text jobs of the same template as one receipt, waits for
+// the print result before sending the next, and retries failed prints with backoff.
+// Image jobs are scaled and dithered for the paper by PrintImagePipeline first.
+//
+// One spooler per process, as its JournalLog is the one writer of print-queue.wal;
+// it outlives React contexts and prints through the current one's activity. Jobs
+// are kept in the log until they printed, so a killed process prints them when
+// the spooler starts again. A job that still fails after its attempts
+// is held, not dropped, and goes back in the queue once a later print succeeds.
+//
+// Each send is an attempt with its own id, and a result goes only to the attempt
+// waiting on its request code. A print whose result does not come in time may
+// still come out of a slow printer, so it is not sent again: the attempt stays
+// the one waiting, the next send on that code waits for its late result, and only
+// a late failure puts the job back in the queue.
+final class PrintSpooler implements PaymentEngine.ResultListener, JournalLog.Listener {
+    private static final String TAG = "PrintSpooler";
+    private static final String FILE_NAME = "print-queue.wal";
+    private static final int MAX_DEPTH = 5000;
+    private static final int MAX_MERGED_LINES = 80;
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long BASE_BACKOFF_MS = 500;
+    // How long the consumer waits on a print's result before moving on.
+    private static final long RESULT_TIMEOUT_MS = 10_000;
+    // How long a timed-out print keeps its request code, so a late result is not
+    // taken for the next print's.
+    private static final long LATE_RESULT_MS = 60_000;
+    private static final ReceiptRenderer.Line SEPARATOR = new ReceiptRenderer.Line("- - - - - - - - - -", "", true);
+
+    interface Printer {
+        // Returns false if the job could not be handed to the printer.
+        boolean print(Activity activity, Bitmap receipt, boolean big) throws Exception;
+
+        boolean printImagePath(Activity activity, String imagePath) throws Exception;
+
+        // Request code the outcome comes back under through onActivityResult, or -1
+        // if print() already reports it.
+        int resultRequestCode(boolean big);
+    }
+
+    private enum Outcome { PRINTED, FAILED, UNCONFIRMED }
+
+    // One send of a batch, waiting on the result under requestCode.
+    private static final class Attempt {
+        final long id;
+        final int requestCode;
+        final List<Job> batch;
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile int resultCode;
+        // Set once the consumer stopped waiting: the result then only tells whether
+        // the batch has to be printed again. Guarded by the spooler.
+        boolean late;
+        long lateAt;
+
+        Attempt(long id, int requestCode, List<Job> batch) {
+            this.id = id;
+            this.requestCode = requestCode;
+            this.batch = batch;
+        }
+    }
+
+    static final class Job {
+        final long id;
+        final String templateKey;
+        final List<ReceiptRenderer.Line> lines;
+        final String drawable;
+        final String imagePath;
+        // Printer dot width images are prepared for.
+        final int dots;
+        final long enqueuedAt = System.nanoTime();
+
+        private Job(long id, String templateKey, List<ReceiptRenderer.Line> lines, String drawable, String imagePath,
+                    int dots) {
+            this.id = id;
+            this.templateKey = templateKey;
+            this.lines = lines;
+            this.drawable = drawable;
+            this.imagePath = imagePath;
+            this.dots = dots;
+        }
+    }
+
+    private static PrintSpooler instance;
+
+    private volatile ReactApplicationContext reactContext;
+    private volatile ReceiptRenderer renderer;
+    private final PrintImagePipeline images = new PrintImagePipeline();
+    private final LinkedBlockingDeque<Job> queue = new LinkedBlockingDeque<>();
+    // Seeded from the clock so ids are not reused after a compaction empties the log.
+    private final AtomicLong nextId = new AtomicLong(System.currentTimeMillis());
+    private final JournalLog log;
+    // The consumer starts once the jobs of the last run are back in the queue.
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    // Jobs that used up their attempts. Guarded by this.
+    private final List<Job> held = new ArrayList<>();
+    private final Thread consumer;
+    private final Printer printer;
+    private long nextAttemptId;
+    // The attempt a result goes to: the one the consumer waits on, or one that
+    // timed out and whose result may still come. Guarded by this.
+    private Attempt awaiting;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private volatile long maxDepth;
+    private volatile long printed;
+    private volatile long sends;
+    private volatile long merged;
+    private volatile long retries;
+    private volatile long failed;
+    private volatile long resultTimeouts;
+    private volatile long lateResults;
+    private volatile long latencyNanos;
+    private volatile long maxLatencyNanos;
+
+    // Later callers, i.e. the module of a new React context, bring their context and
+    // renderer, which holds their receipt template.
+    static synchronized PrintSpooler get(ReactApplicationContext reactContext, ReceiptRenderer renderer,
+                                         Printer printer) {
+        if (instance == null) {
+            instance = new PrintSpooler(reactContext, new File(reactContext.getFilesDir(), FILE_NAME), renderer,
+                    printer);
+        } else {
+            instance.reactContext = reactContext;
+            instance.renderer = renderer;
+        }
+        return instance;
+    }
+
+    PrintSpooler(ReactApplicationContext reactContext, File file, ReceiptRenderer renderer, Printer printer) {
+        this.reactContext = reactContext;
+        this.renderer = renderer;
+        this.printer = printer;
+        log = new JournalLog(file);
+        log.open(this, TAG + "-log");
+        consumer = new Thread(this::run, TAG);
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    // Each returns the job id, or -1 when the queue is full.
+    long enqueueText(String templateKey, List<ReceiptRenderer.Line> lines) {
+        return enqueue(new Job(nextId.getAndIncrement(), templateKey, lines, null, null, 0));
+    }
+
+    long enqueueDrawable(String drawable, int dots) {
+        return enqueue(new Job(nextId.getAndIncrement(), null, null, drawable, null, dots));
+    }
+
+    long enqueueImagePath(String imagePath, int dots) {
+        return enqueue(new Job(nextId.getAndIncrement(), null, null, null, imagePath, dots));
+    }
+
+    int depth() {
+        return queue.size();
+    }
+
+    // Jobs not yet printed stay in the log for the next spooler on the file.
+    void shutdown() {
+        consumer.interrupt();
+        try {
+            log.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close print queue", e);
+        }
+    }
+
+    // Puts the jobs of the last run, in their order, ahead of any queued since.
+    @Override
+    public void replayed(JournalLog.Replay replay) {
+        List<Job> jobs = new ArrayList<>();
+        for (JournalLog.Entry entry : replay.entries.values()) {
+            Job job = fromJson(entry.id, entry.intent);
+            if (job == null) {
+                log.append(JournalLog.ACK, entry.id, null);
+            } else {
+                jobs.add(job);
+            }
+        }
+        long after = replay.lastId + 1;
+        long current;
+        while ((current = nextId.get()) < after && !nextId.compareAndSet(current, after)) {
+            // An enqueue took an id meanwhile; read it again.
+        }
+        for (int i = jobs.size() - 1; i >= 0; i--) {
+            queue.addFirst(jobs.get(i));
+        }
+        if (!jobs.isEmpty()) {
+            Log.i(TAG, "Restored " + jobs.size() + " print jobs");
+        }
+    }
+
+    @Override
+    public void opened(IOException error) {
+        if (error != null) {
+            Log.e(TAG, "Print queue could not be read; jobs of the last run are lost", error);
+        }
+        loaded.countDown();
+    }
+
+    @Override
+    public void onResult(int requestCode, int resultCode) {
+        Attempt attempt;
+        synchronized (this) {
+            attempt = awaiting;
+            if (attempt == null || attempt.requestCode != requestCode) {
+                return;
+            }
+            awaiting = null;
+            attempt.resultCode = resultCode;
+            attempt.done.countDown();
+            if (!attempt.late) {
+                return;
+            }
+            lateResults++;
+        }
+        if (resultCode == 0) {
+            Log.i(TAG, "Print attempt " + attempt.id + " printed after its timeout");
+            return;
+        }
+        // Did not print after all: the jobs go in again.
+        Log.w(TAG, "Print attempt " + attempt.id + " failed after its timeout; printing it again");
+        for (Job job : attempt.batch) {
+            Job again = job.lines != null ? new Job(nextId.getAndIncrement(), job.templateKey, job.lines, null, null, 0)
+                    : new Job(nextId.getAndIncrement(), null, null, job.drawable, job.imagePath, job.dots);
+            enqueue(again);
+        }
+    }
+
+    synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("depth", (double) queue.size());
+        stats.put("maxDepth", (double) maxDepth);
+        stats.put("enqueued", (double) enqueued.get());
+        stats.put("printed", (double) printed);
+        stats.put("sends", (double) sends);
+        stats.put("merged", (double) merged);
+        stats.put("retries", (double) retries);
+        stats.put("failed", (double) failed);
+        stats.put("held", (double) held.size());
+        stats.put("resultTimeouts", (double) resultTimeouts);
+        stats.put("lateResults", (double) lateResults);
+        stats.put("avgLatencyMs", printed == 0 ? 0.0 : latencyNanos / 1e6 / printed);
+        stats.put("maxLatencyMs", maxLatencyNanos / 1e6);
+        stats.putAll(images.getStats());
+        return stats;
+    }
+
+    // The job is written to the log in the background; prints do not move money,
+    // so the caller does not wait for the fsync.
+    private long enqueue(Job job) {
+        int depth = queue.size();
+        if (depth >= MAX_DEPTH) {
+            return -1;
+        }
+        log.append(JournalLog.INTENT, job.id, toJson(job));
+        queue.addLast(job);
+        enqueued.incrementAndGet();
+        if (depth + 1 > maxDepth) {
+            maxDepth = depth + 1;
+        }
+        return job.id;
+    }
+
+    private void run() {
+        List<Job> batch = new ArrayList<>();
+        try {
+            loaded.await();
+            while (true) {
+                batch.add(queue.takeFirst());
+                finish(batch, print(batch));
+                batch = new ArrayList<>();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Outcome print(List<Job> batch) throws InterruptedException {
+        Job job = batch.get(0);
+        List<ReceiptRenderer.Line> lines = job.lines;
+        if (lines != null) {
+            lines = coalesce(batch);
+        }
+        Bitmap image = null;
+        if (job.imagePath != null) {
+            image = images.prepareFile(job.imagePath, job.dots);
+        }
+        try {
+            return print(batch, lines, image);
+        } finally {
+            images.release(image);
+        }
+    }
+
+    private Outcome print(List<Job> batch, List<ReceiptRenderer.Line> lines, Bitmap image)
+            throws InterruptedException {
+        Job job = batch.get(0);
+        Bitmap bitmap = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            if (attempt > 0) {
+                retries++;
+                Thread.sleep(BASE_BACKOFF_MS << (attempt - 1));
+            }
+            Activity activity = reactContext.getCurrentActivity();
+            if (activity == null) {
+                continue;
+            }
+            Printer target = printer;
+            boolean big = job.drawable != null;
+            int requestCode = target.resultRequestCode(big);
+            Attempt sending = null;
+            if (requestCode != -1) {
+                awaitLateResult(requestCode);
+                sending = new Attempt(nextAttemptId++, requestCode, batch);
+                synchronized (this) {
+                    awaiting = sending;
+                }
+            }
+            boolean sent;
+            try {
+                if (lines != null) {
+                    if (bitmap == null) {
+                        bitmap = renderer.render(activity, job.templateKey, lines);
+                    }
+                    sent = target.print(activity, bitmap, false);
+                } else if (big) {
+                    if (bitmap == null) {
+                        bitmap = images.prepareDrawable(activity, job.drawable, job.dots);
+                    }
+                    sent = target.print(activity, bitmap, true);
+                } else if (image != null) {
+                    sent = target.print(activity, image, false);
+                } else {
+                    // Not an image we can decode; leave it to the PSP.
+                    sent = target.printImagePath(activity, job.imagePath);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to send print job " + job.id, e);
+                sent = false;
+            }
+            sends++;
+            if (!sent) {
+                clearAwaiting(sending);
+                continue;
+            }
+            if (sending == null) {
+                return Outcome.PRINTED;
+            }
+            if (!sending.done.await(RESULT_TIMEOUT_MS, TimeUnit.MILLISECONDS) && timedOut(sending)) {
+                resultTimeouts++;
+                Log.w(TAG, "No result for print attempt " + sending.id + " (job " + job.id + ") after "
+                        + RESULT_TIMEOUT_MS + " ms; not sending it again");
+                return Outcome.UNCONFIRMED;
+            }
+            if (sending.resultCode == 0) {
+                return Outcome.PRINTED;
+            }
+        }
+        return Outcome.FAILED;
+    }
+
+    // False if the result came in just as the wait ended.
+    private synchronized boolean timedOut(Attempt attempt) {
+        if (attempt.done.getCount() == 0) {
+            return false;
+        }
+        attempt.late = true;
+        attempt.lateAt = System.nanoTime();
+        return true;
+    }
+
+    private synchronized void clearAwaiting(Attempt attempt) {
+        if (attempt != null && awaiting == attempt) {
+            awaiting = null;
+        }
+    }
+
+    // A print that timed out on the same request code keeps it for LATE_RESULT_MS.
+    // After that its result, should it still come, can no longer be told apart.
+    private void awaitLateResult(int requestCode) throws InterruptedException {
+        Attempt late;
+        synchronized (this) {
+            late = awaiting;
+        }
+        if (late == null || late.requestCode != requestCode) {
+            return;
+        }
+        long left = LATE_RESULT_MS - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - late.lateAt);
+        if (left > 0 && late.done.await(left, TimeUnit.MILLISECONDS)) {
+            return;
+        }
+        Log.w(TAG, "Print attempt " + late.id + " never reported a result");
+        clearAwaiting(late);
+    }
+
+    // Pulls the text jobs queued right behind the first one into the same receipt.
+    private List<ReceiptRenderer.Line> coalesce(List<Job> batch) {
+        Job first = batch.get(0);
+        Job next = queue.peekFirst();
+        if (next == null || !mergeable(first, next, first.lines.size())) {
+            return first.lines;
+        }
+        List<ReceiptRenderer.Line> lines = new ArrayList<>(first.lines);
+        while (next != null && mergeable(first, next, lines.size())) {
+            // Only this thread takes from the queue, so the peeked job is still at the head.
+            queue.pollFirst();
+            batch.add(next);
+            lines.add(SEPARATOR);
+            lines.addAll(next.lines);
+            merged++;
+            next = queue.peekFirst();
+        }
+        return lines;
+    }
+
+    private static boolean mergeable(Job first, Job next, int lineCount) {
+        return next.lines != null
+                && first.templateKey.equals(next.templateKey)
+                && lineCount + 1 + next.lines.size() <= MAX_MERGED_LINES;
+    }
+
+    // An unconfirmed batch is acknowledged like a printed one, so a restart does
+    // not print it again either.
+    private synchronized void finish(List<Job> batch, Outcome outcome) {
+        if (outcome == Outcome.FAILED) {
+            failed += batch.size();
+            held.addAll(batch);
+            Log.w(TAG, "Holding " + batch.size() + " print jobs after " + MAX_ATTEMPTS + " failed attempts");
+            return;
+        }
+        long now = System.nanoTime();
+        for (Job job : batch) {
+            log.append(JournalLog.ACK, job.id, null);
+            if (outcome == Outcome.UNCONFIRMED) {
+                continue;
+            }
+            long latency = now - job.enqueuedAt;
+            latencyNanos += latency;
+            if (latency > maxLatencyNanos) {
+                maxLatencyNanos = latency;
+            }
+            printed++;
+        }
+        // The printer works again: give the held jobs another round.
+        if (outcome == Outcome.PRINTED && !held.isEmpty()) {
+            queue.addAll(held);
+            held.clear();
+        }
+    }
+
+    private static String toJson(Job job) {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("templateKey", job.templateKey);
+            json.put("drawable", job.drawable);
+            json.put("imagePath", job.imagePath);
+            json.put("dots", job.dots);
+            if (job.lines != null) {
+                JSONArray lines = new JSONArray();
+                for (ReceiptRenderer.Line line : job.lines) {
+                    lines.put(new JSONArray().put(line.right).put(line.left).put(line.centered));
+                }
+                json.put("lines", lines);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to encode print job " + job.id, e);
+        }
+        return json.toString();
+    }
+
+    // Null for a body that is not a job; such an entry is dropped.
+    private static Job fromJson(long id, String body) {
+        if (body == null) {
+            return null;
+        }
+        try {
+            JSONObject json = new JSONObject(body);
+            List<ReceiptRenderer.Line> lines = null;
+            JSONArray array = json.optJSONArray("lines");
+            if (array != null) {
+                lines = new ArrayList<>(array.length());
+                for (int i = 0; i < array.length(); i++) {
+                    JSONArray line = array.getJSONArray(i);
+                    lines.add(new ReceiptRenderer.Line(optText(line, 0), optText(line, 1), line.getBoolean(2)));
+                }
+            }
+            String templateKey = json.optString("templateKey", null);
+            String drawable = json.optString("drawable", null);
+            String imagePath = json.optString("imagePath", null);
+            if (lines != null ? templateKey == null : drawable == null && imagePath == null) {
+                return null;
+            }
+            return new Job(id, templateKey, lines, drawable, imagePath, json.optInt("dots"));
+        } catch (JSONException e) {
+            Log.e(TAG, "Dropping unreadable print job " + id, e);
+            return null;
+        }
+    }
+
+    private static String optText(JSONArray array, int index) throws JSONException {
+        return array.isNull(index) ? null : array.getString(index);
+    }
+}
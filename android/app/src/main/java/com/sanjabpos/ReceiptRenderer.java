@@ -0,0 +1,197 @@
+package com.sanjabpos;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.util.LruCache;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Renders receipts from compiled ReceiptTemplates. Header (logo, title) and footer
+// strips are rasterized once per template and kept in a byte-bounded LRU; each
+// receipt then only draws its own lines between them, with one reused Canvas and
+// the template's prebuilt paints.
+final class ReceiptRenderer {
+    private static final int CACHE_BYTES = 4 * 1024 * 1024;
+
+    static final class Line {
+        final String right;
+        final String left;
+        final boolean centered;
+
+        Line(String right, String left, boolean centered) {
+            this.right = right;
+            this.left = left;
+            this.centered = centered;
+        }
+    }
+
+    private final LruCache<String, Bitmap> bitmaps = new LruCache<String, Bitmap>(CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return Math.max(1, value.getAllocationByteCount());
+        }
+    };
+    // Guarded by this.
+    private final Map<String, ReceiptTemplate> templates = new HashMap<>();
+    private final Canvas canvas = new Canvas();
+    private final Rect source = new Rect();
+    private final Rect target = new Rect();
+
+    private long receipts;
+    private long coldReceipts;
+    private long renderNanos;
+    private long allocatedBytes;
+
+    ReceiptRenderer() {
+        templates.put(ReceiptTemplate.DEFAULT_KEY, ReceiptTemplate.defaults());
+    }
+
+    synchronized void setTemplate(ReceiptTemplate template) {
+        templates.put(template.key, template);
+        bitmaps.remove("header:" + template.key);
+        bitmaps.remove("footer:" + template.key);
+    }
+
+    synchronized Bitmap render(Context context, String templateKey, List<Line> lines) {
+        long start = System.nanoTime();
+        ReceiptTemplate template = templates.get(templateKey);
+        if (template == null) {
+            template = templates.get(ReceiptTemplate.DEFAULT_KEY);
+        }
+        boolean cold = bitmaps.get("header:" + template.key) == null;
+        Bitmap header = strip(context, template, true);
+        Bitmap footer = strip(context, template, false);
+
+        int headerHeight = header != null ? header.getHeight() : 0;
+        int footerHeight = footer != null ? footer.getHeight() : 0;
+        int bodyHeight = lines.size() * template.lineHeight + template.margin * 2;
+        Bitmap receipt = Bitmap.createBitmap(template.width, headerHeight + bodyHeight + footerHeight, Bitmap.Config.ARGB_8888);
+        receipt.eraseColor(Color.WHITE);
+        canvas.setBitmap(receipt);
+        if (header != null) {
+            canvas.drawBitmap(header, 0, 0, null);
+        }
+        float y = headerHeight + template.margin + template.baseline;
+        int right = template.width - template.margin;
+        for (Line line : lines) {
+            if (line.centered) {
+                drawText(line.right, template.width / 2f, y, template.centerPaint);
+            } else {
+                drawText(line.right, right, y, template.rightPaint);
+                drawText(line.left, template.margin, y, template.leftPaint);
+            }
+            y += template.lineHeight;
+        }
+        if (footer != null) {
+            canvas.drawBitmap(footer, 0, headerHeight + bodyHeight, null);
+        }
+        canvas.setBitmap(null);
+
+        receipts++;
+        if (cold) {
+            coldReceipts++;
+        }
+        renderNanos += System.nanoTime() - start;
+        allocatedBytes += receipt.getAllocationByteCount();
+        return receipt;
+    }
+
+    // Printer dot width of a template's paper.
+    synchronized int width(String templateKey) {
+        ReceiptTemplate template = templates.get(templateKey);
+        return (template != null ? template : templates.get(ReceiptTemplate.DEFAULT_KEY)).width;
+    }
+
+    synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("receipts", (double) receipts);
+        stats.put("coldReceipts", (double) coldReceipts);
+        stats.put("msPerReceipt", receipts == 0 ? 0.0 : renderNanos / 1e6 / receipts);
+        stats.put("bytesPerReceipt", receipts == 0 ? 0.0 : (double) allocatedBytes / receipts);
+        stats.put("cacheHits", (double) bitmaps.hitCount());
+        stats.put("cacheMisses", (double) bitmaps.missCount());
+        return stats;
+    }
+
+    private Bitmap strip(Context context, ReceiptTemplate template, boolean header) {
+        String key = (header ? "header:" : "footer:") + template.key;
+        Bitmap strip = bitmaps.get(key);
+        if (strip == null) {
+            strip = header ? rasterizeHeader(template) : rasterizeFooter(template);
+            if (strip != null) {
+                bitmaps.put(key, strip);
+            }
+        }
+        return strip;
+    }
+
+    private Bitmap rasterizeHeader(ReceiptTemplate template) {
+        Bitmap logo = template.logoPath != null ? BitmapFactory.decodeFile(template.logoPath) : null;
+        int logoHeight = 0;
+        int logoWidth = 0;
+        if (logo != null && logo.getWidth() > 0) {
+            logoWidth = Math.min(logo.getWidth(), template.width / 2);
+            logoHeight = logo.getHeight() * logoWidth / logo.getWidth();
+        }
+        int titleHeight = (int) (template.lineHeight * 1.3f);
+        int height = logoHeight
+                + (template.title != null ? titleHeight : 0)
+                + (template.subtitle != null ? template.lineHeight : 0);
+        if (height == 0) {
+            if (logo != null) {
+                logo.recycle();
+            }
+            return null;
+        }
+        Bitmap strip = Bitmap.createBitmap(template.width, height + template.margin, Bitmap.Config.ARGB_8888);
+        strip.eraseColor(Color.WHITE);
+        canvas.setBitmap(strip);
+        float y = 0;
+        if (logo != null) {
+            int x = (template.width - logoWidth) / 2;
+            source.set(0, 0, logo.getWidth(), logo.getHeight());
+            target.set(x, 0, x + logoWidth, logoHeight);
+            canvas.drawBitmap(logo, source, target, null);
+            logo.recycle();
+            y = logoHeight;
+        }
+        if (template.title != null) {
+            canvas.drawText(template.title, template.width / 2f, y + template.baseline * 1.3f, template.titlePaint);
+            y += titleHeight;
+        }
+        if (template.subtitle != null) {
+            canvas.drawText(template.subtitle, template.width / 2f, y + template.baseline, template.centerPaint);
+        }
+        canvas.setBitmap(null);
+        return strip;
+    }
+
+    private Bitmap rasterizeFooter(ReceiptTemplate template) {
+        if (template.footer == null || template.footer.isEmpty()) {
+            return null;
+        }
+        String[] lines = template.footer.split("\n");
+        Bitmap strip = Bitmap.createBitmap(template.width, lines.length * template.lineHeight + template.margin, Bitmap.Config.ARGB_8888);
+        strip.eraseColor(Color.WHITE);
+        canvas.setBitmap(strip);
+        float y = template.baseline;
+        for (String line : lines) {
+            canvas.drawText(line, template.width / 2f, y, template.centerPaint);
+            y += template.lineHeight;
+        }
+        canvas.setBitmap(null);
+        return strip;
+    }
+
+    private void drawText(String text, float x, float y, android.graphics.Paint paint) {
+        if (text != null && !text.isEmpty()) {
+            canvas.drawText(text, x, y, paint);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.sanjabpos;
+
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+import com.facebook.react.bridge.ReadableMap;
+
+// Receipt layout for one business/branch, compiled once: paper width, paints and
+// line metrics are computed when the template is set, not for every receipt.
+final class ReceiptTemplate {
+    static final String DEFAULT_KEY = "default";
+    private static final int TWO_INCH_WIDTH = 384;
+    private static final int THREE_INCH_WIDTH = 576;
+    private static final int MARGIN = 8;
+
+    final String key;
+    final String title;
+    final String subtitle;
+    final String logoPath;
+    final String footer;
+    final int width;
+    final int margin = MARGIN;
+    final float textSize;
+
+    final Paint rightPaint;
+    final Paint leftPaint;
+    final Paint centerPaint;
+    final Paint titlePaint;
+    final int lineHeight;
+    final float baseline;
+
+    ReceiptTemplate(String key, String title, String subtitle, String logoPath, String footer,
+                    boolean threeInch, float textSize) {
+        this.key = key;
+        this.title = title;
+        this.subtitle = subtitle;
+        this.logoPath = logoPath;
+        this.footer = footer;
+        this.width = threeInch ? THREE_INCH_WIDTH : TWO_INCH_WIDTH;
+        this.textSize = textSize;
+
+        rightPaint = textPaint(textSize, Paint.Align.RIGHT, Typeface.DEFAULT);
+        leftPaint = textPaint(textSize, Paint.Align.LEFT, Typeface.DEFAULT);
+        centerPaint = textPaint(textSize, Paint.Align.CENTER, Typeface.DEFAULT);
+        titlePaint = textPaint(textSize * 1.3f, Paint.Align.CENTER, Typeface.DEFAULT_BOLD);
+        Paint.FontMetrics metrics = rightPaint.getFontMetrics();
+        float ascent = metrics != null ? -metrics.ascent : textSize;
+        float descent = metrics != null ? metrics.descent : textSize / 4;
+        baseline = ascent;
+        lineHeight = (int) Math.ceil(ascent + descent + textSize / 3);
+    }
+
+    static ReceiptTemplate defaults() {
+        return new ReceiptTemplate(DEFAULT_KEY, null, null, null, null, false, 22);
+    }
+
+    static ReceiptTemplate fromMap(String key, ReadableMap map) {
+        return new ReceiptTemplate(key,
+                optString(map, "title"),
+                optString(map, "subtitle"),
+                optString(map, "logoPath"),
+                optString(map, "footer"),
+                "three".equals(optString(map, "printerSize")),
+                map.hasKey("textSize") && !map.isNull("textSize") ? (float) map.getDouble("textSize") : 22);
+    }
+
+    private static String optString(ReadableMap map, String key) {
+        return map.hasKey(key) && !map.isNull(key) ? map.getString(key) : null;
+    }
+
+    private static Paint textPaint(float size, Paint.Align align, Typeface typeface) {
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.BLACK);
+        paint.setTextSize(size);
+        paint.setTextAlign(align);
+        paint.setTypeface(typeface);
+        return paint;
+    }
+}
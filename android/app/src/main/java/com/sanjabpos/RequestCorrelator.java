@@ -0,0 +1,202 @@
+package com.sanjabpos;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+// Ties each PSP request to the onActivityResult that answers it. A request gets an
+// id and owns its request code until the result arrives, times out or is cancelled,
+// so a double tap cannot launch a second activity whose result would be mistaken
+// for the first one. JS waits on the id instead of guessing from global events.
+//
+// A request cancelled or timed out after it was sent leaves its code behind as a
+// tombstone: the PSP activity may still be open, and its result, whenever it comes,
+// belongs to the cancelled request, not to the next one on that code. The code is
+// free again once that result has been dropped, or after TOMBSTONE_MS if it never
+// comes (the PSP app was killed).
+//
+// An exclusive request (a reconciliation search) starts only when no request at
+// all is in flight, and nothing else starts while it is.
+final class RequestCorrelator {
+    static final long DEFAULT_TIMEOUT_MS = 3 * 60 * 1000;
+    // How long an unclaimed result is kept for a late awaitResult call.
+    private static final long RESULT_RETENTION_MS = 60 * 1000;
+    static final long TOMBSTONE_MS = 10 * 60 * 1000;
+
+    private static final class Pending {
+        final String requestId;
+        final int requestCode;
+        final long startedAt;
+        final boolean exclusive;
+        Promise waiter;
+        WritableMap result;
+        Runnable expiry;
+        // Cancelled or timed out while its result was still out.
+        boolean tombstone;
+
+        Pending(String requestId, int requestCode, boolean exclusive) {
+            this.requestId = requestId;
+            this.requestCode = requestCode;
+            this.exclusive = exclusive;
+            this.startedAt = System.currentTimeMillis();
+        }
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    // Guarded by this.
+    private final Map<Integer, Pending> inFlight = new HashMap<>();
+    private final Map<String, Pending> byId = new HashMap<>();
+
+    // Returns the new request id, or rejects the promise and returns null if a
+    // request with the same code is still waiting for its result, or if either this
+    // request or one in flight is exclusive.
+    synchronized String begin(int requestCode, boolean exclusive, Promise promise) {
+        if (exclusive ? !inFlight.isEmpty() : exclusiveInFlight()) {
+            promise.reject("REQUEST_IN_FLIGHT", "درخواست دیگری در برنامه پرداخت در حال انجام است");
+            return null;
+        }
+        Pending open = inFlight.get(requestCode);
+        if (open != null && open.tombstone) {
+            promise.reject("REQUEST_IN_FLIGHT", "نتیجه درخواست لغوشده هنوز از برنامه پرداخت برنگشته است");
+            return null;
+        }
+        if (open != null) {
+            promise.reject("REQUEST_IN_FLIGHT", "درخواست قبلی هنوز در حال انجام است");
+            return null;
+        }
+        Pending pending = new Pending(UUID.randomUUID().toString(), requestCode, exclusive);
+        inFlight.put(requestCode, pending);
+        byId.put(pending.requestId, pending);
+        schedule(pending, DEFAULT_TIMEOUT_MS);
+        return pending.requestId;
+    }
+
+    // The request never reached the PSP app, so no result can come for it.
+    synchronized void abort(String requestId) {
+        Pending pending = byId.remove(requestId);
+        if (pending != null) {
+            handler.removeCallbacks(pending.expiry);
+            if (inFlight.get(pending.requestCode) == pending) {
+                inFlight.remove(pending.requestCode);
+            }
+        }
+    }
+
+    // Hands the result to whoever waits for the request in flight on this code and
+    // returns its id, or null if nothing was waiting. The result of a cancelled
+    // request is marked as such, frees its code and goes to nobody.
+    synchronized String complete(int requestCode, WritableMap result) {
+        Pending pending = inFlight.remove(requestCode);
+        if (pending == null) {
+            return null;
+        }
+        handler.removeCallbacks(pending.expiry);
+        result.putString("requestId", pending.requestId);
+        if (pending.tombstone) {
+            result.putBoolean("cancelled", true);
+            return null;
+        }
+        result.putDouble("elapsedMs", System.currentTimeMillis() - pending.startedAt);
+        if (pending.waiter != null) {
+            byId.remove(pending.requestId);
+            pending.waiter.resolve(result.copy());
+        } else {
+            pending.result = result.copy();
+            schedule(pending, RESULT_RETENTION_MS);
+        }
+        return pending.requestId;
+    }
+
+    synchronized void await(String requestId, long timeoutMs, Promise promise) {
+        Pending pending = byId.get(requestId);
+        if (pending == null) {
+            promise.reject("UNKNOWN_REQUEST", "درخواست یافت نشد");
+            return;
+        }
+        if (pending.result != null) {
+            byId.remove(requestId);
+            handler.removeCallbacks(pending.expiry);
+            promise.resolve(pending.result);
+            return;
+        }
+        if (pending.waiter != null) {
+            pending.waiter.reject("SUPERSEDED", "درخواست دیگری منتظر این نتیجه است");
+        }
+        pending.waiter = promise;
+        if (timeoutMs > 0) {
+            schedule(pending, timeoutMs);
+        }
+    }
+
+    synchronized boolean cancel(String requestId) {
+        Pending pending = byId.remove(requestId);
+        if (pending == null) {
+            return false;
+        }
+        release(pending);
+        if (pending.waiter != null) {
+            pending.waiter.reject("CANCELLED", "درخواست لغو شد");
+        }
+        return true;
+    }
+
+    synchronized boolean isInFlight(int requestCode) {
+        return inFlight.containsKey(requestCode);
+    }
+
+    // Tombstones count: their PSP activity may still be open.
+    synchronized boolean isIdle() {
+        return inFlight.isEmpty();
+    }
+
+    private boolean exclusiveInFlight() {
+        for (Pending pending : inFlight.values()) {
+            if (pending.exclusive) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Leaves a tombstone on the code if the request's result is still out.
+    private void release(Pending pending) {
+        handler.removeCallbacks(pending.expiry);
+        if (inFlight.get(pending.requestCode) != pending) {
+            return;
+        }
+        pending.tombstone = true;
+        pending.expiry = () -> clearTombstone(pending);
+        handler.postDelayed(pending.expiry, TOMBSTONE_MS);
+    }
+
+    private synchronized void clearTombstone(Pending pending) {
+        if (inFlight.get(pending.requestCode) == pending) {
+            inFlight.remove(pending.requestCode);
+        }
+    }
+
+    private void schedule(Pending pending, long delayMs) {
+        if (pending.expiry != null) {
+            handler.removeCallbacks(pending.expiry);
+        }
+        pending.expiry = () -> expire(pending);
+        handler.postDelayed(pending.expiry, delayMs);
+    }
+
+    private synchronized void expire(Pending pending) {
+        if (byId.get(pending.requestId) != pending) {
+            return;
+        }
+        byId.remove(pending.requestId);
+        release(pending);
+        if (pending.waiter != null) {
+            pending.waiter.reject("TIMEOUT", "پاسخی از برنامه پرداخت دریافت نشد");
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.sanjabpos;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.sanjabpos.core.SaleQueue;
+import com.sanjabpos.core.SyncScheduler;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+// The sale queue and its uploader, one per process, with the sales job that drains
+// them. TransactionUploadModule hands sales over and hears how they settle; a run
+// WorkManager starts in a process without React (after a reboot, or once the app
+// was killed) opens them itself and uploads what is queued.
+final class SaleUploads implements TransactionUploader.Listener {
+    private static final String TAG = "SaleUploads";
+    static final String SALES_JOB = "sales";
+    private static final String QUEUE_FILE_NAME = "sale-queue.log";
+    // The JSON snapshot earlier versions rewrote on every sale, imported once.
+    private static final String LEGACY_QUEUE_FILE_NAME = "sale-queue.json";
+    // How long one run of the sales job waits for the queue's uploads to settle.
+    private static final long SALES_JOB_TIMEOUT_MS = 60 * 1000;
+
+    private static SaleUploads instance;
+
+    final TransactionUploader uploader;
+    final SaleQueue queue;
+    private final LocalTransactions transactions;
+    private volatile TransactionUploader.Listener listener;
+
+    static synchronized SaleUploads get(Context context) {
+        if (instance == null) {
+            instance = new SaleUploads(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SaleUploads(Context context) {
+        uploader = new TransactionUploader(ApiHttpClient.get(context), this);
+        BackgroundSync sync = BackgroundSync.get(context);
+        queue = openQueue(context, uploader::enqueue, () -> sync.request(SALES_JOB));
+        transactions = LocalTransactions.get(context);
+        sync.register(SALES_JOB, SyncScheduler.NETWORK, 0, this::uploadQueued);
+        if (queue.size() > 0) {
+            // Sales left from the last run go up as soon as there is a network.
+            sync.request(SALES_JOB);
+        }
+    }
+
+    void setListener(TransactionUploader.Listener listener) {
+        this.listener = listener;
+    }
+
+    void recordSale(String idempotencyKey, String payloadJson) {
+        transactions.recordSale(idempotencyKey, payloadJson);
+    }
+
+    @Override
+    public void onAccepted(String idempotencyKey, JSONObject response) {
+        String payload = queue.onAccepted(idempotencyKey);
+        transactions.recordSettled(idempotencyKey, payload, response);
+        TransactionUploader.Listener current = listener;
+        if (current != null) {
+            current.onAccepted(idempotencyKey, response);
+        }
+    }
+
+    @Override
+    public void onRejected(String idempotencyKey, String code, String message, boolean retryable) {
+        queue.onRejected(idempotencyKey, !retryable);
+        TransactionUploader.Listener current = listener;
+        if (current != null) {
+            current.onRejected(idempotencyKey, code, message, retryable);
+        }
+    }
+
+    // The sales job: BackgroundSync runs it only with a network, so the queue may
+    // drain even before JS reports connectivity, e.g. with the app in the background.
+    // Sales still queued once the uploads settle are retried after the backoff.
+    private SyncScheduler.Result uploadQueued() throws InterruptedException {
+        if (queue.size() == 0) {
+            return SyncScheduler.Result.SUCCESS;
+        }
+        queue.setOnline(true);
+        uploader.flush();
+        boolean settled = queue.awaitSettled(SALES_JOB_TIMEOUT_MS);
+        return settled && queue.size() == 0 ? SyncScheduler.Result.SUCCESS : SyncScheduler.Result.RETRY;
+    }
+
+    private static SaleQueue openQueue(Context context, SaleQueue.Sender sender, Runnable onBacklog) {
+        File dir = context.getFilesDir();
+        File file = new File(dir, QUEUE_FILE_NAME);
+        SaleQueue queue;
+        try {
+            queue = new SaleQueue(file, sender, onBacklog);
+        } catch (IOException e) {
+            // Start over rather than take the app down; the old log is kept for support.
+            Log.e(TAG, "Failed to open sale queue, starting a new one", e);
+            file.renameTo(new File(dir, QUEUE_FILE_NAME + ".unreadable-" + System.currentTimeMillis()));
+            try {
+                queue = new SaleQueue(file, sender, onBacklog);
+            } catch (IOException again) {
+                throw new IllegalStateException("sale queue cannot be opened", again);
+            }
+        }
+        File legacy = new File(dir, LEGACY_QUEUE_FILE_NAME);
+        if (legacy.exists() && importLegacyQueue(legacy, queue)) {
+            legacy.delete();
+        }
+        return queue;
+    }
+
+    private static boolean importLegacyQueue(File legacy, SaleQueue queue) {
+        StringBuilder text = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(legacy), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                text.append(line);
+            }
+            JSONArray array = new JSONArray(text.toString());
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject item = array.optJSONObject(i);
+                if (item != null) {
+                    queue.add(item.getString("idempotencyKey"), item.getString("payload"));
+                }
+            }
+            return true;
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Failed to import legacy sale queue", e);
+            return false;
+        }
+    }
+}
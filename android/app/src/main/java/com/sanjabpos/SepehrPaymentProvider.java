@@ -0,0 +1,96 @@
+package com.sanjabpos;
+
+import android.content.Intent;
+
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+import com.sanjabpos.core.PaymentValidation;
+import com.sanjabpos.core.ResultDecoder;
+import com.sanjabpos.core.SearchKey;
+import com.sanjabpos.core.TashimShare;
+import com.sanjabpos.core.TashimSplit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Sepehr terminals, driven through the sima7 intents. Sepehr offers purchase and
+// tashim only; bills, searches and prints are not available through its intents.
+public class SepehrPaymentProvider implements PaymentProvider {
+    static final int PAYMENT_REQUEST_CODE = 123;
+
+    // Sepehr misspells refrenceCode and reuses resultCode for its own response code.
+    private static final ResultDecoder DECODER = new ResultDecoder().register(new ResultDecoder.Schema()
+            .amount("amount").string("refrenceCode", "referenceCode").string("resultCode", "resultCode2")
+            .string("resultDescription").string("terminalNo").string("acceptorCode").string("traceNo")
+            .string("maskedPan").dateTime("DateTime"), PAYMENT_REQUEST_CODE);
+
+    @Override
+    public String getName() {
+        return "sepehr";
+    }
+
+    @Override
+    public String getResultEvent() {
+        return "SepehrPaymentResult";
+    }
+
+    @Override
+    public boolean handlesResult(int requestCode) {
+        return requestCode == PAYMENT_REQUEST_CODE;
+    }
+
+    @Override
+    public PaymentCall purchase(String amount, String id, boolean print, boolean showReceipt) {
+        PaymentValidation.requireAmount(amount);
+        return new PaymentCall(PAYMENT_REQUEST_CODE, activity -> {
+            Intent intent = new Intent("com.dml.sima7.sepehr.activity.Intent_SwipeCardActivity");
+            intent.putExtra("amount", amount);
+            intent.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+            activity.startActivityForResult(intent, PAYMENT_REQUEST_CODE);
+            return true;
+        }).journaled("SEPEHR_PURCHASE", amount, id).messages("ارسال موفق", "Error launching Sepehr payment");
+    }
+
+    // Sepehr takes each account as "IBAN:amount" in rials.
+    @Override
+    public PaymentCall tashim(String amount, String id, List<TashimShare> shares, boolean print, boolean showReceipt) {
+        long total = TashimSplit.parseRials(amount);
+        ArrayList<String> tashim = TashimSplit.toSepehrLines(TashimSplit.allocate(total, shares));
+        return new PaymentCall(PAYMENT_REQUEST_CODE, activity -> {
+            Intent intent = new Intent("tashim");
+            intent.putExtra("amount", amount);
+            intent.putStringArrayListExtra("tashim", tashim);
+            intent.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+            activity.startActivityForResult(intent, PAYMENT_REQUEST_CODE);
+            return true;
+        }).journaled("SEPEHR_TASHIM", amount, id).messages("ارسال موفق", "Error launching Sepehr payment");
+    }
+
+    @Override
+    public PaymentCall bill(String billId, String billPaymentId, boolean print, boolean showReceipt) {
+        return null;
+    }
+
+    @Override
+    public PaymentCall search(SearchKey key, String value, String persianDate) {
+        return null;
+    }
+
+    @Override
+    public boolean isApproved(int requestCode, int resultCode, ReadableMap result) {
+        return resultCode == -1 && result.hasKey("resultCode2") && "00".equals(result.getString("resultCode2"));
+    }
+
+    @Override
+    public String resultReference(int requestCode, ReadableMap result) {
+        return result.hasKey("traceNo") && !result.isNull("traceNo") ? result.getString("traceNo") : null;
+    }
+
+    @Override
+    public void decodeResult(int requestCode, int resultCode, Intent data, WritableMap result) {
+        // Sepehr only sends its fields with an approved (RESULT_OK) result
+        if (resultCode == -1) {
+            DECODER.decode(requestCode, BridgeResults.source(data.getExtras()), BridgeResults.sink(result));
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.sanjabpos;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+// One run of a BackgroundSync job, named by its key in the input data along with
+// its constraints and period, which a process without the job registered needs.
+public class SyncWorker extends Worker {
+    static final String KEY = "key";
+    static final String CONSTRAINTS = "constraints";
+    static final String PERIOD_MS = "periodMs";
+
+    public SyncWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        String key = getInputData().getString(KEY);
+        if (key == null) {
+            return Result.failure();
+        }
+        return BackgroundSync.get(getApplicationContext()).run(key,
+                getInputData().getInt(CONSTRAINTS, 0), getInputData().getLong(PERIOD_MS, 0));
+    }
+}
@@ -0,0 +1,354 @@
+package com.sanjabpos;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.sanjabpos.core.JournalLog;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Journal of card payments, one per process, on core JournalLog. Every money-moving
+// request is recorded, and on disk, before it is handed to the PSP app, and its
+// decoded result is recorded in onActivityResult, so a sale survives a bridge
+// reload or a killed process until JS acknowledges it after the backend accepted
+// the transaction. The log is opened on its writer thread; calls made before it
+// is open wait for it, outside the lock the writer needs to publish it.
+public class TransactionJournal implements JournalLog.Listener {
+    private static final String TAG = "TransactionJournal";
+    private static final String FILE_NAME = "payment-journal.wal";
+    // JSON-lines journal of earlier versions, imported once.
+    private static final String LEGACY_FILE_NAME = "payment-journal.log";
+    private static final long LOAD_TIMEOUT_MS = 30 * 1000;
+    private static final long INTENT_COMMIT_TIMEOUT_MS = 5 * 1000;
+
+    private static TransactionJournal instance;
+
+    private final JournalLog log;
+    private final File legacyFile;
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    // Unacknowledged entries by journal id, in insertion order. Guarded by this.
+    private final LinkedHashMap<Long, JSONObject> pending = new LinkedHashMap<>();
+    // Latest intent per request code that is still waiting for its result. Guarded by this.
+    private final Map<Integer, Long> awaitingResult = new HashMap<>();
+    // Seeded from the clock so ids are never reused after a compaction empties the file.
+    private long nextId = System.currentTimeMillis();
+    private boolean legacyImported;
+
+    static synchronized TransactionJournal get(Context context) {
+        if (instance == null) {
+            instance = new TransactionJournal(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    // Tests open their own journal rather than the process's.
+    TransactionJournal(Context context) {
+        File dir = context.getFilesDir();
+        legacyFile = new File(dir, LEGACY_FILE_NAME);
+        log = new JournalLog(new File(dir, FILE_NAME));
+        log.open(this, TAG);
+    }
+
+    // Returns the new entry's id once the intent is on disk, or -1 if it could not
+    // be written in time; the payment must not be sent then.
+    public long recordIntent(int requestCode, JSONObject payload) {
+        awaitLoaded();
+        long id;
+        long sequence;
+        synchronized (this) {
+            id = nextId++;
+            JSONObject entry = new JSONObject();
+            try {
+                entry.put("id", id);
+                entry.put("requestCode", requestCode);
+                entry.put("createdAt", System.currentTimeMillis());
+                entry.put("intent", payload);
+            } catch (JSONException e) {
+                Log.e(TAG, "Failed to build intent entry", e);
+            }
+            pending.put(id, entry);
+            awaitingResult.put(requestCode, id);
+            sequence = log.append(JournalLog.INTENT, id, entry.toString());
+        }
+        boolean durable;
+        try {
+            durable = log.awaitDurable(sequence, INTENT_COMMIT_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            durable = false;
+        }
+        if (!durable) {
+            Log.e(TAG, "Payment intent was not committed to the journal");
+            acknowledge(id);
+            return -1;
+        }
+        return id;
+    }
+
+    // Returns the journal id the result was attached to, or -1 if no intent was waiting for it.
+    public long recordResult(int requestCode, int resultCode, JSONObject payload) {
+        awaitLoaded();
+        synchronized (this) {
+            Long id = awaitingResult.remove(requestCode);
+            if (id == null) {
+                return -1;
+            }
+            JSONObject entry = pending.get(id);
+            if (entry == null) {
+                return -1;
+            }
+            appendResult(id, entry, resultCode, payload);
+            return id;
+        }
+    }
+
+    // A result found by searching the PSP (see PaymentReconciler) for an entry whose
+    // own result never arrived or came back without data.
+    public boolean recordReconciled(long id, int resultCode, JSONObject payload) {
+        awaitLoaded();
+        synchronized (this) {
+            JSONObject entry = pending.get(id);
+            if (entry == null) {
+                return false;
+            }
+            awaitingResult.values().remove(id);
+            appendResult(id, entry, resultCode, payload);
+            return true;
+        }
+    }
+
+    public void recordReconcileState(long id, JSONObject state) {
+        awaitLoaded();
+        synchronized (this) {
+            JSONObject entry = pending.get(id);
+            if (entry == null) {
+                return;
+            }
+            try {
+                entry.put("reconcile", state);
+            } catch (JSONException e) {
+                Log.e(TAG, "Failed to store reconcile state", e);
+                return;
+            }
+            log.append(JournalLog.RECONCILE, id, state.toString());
+        }
+    }
+
+    // Journaled payments with no usable PSP result that nobody has flagged for review.
+    public List<JSONObject> getUnsettled() {
+        awaitLoaded();
+        synchronized (this) {
+            List<JSONObject> unsettled = new ArrayList<>();
+            for (JSONObject entry : pending.values()) {
+                JSONObject result = entry.optJSONObject("result");
+                boolean settled = entry.has("resultCode")
+                        && (result == null || !result.optBoolean("outcomeUnknown"));
+                JSONObject reconcile = entry.optJSONObject("reconcile");
+                if (!settled && (reconcile == null || !reconcile.has("flag"))) {
+                    unsettled.add(entry);
+                }
+            }
+            return unsettled;
+        }
+    }
+
+    public boolean acknowledge(long id) {
+        awaitLoaded();
+        synchronized (this) {
+            JSONObject entry = pending.remove(id);
+            if (entry == null) {
+                return false;
+            }
+            awaitingResult.values().remove(id);
+            log.append(JournalLog.ACK, id, null);
+            return true;
+        }
+    }
+
+    public JSONObject get(long id) {
+        awaitLoaded();
+        synchronized (this) {
+            return pending.get(id);
+        }
+    }
+
+    public List<JSONObject> getPending() {
+        awaitLoaded();
+        synchronized (this) {
+            return new ArrayList<>(pending.values());
+        }
+    }
+
+    private void appendResult(long id, JSONObject entry, int resultCode, JSONObject payload) {
+        JSONObject record = new JSONObject();
+        try {
+            record.put("resultCode", resultCode);
+            record.put("completedAt", System.currentTimeMillis());
+            record.put("result", payload);
+            applyResult(entry, record);
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to build result entry", e);
+        }
+        log.append(JournalLog.RESULT, id, record.toString());
+    }
+
+    private static void applyResult(JSONObject entry, JSONObject record) throws JSONException {
+        entry.put("resultCode", record.getInt("resultCode"));
+        entry.put("completedAt", record.optLong("completedAt"));
+        entry.put("result", record.optJSONObject("result"));
+    }
+
+    private void awaitLoaded() {
+        try {
+            if (!loaded.await(LOAD_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.e(TAG, "Journal is still loading");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // On the writer thread: what the log holds, plus the legacy journal if one is
+    // left, becomes the pending entries. An intent without a result is again the
+    // one its request code waits on, so a PSP result that arrives after the process
+    // was killed still finds its sale.
+    @Override
+    public void replayed(JournalLog.Replay replay) {
+        if (legacyFile.exists()) {
+            legacyImported = importLegacy(replay);
+        }
+        synchronized (this) {
+            for (JournalLog.Entry stored : replay.entries.values()) {
+                try {
+                    JSONObject entry = new JSONObject(stored.intent);
+                    if (stored.result != null) {
+                        applyResult(entry, new JSONObject(stored.result));
+                    }
+                    if (stored.reconcile != null) {
+                        entry.put("reconcile", new JSONObject(stored.reconcile));
+                    }
+                    pending.put(stored.id, entry);
+                    if (!entry.has("resultCode") && entry.has("requestCode")) {
+                        awaitingResult.put(entry.getInt("requestCode"), stored.id);
+                    }
+                } catch (JSONException | NullPointerException e) {
+                    Log.w(TAG, "Skipping unreadable journal entry " + stored.id);
+                }
+            }
+            nextId = Math.max(nextId, replay.lastId + 1);
+        }
+        if (replay.truncated) {
+            Log.w(TAG, "Journal ended in a torn record, cut off after " + replay.records + " records");
+        }
+    }
+
+    @Override
+    public void opened(IOException error) {
+        if (error != null) {
+            Log.e(TAG, "Journal could not be opened cleanly", error);
+        } else if (legacyImported && !legacyFile.delete()) {
+            Log.w(TAG, "Failed to delete the imported legacy journal");
+        }
+        loaded.countDown();
+    }
+
+    // Reads the JSON-lines journal into the replay; only entries it does not know.
+    private boolean importLegacy(JournalLog.Replay replay) {
+        LinkedHashMap<Long, JSONObject> entries = new LinkedHashMap<>();
+        long lastId = -1;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(legacyFile), StandardCharsets.UTF_8), 64 * 1024)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                JSONObject record;
+                try {
+                    record = new JSONObject(line);
+                } catch (JSONException e) {
+                    // A torn tail write from a crash; everything before it is intact.
+                    continue;
+                }
+                long id = record.optLong("id", -1);
+                if (id < 0) {
+                    continue;
+                }
+                lastId = Math.max(lastId, id);
+                String type = record.optString("t");
+                JSONObject body = record.optJSONObject("b");
+                JSONObject entry = entries.get(id);
+                if ("I".equals(type) && body != null) {
+                    entries.put(id, body);
+                } else if ("R".equals(type) && entry != null && body != null) {
+                    applyResult(entry, body);
+                } else if ("C".equals(type) && entry != null && body != null) {
+                    entry.put("reconcile", body);
+                } else if ("A".equals(type)) {
+                    entries.remove(id);
+                }
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Failed to import legacy journal", e);
+            return false;
+        }
+        for (Map.Entry<Long, JSONObject> e : entries.entrySet()) {
+            if (replay.entries.containsKey(e.getKey())) {
+                continue;
+            }
+            try {
+                JSONObject entry = e.getValue();
+                JournalLog.Entry stored = new JournalLog.Entry(e.getKey());
+                stored.intent = copyWithout(entry, "resultCode", "completedAt", "result", "reconcile").toString();
+                if (entry.has("resultCode")) {
+                    JSONObject record = new JSONObject();
+                    record.put("resultCode", entry.getInt("resultCode"));
+                    record.put("completedAt", entry.optLong("completedAt"));
+                    record.put("result", entry.optJSONObject("result"));
+                    stored.result = record.toString();
+                }
+                JSONObject reconcile = entry.optJSONObject("reconcile");
+                if (reconcile != null) {
+                    stored.reconcile = reconcile.toString();
+                }
+                replay.entries.put(e.getKey(), stored);
+            } catch (JSONException ex) {
+                Log.w(TAG, "Skipping unreadable legacy entry " + e.getKey());
+            }
+        }
+        replay.lastId = Math.max(replay.lastId, lastId);
+        return true;
+    }
+
+    private static JSONObject copyWithout(JSONObject source, String... excluded) throws JSONException {
+        JSONObject copy = new JSONObject();
+        Iterator<String> keys = source.keys();
+        outer:
+        while (keys.hasNext()) {
+            String key = keys.next();
+            for (String skip : excluded) {
+                if (skip.equals(key)) {
+                    continue outer;
+                }
+            }
+            copy.put(key, source.get(key));
+        }
+        return copy;
+    }
+}
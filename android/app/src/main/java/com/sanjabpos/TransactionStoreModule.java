@@ -0,0 +1,107 @@
+package com.sanjabpos;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactMethod;
+import com.sanjabpos.core.TransactionStore;
+
+import java.util.List;
+
+// Report queries over the on-device sales log (see LocalTransactions). Totals are kept
+// up to date as sales are recorded, so none of these scan the log.
+public class TransactionStoreModule extends NativeTransactionStoreModuleSpec {
+    private static final int MAX_LIMIT = 200;
+
+    private final LocalTransactions transactions;
+
+    public TransactionStoreModule(ReactApplicationContext reactContext) {
+        super(reactContext);
+        transactions = LocalTransactions.get(reactContext);
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @ReactMethod
+    @Override
+    public void getDayTotals(double fromMs, double toMs, Promise promise) {
+        if (toMs < fromMs) {
+            promise.reject("INVALID_INPUT", "بازه زمانی نادرست است");
+            return;
+        }
+        query(store -> store.dayTotals((long) fromMs, (long) toMs), promise);
+    }
+
+    @ReactMethod
+    @Override
+    public void getShiftTotals(double shiftId, Promise promise) {
+        query(store -> store.shiftTotals(shiftId < 0 ? store.currentShift() : (int) shiftId), promise);
+    }
+
+    @ReactMethod
+    @Override
+    public void openShift(Promise promise) {
+        transactions.query(store -> store.openShift(System.currentTimeMillis()), (shift, error) -> {
+            if (error != null) {
+                promise.reject("STORAGE_ERROR", "ذخیره شیفت ناموفق بود: " + error.getMessage());
+            } else {
+                promise.resolve(shift);
+            }
+        });
+    }
+
+    @ReactMethod
+    @Override
+    public void getTransactions(double fromMs, double toMs, double offset, double limit, Promise promise) {
+        if (toMs < fromMs || offset < 0 || limit <= 0) {
+            promise.reject("INVALID_INPUT", "بازه درخواستی نادرست است");
+            return;
+        }
+        sales(store -> store.page((long) fromMs, (long) toMs, (int) offset, (int) Math.min(limit, MAX_LIMIT)), promise);
+    }
+
+    @ReactMethod
+    @Override
+    public void findTransactions(String field, String value, double limit, Promise promise) {
+        if (value == null || value.isEmpty()) {
+            promise.reject("INVALID_INPUT", "مقدار جستجو نباید خالی باشد");
+            return;
+        }
+        int max = (int) Math.max(1, Math.min(limit, MAX_LIMIT));
+        if ("stan".equals(field)) {
+            sales(store -> store.findByStan(value, max), promise);
+        } else if ("rrn".equals(field)) {
+            sales(store -> store.findByRrn(value, max), promise);
+        } else if ("card".equals(field)) {
+            sales(store -> store.findByCard(value, max), promise);
+        } else {
+            promise.reject("INVALID_INPUT", "فیلد جستجو نامعتبر است: " + field);
+        }
+    }
+
+    private void query(LocalTransactions.Query<TransactionStore.Totals> query, Promise promise) {
+        transactions.query(query, (totals, error) -> {
+            if (error != null) {
+                promise.reject("STORAGE_ERROR", "خواندن تراکنش‌ها ناموفق بود: " + error.getMessage());
+            } else {
+                promise.resolve(Arguments.makeNativeMap(LocalTransactions.toMap(totals)));
+            }
+        });
+    }
+
+    private void sales(LocalTransactions.Query<List<TransactionStore.Sale>> query, Promise promise) {
+        transactions.query(query, (sales, error) -> {
+            if (error != null) {
+                promise.reject("STORAGE_ERROR", "خواندن تراکنش‌ها ناموفق بود: " + error.getMessage());
+            } else {
+                promise.resolve(Arguments.makeNativeArray(LocalTransactions.toList(sales)));
+            }
+        });
+    }
+}
@@ -0,0 +1,175 @@
+package com.sanjabpos;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+import com.sanjabpos.core.SaleQueue;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Sale uploads for JS. The queue and uploader are the process's SaleUploads; this
+// module settles the promises JS waits on and reports every sale with an event.
+public class TransactionUploadModule extends ReactContextBaseJavaModule implements TransactionUploader.Listener {
+    private static final String TAG = "TransactionUploadModule";
+
+    private final SaleUploads uploads;
+    private final TransactionUploader uploader;
+    private final SaleQueue queue;
+    private final Map<String, Promise> waiting = new ConcurrentHashMap<>();
+    private final BackgroundSync sync;
+
+    public TransactionUploadModule(ReactApplicationContext reactContext) {
+        super(reactContext);
+        sync = BackgroundSync.get(reactContext);
+        uploads = SaleUploads.get(reactContext);
+        uploader = uploads.uploader;
+        queue = uploads.queue;
+        uploads.setListener(this);
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return "TransactionUploadModule";
+    }
+
+    @ReactMethod
+    public void configure(String baseUrl, String authToken, String batchPath, String transactionPath) {
+        BackendHttp.configure(getReactApplicationContext(), baseUrl, authToken);
+        uploader.setPaths(batchPath, transactionPath);
+    }
+
+    @ReactMethod
+    public void upload(String payloadJson, String idempotencyKey, Promise promise) {
+        if (payloadJson == null || payloadJson.isEmpty()) {
+            promise.reject("INVALID_INPUT", "اطلاعات تراکنش نباید خالی باشد");
+            return;
+        }
+        String key = idempotencyKey == null || idempotencyKey.isEmpty() ? UUID.randomUUID().toString() : idempotencyKey;
+        uploads.recordSale(key, payloadJson);
+        if (!queue.isOnline()) {
+            if (enqueue(key, payloadJson, promise)) {
+                promise.resolve(queuedResponse(key));
+            }
+            return;
+        }
+        Promise previous = waiting.put(key, promise);
+        if (previous != null) {
+            previous.resolve(queuedResponse(key));
+        }
+        if (!enqueue(key, payloadJson, promise)) {
+            waiting.remove(key, promise);
+        }
+    }
+
+    // False, with the promise rejected, if the sale could not be written to the queue.
+    // It is still in the payment journal, which offers it again on the next start.
+    private boolean enqueue(String key, String payloadJson, Promise promise) {
+        try {
+            queue.add(key, payloadJson);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to queue sale", e);
+            promise.reject("QUEUE_UNAVAILABLE", "ذخیره تراکنش در صف ارسال ممکن نشد", e);
+            return false;
+        }
+        sync.request(SaleUploads.SALES_JOB);
+        return true;
+    }
+
+    @ReactMethod
+    public void setOnline(boolean online) {
+        queue.setOnline(online);
+    }
+
+    @ReactMethod
+    public void getQueueSize(Promise promise) {
+        promise.resolve(queue.size());
+    }
+
+    @ReactMethod
+    public void flush() {
+        uploader.flush();
+    }
+
+    @ReactMethod
+    public void getStats(Promise promise) {
+        promise.resolve(Arguments.makeNativeMap(uploader.getStats()));
+    }
+
+    @Override
+    public void onAccepted(String idempotencyKey, JSONObject response) {
+        WritableMap event = Arguments.createMap();
+        event.putString("idempotencyKey", idempotencyKey);
+        event.putBoolean("success", true);
+        event.putBoolean("queued", false);
+        emit(event);
+        Promise promise = waiting.remove(idempotencyKey);
+        if (promise != null) {
+            promise.resolve(BridgeJson.toWritableMap(response));
+        }
+    }
+
+    @Override
+    public void onRejected(String idempotencyKey, String code, String message, boolean retryable) {
+        boolean permanent = !retryable;
+        WritableMap event = Arguments.createMap();
+        event.putString("idempotencyKey", idempotencyKey);
+        event.putBoolean("success", false);
+        event.putBoolean("queued", !permanent);
+        event.putString("code", code);
+        event.putString("message", message);
+        emit(event);
+        Promise promise = waiting.remove(idempotencyKey);
+        if (promise == null) {
+            return;
+        }
+        if (permanent) {
+            promise.reject(code, message);
+        } else {
+            // The sale stays queued and will be settled once the link recovers.
+            promise.resolve(queuedResponse(idempotencyKey));
+        }
+    }
+
+    private static WritableMap queuedResponse(String idempotencyKey) {
+        WritableMap data = Arguments.createMap();
+        data.putArray("result", Arguments.createArray());
+        WritableMap response = Arguments.createMap();
+        response.putInt("Code", 202);
+        response.putString("Message", "در صف ارسال");
+        response.putMap("Data", data);
+        response.putBoolean("queued", true);
+        response.putString("idempotencyKey", idempotencyKey);
+        return response;
+    }
+
+    private void emit(WritableMap event) {
+        event.putInt("pending", queue.size());
+        getReactApplicationContext()
+            .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+            .emit("TransactionUploadResult", event);
+    }
+
+    @ReactMethod
+    public void addListener(String eventName) {
+        // Required for NativeEventEmitter
+    }
+
+    @ReactMethod
+    public void removeListeners(double count) {
+        // Required for NativeEventEmitter
+    }
+}
@@ -0,0 +1,339 @@
+package com.sanjabpos;
+
+import android.util.Log;
+
+import com.sanjabpos.core.SaleBatch;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+
+// Collects /Transaction payloads into size- or time-bounded batches and posts each
+// batch gzip-compressed to the batch endpoint. Every item carries an idempotency key
+// so a retried batch never settles the same sale twice, and every item is
+// acknowledged on its own from the per-item results in the response. A status for
+// the whole batch never drops a sale: only the server's verdict on that one sale
+// (SaleBatch.classify) does. A backend without the batch endpoint gets the sales
+// one by one on /Transaction. Requests go over the app's shared OkHttp client.
+public class TransactionUploader {
+    private static final String TAG = "TransactionUploader";
+    private static final int MAX_BATCH_ITEMS = 20;
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+    private static final long LINGER_MS = 1500;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long BASE_BACKOFF_MS = 2000;
+    private static final long MAX_BACKOFF_MS = 60 * 1000;
+    // How long to post sales one by one after the batch endpoint answered 404.
+    private static final long BATCH_REPROBE_MS = 30 * 60 * 1000;
+
+    static final String NETWORK_ERROR = "NETWORK_ERROR";
+    static final String INVALID_PAYLOAD = "INVALID_PAYLOAD";
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    public interface Listener {
+        void onAccepted(String idempotencyKey, JSONObject response);
+
+        // retryable: the sale was not refused, only not settled yet; it stays queued.
+        void onRejected(String idempotencyKey, String code, String message, boolean retryable);
+    }
+
+    static final class Item {
+        final String idempotencyKey;
+        final String payload;
+        int attempts;
+
+        Item(String idempotencyKey, String payload) {
+            this.idempotencyKey = idempotencyKey;
+            this.payload = payload;
+        }
+    }
+
+    private static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final OkHttpClient client;
+    private final Listener listener;
+    private volatile String batchPath = "/Transaction/batch";
+    private volatile String transactionPath = "/Transaction";
+    // Only touched on the executor thread.
+    private final List<Item> buffer = new ArrayList<>();
+    private int bufferedBytes;
+    private ScheduledFuture<?> lingerFlush;
+    private long batchUnsupportedUntil;
+
+    // Wire statistics, written on the executor thread.
+    private volatile long batchesSent;
+    private volatile long itemsSent;
+    private volatile long rawBytes;
+    private volatile long wireBytes;
+
+    // client: the process's, from ApiHttpClient, so uploads share its connections.
+    public TransactionUploader(OkHttpClient client, Listener listener) {
+        this.client = client;
+        this.listener = listener;
+    }
+
+    // From JS's endpoint constants; nulls keep the defaults.
+    public void setPaths(String batchPath, String transactionPath) {
+        if (batchPath != null && !batchPath.isEmpty()) {
+            this.batchPath = batchPath;
+        }
+        if (transactionPath != null && !transactionPath.isEmpty()) {
+            this.transactionPath = transactionPath;
+        }
+        executor.execute(() -> batchUnsupportedUntil = 0);
+    }
+
+    public void enqueue(String idempotencyKey, String payload) {
+        executor.execute(() -> add(new Item(idempotencyKey, payload)));
+    }
+
+    public void flush() {
+        executor.execute(this::flushBuffer);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("batchesSent", (double) batchesSent);
+        stats.put("itemsSent", (double) itemsSent);
+        stats.put("rawBytes", (double) rawBytes);
+        stats.put("wireBytes", (double) wireBytes);
+        return stats;
+    }
+
+    private void add(Item item) {
+        // A sale that is not a JSON object would make the server refuse the whole
+        // batch; it is the one refused, here.
+        try {
+            new JSONObject(item.payload);
+        } catch (JSONException e) {
+            listener.onRejected(item.idempotencyKey, INVALID_PAYLOAD, e.getMessage(), false);
+            return;
+        }
+        buffer.add(item);
+        bufferedBytes += item.payload.length();
+        if (buffer.size() >= MAX_BATCH_ITEMS || bufferedBytes >= MAX_BATCH_BYTES) {
+            flushBuffer();
+        } else if (lingerFlush == null) {
+            lingerFlush = executor.schedule(this::flushBuffer, LINGER_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushBuffer() {
+        if (lingerFlush != null) {
+            lingerFlush.cancel(false);
+            lingerFlush = null;
+        }
+        if (buffer.isEmpty()) {
+            return;
+        }
+        List<Item> batch = new ArrayList<>(buffer);
+        buffer.clear();
+        bufferedBytes = 0;
+        send(batch);
+    }
+
+    private void send(List<Item> batch) {
+        if (System.currentTimeMillis() < batchUnsupportedUntil) {
+            sendEach(batch);
+            return;
+        }
+        Response response;
+        try {
+            response = post(batchPath, encode(batch), true, null);
+        } catch (IOException e) {
+            Log.w(TAG, "Batch upload failed, will retry", e);
+            retry(batch, NETWORK_ERROR, "خطا در ارتباط با سرور");
+            return;
+        }
+        if (response.status == 404) {
+            Log.w(TAG, "No batch endpoint, posting sales one by one");
+            batchUnsupportedUntil = System.currentTimeMillis() + BATCH_REPROBE_MS;
+            sendEach(batch);
+            return;
+        }
+        if (response.status < 200 || response.status >= 300) {
+            Log.w(TAG, "Batch upload answered " + response.status + ", will retry");
+            retry(batch, String.valueOf(response.status), message(response.body));
+            return;
+        }
+        JSONObject json;
+        try {
+            json = new JSONObject(response.body);
+        } catch (JSONException e) {
+            retry(batch, NETWORK_ERROR, "پاسخ نامعتبر از سرور");
+            return;
+        }
+        itemsSent += batch.size();
+        acknowledge(batch, json);
+    }
+
+    // The fallback for a backend without the batch endpoint, as the JS client posts a sale.
+    private void sendEach(List<Item> batch) {
+        List<Item> again = new ArrayList<>();
+        String code = NETWORK_ERROR;
+        String message = "خطا در ارتباط با سرور";
+        for (Item item : batch) {
+            Response response;
+            try {
+                byte[] raw = item.payload.getBytes(StandardCharsets.UTF_8);
+                rawBytes += raw.length;
+                response = post(transactionPath, raw, false, item.idempotencyKey);
+            } catch (IOException e) {
+                again.add(item);
+                continue;
+            }
+            itemsSent++;
+            JSONObject json = null;
+            try {
+                json = new JSONObject(response.body);
+            } catch (JSONException e) {
+                // Judged by the HTTP status alone.
+            }
+            int verdict = response.status;
+            if (verdict >= 200 && verdict < 300 && json != null && json.has("Code")) {
+                verdict = json.optInt("Code");
+            }
+            SaleBatch.Outcome outcome = SaleBatch.classify(verdict);
+            if (outcome == SaleBatch.Outcome.ACCEPTED) {
+                listener.onAccepted(item.idempotencyKey, json != null ? json : new JSONObject());
+            } else if (outcome == SaleBatch.Outcome.REJECTED) {
+                listener.onRejected(item.idempotencyKey, String.valueOf(verdict), message(response.body), false);
+            } else {
+                again.add(item);
+                code = String.valueOf(verdict);
+                message = message(response.body);
+            }
+        }
+        if (!again.isEmpty()) {
+            retry(again, code, message);
+        }
+    }
+
+    // Items that used up their attempts are handed back as retryable, so they stay
+    // queued for the sales job, which retries them with its own backoff.
+    private void retry(List<Item> batch, String code, String message) {
+        List<Item> again = new ArrayList<>();
+        int attempts = 0;
+        for (Item item : batch) {
+            item.attempts++;
+            if (item.attempts >= MAX_ATTEMPTS) {
+                listener.onRejected(item.idempotencyKey, code, message, true);
+            } else {
+                again.add(item);
+                attempts = Math.max(attempts, item.attempts);
+            }
+        }
+        if (again.isEmpty()) {
+            return;
+        }
+        long delay = SaleBatch.backoffMs(attempts, BASE_BACKOFF_MS, MAX_BACKOFF_MS);
+        executor.schedule(() -> send(again), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void acknowledge(List<Item> batch, JSONObject response) {
+        Map<String, JSONObject> results = new HashMap<>();
+        JSONObject data = response.optJSONObject("Data");
+        JSONArray array = data != null ? data.optJSONArray("results") : null;
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject result = array.optJSONObject(i);
+                if (result != null) {
+                    results.put(result.optString("idempotencyKey"), result);
+                }
+            }
+        }
+        // Items the server did not report on, or asked to have again, are retried;
+        // their keys make that safe.
+        List<Item> again = new ArrayList<>();
+        String code = NETWORK_ERROR;
+        String message = "خطا در ارتباط با سرور";
+        for (Item item : batch) {
+            JSONObject result = results.get(item.idempotencyKey);
+            if (result == null) {
+                again.add(item);
+                continue;
+            }
+            int verdict = result.optInt("Code");
+            SaleBatch.Outcome outcome = SaleBatch.classify(verdict);
+            if (outcome == SaleBatch.Outcome.ACCEPTED) {
+                listener.onAccepted(item.idempotencyKey, result);
+            } else if (outcome == SaleBatch.Outcome.REJECTED) {
+                listener.onRejected(item.idempotencyKey, String.valueOf(verdict), result.optString("Message"), false);
+            } else {
+                again.add(item);
+                code = String.valueOf(verdict);
+                message = result.optString("Message");
+            }
+        }
+        if (!again.isEmpty()) {
+            retry(again, code, message);
+        }
+    }
+
+    private byte[] encode(List<Item> batch) throws IOException {
+        List<String> keys = new ArrayList<>(batch.size());
+        List<String> payloads = new ArrayList<>(batch.size());
+        for (Item item : batch) {
+            keys.add(item.idempotencyKey);
+            payloads.add(item.payload);
+        }
+        byte[] raw = SaleBatch.body(keys, payloads).getBytes(StandardCharsets.UTF_8);
+        rawBytes += raw.length;
+        return SaleBatch.gzip(raw);
+    }
+
+    private Response post(String path, byte[] body, boolean gzip, String idempotencyKey) throws IOException {
+        Request.Builder request = BackendHttp.request(path).post(RequestBody.create(body, JSON));
+        if (gzip) {
+            request.header("Content-Encoding", "gzip");
+        }
+        if (idempotencyKey != null) {
+            request.header("Idempotency-Key", idempotencyKey);
+        }
+        try (okhttp3.Response response = client.newCall(request.build()).execute()) {
+            batchesSent++;
+            wireBytes += body.length;
+            ResponseBody responseBody = response.body();
+            return new Response(response.code(), responseBody == null ? "" : responseBody.string());
+        }
+    }
+
+    // The server's Message if the body is one of its JSON answers.
+    private static String message(String body) {
+        try {
+            String message = new JSONObject(body).optString("Message");
+            if (!message.isEmpty()) {
+                return message;
+            }
+        } catch (JSONException e) {
+            // Not JSON; an HTML error page or nothing.
+        }
+        return "خطا در ارتباط با سرور";
+    }
+}
@@ -0,0 +1,231 @@
+package com.sanjabpos;
+
+import android.app.Application;
+import android.util.Log;
+
+import androidx.work.Configuration;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+import androidx.work.testing.SynchronousExecutor;
+import androidx.work.testing.TestDriver;
+import androidx.work.testing.WorkManagerTestInitHelper;
+
+import com.sanjabpos.core.SyncScheduler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// BackgroundSync on WorkManager's test driver: runs execute synchronously, and a
+// run held for its constraints or its delay goes only when the driver says so.
+// A burst of 1,000 sales, before or during an upload, leaves at most one run
+// waiting per job.
+@RunWith(RobolectricTestRunner.class)
+// The plain Application: MainApplication loads React Native's native libraries.
+@Config(application = Application.class)
+public class BackgroundSyncTest {
+    private static final int BURST = 1000;
+
+    private final List<String> registered = new ArrayList<>();
+    private BackgroundSync sync;
+    private WorkManager workManager;
+    private TestDriver driver;
+
+    @Before
+    public void setUp() {
+        Application application = RuntimeEnvironment.getApplication();
+        WorkManagerTestInitHelper.initializeTestWorkManager(application, new Configuration.Builder()
+                .setMinimumLoggingLevel(Log.DEBUG)
+                .setExecutor(new SynchronousExecutor())
+                .build());
+        workManager = WorkManager.getInstance(application);
+        driver = WorkManagerTestInitHelper.getTestDriver(application);
+        sync = BackgroundSync.get(application);
+    }
+
+    // BackgroundSync lives for the process, so each test takes its jobs out again.
+    @After
+    public void tearDown() {
+        for (String key : registered) {
+            sync.unregister(key);
+        }
+    }
+
+    @Test
+    public void aBurstOfSalesOfflineWaitsAsOneRun() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        register("sales:offline", SyncScheduler.NETWORK, 0, () -> {
+            runs.incrementAndGet();
+            return SyncScheduler.Result.SUCCESS;
+        });
+        assertTrue(sync.request("sales:offline"));
+        for (int i = 1; i < BURST; i++) {
+            assertFalse(sync.request("sales:offline"));
+        }
+        List<WorkInfo> pending = unfinished("sales:offline");
+        assertEquals(1, pending.size());
+        assertEquals(0, runs.get());
+
+        driver.setAllConstraintsMet(pending.get(0).getId());
+        assertEquals(1, runs.get());
+        assertTrue(unfinished("sales:offline").isEmpty());
+        Map<String, Object> stats = stats("sales:offline");
+        assertEquals((double) BURST - 1, stats.get("coalesced"));
+        assertEquals(1.0, stats.get("runs"));
+    }
+
+    // Sales made while an upload runs owe it one more run, which waits behind it.
+    @Test
+    public void aBurstDuringAnUploadQueuesOneMoreRun() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        register("sales:busy", SyncScheduler.NETWORK, 0, () -> {
+            if (runs.incrementAndGet() == 1) {
+                for (int i = 0; i < BURST; i++) {
+                    sync.request("sales:busy");
+                }
+            }
+            return SyncScheduler.Result.SUCCESS;
+        });
+        sync.request("sales:busy");
+        driver.setAllConstraintsMet(unfinished("sales:busy").get(0).getId());
+        assertEquals(1, runs.get());
+        List<WorkInfo> pending = unfinished("sales:busy");
+        assertEquals(1, pending.size());
+
+        driver.setAllConstraintsMet(pending.get(0).getId());
+        assertEquals(2, runs.get());
+        assertTrue(unfinished("sales:busy").isEmpty());
+        Map<String, Object> stats = stats("sales:busy");
+        assertEquals((double) BURST + 1, stats.get("requests"));
+        assertEquals((double) BURST - 1, stats.get("coalesced"));
+    }
+
+    // A retried run stays enqueued for WorkManager's backoff; requests meanwhile add
+    // at most one run behind it.
+    @Test
+    public void aFailedUploadWaitsOutItsBackoff() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        register("sales:retry", SyncScheduler.NETWORK, 0, () -> {
+            runs.incrementAndGet();
+            return SyncScheduler.Result.RETRY;
+        });
+        sync.request("sales:retry");
+        WorkInfo first = unfinished("sales:retry").get(0);
+        driver.setAllConstraintsMet(first.getId());
+        assertEquals(1, runs.get());
+        WorkInfo retried = workManager.getWorkInfoById(first.getId()).get();
+        assertEquals(WorkInfo.State.ENQUEUED, retried.getState());
+        assertEquals(1, retried.getRunAttemptCount());
+
+        for (int i = 0; i < BURST; i++) {
+            sync.request("sales:retry");
+        }
+        assertEquals(1, runs.get());
+        assertEquals(2, unfinished("sales:retry").size());
+        assertEquals(1.0, stats("sales:retry").get("retries"));
+    }
+
+    // A refresh runs when registered, once its constraints are met, then waits a
+    // period; a request brings that run forward.
+    @Test
+    public void aRefreshRunsOnItsConstraintsAndPeriod() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        register("refresh:/Test", SyncScheduler.NETWORK | SyncScheduler.BATTERY_NOT_LOW, 60_000, () -> {
+            runs.incrementAndGet();
+            return SyncScheduler.Result.SUCCESS;
+        });
+        List<WorkInfo> pending = unfinished("refresh:/Test");
+        assertEquals(1, pending.size());
+        assertEquals(0, runs.get());
+        driver.setAllConstraintsMet(pending.get(0).getId());
+        assertEquals(1, runs.get());
+
+        pending = unfinished("refresh:/Test");
+        assertEquals(1, pending.size());
+        assertEquals(WorkInfo.State.ENQUEUED, pending.get(0).getState());
+        driver.setAllConstraintsMet(pending.get(0).getId());
+        assertEquals(1, runs.get());
+
+        assertFalse(sync.request("refresh:/Test"));
+        pending = unfinished("refresh:/Test");
+        assertEquals(1, pending.size());
+        driver.setAllConstraintsMet(pending.get(0).getId());
+        assertEquals(2, runs.get());
+    }
+
+    // After a reboot or once the app was killed, WorkManager starts the run in a
+    // process where no module registered its job. The job is built from the key and
+    // runs; without a backend configured the refresh is retried, not used up.
+    @Test
+    public void aRunWithoutItsJobRegisteredBuildsItFromTheKey() throws Exception {
+        registered.add("refresh:/Cold");
+        OneTimeWorkRequest work = work("refresh:/Cold", SyncScheduler.NETWORK | SyncScheduler.BATTERY_NOT_LOW, 60_000);
+        workManager.enqueueUniqueWork("refresh:/Cold", ExistingWorkPolicy.REPLACE, work);
+        driver.setAllConstraintsMet(work.getId());
+
+        WorkInfo info = workManager.getWorkInfoById(work.getId()).get();
+        assertEquals(WorkInfo.State.ENQUEUED, info.getState());
+        assertEquals(1, info.getRunAttemptCount());
+        Map<String, Object> stats = stats("refresh:/Cold");
+        assertEquals(1.0, stats.get("runs"));
+        assertEquals(1.0, stats.get("retries"));
+    }
+
+    @Test
+    public void aRunForAnUnknownJobFails() throws Exception {
+        OneTimeWorkRequest work = work("nothing:here", SyncScheduler.NETWORK, 0);
+        workManager.enqueueUniqueWork("nothing:here", ExistingWorkPolicy.REPLACE, work);
+        driver.setAllConstraintsMet(work.getId());
+        assertEquals(WorkInfo.State.FAILED, workManager.getWorkInfoById(work.getId()).get().getState());
+    }
+
+    // The work BackgroundSync itself enqueues for the key.
+    private static OneTimeWorkRequest work(String key, int constraints, long periodMs) {
+        return new OneTimeWorkRequest.Builder(SyncWorker.class)
+                .setInputData(new Data.Builder()
+                        .putString(SyncWorker.KEY, key)
+                        .putInt(SyncWorker.CONSTRAINTS, constraints)
+                        .putLong(SyncWorker.PERIOD_MS, periodMs)
+                        .build())
+                .setConstraints(new Constraints.Builder().setRequiredNetworkType(NetworkType.CONNECTED).build())
+                .build();
+    }
+
+    private void register(String key, int constraints, long periodMs, BackgroundSync.Job job) {
+        registered.add(key);
+        sync.register(key, constraints, periodMs, job);
+    }
+
+    private List<WorkInfo> unfinished(String key) throws Exception {
+        List<WorkInfo> unfinished = new ArrayList<>();
+        for (WorkInfo info : workManager.getWorkInfosForUniqueWork(key).get()) {
+            if (!info.getState().isFinished()) {
+                unfinished.add(info);
+            }
+        }
+        return unfinished;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> stats(String key) {
+        return (Map<String, Object>) ((Map<String, Object>) sync.getStats().get("jobs")).get(key);
+    }
+}
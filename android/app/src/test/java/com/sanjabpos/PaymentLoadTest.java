@@ -0,0 +1,434 @@
+package com.sanjabpos;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Looper;
+
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+import com.sanjabpos.core.LatencyHistogram;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+import static org.robolectric.Shadows.shadowOf;
+
+// Drives thousands of purchases through PaymentEngine against SimulatedPsp, headless
+// on the JVM, one lane per provider, each lane a sale at a time as a cashier would.
+// Every result is checked twice: the promise must get the result of its own launch
+// (the simulator's sequence number comes back as stan or traceNo), and the JS event
+// must carry the same result under the same requestId. Latency is measured from
+// dispatch to the awaited result; overhead is that minus the simulated PSP delay,
+// i.e. what the engine, correlator, journal and main thread add. Each run prints
+// its report; a mismatch or a p99 overhead above MAX_P99_OVERHEAD_MS fails it.
+//
+// The main looper is pumped by the test thread in step with the wall clock, so the
+// simulated delays and the correlator's timeouts run in real time; only a code held
+// by a result that will never come is freed by moving the clock past the tombstone.
+// Each test has its own engine, journal and transaction store in a temporary
+// folder, not the process's, so no run sees another's intents or sales.
+@RunWith(RobolectricTestRunner.class)
+// The plain Application: MainApplication loads React Native's native libraries.
+@Config(application = Application.class, shadows = ShadowArguments.class,
+        instrumentedPackages = "com.facebook.react.bridge")
+public class PaymentLoadTest {
+    private static final double MAX_P99_OVERHEAD_MS = 50;
+
+    // What a lane saw of one sale, checked against the events once the run is over.
+    private static final class Sale {
+        final String requestId;
+        final String tag;
+
+        Sale(String requestId, String tag) {
+            this.requestId = requestId;
+            this.tag = tag;
+        }
+    }
+
+    private static final class Report {
+        final List<Sale> sales = new CopyOnWriteArrayList<>();
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram overhead = new LatencyHistogram();
+        final AtomicInteger approved = new AtomicInteger();
+        final AtomicInteger declined = new AtomicInteger();
+        final AtomicInteger outcomeUnknown = new AtomicInteger();
+        final AtomicInteger timeouts = new AtomicInteger();
+        final AtomicInteger notSent = new AtomicInteger();
+        // Sends refused while a late result still held the request code.
+        final AtomicInteger held = new AtomicInteger();
+        // The promise got another launch's result.
+        final AtomicInteger misattributed = new AtomicInteger();
+        // The promise got its own result, but not the outcome that was sent.
+        final AtomicInteger wrongOutcome = new AtomicInteger();
+        long elapsedNanos;
+        int missingEvents;
+        int duplicateEvents;
+        int eventMismatches;
+        // Events under requestIds no promise resolved with.
+        int orphanEvents;
+
+        int mismatches() {
+            return misattributed.get() + wrongOutcome.get() + missingEvents + duplicateEvents + eventMismatches
+                    + orphanEvents;
+        }
+
+        double p99OverheadMs() {
+            Object p99 = overhead.summarize().get("p99Ms");
+            return p99 == null ? 0 : (Double) p99;
+        }
+
+        void print(String name) {
+            System.out.printf("%s: %d sales in %.0f ms, %.0f sales/s%n  latency %s%n  overhead %s%n"
+                            + "  approved %d, declined %d, outcome unknown %d, timeouts %d, held %d, not sent %d%n"
+                            + "  misattributed %d, wrong outcome %d, missing events %d, duplicate events %d,"
+                            + " event mismatches %d, orphan events %d%n",
+                    name, sales.size(), elapsedNanos / 1e6, sales.size() * 1e9 / elapsedNanos,
+                    latency.summarize(), overhead.summarize(), approved.get(), declined.get(),
+                    outcomeUnknown.get(), timeouts.get(), held.get(), notSent.get(), misattributed.get(),
+                    wrongOutcome.get(), missingEvents, duplicateEvents, eventMismatches, orphanEvents);
+        }
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private PaymentEngine engine;
+    private final List<PaymentProvider> providers = new ArrayList<>();
+    private SimulatedPsp simulator;
+    // JS events by requestId, as tags; filled on the main thread.
+    private final Map<String, List<String>> events = new ConcurrentHashMap<>();
+    private final AtomicInteger cancelledResults = new AtomicInteger();
+    private final AtomicInteger unclaimedResults = new AtomicInteger();
+    private long pumpedAt;
+    // Set by a lane whose code is held by a result that was dropped.
+    private volatile boolean skipTombstone;
+
+    @Before
+    public void setUp() {
+        Application application = RuntimeEnvironment.getApplication();
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        DeviceEventManagerModule.RCTDeviceEventEmitter emitter =
+                mock(DeviceEventManagerModule.RCTDeviceEventEmitter.class);
+        doAnswer(invocation -> {
+            emitted(invocation.getArgument(1));
+            return null;
+        }).when(emitter).emit(anyString(), any());
+        ReactApplicationContext context = mock(ReactApplicationContext.class);
+        when(context.getApplicationContext()).thenReturn(application);
+        when(context.getFilesDir()).thenReturn(folder.getRoot());
+        when(context.getCurrentActivity()).thenReturn(activity);
+        when(context.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)).thenReturn(emitter);
+
+        engine = new PaymentEngine(context, new TransactionJournal(context),
+                new LocalTransactions(new File(folder.getRoot(), "transactions.log")));
+        providers.add(new IkcPaymentProvider());
+        providers.add(new SepehrPaymentProvider());
+        for (PaymentProvider provider : providers) {
+            engine.register(provider);
+        }
+    }
+
+    @Test
+    public void everyResultReachesItsOwnSale() throws Exception {
+        SimulatedPsp.Scenario scenario = new SimulatedPsp.Scenario();
+        scenario.declineRate = 0.1;
+        scenario.nullIntentRate = 0.02;
+        Report report = run(providers, 2000, scenario, 2000);
+        report.print("approvals, declines and null Intents");
+
+        assertEquals(2000, report.sales.size());
+        assertEquals(0, report.mismatches());
+        assertEquals(0, unclaimedResults.get());
+        assertTrue("p99 overhead " + report.p99OverheadMs() + " ms",
+                report.p99OverheadMs() <= MAX_P99_OVERHEAD_MS);
+    }
+
+    // A result that comes after the cashier gave up belongs to nobody: it must not
+    // complete the next sale on that code, which cannot be sent until it is in.
+    @Test
+    public void aLateResultGoesToNoOtherSale() throws Exception {
+        SimulatedPsp.Scenario scenario = new SimulatedPsp.Scenario();
+        scenario.declineRate = 0.1;
+        scenario.lateRate = 0.02;
+        scenario.lateDelayMs = 400;
+        Report report = run(providers, 1000, scenario, 200);
+        report.print("late results");
+
+        assertTrue(report.timeouts.get() > 0);
+        assertEquals(0, report.notSent.get());
+        assertEquals(1000, report.sales.size() + report.timeouts.get());
+        assertEquals(0, report.mismatches());
+        assertEquals(report.timeouts.get(), cancelledResults.get());
+        assertEquals(0, unclaimedResults.get());
+    }
+
+    // Delays that vary more than a sale takes: results of the two lanes arrive in
+    // another order than they were sent, and each still finds its own sale.
+    @Test
+    public void resultsOutOfOrderReachTheirOwnSales() throws Exception {
+        SimulatedPsp.Scenario scenario = new SimulatedPsp.Scenario();
+        scenario.declineRate = 0.1;
+        scenario.minDelayMs = 1;
+        scenario.maxDelayMs = 100;
+        Report report = run(providers, 1000, scenario, 2000);
+        report.print("out of order (" + simulator.outOfOrder.get() + " results)");
+
+        assertTrue(simulator.outOfOrder.get() > 0);
+        assertEquals(1000, report.sales.size());
+        assertEquals(0, report.mismatches());
+        assertEquals(0, unclaimedResults.get());
+    }
+
+    // A result that never comes times its sale out; the code is held until the
+    // tombstone expires, then the next sale goes out and gets its own result.
+    @Test
+    public void aDroppedResultTimesOutItsOwnSaleOnly() throws Exception {
+        SimulatedPsp.Scenario scenario = new SimulatedPsp.Scenario();
+        scenario.declineRate = 0.1;
+        scenario.dropRate = 0.02;
+        Report report = run(Collections.singletonList(providers.get(0)), 500, scenario, 200);
+        report.print("dropped results (" + simulator.dropped.get() + ")");
+
+        assertTrue(simulator.dropped.get() > 0);
+        assertEquals(simulator.dropped.get(), report.timeouts.get());
+        assertEquals(0, report.notSent.get());
+        assertEquals(500, report.sales.size() + report.timeouts.get());
+        assertEquals(0, report.mismatches());
+        assertEquals(0, cancelledResults.get());
+        assertEquals(0, unclaimedResults.get());
+    }
+
+    // The PSP delivers an approval twice. The repeat is dropped by its stan or
+    // traceNo: it completes neither the next sale on that code nor a second event.
+    @Test
+    public void aDuplicateResultIsDropped() throws Exception {
+        SimulatedPsp.Scenario scenario = new SimulatedPsp.Scenario();
+        scenario.declineRate = 0.1;
+        scenario.duplicateRate = 0.05;
+        Report report = run(providers, 1000, scenario, 2000);
+        report.print("duplicate results (" + simulator.duplicates.get() + ")");
+
+        assertTrue(simulator.duplicates.get() > 0);
+        assertEquals(1000, report.sales.size());
+        assertEquals(0, report.mismatches());
+        assertEquals(0, unclaimedResults.get());
+    }
+
+    private Report run(List<PaymentProvider> laneProviders, int sales, SimulatedPsp.Scenario scenario,
+                       long awaitTimeoutMs) throws Exception {
+        simulator = new SimulatedPsp(engine, scenario);
+        Report report = new Report();
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        List<Thread> lanes = new ArrayList<>();
+        for (int lane = 0; lane < laneProviders.size(); lane++) {
+            PaymentProvider provider = laneProviders.get(lane);
+            int laneSales = sales / laneProviders.size() + (lane < sales % laneProviders.size() ? 1 : 0);
+            lanes.add(new Thread(() -> {
+                try {
+                    runLane(provider, laneSales, scenario, awaitTimeoutMs, report);
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }, "PaymentLoadTest-" + provider.getName()));
+        }
+        pumpedAt = System.nanoTime();
+        long start = pumpedAt;
+        for (Thread lane : lanes) {
+            lane.start();
+        }
+        while (alive(lanes)) {
+            pump();
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        // Results that come late are still on their way.
+        long settleUntil = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(Math.max(scenario.maxDelayMs, scenario.lateDelayMs) + 100);
+        while (System.nanoTime() < settleUntil) {
+            pump();
+        }
+        simulator.stop();
+        if (!failures.isEmpty()) {
+            throw new AssertionError("a lane failed", failures.get(0));
+        }
+
+        for (Sale sale : report.sales) {
+            List<String> tags = events.remove(sale.requestId);
+            if (tags == null) {
+                report.missingEvents++;
+                continue;
+            }
+            report.duplicateEvents += tags.size() - 1;
+            if (sale.tag != null && !sale.tag.equals(tags.get(0))) {
+                report.eventMismatches++;
+            }
+        }
+        for (List<String> tags : events.values()) {
+            report.orphanEvents += tags.size();
+        }
+        return report;
+    }
+
+    private void runLane(PaymentProvider provider, int count, SimulatedPsp.Scenario scenario, long awaitTimeoutMs,
+                         Report report) throws InterruptedException {
+        int requestCode = provider.purchase("10000", "probe", false, false).requestCode;
+        for (int i = 0; i < count; i++) {
+            String id = "load-" + provider.getName() + "-" + i;
+            // Retries while a late result holds the code, as the cashier would.
+            long giveUpAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(scenario.lateDelayMs + awaitTimeoutMs);
+            String requestId = null;
+            long start;
+            do {
+                start = System.nanoTime();
+                BlockingQueue<Object> sentAnswer = new ArrayBlockingQueue<>(1);
+                engine.dispatch(() -> simulator.route(provider.purchase("10000", id, false, false)),
+                        answerTo(sentAnswer));
+                Object sent = sentAnswer.poll(awaitTimeoutMs, TimeUnit.MILLISECONDS);
+                if (sent instanceof ReadableMap && ((ReadableMap) sent).hasKey("requestId")) {
+                    requestId = ((ReadableMap) sent).getString("requestId");
+                    break;
+                }
+                report.held.incrementAndGet();
+                if (scenario.dropRate > 0) {
+                    // Nothing will free the code before its tombstone expires.
+                    skipTombstone = true;
+                }
+                while (engine.isInFlight(requestCode) && System.nanoTime() < giveUpAt) {
+                    Thread.sleep(1);
+                }
+            } while (System.nanoTime() < giveUpAt);
+            if (requestId == null) {
+                report.notSent.incrementAndGet();
+                continue;
+            }
+            SimulatedPsp.Launch launch = simulator.lastLaunch(requestCode);
+
+            BlockingQueue<Object> resultAnswer = new ArrayBlockingQueue<>(1);
+            engine.awaitResult(requestId, awaitTimeoutMs, answerTo(resultAnswer));
+            Object answer = resultAnswer.poll(awaitTimeoutMs + 1000, TimeUnit.MILLISECONDS);
+            long elapsed = System.nanoTime() - start;
+            if (!(answer instanceof ReadableMap)) {
+                // Frees the request for the next sale, as the cashier screen does.
+                engine.cancel(requestId);
+                report.timeouts.incrementAndGet();
+                continue;
+            }
+            ReadableMap result = (ReadableMap) answer;
+            report.latency.recordNanos(elapsed);
+            report.overhead.recordNanos(Math.max(0, elapsed - TimeUnit.MILLISECONDS.toNanos(launch.delayMs)));
+
+            String tag = tag(result);
+            boolean approved = result.hasKey("approved") && result.getBoolean("approved");
+            if (result.hasKey("outcomeUnknown")) {
+                report.outcomeUnknown.incrementAndGet();
+            } else if (approved) {
+                report.approved.incrementAndGet();
+            } else {
+                report.declined.incrementAndGet();
+            }
+            if (launch.kind == SimulatedPsp.Kind.NULL_INTENT) {
+                if (!result.hasKey("outcomeUnknown")) {
+                    report.wrongOutcome.incrementAndGet();
+                }
+            } else if (!String.valueOf(launch.sequence).equals(tag)) {
+                report.misattributed.incrementAndGet();
+            } else if (approved != (launch.kind != SimulatedPsp.Kind.DECLINED)) {
+                report.wrongOutcome.incrementAndGet();
+            }
+            report.sales.add(new Sale(requestId, tag));
+        }
+    }
+
+    // On the main thread, as the JS event carries it.
+    private void emitted(Object data) {
+        ReadableMap result = (ReadableMap) data;
+        if (!result.hasKey("requestId")) {
+            unclaimedResults.incrementAndGet();
+            return;
+        }
+        if (result.hasKey("cancelled")) {
+            cancelledResults.incrementAndGet();
+            return;
+        }
+        String requestId = result.getString("requestId");
+        List<String> tags = events.get(requestId);
+        if (tags == null) {
+            tags = new ArrayList<>();
+            events.put(requestId, tags);
+        }
+        tags.add(tag(result));
+    }
+
+    // Runs what the main looper has due, moving its clock on by the time that passed.
+    private void pump() throws InterruptedException {
+        Thread.sleep(1);
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pumpedAt);
+        shadowOf(Looper.getMainLooper()).idleFor(ms, TimeUnit.MILLISECONDS);
+        pumpedAt += TimeUnit.MILLISECONDS.toNanos(ms);
+        if (skipTombstone) {
+            skipTombstone = false;
+            shadowOf(Looper.getMainLooper()).idleFor(RequestCorrelator.TOMBSTONE_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static boolean alive(List<Thread> threads) {
+        for (Thread thread : threads) {
+            if (thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Resolutions arrive as the value, rejections as their arguments.
+    private static Promise answerTo(BlockingQueue<Object> answer) {
+        return mock(Promise.class, withSettings().stubOnly().defaultAnswer(invocation -> {
+            String method = invocation.getMethod().getName();
+            if (method.equals("resolve")) {
+                answer.offer(invocation.getArgument(0));
+            } else if (method.equals("reject")) {
+                answer.offer(Arrays.asList(invocation.getArguments()));
+            }
+            return null;
+        }));
+    }
+
+    // The simulated launch a result belongs to; null for a null Intent.
+    private static String tag(ReadableMap result) {
+        for (String key : new String[]{"stan", "traceNo"}) {
+            if (result.hasKey(key) && !result.isNull(key)) {
+                return result.getString(key);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,135 @@
+package com.sanjabpos;
+
+import android.app.Activity;
+import android.app.Application;
+
+import com.facebook.react.bridge.ReactApplicationContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// PrintSpooler against SimulatedPrinter, headless on the JVM, with its queue file
+// in a temporary folder: nothing reaches the app's print-queue.wal. A burst of
+// 1,000 receipts on a printer that fails now and then prints each once; a print
+// whose result comes after the timeout is not sent again, unless that late result
+// says it failed.
+@RunWith(RobolectricTestRunner.class)
+// The plain Application: MainApplication loads React Native's native libraries.
+@Config(application = Application.class)
+public class PrintSpoolerLoadTest {
+    private static final int RECEIPTS = 1000;
+    // Past PrintSpooler's 10 s result timeout.
+    private static final long LATE_MS = 12_000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Application application;
+    private ReactApplicationContext context;
+    private SimulatedPrinter printer;
+    private PrintSpooler spooler;
+
+    @Before
+    public void setUp() {
+        application = RuntimeEnvironment.getApplication();
+        Activity activity = Robolectric.buildActivity(Activity.class).setup().get();
+        context = mock(ReactApplicationContext.class);
+        when(context.getApplicationContext()).thenReturn(application);
+        when(context.getFilesDir()).thenReturn(folder.getRoot());
+        when(context.getCurrentActivity()).thenReturn(activity);
+    }
+
+    @After
+    public void tearDown() {
+        if (spooler != null) {
+            spooler.shutdown();
+        }
+        if (printer != null) {
+            printer.shutdown();
+        }
+    }
+
+    @Test
+    public void aBurstOfReceiptsPrintsEachOnce() throws Exception {
+        start(20, 0.05);
+        long begin = System.nanoTime();
+        for (int i = 0; i < RECEIPTS; i++) {
+            assertTrue(spooler.enqueueText(ReceiptTemplate.DEFAULT_KEY, IkcPaymentProvider.receiptLines(
+                    new String[]{"متن چپ 1", "متن چپ 2"}, new String[]{"متن راست 1", "متن راست 2"},
+                    new String[]{String.valueOf(i + 1)})) >= 0);
+        }
+        Map<String, Object> stats = await("printed", RECEIPTS, 120_000);
+        System.out.printf("%d receipts in %.0f ms: %s%n", RECEIPTS, (System.nanoTime() - begin) / 1e6, stats);
+
+        assertEquals(0.0, stats.get("failed"));
+        assertEquals(0.0, stats.get("held"));
+        assertEquals(0.0, stats.get("resultTimeouts"));
+        assertEquals((double) printer.sends.size(), stats.get("sends"));
+        assertFalse(new File(application.getFilesDir(), "print-queue.wal").exists());
+    }
+
+    @Test
+    public void aLateResultIsNotPrintedAgain() throws Exception {
+        start(20, 0);
+        printer.nextDelayMs = LATE_MS;
+        spooler.enqueueText(ReceiptTemplate.DEFAULT_KEY, IkcPaymentProvider.sampleLines());
+        await("resultTimeouts", 1, LATE_MS);
+        // Queued behind the late print: it waits for that result, then prints.
+        spooler.enqueueText(ReceiptTemplate.DEFAULT_KEY, IkcPaymentProvider.sampleLines());
+        Map<String, Object> stats = await("printed", 1, LATE_MS + 5_000);
+
+        assertEquals(2, printer.sends.size());
+        assertTrue(printer.sends.get(1) - printer.sends.get(0) >= TimeUnit.MILLISECONDS.toNanos(LATE_MS));
+        assertEquals(1.0, stats.get("lateResults"));
+        assertEquals(0.0, stats.get("retries"));
+    }
+
+    @Test
+    public void aLateFailureIsPrintedAgain() throws Exception {
+        start(20, 0);
+        printer.nextDelayMs = LATE_MS;
+        printer.nextFails = true;
+        spooler.enqueueText(ReceiptTemplate.DEFAULT_KEY, IkcPaymentProvider.sampleLines());
+        Map<String, Object> stats = await("printed", 1, LATE_MS + 5_000);
+
+        assertEquals(2, printer.sends.size());
+        assertEquals(1.0, stats.get("resultTimeouts"));
+        assertEquals(1.0, stats.get("lateResults"));
+    }
+
+    private void start(long latencyMs, double failureRate) {
+        printer = new SimulatedPrinter(latencyMs, failureRate);
+        spooler = new PrintSpooler(context, new File(folder.getRoot(), "print-queue.wal"), new ReceiptRenderer(),
+                printer);
+        printer.listener = spooler;
+    }
+
+    private Map<String, Object> await(String stat, double value, long timeoutMs) throws InterruptedException {
+        long giveUpAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        Map<String, Object> stats = spooler.getStats();
+        while ((Double) stats.get(stat) < value) {
+            assertTrue(stat + " stayed at " + stats.get(stat) + ": " + stats, System.nanoTime() < giveUpAt);
+            Thread.sleep(10);
+            stats = spooler.getStats();
+        }
+        return stats;
+    }
+}
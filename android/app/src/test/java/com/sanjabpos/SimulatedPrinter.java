@@ -0,0 +1,65 @@
+package com.sanjabpos;
+
+import android.app.Activity;
+import android.graphics.Bitmap;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Stands in for the terminal printer in PrintSpoolerLoadTest. Each print's outcome
+// comes back to the listener under REQUEST_CODE after latencyMs, as the PSP's
+// activity result would, and fails at the given rate. The next print can be made
+// to answer late, and to fail.
+final class SimulatedPrinter implements PrintSpooler.Printer {
+    static final int REQUEST_CODE = 9001;
+
+    private final long latencyMs;
+    private final double failureRate;
+    private final Random random = new Random(1);
+    private final ScheduledExecutorService results = Executors.newSingleThreadScheduledExecutor();
+    // When each print was sent, in System.nanoTime.
+    final List<Long> sends = new CopyOnWriteArrayList<>();
+    volatile PaymentEngine.ResultListener listener;
+    // Applied to the next print only.
+    volatile long nextDelayMs = -1;
+    volatile boolean nextFails;
+
+    SimulatedPrinter(long latencyMs, double failureRate) {
+        this.latencyMs = latencyMs;
+        this.failureRate = failureRate;
+    }
+
+    @Override
+    public boolean print(Activity activity, Bitmap receipt, boolean big) {
+        return send();
+    }
+
+    @Override
+    public boolean printImagePath(Activity activity, String imagePath) {
+        return send();
+    }
+
+    @Override
+    public int resultRequestCode(boolean big) {
+        return REQUEST_CODE;
+    }
+
+    void shutdown() {
+        results.shutdownNow();
+    }
+
+    // Only the spooler's consumer thread sends.
+    private boolean send() {
+        sends.add(System.nanoTime());
+        long delayMs = nextDelayMs >= 0 ? nextDelayMs : latencyMs;
+        int resultCode = nextFails || random.nextDouble() < failureRate ? 1 : 0;
+        nextDelayMs = -1;
+        nextFails = false;
+        results.schedule(() -> listener.onResult(REQUEST_CODE, resultCode), delayMs, TimeUnit.MILLISECONDS);
+        return true;
+    }
+}
@@ -0,0 +1,161 @@
+package com.sanjabpos;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Stands in for the IKC and Sepehr apps in PaymentLoadTest. A call routed here is
+// sent to the simulator instead of the PSP activity, and after a random delay its
+// result comes back through PaymentEngine.onActivityResult on the main looper, as
+// the real one would. Each launch draws an outcome from the Scenario: approved,
+// declined, a null Intent, a result that arrives late (after the caller gave up),
+// or none at all. An approval may be delivered twice. Results carry the launch's
+// sequence number as the stan (traceNo for Sepehr), so the test can tell whose
+// result a promise got, and the simulator counts the results that arrived after
+// one of a later launch.
+final class SimulatedPsp {
+    enum Kind { APPROVED, DECLINED, NULL_INTENT, LATE, DROPPED }
+
+    static final class Scenario {
+        double declineRate;
+        double nullIntentRate;
+        double lateRate;
+        double dropRate;
+        // Of approvals, delivered again duplicateDelayMs after the first.
+        double duplicateRate;
+        long minDelayMs = 1;
+        long maxDelayMs = 20;
+        long lateDelayMs = 400;
+        long duplicateDelayMs = 5;
+        long seed = 1;
+    }
+
+    static final class Launch {
+        final long sequence;
+        final int requestCode;
+        final Kind kind;
+        final long delayMs;
+        final boolean duplicated;
+
+        Launch(long sequence, int requestCode, Kind kind, long delayMs, boolean duplicated) {
+            this.sequence = sequence;
+            this.requestCode = requestCode;
+            this.kind = kind;
+            this.delayMs = delayMs;
+            this.duplicated = duplicated;
+        }
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final PaymentEngine engine;
+    private final Scenario scenario;
+    private final Random random;
+    private final Map<Integer, Launch> lastLaunch = new ConcurrentHashMap<>();
+    private long sequence;
+    // Highest sequence delivered so far; main thread only.
+    private long deliveredUpTo;
+    final AtomicInteger outOfOrder = new AtomicInteger();
+    final AtomicInteger dropped = new AtomicInteger();
+    final AtomicInteger duplicates = new AtomicInteger();
+
+    SimulatedPsp(PaymentEngine engine, Scenario scenario) {
+        this.engine = engine;
+        this.scenario = scenario;
+        this.random = new Random(scenario.seed);
+    }
+
+    // The provider's call with its sender replaced by a launch on the simulator;
+    // journaling and correlation stay as the provider set them.
+    PaymentCall route(PaymentCall call) {
+        PaymentCall routed = new PaymentCall(call.requestCode, activity -> launch(activity, call.requestCode))
+                .messages(call.sentMessage, call.failedMessage);
+        if (call.journalType != null) {
+            routed.journaled(call.journalType, call.amount, call.id);
+        }
+        if (!call.correlated) {
+            routed.uncorrelated();
+        }
+        return routed;
+    }
+
+    // The launch of the last request sent with this code.
+    Launch lastLaunch(int requestCode) {
+        return lastLaunch.get(requestCode);
+    }
+
+    // Drops the results still pending. Call it on the main thread.
+    void stop() {
+        handler.removeCallbacksAndMessages(null);
+    }
+
+    private boolean launch(Activity activity, int requestCode) {
+        Launch launch = draw(requestCode);
+        lastLaunch.put(requestCode, launch);
+        if (launch.kind != Kind.DROPPED) {
+            handler.postDelayed(() -> deliver(activity, launch, false), launch.delayMs);
+        }
+        return true;
+    }
+
+    private synchronized Launch draw(int requestCode) {
+        double roll = random.nextDouble();
+        Kind kind;
+        if ((roll -= scenario.declineRate) < 0) {
+            kind = Kind.DECLINED;
+        } else if ((roll -= scenario.nullIntentRate) < 0) {
+            kind = Kind.NULL_INTENT;
+        } else if ((roll -= scenario.lateRate) < 0) {
+            kind = Kind.LATE;
+        } else if (roll - scenario.dropRate < 0) {
+            kind = Kind.DROPPED;
+            dropped.incrementAndGet();
+        } else {
+            kind = Kind.APPROVED;
+        }
+        long delay = kind == Kind.LATE ? scenario.lateDelayMs
+                : scenario.minDelayMs + (long) (random.nextDouble() * (scenario.maxDelayMs - scenario.minDelayMs));
+        boolean duplicated = kind == Kind.APPROVED && random.nextDouble() < scenario.duplicateRate;
+        return new Launch(++sequence, requestCode, kind, delay, duplicated);
+    }
+
+    private void deliver(Activity activity, Launch launch, boolean again) {
+        if (again) {
+            duplicates.incrementAndGet();
+        } else if (launch.sequence < deliveredUpTo) {
+            outOfOrder.incrementAndGet();
+        } else {
+            deliveredUpTo = launch.sequence;
+        }
+        boolean sepehr = launch.requestCode == SepehrPaymentProvider.PAYMENT_REQUEST_CODE;
+        boolean approved = launch.kind != Kind.DECLINED;
+        Intent data = null;
+        if (launch.kind != Kind.NULL_INTENT) {
+            String sequence = String.valueOf(launch.sequence);
+            data = new Intent();
+            if (sepehr) {
+                data.putExtra("amount", "10000");
+                data.putExtra("resultCode", approved ? "00" : "51");
+                data.putExtra("traceNo", sequence);
+                data.putExtra("refrenceCode", "9" + sequence);
+            } else {
+                data.putExtra("paymentAmount", "10000");
+                data.putExtra("txResponseCode", approved ? "00" : "51");
+                data.putExtra("stan", sequence);
+                data.putExtra("referenceCode", "9" + sequence);
+                data.putExtra("message", approved ? "تراکنش موفق" : "موجودی کافی نیست");
+            }
+        }
+        // Sepehr answers RESULT_OK with its own response code, IKC 0 or an error code.
+        int resultCode = sepehr ? -1 : approved ? 0 : 1;
+        engine.onActivityResult(activity, launch.requestCode, resultCode, data);
+        if (launch.duplicated && !again) {
+            handler.postDelayed(() -> deliver(activity, launch, true), scenario.duplicateDelayMs);
+        }
+    }
+}
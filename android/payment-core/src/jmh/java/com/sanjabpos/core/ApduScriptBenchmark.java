@@ -0,0 +1,60 @@
+package com.sanjabpos.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// The loyalty card flow (SELECT, three READ RECORDs, VERIFY, GET BALANCE) on
+// SimulatedCard, run as one ApduScript against the same commands sent one at a
+// time from JS, where each command also pays a bridge hop out (sendApdu) and one
+// back (the PaymentResult event) before JS can look at the status word. pspMs is
+// the PSP's ICC round trip, hopMs a bridge hop on a busy terminal; with both at
+// zero the numbers are the script engine's own cost. ApduScriptTest checks the
+// script's behaviour on the simulated card.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ApduScriptBenchmark {
+    @Param({"0", "150"})
+    public long pspMs;
+
+    @Param({"0", "25"})
+    public long hopMs;
+
+    private ApduScript script;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        script = new ApduScript(SimulatedCard.loyaltyScript("1234"));
+    }
+
+    @Benchmark
+    public ApduScript.Result script() throws InterruptedException {
+        return script.run(SimulatedCard.loyalty(pspMs));
+    }
+
+    @Benchmark
+    public ApduScript.Result perCommandFromJs() throws InterruptedException {
+        SimulatedCard card = SimulatedCard.loyalty(pspMs);
+        return script.run(command -> {
+            hop();
+            String response = card.transmit(command);
+            hop();
+            return response;
+        });
+    }
+
+    private void hop() throws InterruptedException {
+        if (hopMs > 0) {
+            Thread.sleep(hopMs);
+        }
+    }
+}
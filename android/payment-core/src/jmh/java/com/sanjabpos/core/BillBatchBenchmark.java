@@ -0,0 +1,156 @@
+package com.sanjabpos.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Paying a stack of bills end to end through a stub PSP on a simulated clock, the
+// way it is done today and through PaymentModule's batch. Today each bill is inquired
+// when the customer asks for the total and again when it is paid, each request is
+// a trip through JS, and the PSP shows and prints a receipt per payment. The batch
+// checks the ids locally, inquires each bill once (the payment pass finds every
+// bill in the cache), pays back to back from native code and prints one
+// receipt. The benchmark scores are our own CPU time; TearDown prints the simulated
+// end-to-end time of both. BillBatchTest checks the results.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BillBatchBenchmark {
+    // Bridge hop between JS and native.
+    private static final long HOP_MS = 30;
+    // Printing one PSP bill receipt, and one line pair of the combined receipt.
+    private static final long RECEIPT_MS = 2500;
+    private static final long RECEIPT_LINE_MS = 120;
+    // The cashier dismissing the PSP's receipt screen.
+    private static final long RECEIPT_SCREEN_MS = 1500;
+
+    @Param({"50"})
+    public int bills;
+
+    // One PSP activity round trip for an inquiry or a payment.
+    @Param({"800", "1500"})
+    public long pspMs;
+
+    private String[][] typed;
+    private long currentMs;
+    private long batchMs;
+
+    // The PSP: every request advances the clock; one bill in 25 is declined.
+    private final class StubPsp {
+        long clock;
+
+        boolean inquire(Bill bill) {
+            clock += pspMs;
+            return true;
+        }
+
+        BillBatch.Payment pay(Bill bill, boolean receipt) {
+            clock += pspMs + (receipt ? RECEIPT_SCREEN_MS + RECEIPT_MS : 0);
+            boolean declined = bill.billId.hashCode() % 25 == 0;
+            return new BillBatch.Payment(declined ? BillBatch.Status.DECLINED : BillBatch.Status.PAID,
+                    "123456", "987654321", null, null);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(23);
+        typed = new String[bills][];
+        for (int i = 0; i < bills; i++) {
+            typed[i] = validBill(random);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void printEndToEnd() {
+        System.out.printf("%n%d bills at %d ms per PSP request: current path %.1f s, batch %.1f s%n",
+                bills, pspMs, currentMs / 1000.0, batchMs / 1000.0);
+    }
+
+    @Benchmark
+    public long currentPath() {
+        StubPsp psp = new StubPsp();
+        for (String[] ids : typed) {
+            // Inquired for the total, inquired again when paid, each from JS.
+            for (int inquiry = 0; inquiry < 2; inquiry++) {
+                psp.clock += 2 * HOP_MS;
+                psp.inquire(Bill.parse(ids[0], ids[1]));
+            }
+            psp.clock += 2 * HOP_MS;
+            psp.pay(Bill.parse(ids[0], ids[1]), true);
+        }
+        currentMs = psp.clock;
+        return psp.clock;
+    }
+
+    @Benchmark
+    public long batch() throws InterruptedException {
+        StubPsp psp = new StubPsp();
+        InquiryCache<Boolean> cache = new InquiryCache<>(10 * 60 * 1000, 500);
+        List<Bill> parsed = new ArrayList<>(bills);
+        for (String[] ids : typed) {
+            parsed.add(Bill.parse(ids[0], ids[1]));
+        }
+        // inquireBills for the total, then the same check at payBills time.
+        for (int pass = 0; pass < 2; pass++) {
+            psp.clock += 2 * HOP_MS;
+            for (Bill bill : parsed) {
+                if (cache.get(bill.key(), psp.clock) == null) {
+                    cache.put(bill.key(), psp.inquire(bill), psp.clock);
+                }
+            }
+        }
+        psp.clock += 2 * HOP_MS;
+        BillBatch batch = new BillBatch(parsed);
+        BillBatch.Report report = batch.run(bill -> psp.pay(bill, false));
+        psp.clock += RECEIPT_MS + RECEIPT_LINE_MS * (report.paid + report.declined);
+        batchMs = psp.clock;
+        return psp.clock;
+    }
+
+    // A random bill with its check digits worked out digit by digit, independently
+    // of Bill.checkDigit.
+    private static String[] validBill(Random random) {
+        StringBuilder bill = new StringBuilder();
+        bill.append(1 + random.nextInt(9));
+        int fileDigits = random.nextInt(7);
+        for (int i = 0; i < fileDigits; i++) {
+            bill.append(random.nextInt(10));
+        }
+        bill.append(String.format("%03d", random.nextInt(1000)));
+        int[] services = {1, 2, 3, 4, 5, 6, 8, 9};
+        bill.append(services[random.nextInt(services.length)]);
+        bill.append(reference(bill.toString()));
+        StringBuilder payment = new StringBuilder();
+        payment.append(1 + random.nextInt(9));
+        int amountDigits = random.nextInt(5);
+        for (int i = 0; i < amountDigits; i++) {
+            payment.append(random.nextInt(10));
+        }
+        payment.append(random.nextInt(10)).append(String.format("%02d", random.nextInt(100)));
+        payment.append(reference(payment.toString()));
+        payment.append(reference(bill.toString() + payment));
+        return new String[]{bill.toString(), payment.toString()};
+    }
+
+    private static int reference(String digits) {
+        int[] weights = {2, 3, 4, 5, 6, 7};
+        int sum = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            sum += Character.getNumericValue(digits.charAt(digits.length() - 1 - i)) * weights[i % 6];
+        }
+        return sum % 11 < 2 ? 0 : 11 - sum % 11;
+    }
+}
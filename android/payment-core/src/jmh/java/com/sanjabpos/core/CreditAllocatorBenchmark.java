@@ -0,0 +1,81 @@
+package com.sanjabpos.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Allocating credit over large baskets, as PaymentModule.allocateCredit does on every
+// edit of the credit screen. CreditAllocatorTest checks the results.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CreditAllocatorBenchmark {
+    @Param({"100", "500"})
+    public int lines;
+
+    private String[] amounts;
+    private List<CreditAllocator.Line> basket;
+    private long credit;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(5);
+        amounts = new String[lines];
+        basket = new ArrayList<>(lines);
+        long total = 0;
+        for (int i = 0; i < lines; i++) {
+            amounts[i] = amount(random, true);
+            CreditAllocator.Line line = line(random, i, CreditAllocator.parseToman(amounts[i]), true);
+            basket.add(line);
+            total += line.price;
+        }
+        // Enough credit to reach about half the basket.
+        credit = total / 2;
+    }
+
+    @Benchmark
+    public CreditAllocator.Allocation allocate() {
+        return CreditAllocator.allocate(basket, credit, true);
+    }
+
+    // Including the amount parsing the bridge does for each line.
+    @Benchmark
+    public CreditAllocator.Allocation parseAndAllocate() {
+        List<CreditAllocator.Line> parsed = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i++) {
+            CreditAllocator.Line line = basket.get(i);
+            parsed.add(new CreditAllocator.Line(line.lineId, line.title, CreditAllocator.parseToman(amounts[i]),
+                    line.maxCredit, line.cashbackBasisPoints, line.branchShareBasisPoints));
+        }
+        return CreditAllocator.allocate(parsed, credit, true);
+    }
+
+    // Whole tomans with or without grouping; with decimals allowed, sometimes one or two.
+    private static String amount(Random random, boolean decimals) {
+        long tomans = 1_000 + random.nextInt(5_000_000);
+        String text = random.nextBoolean() ? String.format(Locale.US, "%,d", tomans) : Long.toString(tomans);
+        if (decimals && random.nextInt(4) == 0) {
+            text += "." + (random.nextBoolean() ? random.nextInt(10) : 10 + random.nextInt(90));
+        }
+        return text;
+    }
+
+    private static CreditAllocator.Line line(Random random, int i, long price, boolean limits) {
+        long maxCredit = limits && random.nextBoolean() ? random.nextInt(2_000_000) * 10L + random.nextInt(10) : -1;
+        int cashback = limits ? random.nextInt(2_001) : 0;
+        int branchShare = limits ? random.nextInt(10_001) : 0;
+        return new CreditAllocator.Line(i + 1, "خط " + (i + 1), price, maxCredit, cashback, branchShare);
+    }
+}
@@ -0,0 +1,127 @@
+package com.sanjabpos.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// The customer lookup on one branch's CustomerTable at 50k and 500k customers, half
+// of them with a linked card: by typed card number, by swiped PAN, and a miss, each
+// through a shuffled order so they miss the cache the way real lookups do. load is
+// the cold start from the saved file. Setup measures the table's retained heap from
+// used memory around building it, after a GC, and TearDown prints it; that is this
+// JVM's figure, ART's object layout differs a little.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CustomerTableBenchmark {
+    private static final int PROBES = 1 << 16;
+
+    @Param({"50000", "500000"})
+    public int customers;
+
+    private CustomerTable table;
+    private File file;
+    private String[] hitKeys;
+    private String[] hitPans;
+    private String[] missKeys;
+    private long retainedBytes;
+    private long fileBytes;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        String[] keys = new String[customers];
+        String[] pans = new String[customers];
+        for (int i = 0; i < customers; i += 2) {
+            pans[i] = digits(random, 64);
+        }
+        // The PANs only go in as fingerprints, so they are made outside the measurement.
+        long before = usedHeap();
+        table = new CustomerTable();
+        for (int i = 0; i < customers; i++) {
+            keys[i] = digits(random, 16);
+            CustomerTable.Customer customer = new CustomerTable.Customer();
+            customer.credit = random.nextInt(50_000_000);
+            customer.userPhoneNumber = "09" + digits(random, 9);
+            customer.subscriptionCode = "S" + digits(random, 7);
+            customer.name = "مشتری شماره " + i;
+            table.put(keys[i], customer);
+            if (pans[i] != null) {
+                table.linkCard(pans[i], keys[i]);
+            }
+        }
+        retainedBytes = usedHeap() - before;
+        file = File.createTempFile("customer-credit", ".bin");
+        table.save(file);
+        fileBytes = file.length();
+        hitKeys = new String[PROBES];
+        hitPans = new String[PROBES];
+        missKeys = new String[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            int linked = random.nextInt(customers) & ~1;
+            hitKeys[i] = keys[random.nextInt(customers)];
+            hitPans[i] = pans[linked];
+            missKeys[i] = digits(random, 16);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+        System.out.printf("%n%d customers: ~%.1f MB retained, %.1f MB on disk%n",
+                customers, retainedBytes / 1048576.0, fileBytes / 1048576.0);
+    }
+
+    @Benchmark
+    public CustomerTable.Customer byCardNumber() {
+        return table.get(hitKeys[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    public CustomerTable.Customer bySwipedPan() {
+        String key = table.keyForPan(hitPans[next++ & (PROBES - 1)]);
+        return table.get(key);
+    }
+
+    @Benchmark
+    public CustomerTable.Customer miss() {
+        return table.get(missKeys[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int load() throws IOException {
+        CustomerTable loaded = new CustomerTable();
+        loaded.load(file);
+        return loaded.size();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String digits(Random random, int length) {
+        char[] text = new char[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = (char) ('0' + random.nextInt(10));
+        }
+        return new String(text);
+    }
+}
@@ -0,0 +1,105 @@
+package com.sanjabpos.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Decoding a typical IKC purchase result with the same schema the provider registers.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DecodeBenchmark {
+    private static final int PURCHASE = 8;
+
+    private ResultDecoder decoder;
+    private ResultDecoder.Source extras;
+
+    @Setup
+    public void setUp() {
+        ResultDecoder.Schema transaction = new ResultDecoder.Schema()
+                .amount("paymentAmount").string("paymentId").string("message").string("cardNumber")
+                .string("cardBank").string("referenceCode").dateTime("dateTime").string("merchantID")
+                .string("terminalID").string("stan").string("txResponseCode").string("txResponseTitle")
+                .string("phoneNumber").string("serial").string("merchantName");
+        decoder = new ResultDecoder().register(transaction, PURCHASE);
+
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("paymentAmount", "1,250,000");
+        values.put("paymentId", "12345");
+        values.put("message", "تراکنش موفق");
+        values.put("cardNumber", "603799******1234");
+        values.put("cardBank", "ملی");
+        values.put("referenceCode", "140205121433");
+        values.put("dateTime", "1402/05/12 14:33:21");
+        values.put("merchantID", "000000012345678");
+        values.put("terminalID", "12345678");
+        values.put("stan", "004321");
+        values.put("txResponseCode", "00");
+        values.put("txResponseTitle", "موفق");
+        values.put("serial", "N5-000123");
+        values.put("unrelated", "ignored");
+        extras = new ResultDecoder.Source() {
+            @Override
+            public Iterable<String> keys() {
+                return values.keySet();
+            }
+
+            @Override
+            public Object get(String key) {
+                return values.get(key);
+            }
+        };
+    }
+
+    @Benchmark
+    public void decodePurchase(Blackhole blackhole) {
+        decoder.decode(PURCHASE, extras, new BlackholeSink(blackhole));
+    }
+
+    @Benchmark
+    public int parseDateTime() {
+        return ResultDecoder.parseDateTime("14020512143321", new int[6]);
+    }
+
+    private static final class BlackholeSink implements ResultDecoder.Sink {
+        private final Blackhole blackhole;
+
+        BlackholeSink(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void putString(String key, String value) {
+            blackhole.consume(value);
+        }
+
+        @Override
+        public void putInt(String key, int value) {
+            blackhole.consume(value);
+        }
+
+        @Override
+        public void putDouble(String key, double value) {
+            blackhole.consume(value);
+        }
+
+        @Override
+        public void putNull(String key) {
+            blackhole.consume(key);
+        }
+
+        @Override
+        public void putInts(String key, String[] names, int[] values, int count) {
+            blackhole.consume(values);
+        }
+    }
+}
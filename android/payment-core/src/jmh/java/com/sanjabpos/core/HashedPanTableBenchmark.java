@@ -0,0 +1,111 @@
+package com.sanjabpos.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Card swipe to customer row with a chain-sized customer base, against the
+// HashMap<String, Integer> keyed by the digest text it replaces. Lookups go through
+// a shuffled order so they miss the cache the way real swipes do. TearDown prints
+// both structures' retained size; the HashMap figure is computed from the usual
+// compressed-oops object sizes (node 32, String 24, byte[] 16 + 64, Integer 16,
+// table 4 a bucket), so check it against a heap dump on a device if it matters.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HashedPanTableBenchmark {
+    private static final int PROBES = 1 << 16;
+
+    @Param({"1000000"})
+    public int entries;
+
+    private HashedPanTable table;
+    private HashMap<String, Integer> map;
+    private String[] hitPans;
+    private long[] hitFingerprints;
+    private long[] missFingerprints;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        String[] pans = new String[entries];
+        table = new HashedPanTable(entries);
+        map = new HashMap<>(entries * 4 / 3 + 1);
+        for (int i = 0; i < entries; i++) {
+            pans[i] = digest(random);
+            table.put(HashedPanTable.fingerprint(pans[i]), i);
+            map.put(pans[i], i);
+        }
+        hitPans = new String[PROBES];
+        hitFingerprints = new long[PROBES];
+        missFingerprints = new long[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            hitPans[i] = pans[random.nextInt(entries)];
+            hitFingerprints[i] = HashedPanTable.fingerprint(hitPans[i]);
+            missFingerprints[i] = HashedPanTable.fingerprint(digest(random));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void printFootprint() {
+        long mapBytes = (long) entries * (32 + 24 + 16 + 64 + 16) + 4L * Integer.highestOneBit(entries * 4 / 3) * 2;
+        System.out.printf("%n%d entries: HashedPanTable %.1f MB, HashMap<String, Integer> ~%.1f MB%n",
+                entries, table.footprintBytes() / 1048576.0, mapBytes / 1048576.0);
+    }
+
+    // Fingerprinting the swiped digest plus the probe, which is what a swipe costs.
+    @Benchmark
+    public int swipeLookup() {
+        return table.get(HashedPanTable.fingerprint(hitPans[next++ & (PROBES - 1)]));
+    }
+
+    @Benchmark
+    public int tableHit() {
+        return table.get(hitFingerprints[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    public int tableMiss() {
+        return table.get(missFingerprints[next++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    public Integer hashMapHit() {
+        return map.get(hitPans[next++ & (PROBES - 1)]);
+    }
+
+    // Building the table from scratch, as a cold start or full resync does.
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public HashedPanTable build() {
+        HashedPanTable built = new HashedPanTable(16);
+        table.forEach(built::put);
+        return built;
+    }
+
+    // A SHA-256 in hex, as the PSP reports a hashed PAN.
+    private static String digest(Random random) {
+        StringBuilder hex = new StringBuilder(64);
+        for (int i = 0; i < 4; i++) {
+            String part = Long.toHexString(random.nextLong());
+            for (int pad = part.length(); pad < 16; pad++) {
+                hex.append('0');
+            }
+            hex.append(part);
+        }
+        return hex.toString();
+    }
+}
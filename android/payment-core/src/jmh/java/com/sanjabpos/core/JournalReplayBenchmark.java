@@ -0,0 +1,104 @@
+package com.sanjabpos.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Opening the payment journal of a busy terminal that went a long time between
+// syncs: an intent and a result per sale with the app's JSON bodies, and an ack for
+// the share of sales the backend already took. replay is what the writer thread
+// reads at start-up; compact is the rewrite that follows it, down to the entries
+// still pending. The file lives in the temp directory, so reads hit the page cache.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JournalReplayBenchmark {
+    @Param({"100000", "500000"})
+    public int entries;
+
+    // Percent of the entries not yet acknowledged.
+    @Param({"1", "100"})
+    public int pendingPercent;
+
+    private File file;
+    private File compacted;
+    private JournalLog.Replay replayed;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        file = File.createTempFile("journal", ".wal");
+        file.delete();
+        compacted = File.createTempFile("journal-compacted", ".wal");
+        JournalLog log = new JournalLog(file);
+        CountDownLatch opened = new CountDownLatch(1);
+        log.open(new JournalLog.Listener() {
+            @Override
+            public void replayed(JournalLog.Replay replay) {
+            }
+
+            @Override
+            public void opened(IOException error) {
+                opened.countDown();
+            }
+        }, "journal-setup");
+        opened.await();
+        long pendingEvery = pendingPercent == 0 ? Long.MAX_VALUE : 100 / pendingPercent;
+        for (long id = 1; id <= entries; id++) {
+            log.append(JournalLog.INTENT, id, intent(id));
+            log.append(JournalLog.RESULT, id, result(id));
+            if (id % pendingEvery != 0) {
+                log.append(JournalLog.ACK, id, null);
+            }
+        }
+        log.close();
+        replayed = JournalLog.replay(file);
+        if (replayed.entries.size() != entries * pendingPercent / 100) {
+            throw new IllegalStateException("unexpected pending entries: " + replayed.entries.size());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+        compacted.delete();
+    }
+
+    @Benchmark
+    public JournalLog.Replay replay() throws IOException {
+        return JournalLog.replay(file);
+    }
+
+    @Benchmark
+    public long compact() throws IOException {
+        JournalLog.compact(compacted, replayed);
+        return compacted.length();
+    }
+
+    private static String intent(long id) {
+        return "{\"id\":" + id + ",\"requestCode\":1001,\"createdAt\":" + (1_700_000_000_000L + id * 20_000)
+                + ",\"intent\":{\"transactionType\":\"PURCHASE\",\"amount\":\"" + (10_000 + id % 900 * 1_000)
+                + "\",\"id\":\"sale-" + id + "\",\"sale\":{\"branchId\":12,\"lineId\":3,\"customerId\":"
+                + (id % 5_000) + ",\"items\":[{\"lineId\":3,\"amount\":" + (10_000 + id % 900 * 1_000)
+                + ",\"credit\":0}],\"paymentMethod\":\"پوز - پوز آبی\",\"idempotencyKey\":\"k-" + id + "\"}}}";
+    }
+
+    private static String result(long id) {
+        return "{\"resultCode\":0,\"completedAt\":" + (1_700_000_000_000L + id * 20_000 + 9_000)
+                + ",\"result\":{\"requestCode\":1001,\"resultCode\":0,\"paymentAmount\":\"" + (10_000 + id % 900 * 1_000)
+                + "\",\"txResponseCode\":\"00\",\"stan\":\"" + (id % 1_000_000) + "\",\"referenceCode\":\"9"
+                + id + "\",\"cardNumber\":\"603799******" + (1000 + id % 9000) + "\",\"message\":\"تراکنش موفق\""
+                + ",\"dateTime\":\"1402/08/23 10:15:42\",\"terminalId\":\"12345678\",\"approved\":true}}";
+    }
+}
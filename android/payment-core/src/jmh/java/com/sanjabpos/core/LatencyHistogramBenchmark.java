@@ -0,0 +1,71 @@
+package com.sanjabpos.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// The metrics hot path (record, also under contention) and the snapshot
+// serialization the app writes to payment-metrics.bin.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LatencyHistogramBenchmark {
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private byte[] snapshot;
+    private long value;
+
+    @Setup
+    public void setUp() throws IOException {
+        for (long nanos = 1_000; nanos < 60_000_000_000L; nanos = nanos * 11 / 10) {
+            histogram.recordNanos(nanos);
+        }
+        snapshot = write();
+    }
+
+    @Benchmark
+    public void record() {
+        histogram.recordNanos(value += 7_919);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended() {
+        histogram.recordNanos(System.nanoTime() & 0xFFFFFFFL);
+    }
+
+    @Benchmark
+    public Map<String, Object> summarize() {
+        return histogram.summarize();
+    }
+
+    @Benchmark
+    public byte[] write() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            histogram.write(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public LatencyHistogram read() throws IOException {
+        LatencyHistogram copy = new LatencyHistogram();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot))) {
+            copy.read(in);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,120 @@
+package com.sanjabpos.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Scaling and dithering sample print images to a 2-inch printer's 384 dots, fed in
+// bands the way PrintImagePipeline decodes them. Each sample is held already
+// subsampled by the decoder (see PrintRaster.sampleSize), since on the device that
+// part runs in the native decoder. TearDown prints the peak working set of the band
+// pipeline against decoding the original whole, which is what printImagePath and
+// printBigBitmap did before; run with -prof gc for the allocation rate.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PrintRasterBenchmark {
+    private static final int DOTS = 384;
+    private static final int BAND_ROWS = 64;
+
+    // receipt: 576x4000 screenshot of a receipt; logo: 1024x1024 with transparency;
+    // factor: 1080x1920 invoice drawable; photo: 4000x3000 camera image.
+    @Param({"receipt", "logo", "factor", "photo"})
+    public String sample;
+
+    private int originalWidth;
+    private int originalHeight;
+    private int width;
+    private int height;
+    private int[] pixels;
+    private int[] band;
+    private int[] output;
+    private long rasterBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if ("receipt".equals(sample)) {
+            originalWidth = 576;
+            originalHeight = 4000;
+        } else if ("logo".equals(sample)) {
+            originalWidth = 1024;
+            originalHeight = 1024;
+        } else if ("factor".equals(sample)) {
+            originalWidth = 1080;
+            originalHeight = 1920;
+        } else {
+            originalWidth = 4000;
+            originalHeight = 3000;
+        }
+        int sampleSize = PrintRaster.sampleSize(originalWidth, DOTS);
+        width = originalWidth / sampleSize;
+        height = originalHeight / sampleSize;
+        pixels = new int[width * height];
+        Random random = new Random(3);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = pixel(x, y, random);
+            }
+        }
+        band = new int[width * BAND_ROWS];
+        PrintRaster sizing = new PrintRaster(width, height, DOTS, (y, row) -> { });
+        output = new int[sizing.width() * sizing.height()];
+    }
+
+    @TearDown(Level.Trial)
+    public void printFootprint() {
+        long whole = 4L * originalWidth * originalHeight;
+        long banded = 4L * band.length + rasterBytes + 4L * output.length;
+        System.out.printf("%n%s %dx%d: whole decode %.2f MB, band pipeline %.2f MB (band %.2f, raster %.3f, output %.2f)%n",
+                sample, originalWidth, originalHeight, whole / 1048576.0, banded / 1048576.0,
+                4.0 * band.length / 1048576.0, rasterBytes / 1048576.0, 4.0 * output.length / 1048576.0);
+    }
+
+    @Benchmark
+    public int[] prepare() {
+        PrintRaster raster = new PrintRaster(width, height, DOTS, (y, row) ->
+                System.arraycopy(row, 0, output, y * row.length, row.length));
+        for (int top = 0; top < height; top += BAND_ROWS) {
+            int rows = Math.min(BAND_ROWS, height - top);
+            // Stands in for decodeRegion + getPixels into the pooled band.
+            System.arraycopy(pixels, top * width, band, 0, rows * width);
+            raster.push(band, 0, width, rows);
+        }
+        rasterBytes = raster.footprintBytes();
+        return output;
+    }
+
+    private int pixel(int x, int y, Random random) {
+        if ("receipt".equals(sample) || "factor".equals(sample)) {
+            // Lines of dark glyph blocks on white, with a gray shaded header.
+            if (y < height / 10) {
+                return 0xFFC0C0C0;
+            }
+            boolean glyph = (y % 32) < 20 && (x % 14) < 10 && ((x / 14 + y / 32) % 7) != 0;
+            return glyph ? 0xFF101010 : 0xFFFFFFFF;
+        }
+        if ("logo".equals(sample)) {
+            int dx = x - width / 2;
+            int dy = y - height / 2;
+            int r = (int) Math.sqrt(dx * dx + dy * dy);
+            if (r > width / 2) {
+                return 0x00000000;
+            }
+            int shade = 255 * r / (width / 2);
+            return 0xFF000000 | (shade << 16) | (0x40 << 8) | (255 - shade);
+        }
+        int shade = (x * 255 / width + y * 255 / height) / 2 + random.nextInt(32) - 16;
+        shade = Math.max(0, Math.min(255, shade));
+        return 0xFF000000 | (shade << 16) | (shade << 8) | shade;
+    }
+}
@@ -0,0 +1,95 @@
+package com.sanjabpos.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// A whole reconciliation run over a backlog of unsettled sales against an in-memory
+// PSP that answers at once: mostly approved, some declined, some never seen and a
+// few answering for a different amount. Measures the engine's own overhead
+// (ordering, matching, listener calls) with the search gap and budget lifted.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReconcilerBenchmark {
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Param({"100", "5000"})
+    public int sales;
+
+    private List<Reconciler.Sale> backlog;
+    private Reconciler reconciler;
+
+    @Setup
+    public void setUp() {
+        backlog = new ArrayList<>(sales);
+        Map<String, Reconciler.Found> answers = new HashMap<>();
+        for (int i = 0; i < sales; i++) {
+            long amount = 10_000 + i * 1_000L;
+            String stan = String.format("%06d", i);
+            String rrn = i % 3 == 0 ? null : String.format("14020512%04d", i);
+            backlog.add(new Reconciler.Sale(i, NOW - 60 * 60 * 1000 - i, amount, "sale-" + i, stan, rrn));
+            Reconciler.Found found;
+            switch (i % 10) {
+                case 7:
+                    found = new Reconciler.Found(Reconciler.Verdict.DECLINED, amount, "sale-" + i, stan, rrn, null);
+                    break;
+                case 8:
+                    found = new Reconciler.Found(Reconciler.Verdict.NOT_FOUND, -1, null, null, null, null);
+                    break;
+                case 9:
+                    found = new Reconciler.Found(Reconciler.Verdict.APPROVED, amount + 1, "sale-" + i, stan, rrn, null);
+                    break;
+                default:
+                    found = new Reconciler.Found(Reconciler.Verdict.APPROVED, amount, "sale-" + i, stan, rrn, null);
+            }
+            answers.put(rrn != null ? rrn : stan, found);
+        }
+        Reconciler.Limits limits = new Reconciler.Limits();
+        limits.maxSearches = Integer.MAX_VALUE;
+        limits.maxDurationMs = 60 * 60 * 1000;
+        limits.minIntervalMs = 0;
+        reconciler = new Reconciler((key, value, createdAt) -> answers.get(value), new CountingListener(), limits);
+    }
+
+    @Benchmark
+    public Reconciler.Report run() throws InterruptedException {
+        // Sales that were not settled carry attempt counts from the previous run
+        for (Reconciler.Sale sale : backlog) {
+            sale.attempts = 0;
+            sale.notFound = 0;
+            sale.lastAttemptAt = 0;
+        }
+        return reconciler.run(backlog, NOW);
+    }
+
+    private static final class CountingListener implements Reconciler.Listener {
+        int events;
+
+        @Override
+        public void settled(Reconciler.Sale sale, Reconciler.Verdict verdict, Reconciler.Found found) {
+            events++;
+        }
+
+        @Override
+        public void attempted(Reconciler.Sale sale) {
+            events++;
+        }
+
+        @Override
+        public void flagged(Reconciler.Sale sale, String reason) {
+            events++;
+        }
+    }
+}
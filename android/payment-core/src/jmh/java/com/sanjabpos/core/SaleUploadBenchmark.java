@@ -0,0 +1,168 @@
+package com.sanjabpos.core;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+// Uploading a burst of sales to a stub backend on loopback, the way
+// TransactionUploader does it: one gzip-compressed SaleBatch per burst, next to one
+// plain JSON POST per sale as the JS client and the /Transaction fallback send
+// them. rttMs is added by the stub to every request, standing in for the terminal's
+// mobile link. Scores are per burst; TearDown prints the bytes each way put on the
+// wire per sale.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SaleUploadBenchmark {
+    @Param({"20"})
+    public int sales;
+
+    @Param({"0", "40"})
+    public int rttMs;
+
+    private HttpServer server;
+    private String baseUrl;
+    private List<String> keys;
+    private List<String> payloads;
+    private final AtomicLong batchedBytes = new AtomicLong();
+    private final AtomicLong batchedSales = new AtomicLong();
+    private final AtomicLong singleBytes = new AtomicLong();
+    private final AtomicLong singleSales = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.createContext("/Transaction/batch", exchange -> {
+            byte[] body = read(new GZIPInputStream(exchange.getRequestBody()));
+            String text = new String(body, StandardCharsets.UTF_8);
+            StringBuilder results = new StringBuilder("{\"Code\":200,\"Data\":{\"results\":[");
+            int from = 0;
+            int n = 0;
+            while ((from = text.indexOf("\"idempotencyKey\":\"", from)) >= 0) {
+                from += 18;
+                String key = text.substring(from, text.indexOf('"', from));
+                results.append(n++ == 0 ? "" : ",")
+                        .append("{\"idempotencyKey\":\"").append(key).append("\",\"Code\":200}");
+            }
+            answer(exchange, results.append("]}}").toString());
+        });
+        server.createContext("/Transaction", exchange -> {
+            read(exchange.getRequestBody());
+            answer(exchange, "{\"Code\":200,\"Message\":\"ok\",\"Data\":{}}");
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        keys = new ArrayList<>();
+        payloads = new ArrayList<>();
+        for (int i = 0; i < sales; i++) {
+            keys.add("sale-" + i + "-5c1d2e0f-8a3b-4c6d-9e7f-0a1b2c3d4e5f");
+            payloads.add("{\"branchId\":12,\"lineId\":3,\"customerId\":" + (1000 + i)
+                    + ",\"items\":[{\"lineId\":3,\"amount\":" + (10_000 + i * 1_000) + ",\"credit\":0}],"
+                    + "\"paymentMethod\":\"پوز - پوز آبی\",\"referenceCode\":\"9" + (100_000 + i)
+                    + "\",\"cardNumber\":\"603799******" + (1000 + i) + "\"}");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        System.out.printf("%nbytes per sale: batched %d, one by one %d%n",
+                batchedBytes.get() / Math.max(1, batchedSales.get()),
+                singleBytes.get() / Math.max(1, singleSales.get()));
+    }
+
+    @Benchmark
+    public int batched() throws IOException {
+        byte[] body = SaleBatch.encode(keys, payloads);
+        batchedBytes.addAndGet(body.length);
+        batchedSales.addAndGet(sales);
+        return post("/Transaction/batch", body, true);
+    }
+
+    @Benchmark
+    public int oneByOne() throws IOException {
+        int status = 0;
+        for (String payload : payloads) {
+            byte[] body = payload.getBytes(StandardCharsets.UTF_8);
+            singleBytes.addAndGet(body.length);
+            singleSales.incrementAndGet();
+            status += post("/Transaction", body, false);
+        }
+        return status;
+    }
+
+    private int post(String path, byte[] body, boolean gzip) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/json");
+            if (gzip) {
+                connection.setRequestProperty("Content-Encoding", "gzip");
+            }
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            int status = connection.getResponseCode();
+            read(connection.getInputStream());
+            return status;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void answer(HttpExchange exchange, String text) throws IOException {
+        if (rttMs > 0) {
+            try {
+                Thread.sleep(rttMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream stream = in) {
+            byte[] chunk = new byte[8192];
+            int n;
+            while ((n = stream.read(chunk)) != -1) {
+                out.write(chunk, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+}
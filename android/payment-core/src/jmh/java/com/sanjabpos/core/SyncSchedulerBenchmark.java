@@ -0,0 +1,163 @@
+package com.sanjabpos.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+// A burst of sales on a simulated clock with the network dropping in the middle of
+// it, uploaded the way BackgroundSync does it, through SyncScheduler's one "sales"
+// job that drains whatever is queued when it starts, next to one upload job per
+// sale on a plain queue. Both share one worker with a periodic catalog refresh.
+// The scores are our own CPU time; TearDown prints how deep each queue got and
+// how long a sale waited for its upload. SyncSchedulerTest checks the rules.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SyncSchedulerBenchmark {
+    private static final long SALE_INTERVAL_MS = 20;
+    private static final long OFFLINE_FROM_MS = 5_000;
+    private static final long OFFLINE_UNTIL_MS = 12_000;
+    private static final long REFRESH_PERIOD_MS = 60_000;
+    private static final long REFRESH_MS = 400;
+    private static final long BASE_BACKOFF_MS = 1_000;
+    private static final long MAX_BACKOFF_MS = 60_000;
+
+    @Param({"1000"})
+    public int sales;
+
+    // One upload request, whether it carries one sale or a batch.
+    @Param({"300", "1500"})
+    public long uploadMs;
+
+    private Outcome scheduled;
+    private Outcome perSale;
+
+    private static final class Outcome {
+        final LatencyHistogram latency = new LatencyHistogram();
+        int maxQueued;
+        int uploads;
+        long endMs;
+    }
+
+    @TearDown(Level.Trial)
+    public void printQueues() {
+        System.out.printf("%n%d sales, %d ms per upload: scheduler queued at most %d, %d uploads, p99 %.1f s, "
+                        + "done at %.1f s; per-sale jobs queued at most %d, %d uploads, p99 %.1f s, done at %.1f s%n",
+                sales, uploadMs, scheduled.maxQueued, scheduled.uploads, p99(scheduled), scheduled.endMs / 1000.0,
+                perSale.maxQueued, perSale.uploads, p99(perSale), perSale.endMs / 1000.0);
+    }
+
+    @Benchmark
+    public Outcome scheduler() {
+        Outcome outcome = new Outcome();
+        SyncScheduler scheduler = new SyncScheduler(BASE_BACKOFF_MS, MAX_BACKOFF_MS);
+        scheduler.define("sales", SyncScheduler.NETWORK, 0, 0);
+        scheduler.define("refresh:/Branches", SyncScheduler.NETWORK | SyncScheduler.BATTERY_NOT_LOW,
+                REFRESH_PERIOD_MS, 0);
+        ArrayDeque<Long> waiting = new ArrayDeque<>();
+        String running = null;
+        long runEnds = 0;
+        int covered = 0;
+        int next = 0;
+        long now = 0;
+        while (true) {
+            scheduler.setConditions(online(now), false);
+            while (next < sales && arrival(next) <= now) {
+                waiting.add(arrival(next++));
+                scheduler.request("sales", now);
+            }
+            if (running != null && runEnds <= now) {
+                boolean uploaded = online(now);
+                if (running.equals("sales")) {
+                    outcome.uploads++;
+                    for (int i = 0; uploaded && i < covered; i++) {
+                        outcome.latency.recordNanos((now - waiting.poll()) * 1_000_000L);
+                    }
+                }
+                scheduler.finish(running, uploaded ? SyncScheduler.Result.SUCCESS : SyncScheduler.Result.RETRY, now);
+                running = null;
+            }
+            outcome.maxQueued = Math.max(outcome.maxQueued, scheduler.queued());
+            if (next == sales && waiting.isEmpty() && running == null) {
+                break;
+            }
+            if (running == null) {
+                running = scheduler.next(now);
+                if (running != null) {
+                    boolean upload = running.equals("sales");
+                    covered = upload ? waiting.size() : 0;
+                    runEnds = now + (upload ? uploadMs : REFRESH_MS);
+                }
+            }
+            now = nextEvent(now, next, running != null ? runEnds : scheduler.nextDueAt());
+        }
+        outcome.endMs = now;
+        scheduled = outcome;
+        return outcome;
+    }
+
+    @Benchmark
+    public Outcome perSaleJobs() {
+        Outcome outcome = new Outcome();
+        ArrayDeque<Long> queue = new ArrayDeque<>();
+        long refreshDue = 0;
+        long busyUntil = 0;
+        int next = 0;
+        long now = 0;
+        while (next < sales || !queue.isEmpty() || busyUntil > now) {
+            while (next < sales && arrival(next) <= now) {
+                queue.add(arrival(next++));
+            }
+            if (busyUntil <= now && online(now)) {
+                if (refreshDue <= now) {
+                    busyUntil = now + REFRESH_MS;
+                    refreshDue = busyUntil + REFRESH_PERIOD_MS;
+                } else if (!queue.isEmpty()) {
+                    busyUntil = now + uploadMs;
+                    outcome.uploads++;
+                    outcome.latency.recordNanos((busyUntil - queue.poll()) * 1_000_000L);
+                }
+            }
+            outcome.maxQueued = Math.max(outcome.maxQueued, queue.size());
+            // Idle and online means the queue is empty; offline, the network change wakes it.
+            now = nextEvent(now, next, busyUntil > now ? busyUntil : online(now) ? refreshDue : Long.MAX_VALUE);
+        }
+        outcome.endMs = now;
+        perSale = outcome;
+        return outcome;
+    }
+
+    private long arrival(int sale) {
+        return sale * SALE_INTERVAL_MS;
+    }
+
+    private static boolean online(long now) {
+        return now < OFFLINE_FROM_MS || now >= OFFLINE_UNTIL_MS;
+    }
+
+    // The earliest of the next sale, the given time and a network change.
+    private long nextEvent(long now, int next, long due) {
+        long event = next < sales ? arrival(next) : Long.MAX_VALUE;
+        event = Math.min(event, due);
+        if (now < OFFLINE_FROM_MS) {
+            event = Math.min(event, OFFLINE_FROM_MS);
+        } else if (now < OFFLINE_UNTIL_MS) {
+            event = Math.min(event, OFFLINE_UNTIL_MS);
+        }
+        return Math.max(event, now + 1);
+    }
+
+    private static double p99(Outcome outcome) {
+        Object p99 = outcome.latency.summarize().get("p99Ms");
+        return p99 == null ? 0 : (Double) p99 / 1000.0;
+    }
+}
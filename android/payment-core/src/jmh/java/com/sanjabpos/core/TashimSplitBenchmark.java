@@ -0,0 +1,67 @@
+package com.sanjabpos.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Allocating a split over 2..20 accounts, including IBAN validation, and turning
+// it into Sepehr's "IBAN:amount" lines.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TashimSplitBenchmark {
+    private static final String[] IBANS = {
+            "IR170180000000000306824171", "IR740190000000100663926004",
+            "IR840780101310838000084046", "IR540560611828005136987401",
+            "IR440600500772409768428001",
+    };
+
+    @Param({"2", "5", "20"})
+    public int accounts;
+
+    private List<TashimShare> shares;
+    private List<String> lines;
+
+    @Setup
+    public void setUp() {
+        shares = new ArrayList<>();
+        lines = new ArrayList<>();
+        int base = 10000 / accounts;
+        for (int i = 0; i < accounts; i++) {
+            String iban = i < IBANS.length ? IBANS[i] : withCheckDigits(String.format("01700000%014d", i));
+            double percent = (i == accounts - 1 ? 10000 - base * (accounts - 1) : base) / 100.0;
+            shares.add(TashimShare.ofPercent(iban, percent));
+            lines.add(iban + ":" + percent + "%");
+        }
+    }
+
+    @Benchmark
+    public List<TashimSplit.Allocation> allocate() {
+        return TashimSplit.allocate(1_234_567, shares);
+    }
+
+    @Benchmark
+    public List<String> parseAllocateAndFormat() {
+        return TashimSplit.toSepehrLines(TashimSplit.allocate(1_234_567, TashimSplit.parseLines(lines)));
+    }
+
+    // Makes a valid IR IBAN for the 22-digit account part.
+    private static String withCheckDigits(String account) {
+        for (int check = 2; check < 100; check++) {
+            String iban = String.format("IR%02d%s", check, account);
+            if (TashimSplit.validateIban(iban) == null) {
+                return iban;
+            }
+        }
+        throw new IllegalStateException(account);
+    }
+}
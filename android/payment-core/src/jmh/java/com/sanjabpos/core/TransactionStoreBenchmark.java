@@ -0,0 +1,191 @@
+package com.sanjabpos.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+// Report queries against a store holding a year of a busy chain's sales: 1M sales
+// over 365 days, each with one to three lines across 8 lines and 3 payment methods,
+// most recorded twice (sale payload, then the settled copy with cashback) as in the
+// app. The store file lives in the temp directory, so reads hit the page cache.
+// Opening is measured on copies of the file: as written, and compacted.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransactionStoreBenchmark {
+    private static final TimeZone TEHRAN = TimeZone.getTimeZone("Asia/Tehran");
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final long START = 1_700_000_000_000L;
+    private static final String[] METHODS = {"پوز - پوز آبی", "اعتبار", "نقد"};
+    private static final int PROBES = 1024;
+
+    @Param({"1000000"})
+    public int sales;
+
+    private File file;
+    private File written;
+    private File compacted;
+    private TransactionStore store;
+    private long lastDay;
+    private String[] stans;
+    private String[] rrns;
+    private String[] cards;
+    private int next;
+    private int appended;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = File.createTempFile("transactions", ".log");
+        file.delete();
+        store = new TransactionStore(file, TEHRAN);
+        Random random = new Random(7);
+        long spacing = 365 * DAY_MS / sales;
+        stans = new String[PROBES];
+        rrns = new String[PROBES];
+        cards = new String[PROBES];
+        for (int i = 0; i < sales; i++) {
+            if (i % (sales / 365 * 2) == 0) {
+                store.openShift(START + i * spacing);
+            }
+            TransactionStore.Sale sale = sale(random, i, START + i * spacing);
+            store.record(sale);
+            if (i % 10 != 0) {
+                TransactionStore.Sale settled = new TransactionStore.Sale(sale.key, sale.time);
+                settled.settled = true;
+                for (TransactionStore.Line line : sale.lines) {
+                    settled.lines.add(new TransactionStore.Line(line.lineId, line.method, line.amount,
+                            line.credit, line.amount / 20));
+                }
+                store.record(settled);
+            }
+            if (i % (sales / PROBES) == 0 && i / (sales / PROBES) < PROBES) {
+                int probe = i / (sales / PROBES);
+                stans[probe] = sale.stan;
+                rrns[probe] = sale.rrn;
+                cards[probe] = sale.card;
+            }
+        }
+        lastDay = START + (sales - 1) * spacing;
+
+        written = File.createTempFile("transactions-written", ".log");
+        compacted = File.createTempFile("transactions-compacted", ".log");
+        Files.copy(file.toPath(), written.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(file.toPath(), compacted.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        long start = System.nanoTime();
+        new TransactionStore(compacted, TEHRAN).close();
+        System.out.printf("%nfirst open with compaction %d ms, store file %.1f MB -> %.1f MB%n",
+                (System.nanoTime() - start) / 1_000_000, written.length() / 1048576.0,
+                compacted.length() / 1048576.0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        System.out.printf("%n%d sales, store file %.1f MB%n", store.size(), file.length() / 1048576.0);
+        file.delete();
+        written.delete();
+        compacted.delete();
+    }
+
+    @Benchmark
+    public TransactionStore.Totals todayTotals() {
+        return store.dayTotals(lastDay - DAY_MS, lastDay);
+    }
+
+    @Benchmark
+    public TransactionStore.Totals monthTotals() {
+        return store.dayTotals(lastDay - 30 * DAY_MS, lastDay);
+    }
+
+    @Benchmark
+    public TransactionStore.Totals shiftTotals() {
+        return store.shiftTotals(store.currentShift());
+    }
+
+    @Benchmark
+    public List<TransactionStore.Sale> firstPage() throws IOException {
+        return store.page(lastDay - 30 * DAY_MS, lastDay + 1, 0, 20);
+    }
+
+    // Page 500 of the last month: whole days are skipped by their size.
+    @Benchmark
+    public List<TransactionStore.Sale> deepPage() throws IOException {
+        return store.page(lastDay - 30 * DAY_MS, lastDay + 1, 10_000, 20);
+    }
+
+    @Benchmark
+    public List<TransactionStore.Sale> findByStan() throws IOException {
+        return store.findByStan(stans[next++ & (PROBES - 1)], 20);
+    }
+
+    @Benchmark
+    public List<TransactionStore.Sale> findByRrn() throws IOException {
+        return store.findByRrn(rrns[next++ & (PROBES - 1)], 20);
+    }
+
+    @Benchmark
+    public List<TransactionStore.Sale> findByCard() throws IOException {
+        return store.findByCard(cards[next++ & (PROBES - 1)], 20);
+    }
+
+    // A new sale: one append, index updates and running sums, with no scan.
+    @Benchmark
+    public void record() throws IOException {
+        store.record(sale(new Random(appended), sales + appended++, lastDay));
+    }
+
+    // Replaying the log as the app writes it, every copy of every sale.
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int openWritten() throws IOException {
+        try (TransactionStore opened = new TransactionStore(written, TEHRAN, false)) {
+            return opened.size();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int openCompacted() throws IOException {
+        try (TransactionStore opened = new TransactionStore(compacted, TEHRAN)) {
+            return opened.size();
+        }
+    }
+
+    private static TransactionStore.Sale sale(Random random, int i, long time) {
+        TransactionStore.Sale sale = new TransactionStore.Sale("journal-" + i, time);
+        // STANs wrap at a million, so the stan index has real chains.
+        sale.stan = String.format("%06d", i % 1_000_000);
+        sale.rrn = String.format("%012d", 140000000000L + i);
+        sale.card = String.format("603799******%04d", random.nextInt(50_000) % 10_000);
+        sale.provider = "ikc";
+        int lines = 1 + random.nextInt(3);
+        long paid = 0;
+        for (int l = 0; l < lines; l++) {
+            long amount = 10_000 + random.nextInt(500) * 1_000L;
+            long credit = random.nextInt(4) == 0 ? amount / 10 : 0;
+            sale.lines.add(new TransactionStore.Line(1 + random.nextInt(8), METHODS[random.nextInt(METHODS.length)],
+                    amount, credit, 0));
+            paid += amount - credit;
+        }
+        sale.paid = paid;
+        return sale;
+    }
+}
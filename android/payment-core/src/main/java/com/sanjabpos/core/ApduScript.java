@@ -0,0 +1,263 @@
+package com.sanjabpos.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs an ordered list of APDUs against one card, checking each response's status
+// word and choosing the next step without going back to the caller. A step names
+// the status words it expects ("9000", "63CX": X matches any nibble); on a match the
+// script goes on to the step's next label (or the following step), otherwise to its
+// onMismatch label, and with no onMismatch it stops there. The ISO 7816 chaining
+// words are answered here as well: 61XX with GET RESPONSE and 6CXX by resending the
+// command with the right Le, so a step only sees the final status word.
+public final class ApduScript {
+    public static final String END = "END";
+    // Every command sent counts, including GET RESPONSE and resends, so a script
+    // that loops through its labels cannot hold the card forever.
+    public static final int MAX_COMMANDS = 64;
+    private static final int MAX_STEPS = 32;
+    // CLA INS P1 P2 up to extended Lc, 255 bytes of data and Le.
+    private static final int MAX_APDU_BYTES = 261;
+
+    public enum Outcome {
+        // Ran to the last step or to END.
+        COMPLETED,
+        // A status word did not match and the step had no onMismatch.
+        STATUS_MISMATCH,
+        // The card or the PSP gave no response.
+        CARD_ERROR,
+        // MAX_COMMANDS was reached.
+        LIMIT
+    }
+
+    public interface Card {
+        // The response as hex, data followed by the status word.
+        String transmit(String command) throws IOException, InterruptedException;
+    }
+
+    public static final class Step {
+        public final String label;
+        public final String command;
+        public final String[] expect;
+        public final String next;
+        public final String onMismatch;
+
+        // expect null means "9000"; next and onMismatch are labels, END or null.
+        public Step(String label, String command, String[] expect, String next, String onMismatch) {
+            this.label = label;
+            this.command = hex(command);
+            if (this.command.length() < 8 || this.command.length() > 2 * MAX_APDU_BYTES) {
+                throw new IllegalArgumentException("طول کد APDU نادرست است");
+            }
+            this.expect = expect == null || expect.length == 0 ? new String[]{"9000"} : new String[expect.length];
+            for (int i = 0; expect != null && i < expect.length; i++) {
+                this.expect[i] = statusPattern(expect[i]);
+            }
+            this.next = next;
+            this.onMismatch = onMismatch;
+        }
+    }
+
+    // One step's exchange. sw is null when the card gave no response.
+    public static final class Response {
+        public final int step;
+        public final String label;
+        public final String command;
+        public final String data;
+        public final String sw;
+        public final boolean matched;
+        // Commands sent for the step, with GET RESPONSE and resends.
+        public final int commands;
+        public final long elapsedNanos;
+
+        Response(int step, String label, String command, String data, String sw, boolean matched, int commands,
+                 long elapsedNanos) {
+            this.step = step;
+            this.label = label;
+            this.command = command;
+            this.data = data;
+            this.sw = sw;
+            this.matched = matched;
+            this.commands = commands;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+
+    public static final class Result {
+        public final Outcome outcome;
+        public final List<Response> responses;
+        // Index of the step the script stopped on, or -1 if it completed.
+        public final int failedStep;
+        public final String message;
+        public final int commands;
+        public final long elapsedNanos;
+
+        Result(Outcome outcome, List<Response> responses, int failedStep, String message, int commands,
+               long elapsedNanos) {
+            this.outcome = outcome;
+            this.responses = Collections.unmodifiableList(responses);
+            this.failedStep = failedStep;
+            this.message = message;
+            this.commands = commands;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+
+    private final List<Step> steps;
+    private final Map<String, Integer> labels = new HashMap<>();
+
+    public ApduScript(List<Step> steps) {
+        if (steps.isEmpty() || steps.size() > MAX_STEPS) {
+            throw new IllegalArgumentException("تعداد دستورهای APDU نادرست است");
+        }
+        this.steps = new ArrayList<>(steps);
+        for (int i = 0; i < steps.size(); i++) {
+            String label = steps.get(i).label;
+            if (label != null && (END.equals(label) || labels.put(label, i) != null)) {
+                throw new IllegalArgumentException("برچسب تکراری: " + label);
+            }
+        }
+        for (Step step : steps) {
+            requireTarget(step.next);
+            requireTarget(step.onMismatch);
+        }
+    }
+
+    public int size() {
+        return steps.size();
+    }
+
+    public Result run(Card card) throws InterruptedException {
+        long start = System.nanoTime();
+        List<Response> responses = new ArrayList<>();
+        int commands = 0;
+        int index = 0;
+        while (index < steps.size()) {
+            Step step = steps.get(index);
+            long stepStart = System.nanoTime();
+            String command = step.command;
+            StringBuilder data = new StringBuilder();
+            String sw;
+            int sent = 0;
+            while (true) {
+                if (commands == MAX_COMMANDS) {
+                    responses.add(new Response(index, step.label, step.command, data.toString(), null, false, sent,
+                            System.nanoTime() - stepStart));
+                    return new Result(Outcome.LIMIT, responses, index, "تعداد دستورهای ارسالی از حد مجاز گذشت",
+                            commands, System.nanoTime() - start);
+                }
+                String response;
+                try {
+                    response = card.transmit(command);
+                    if (response == null) {
+                        throw new IOException("پاسخی از کارت دریافت نشد");
+                    }
+                    response = hex(response);
+                    if (response.length() < 4) {
+                        throw new IOException("پاسخ کارت نامعتبر است");
+                    }
+                } catch (IOException | IllegalArgumentException e) {
+                    responses.add(new Response(index, step.label, step.command, data.toString(), null, false, sent + 1,
+                            System.nanoTime() - stepStart));
+                    return new Result(Outcome.CARD_ERROR, responses, index, e.getMessage(), commands + 1,
+                            System.nanoTime() - start);
+                }
+                commands++;
+                sent++;
+                sw = response.substring(response.length() - 4);
+                data.append(response, 0, response.length() - 4);
+                if (sw.startsWith("61") && !expects(step, sw)) {
+                    command = "00C00000" + sw.substring(2);
+                } else if (sw.startsWith("6C") && !expects(step, sw)) {
+                    command = withLe(step.command, sw.substring(2));
+                    data.setLength(0);
+                } else {
+                    break;
+                }
+            }
+            boolean matched = expects(step, sw);
+            responses.add(new Response(index, step.label, step.command, data.toString(), sw, matched, sent,
+                    System.nanoTime() - stepStart));
+            String target = matched ? step.next : step.onMismatch;
+            if (!matched && target == null) {
+                return new Result(Outcome.STATUS_MISMATCH, responses, index, "پاسخ غیرمنتظره کارت: " + sw,
+                        commands, System.nanoTime() - start);
+            }
+            index = target == null ? index + 1 : END.equals(target) ? steps.size() : labels.get(target);
+        }
+        return new Result(Outcome.COMPLETED, responses, -1, null, commands, System.nanoTime() - start);
+    }
+
+    // Upper case, without spaces.
+    static String hex(String text) {
+        if (text == null) {
+            throw new IllegalArgumentException("کد APDU نباید خالی باشد");
+        }
+        StringBuilder hex = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == ' ') {
+                continue;
+            }
+            if (c >= 'a' && c <= 'f') {
+                c -= 'a' - 'A';
+            } else if (!(c >= '0' && c <= '9' || c >= 'A' && c <= 'F')) {
+                throw new IllegalArgumentException("کد APDU باید هگزادسیمال باشد");
+            }
+            hex.append(c);
+        }
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("کد APDU باید هگزادسیمال باشد");
+        }
+        return hex.toString();
+    }
+
+    private static String statusPattern(String pattern) {
+        String upper = pattern == null ? "" : pattern.toUpperCase();
+        boolean valid = upper.length() == 4;
+        for (int i = 0; valid && i < 4; i++) {
+            char c = upper.charAt(i);
+            valid = c == 'X' || c >= '0' && c <= '9' || c >= 'A' && c <= 'F';
+        }
+        if (!valid) {
+            throw new IllegalArgumentException("وضعیت مورد انتظار نادرست است: " + pattern);
+        }
+        return upper;
+    }
+
+    private static boolean expects(Step step, String sw) {
+        for (String pattern : step.expect) {
+            boolean match = true;
+            for (int i = 0; match && i < 4; i++) {
+                match = pattern.charAt(i) == 'X' || pattern.charAt(i) == sw.charAt(i);
+            }
+            if (match) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A short command with its Le set (case 2) or replaced (case 4, when Lc matches).
+    private static String withLe(String command, String le) {
+        int length = command.length() / 2;
+        if (length == 4) {
+            return command + le;
+        }
+        int lc = Integer.parseInt(command.substring(8, 10), 16);
+        if (length == 5 || length == 6 + lc) {
+            return command.substring(0, command.length() - 2) + le;
+        }
+        return command + le;
+    }
+
+    private void requireTarget(String target) {
+        if (target != null && !END.equals(target) && !labels.containsKey(target)) {
+            throw new IllegalArgumentException("برچسب ناموجود: " + target);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.sanjabpos.core;
+
+// A utility bill as printed on it: the bill id (شناسه قبض) and payment id (شناسه
+// پرداخت), checked locally with the standard check digits so a mistyped bill never
+// reaches the PSP.
+//  - bill id: file number, 3-digit company code, 1-digit service type, check digit;
+//  - payment id: amount in thousands of rials, last digit of the year, 2-digit
+//    period, then a check digit over those and one over bill id + payment id.
+// Check digits are mod 11 with weights 2..7 from the right, 0 for remainders 0 and 1.
+public final class Bill {
+    private static final int MAX_DIGITS = 13;
+    // a file number digit, company code, service type and check digit
+    private static final int MIN_BILL_DIGITS = 6;
+    // amount, year, period, two check digits
+    private static final int MIN_PAYMENT_DIGITS = 6;
+    private static final String[] SERVICES = {
+            "", "آب", "برق", "گاز", "تلفن ثابت", "تلفن همراه", "عوارض شهرداری", "", "سازمان مالیات",
+            "جرایم رانندگی"
+    };
+
+    public final String billId;
+    public final String paymentId;
+    // Rials.
+    public final long amount;
+    public final int serviceType;
+    public final String companyCode;
+    public final int year;
+    public final int period;
+
+    private Bill(String billId, String paymentId) {
+        this.billId = billId;
+        this.paymentId = paymentId;
+        this.amount = Long.parseLong(paymentId.substring(0, paymentId.length() - 5)) * 1000;
+        this.serviceType = billId.charAt(billId.length() - 2) - '0';
+        this.companyCode = billId.substring(billId.length() - 5, billId.length() - 2);
+        this.year = paymentId.charAt(paymentId.length() - 5) - '0';
+        this.period = Integer.parseInt(paymentId.substring(paymentId.length() - 4, paymentId.length() - 2));
+    }
+
+    // Accepts Persian digits, spaces, dashes and leading zeros, as the ids are
+    // typed or printed.
+    public static Bill parse(String billId, String paymentId) {
+        String bill = withoutLeadingZeros(digits(billId, "شناسه قبض", MAX_DIGITS));
+        String payment = withoutLeadingZeros(digits(paymentId, "شناسه پرداخت", MAX_DIGITS));
+        if (bill.length() < MIN_BILL_DIGITS) {
+            throw new IllegalArgumentException("شناسه قبض نادرست است");
+        }
+        if (payment.length() < MIN_PAYMENT_DIGITS) {
+            throw new IllegalArgumentException("شناسه پرداخت نادرست است");
+        }
+        int billLast = bill.length() - 1;
+        int serviceType = bill.charAt(billLast - 1) - '0';
+        if (checkDigit(bill, billLast) != bill.charAt(billLast) - '0'
+                || serviceType == 0 || SERVICES[serviceType].isEmpty()) {
+            throw new IllegalArgumentException("شناسه قبض نادرست است");
+        }
+        int paymentLast = payment.length() - 1;
+        if (checkDigit(payment, paymentLast - 1) != payment.charAt(paymentLast - 1) - '0'
+                || checkDigit(bill + payment, bill.length() + paymentLast) != payment.charAt(paymentLast) - '0') {
+            throw new IllegalArgumentException("شناسه پرداخت با شناسه قبض همخوانی ندارد");
+        }
+        if (Long.parseLong(payment.substring(0, payment.length() - 5)) == 0) {
+            throw new IllegalArgumentException("مبلغ قبض صفر است");
+        }
+        return new Bill(bill, payment);
+    }
+
+    // The 26-digit barcode printed on bills: the bill id and the payment id, each
+    // zero-padded to 13 digits.
+    public static Bill fromBarcode(String barcode) {
+        String code = digits(barcode, "بارکد قبض", 2 * MAX_DIGITS);
+        if (code.length() != 2 * MAX_DIGITS) {
+            throw new IllegalArgumentException("بارکد قبض نادرست است");
+        }
+        return parse(code.substring(0, MAX_DIGITS), code.substring(MAX_DIGITS));
+    }
+
+    // billId:paymentId; two bills with the same key are the same bill.
+    public String key() {
+        return billId + ":" + paymentId;
+    }
+
+    public String serviceName() {
+        return SERVICES[serviceType];
+    }
+
+    // The check digit of digits[0, end).
+    static int checkDigit(CharSequence digits, int end) {
+        int sum = 0;
+        int weight = 2;
+        for (int i = end - 1; i >= 0; i--) {
+            sum += (digits.charAt(i) - '0') * weight;
+            weight = weight == 7 ? 2 : weight + 1;
+        }
+        int rest = sum % 11;
+        return rest < 2 ? 0 : 11 - rest;
+    }
+
+    // ASCII digits, at most max of them.
+    private static String digits(String text, String name, int max) {
+        if (text == null || text.trim().isEmpty()) {
+            throw new IllegalArgumentException(name + " نباید خالی باشد");
+        }
+        StringBuilder digits = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == ' ' || c == '-') {
+                continue;
+            }
+            int digit = c >= '0' && c <= '9' ? c - '0' : c >= '۰' && c <= '۹' ? c - '۰' : -1;
+            if (digit < 0) {
+                throw new IllegalArgumentException(name + " باید فقط شامل رقم باشد");
+            }
+            digits.append((char) ('0' + digit));
+        }
+        if (digits.length() > max) {
+            throw new IllegalArgumentException(name + " نادرست است");
+        }
+        return digits.toString();
+    }
+
+    private static String withoutLeadingZeros(String digits) {
+        int start = 0;
+        while (start < digits.length() && digits.charAt(start) == '0') {
+            start++;
+        }
+        return digits.substring(start);
+    }
+}
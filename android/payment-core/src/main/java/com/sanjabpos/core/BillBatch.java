@@ -0,0 +1,162 @@
+package com.sanjabpos.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Pays a stack of bills one after another, each as its own PSP bill payment, going
+// on to the next as soon as one comes back. A declined bill is recorded and the run
+// goes on, unless the one before it was declined too: by then it is the card, or
+// the cashier cancelling in the PSP, which is the only way to stop us from there.
+// A payment that could not be sent, or whose outcome is unknown, stops the run as
+// well, since the PSP needs looking at (PaymentReconciler settles the unknown one).
+// Bills not reached stay pending, and run() again carries on with them.
+public final class BillBatch {
+    public static final int MAX_BILLS = 100;
+    private static final int MAX_DECLINES_IN_A_ROW = 2;
+
+    public enum Status {
+        PENDING, PAID, DECLINED,
+        // No usable result; the bill may or may not be paid.
+        UNKNOWN,
+        // The PSP could not take the payment.
+        NOT_SENT
+    }
+
+    public interface Payer {
+        Payment pay(Bill bill) throws InterruptedException;
+    }
+
+    public static final class Payment {
+        public final Status status;
+        public final String stan;
+        public final String rrn;
+        public final String message;
+        public final Object details;
+
+        public Payment(Status status, String stan, String rrn, String message, Object details) {
+            this.status = status;
+            this.stan = stan;
+            this.rrn = rrn;
+            this.message = message;
+            this.details = details;
+        }
+    }
+
+    public static final class Item {
+        public final int index;
+        public final Bill bill;
+        Payment payment;
+
+        Item(int index, Bill bill) {
+            this.index = index;
+            this.bill = bill;
+        }
+
+        public Status status() {
+            return payment == null ? Status.PENDING : payment.status;
+        }
+
+        // Null while pending.
+        public Payment payment() {
+            return payment;
+        }
+    }
+
+    public static final class Report {
+        public int paid;
+        public long paidAmount;
+        public int declined;
+        public int pending;
+        // The bill the run stopped on, or -1 if it did not stop early.
+        public int stoppedAt = -1;
+        public String message;
+        public boolean cancelled;
+        public long elapsedNanos;
+    }
+
+    private final List<Item> items;
+    private volatile boolean cancelled;
+
+    public BillBatch(List<Bill> bills) {
+        if (bills.isEmpty() || bills.size() > MAX_BILLS) {
+            throw new IllegalArgumentException("تعداد قبض‌ها نادرست است");
+        }
+        List<Item> items = new ArrayList<>(bills.size());
+        Set<String> keys = new HashSet<>();
+        for (Bill bill : bills) {
+            if (!keys.add(bill.key())) {
+                throw new IllegalArgumentException("قبض تکراری: " + bill.billId);
+            }
+            items.add(new Item(items.size(), bill));
+        }
+        this.items = Collections.unmodifiableList(items);
+    }
+
+    public List<Item> items() {
+        return items;
+    }
+
+    public long total() {
+        long total = 0;
+        for (Item item : items) {
+            total += item.bill.amount;
+        }
+        return total;
+    }
+
+    // Stops the run after the payment in flight, and any later run before it starts.
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public synchronized Report run(Payer payer) throws InterruptedException {
+        long start = System.nanoTime();
+        Report report = new Report();
+        int declinesInARow = 0;
+        for (Item item : items) {
+            if (item.status() != Status.PENDING) {
+                continue;
+            }
+            if (cancelled) {
+                report.cancelled = true;
+                break;
+            }
+            Payment payment = payer.pay(item.bill);
+            if (payment.status == Status.UNKNOWN || payment.status == Status.NOT_SENT) {
+                // Only an unknown outcome is kept; an unsent bill is simply still pending.
+                item.payment = payment.status == Status.UNKNOWN ? payment : null;
+                report.stoppedAt = item.index;
+                report.message = payment.message;
+                break;
+            }
+            item.payment = payment;
+            declinesInARow = payment.status == Status.DECLINED ? declinesInARow + 1 : 0;
+            if (declinesInARow == MAX_DECLINES_IN_A_ROW) {
+                report.stoppedAt = item.index;
+                report.message = payment.message;
+                break;
+            }
+        }
+        for (Item item : items) {
+            switch (item.status()) {
+                case PAID:
+                    report.paid++;
+                    report.paidAmount += item.bill.amount;
+                    break;
+                case DECLINED:
+                    report.declined++;
+                    break;
+                case PENDING:
+                    report.pending++;
+                    break;
+                default:
+                    break;
+            }
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+}
@@ -0,0 +1,164 @@
+package com.sanjabpos.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Spends a customer's credit over a basket of sale lines in exact rials, in one pass,
+// the way /Transaction settles it:
+//  - lines are paid from credit in basket order until the credit runs out;
+//  - a line never takes more credit than its price or its maxPayAmountByCashBack
+//    (when that is set, i.e. above zero);
+//  - credit moves in whole tomans, since payFromCredit goes to the backend in tomans;
+//  - what is left of each line (totalPrice) is paid by card, and earns the line's
+//    cashback percent (LineDetail.credit) of it, of which branchSharePercentage is
+//    the branch's share. Both are rounded down to whole tomans.
+// The cashback is only an estimate for the screen; the backend's payBackAmount wins.
+public final class CreditAllocator {
+    private static final int FULL = 10000; // 100% in basis points
+    private static final long TOMAN = 10;
+
+    public static final class Line {
+        public final int lineId;
+        public final String title;
+        public final long price;
+        // -1 when the line has no limit.
+        public final long maxCredit;
+        public final int cashbackBasisPoints;
+        public final int branchShareBasisPoints;
+
+        public Line(int lineId, String title, long price, long maxCredit, int cashbackBasisPoints,
+                    int branchShareBasisPoints) {
+            if (price < 0 || cashbackBasisPoints < 0 || cashbackBasisPoints > FULL
+                    || branchShareBasisPoints < 0 || branchShareBasisPoints > FULL) {
+                throw new IllegalArgumentException("اطلاعات خط نادرست است");
+            }
+            this.lineId = lineId;
+            this.title = title;
+            this.price = price;
+            this.maxCredit = maxCredit;
+            this.cashbackBasisPoints = cashbackBasisPoints;
+            this.branchShareBasisPoints = branchShareBasisPoints;
+        }
+    }
+
+    // One line of the result; amounts in rials.
+    public static final class Share {
+        public final Line line;
+        public final long payFromCredit;
+        public final long totalPrice;
+        public final long payBack;
+        public final long branchShare;
+
+        Share(Line line, long payFromCredit, long totalPrice, long payBack, long branchShare) {
+            this.line = line;
+            this.payFromCredit = payFromCredit;
+            this.totalPrice = totalPrice;
+            this.payBack = payBack;
+            this.branchShare = branchShare;
+        }
+    }
+
+    public static final class Allocation {
+        public final List<Share> shares;
+        public final long total;
+        public final long creditUsed;
+        // What the card is charged.
+        public final long payable;
+        public final long payBack;
+
+        Allocation(List<Share> shares, long total, long creditUsed, long payBack) {
+            this.shares = shares;
+            this.total = total;
+            this.creditUsed = creditUsed;
+            this.payable = total - creditUsed;
+            this.payBack = payBack;
+        }
+    }
+
+    private CreditAllocator() {
+    }
+
+    public static Allocation allocate(List<Line> lines, long credit, boolean useCredit) {
+        if (credit < 0) {
+            throw new IllegalArgumentException("اعتبار نادرست است");
+        }
+        List<Share> shares = new ArrayList<>(lines.size());
+        long remaining = useCredit ? credit - credit % TOMAN : 0;
+        long total = 0;
+        long creditUsed = 0;
+        long payBack = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            Line line = lines.get(i);
+            long fromCredit = Math.min(line.price, remaining);
+            if (line.maxCredit >= 0) {
+                fromCredit = Math.min(fromCredit, line.maxCredit);
+            }
+            fromCredit -= fromCredit % TOMAN;
+            remaining -= fromCredit;
+            long totalPrice = line.price - fromCredit;
+            long lineBack = roundDown(totalPrice * line.cashbackBasisPoints / FULL);
+            long branchShare = roundDown(lineBack * line.branchShareBasisPoints / FULL);
+            shares.add(new Share(line, fromCredit, totalPrice, lineBack, branchShare));
+            total += line.price;
+            creditUsed += fromCredit;
+            payBack += lineBack;
+        }
+        return new Allocation(shares, total, creditUsed, payBack);
+    }
+
+    // A percent as the backend sends it (2.5 means 2.5%) in basis points.
+    public static int basisPoints(double percent) {
+        if (Double.isNaN(percent) || percent < 0 || percent > 100) {
+            throw new IllegalArgumentException("درصد نادرست است");
+        }
+        return (int) Math.round(percent * 100);
+    }
+
+    // A toman amount as typed ("1,250,000" or "1250.5") in rials. A second decimal
+    // digit rounds half up, as Math.round(parseFloat(amount) * 10) did. Thirteen digits
+    // at most, so percent arithmetic on it cannot overflow.
+    public static long parseToman(String amount) {
+        if (amount == null) {
+            throw new IllegalArgumentException("مبلغ نباید خالی باشد");
+        }
+        long rials = 0;
+        int decimals = -1;
+        int digits = 0;
+        for (int i = 0; i < amount.length(); i++) {
+            char c = amount.charAt(i);
+            if (c == ',' || c == ' ') {
+                continue;
+            }
+            if (c == '.' && decimals < 0) {
+                decimals = 0;
+                continue;
+            }
+            int digit = c >= '0' && c <= '9' ? c - '0' : c >= '۰' && c <= '۹' ? c - '۰' : -1;
+            if (digit < 0 || digits >= 13) {
+                throw new IllegalArgumentException("مبلغ نادرست است");
+            }
+            digits++;
+            if (decimals < 0) {
+                rials = rials * 10 + digit;
+            } else if (decimals++ == 0) {
+                rials = rials * 10 + digit;
+            } else if (decimals == 2 && digit >= 5) {
+                rials++;
+            }
+        }
+        if (digits == 0) {
+            throw new IllegalArgumentException("مبلغ نادرست است");
+        }
+        return decimals <= 0 ? rials * 10 : rials;
+    }
+
+    // Rials as the toman text CashBackDto.price carries: "125000" or "125000.5".
+    public static String formatToman(long rials) {
+        long rest = rials % TOMAN;
+        return rest == 0 ? Long.toString(rials / TOMAN) : rials / TOMAN + "." + rest;
+    }
+
+    private static long roundDown(long rials) {
+        return rials - rials % TOMAN;
+    }
+}
@@ -0,0 +1,256 @@
+package com.sanjabpos.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+// One branch's customers and credit, by card number, for the on-device customer
+// index. Lookups are a single hash probe; the table is kept current with the
+// backend's deltas and the credit movements of sales made on this terminal, and
+// persisted in a compact binary file so a cold start does not need a full download.
+//
+// Cards are linked to customers by hashed PAN (what SWIPE_CARD_FORPAN reports), so a
+// swipe finds the customer without typing a phone number. The links live in a
+// HashedPanTable from PAN fingerprint to a row number; rows map to customer keys and
+// are never reused, so a link survives the customer being replaced by a delta.
+// Thread-safe.
+public final class CustomerTable {
+    private static final int FILE_MAGIC_V1 = 0x43434931; // "CCI1"
+    private static final int FILE_MAGIC = 0x43434932; // "CCI2", CCI1 plus card links
+
+    public static final class Customer {
+        public long credit;
+        public String userPhoneNumber;
+        public String subscriptionCode;
+        public String name;
+
+        public Customer copy() {
+            Customer copy = new Customer();
+            copy.credit = credit;
+            copy.userPhoneNumber = userPhoneNumber;
+            copy.subscriptionCode = subscriptionCode;
+            copy.name = name;
+            return copy;
+        }
+    }
+
+    // Guarded by this.
+    private final HashMap<String, Customer> customers = new HashMap<>();
+    private final HashedPanTable cards = new HashedPanTable(16);
+    private final ArrayList<String> rowKeys = new ArrayList<>();
+    private final HashMap<String, Integer> rows = new HashMap<>();
+    private long version;
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    // Versions only move forward.
+    public synchronized void advanceVersion(long version) {
+        this.version = Math.max(this.version, version);
+    }
+
+    public synchronized int size() {
+        return customers.size();
+    }
+
+    public synchronized int cardCount() {
+        return cards.size();
+    }
+
+    // A copy, or null.
+    public synchronized Customer get(String cardNumber) {
+        Customer customer = customers.get(cardNumber);
+        return customer == null ? null : customer.copy();
+    }
+
+    public synchronized void put(String cardNumber, Customer customer) {
+        customers.put(cardNumber, customer.copy());
+    }
+
+    public synchronized void remove(String cardNumber) {
+        customers.remove(cardNumber);
+    }
+
+    // The key of the customer a swiped card is linked to, or null.
+    public synchronized String keyForPan(String hashedPan) {
+        int row = cards.get(HashedPanTable.fingerprint(hashedPan));
+        if (row == HashedPanTable.ABSENT) {
+            return null;
+        }
+        String cardNumber = rowKeys.get(row);
+        return customers.containsKey(cardNumber) ? cardNumber : null;
+    }
+
+    // Links a swiped card to a customer key, replacing any earlier link of that card.
+    public synchronized void linkCard(String hashedPan, String cardNumber) {
+        cards.put(HashedPanTable.fingerprint(hashedPan), row(cardNumber));
+    }
+
+    private int row(String cardNumber) {
+        Integer row = rows.get(cardNumber);
+        if (row == null) {
+            row = rowKeys.size();
+            rowKeys.add(cardNumber);
+            rows.put(cardNumber, row);
+        }
+        return row;
+    }
+
+    // Mirrors a settled sale locally until the next delta brings the server's figure.
+    // Returns the updated customer, or null if the card is not known.
+    public synchronized Customer reconcile(String cardNumber, long payFromCredit, long payBackAmount) {
+        Customer customer = customers.get(cardNumber);
+        if (customer == null) {
+            return null;
+        }
+        customer.credit = Math.max(0, customer.credit - payFromCredit + payBackAmount);
+        return customer.copy();
+    }
+
+    public synchronized void clear() {
+        customers.clear();
+        cards.clear();
+        rowKeys.clear();
+        rows.clear();
+        version = 0;
+    }
+
+    // Copies the entries under the lock and writes them outside it, so lookups are
+    // not blocked by disk I/O. Callers serialize saves on a single I/O thread.
+    public void save(File file) throws IOException {
+        String[] keys;
+        Customer[] values;
+        String[] linkedKeys;
+        long[] cardFingerprints;
+        int[] cardRows;
+        long snapshotVersion;
+        synchronized (this) {
+            int count = customers.size();
+            keys = new String[count];
+            values = new Customer[count];
+            int i = 0;
+            for (Map.Entry<String, Customer> entry : customers.entrySet()) {
+                keys[i] = entry.getKey();
+                values[i] = entry.getValue().copy();
+                i++;
+            }
+            linkedKeys = rowKeys.toArray(new String[0]);
+            cardFingerprints = new long[cards.size()];
+            cardRows = new int[cards.size()];
+            int[] next = {0};
+            cards.forEach((fingerprint, row) -> {
+                cardFingerprints[next[0]] = fingerprint;
+                cardRows[next[0]++] = row;
+            });
+            snapshotVersion = version;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp, false);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeLong(snapshotVersion);
+            out.writeInt(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                Customer customer = values[i];
+                out.writeUTF(keys[i]);
+                out.writeLong(customer.credit);
+                writeNullable(out, customer.userPhoneNumber);
+                writeNullable(out, customer.subscriptionCode);
+                writeNullable(out, customer.name);
+            }
+            out.writeInt(linkedKeys.length);
+            for (String key : linkedKeys) {
+                out.writeUTF(key);
+            }
+            out.writeInt(cardFingerprints.length);
+            for (int i = 0; i < cardFingerprints.length; i++) {
+                out.writeLong(cardFingerprints[i]);
+                out.writeInt(cardRows[i]);
+            }
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("failed to replace customer index: " + file);
+        }
+    }
+
+    // Replaces the contents with the file's; a missing file leaves the table empty.
+    // On a damaged file the table is left empty too, which only costs a full resync
+    // from version 0, and the error is thrown.
+    public synchronized void load(File file) throws IOException {
+        clear();
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            int magic = in.readInt();
+            if (magic != FILE_MAGIC && magic != FILE_MAGIC_V1) {
+                throw new IOException("unknown customer index format: " + file);
+            }
+            long storedVersion = in.readLong();
+            int count = in.readInt();
+            HashMap<String, Customer> loaded = new HashMap<>(Math.max(16, count * 4 / 3 + 1));
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                Customer customer = new Customer();
+                customer.credit = in.readLong();
+                customer.userPhoneNumber = readNullable(in);
+                customer.subscriptionCode = readNullable(in);
+                customer.name = readNullable(in);
+                loaded.put(key, customer);
+            }
+            ArrayList<String> loadedRows = new ArrayList<>();
+            HashedPanTable loadedCards = new HashedPanTable(0);
+            if (magic == FILE_MAGIC) {
+                int rowCount = in.readInt();
+                loadedRows.ensureCapacity(rowCount);
+                for (int i = 0; i < rowCount; i++) {
+                    loadedRows.add(in.readUTF());
+                }
+                int cardCount = in.readInt();
+                loadedCards = new HashedPanTable(cardCount);
+                for (int i = 0; i < cardCount; i++) {
+                    long fingerprint = in.readLong();
+                    int row = in.readInt();
+                    if (row >= 0 && row < rowCount) {
+                        loadedCards.put(fingerprint, row);
+                    }
+                }
+            }
+            customers.putAll(loaded);
+            for (String key : loadedRows) {
+                row(key);
+            }
+            loadedCards.forEach(cards::put);
+            version = storedVersion;
+        } catch (IOException e) {
+            clear();
+            throw e;
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,216 @@
+package com.sanjabpos.core;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Open-addressing map from a hashed PAN's 64-bit fingerprint to an int (a customer
+// row), in two flat primitive arrays: 12 bytes a slot, no objects per entry.
+// Linear probing at no more than 75% load, with backward-shift deletion so there
+// are no tombstones. The capacity is not a power of two; a multiply-shift maps
+// the mixed key onto it, so the table grows in steps of 2x entries, not 2x slots.
+// Each table mixes its own seed into the hash, so copying one table into another
+// in slot order (a rebuild, or loading a saved table) does not pile up into one
+// long probe run. TransactionStore uses the same table, keyed by fingerprints of
+// stan, rrn and card, as the heads of its index chains. Not thread-safe.
+public final class HashedPanTable {
+    public static final int ABSENT = -1;
+    // Fingerprint 0 marks an empty slot.
+    private static final long EMPTY = 0;
+
+    public interface Visitor {
+        void visit(long fingerprint, int value);
+    }
+
+    private static final AtomicLong SEEDS = new AtomicLong(System.nanoTime());
+
+    private final long seed = SEEDS.getAndAdd(0x9e3779b97f4a7c15L);
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int resizeAt;
+
+    public HashedPanTable(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    // 64 bits of the hashed PAN. A hex digest (what the PSP returns) is already
+    // uniform, so its first 16 digits are used as is; anything else goes through
+    // FNV-1a. At a million cards the chance of any two colliding is about 3e-8.
+    public static long fingerprint(CharSequence hashedPan) {
+        int length = hashedPan.length();
+        long fingerprint = 0;
+        boolean hex = length >= 16;
+        for (int i = 0; i < 16 && hex; i++) {
+            char c = hashedPan.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else if (c >= 'A' && c <= 'F') {
+                digit = c - 'A' + 10;
+            } else {
+                hex = false;
+                break;
+            }
+            fingerprint = fingerprint << 4 | digit;
+        }
+        if (!hex) {
+            fingerprint = 0xcbf29ce484222325L;
+            for (int i = 0; i < length; i++) {
+                fingerprint ^= hashedPan.charAt(i);
+                fingerprint *= 0x100000001b3L;
+            }
+        }
+        return fingerprint == EMPTY ? 1 : fingerprint;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return keys.length;
+    }
+
+    // Bytes held by the two arrays, array headers included.
+    public long footprintBytes() {
+        return 16 + 8L * keys.length + 16 + 4L * values.length;
+    }
+
+    // The value stored for the fingerprint, or ABSENT.
+    public int get(long fingerprint) {
+        int slot = find(fingerprint);
+        return slot < 0 ? ABSENT : values[slot];
+    }
+
+    // Returns the previous value, or ABSENT.
+    public int put(long fingerprint, int value) {
+        if (fingerprint == EMPTY) {
+            throw new IllegalArgumentException("fingerprint 0 is reserved");
+        }
+        if (size >= resizeAt) {
+            rehash(capacityFor(2 * (size + 1)));
+        }
+        int capacity = keys.length;
+        int slot = home(fingerprint, capacity);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == fingerprint) {
+                int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = slot + 1 == capacity ? 0 : slot + 1;
+        }
+        keys[slot] = fingerprint;
+        values[slot] = value;
+        size++;
+        return ABSENT;
+    }
+
+    // Returns the removed value, or ABSENT.
+    public int remove(long fingerprint) {
+        int hole = find(fingerprint);
+        if (hole < 0) {
+            return ABSENT;
+        }
+        int removed = values[hole];
+        int capacity = keys.length;
+        // Pull back every entry of the probe run that may sit in the hole: one whose
+        // home is at least as far behind it as the hole is.
+        int slot = hole;
+        while (true) {
+            slot = slot + 1 == capacity ? 0 : slot + 1;
+            long key = keys[slot];
+            if (key == EMPTY) {
+                break;
+            }
+            int home = home(key, capacity);
+            if (distance(home, slot, capacity) >= distance(hole, slot, capacity)) {
+                keys[hole] = key;
+                values[hole] = values[slot];
+                hole = slot;
+            }
+        }
+        keys[hole] = EMPTY;
+        size--;
+        return removed;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    public void forEach(Visitor visitor) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != EMPTY) {
+                visitor.visit(keys[slot], values[slot]);
+            }
+        }
+    }
+
+    private int find(long fingerprint) {
+        if (fingerprint == EMPTY) {
+            return -1;
+        }
+        int capacity = keys.length;
+        int slot = home(fingerprint, capacity);
+        long key;
+        while ((key = keys[slot]) != EMPTY) {
+            if (key == fingerprint) {
+                return slot;
+            }
+            slot = slot + 1 == capacity ? 0 : slot + 1;
+        }
+        return -1;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            long key = oldKeys[slot];
+            if (key == EMPTY) {
+                continue;
+            }
+            int target = home(key, capacity);
+            while (keys[target] != EMPTY) {
+                target = target + 1 == capacity ? 0 : target + 1;
+            }
+            keys[target] = key;
+            values[target] = oldValues[slot];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        resizeAt = (int) (capacity * 3L / 4);
+    }
+
+    private static int capacityFor(int entries) {
+        long capacity = Math.max(8, entries * 4L / 3 + 1);
+        if (capacity > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("HashedPanTable is full");
+        }
+        return (int) capacity;
+    }
+
+    // Mix the seeded fingerprint (MurmurHash3 finalizer) and scale the top 32 bits
+    // onto [0, capacity).
+    private int home(long fingerprint, int capacity) {
+        long h = fingerprint ^ seed;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) (((h >>> 32) * capacity) >>> 32);
+    }
+
+    private static int distance(int from, int to, int capacity) {
+        return to >= from ? to - from : to + capacity - from;
+    }
+}
@@ -0,0 +1,71 @@
+package com.sanjabpos.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// PSP bill inquiry results by Bill.key(), kept for a fixed time so a stack of bills
+// inquired to tell the customer the total is not inquired again when it is paid.
+// The least recently used entry goes first when the cache is full. Times are passed
+// in, as the Reconciler takes them, so callers and benchmarks control the clock.
+public final class InquiryCache<V> {
+    private static final class Cached<V> {
+        final V value;
+        final long expiresAt;
+
+        Cached(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final long ttlMs;
+    private final Map<String, Cached<V>> entries;
+    private long hits;
+    private long misses;
+
+    public InquiryCache(long ttlMs, final int maxEntries) {
+        this.ttlMs = ttlMs;
+        this.entries = new LinkedHashMap<String, Cached<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    // Null if there is no result or it has expired.
+    public synchronized V get(String key, long now) {
+        Cached<V> entry = entries.get(key);
+        if (entry != null && entry.expiresAt <= now) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    public synchronized void put(String key, V value, long now) {
+        entries.put(key, new Cached<>(value, now + ttlMs));
+    }
+
+    // A paid bill's inquiry no longer says what the PSP would.
+    public synchronized void remove(String key) {
+        entries.remove(key);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+}
@@ -0,0 +1,49 @@
+package com.sanjabpos.core;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+// Jalali (Persian) calendar dates as the IKC SDK takes them, e.g. the date of a
+// search by payment id.
+public final class JalaliDate {
+    private static final TimeZone TEHRAN = TimeZone.getTimeZone("Asia/Tehran");
+    private static final int[] DAYS_BEFORE_MONTH = {0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334};
+
+    private JalaliDate() {
+    }
+
+    // {year, month, day} of a Gregorian date.
+    public static int[] fromGregorian(int year, int month, int day) {
+        int leapYear = month > 2 ? year + 1 : year;
+        long days = 355666 + 365L * year + (leapYear + 3) / 4 - (leapYear + 99) / 100
+                + (leapYear + 399) / 400 + day + DAYS_BEFORE_MONTH[month - 1];
+        long jy = -1595 + 33 * (days / 12053);
+        days %= 12053;
+        jy += 4 * (days / 1461);
+        days %= 1461;
+        if (days > 365) {
+            jy += (days - 1) / 365;
+            days = (days - 1) % 365;
+        }
+        int jm;
+        int jd;
+        if (days < 186) {
+            jm = 1 + (int) (days / 31);
+            jd = 1 + (int) (days % 31);
+        } else {
+            jm = 7 + (int) ((days - 186) / 30);
+            jd = 1 + (int) ((days - 186) % 30);
+        }
+        return new int[]{(int) jy, jm, jd};
+    }
+
+    // yyyyMMdd of the Tehran calendar day the instant falls on.
+    public static String packed(long epochMillis) {
+        Calendar calendar = Calendar.getInstance(TEHRAN);
+        calendar.setTimeInMillis(epochMillis);
+        int[] date = fromGregorian(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1,
+                calendar.get(Calendar.DAY_OF_MONTH));
+        return String.format(Locale.ROOT, "%04d%02d%02d", date[0], date[1], date[2]);
+    }
+}
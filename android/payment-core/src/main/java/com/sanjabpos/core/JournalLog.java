@@ -0,0 +1,382 @@
+package com.sanjabpos.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+// The write-ahead log under the app's payment journal. A record is a type, the
+// journal id it belongs to and an opaque body (the app's JSON), framed with its
+// length and a CRC32, so a write torn by a crash is found at the tail and cut off.
+//
+// Appends are handed to one writer thread that commits them in groups with a
+// single fsync per group. A caller that must not go on until its record is on
+// disk (an intent, before the PSP app is launched) waits with awaitDurable.
+//
+// The writer thread also opens the log: it replays the file, keeping the newest
+// body of each type per entry and dropping acknowledged entries, hands that to
+// the listener, and rewrites the file with only the entries still pending. A
+// journal that grew to 100k settled sales between syncs therefore costs one
+// sequential read, off the caller's thread, and opens empty the time after.
+public final class JournalLog implements Closeable {
+    public static final byte INTENT = 'I';
+    public static final byte RESULT = 'R';
+    public static final byte RECONCILE = 'C';
+    public static final byte ACK = 'A';
+
+    private static final int FILE_MAGIC = 0x4a524e31; // "JRN1"
+    private static final int MAX_BATCH = 256;
+    // Larger lengths can only come from a torn or foreign write.
+    private static final int MAX_RECORD = 16 * 1024 * 1024;
+
+    // What is left of one unacknowledged entry: the newest body of each type.
+    public static final class Entry {
+        public final long id;
+        public String intent;
+        public String result;
+        public String reconcile;
+
+        public Entry(long id) {
+            this.id = id;
+        }
+    }
+
+    public static final class Replay {
+        // Unacknowledged entries in the order they were first recorded.
+        public final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>();
+        // Highest id in the log, acknowledged ones included; -1 for an empty log.
+        public long lastId = -1;
+        public int records;
+        // Set when the tail was cut off after a torn write.
+        public boolean truncated;
+        // Bytes of the file up to the end of the last intact record.
+        long length;
+    }
+
+    public interface Listener {
+        // On the writer thread, before the file is rewritten; entries added to the
+        // replay here are written with it.
+        void replayed(Replay replay);
+
+        // Appends are open. error is set if the log could not be read or rewritten;
+        // a log that could not be read is kept aside and a new one started.
+        void opened(IOException error);
+    }
+
+    private static final class Record {
+        final long sequence;
+        final byte type;
+        final long id;
+        final byte[] body;
+
+        Record(long sequence, byte type, long id, byte[] body) {
+            this.sequence = sequence;
+            this.type = type;
+            this.id = id;
+            this.body = body;
+        }
+    }
+
+    private static final Record CLOSE = new Record(-1, (byte) 0, 0, null);
+
+    private final File file;
+    private final LinkedBlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+    // Guarded by this.
+    private long lastSequence;
+    // Guarded by durable.
+    private final Object durable = new Object();
+    private long durableSequence;
+    private IOException failure;
+    private boolean closed;
+    private Thread writer;
+
+    public JournalLog(File file) {
+        this.file = file;
+    }
+
+    // Starts the writer thread, which opens the log before it writes anything.
+    // Records appended meanwhile are written once it is open.
+    public synchronized void open(Listener listener, String threadName) {
+        if (writer != null) {
+            throw new IllegalStateException("journal already open");
+        }
+        writer = new Thread(() -> run(listener), threadName);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Returns the record's sequence number, for awaitDurable.
+    public synchronized long append(byte type, long id, String body) {
+        long sequence = ++lastSequence;
+        queue.add(new Record(sequence, type, id, body == null ? null : body.getBytes(StandardCharsets.UTF_8)));
+        return sequence;
+    }
+
+    // True once the record and all before it are fsynced; false on timeout, or if
+    // the writer failed or was closed first.
+    public boolean awaitDurable(long sequence, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        synchronized (durable) {
+            while (durableSequence < sequence) {
+                long left = (deadline - System.nanoTime()) / 1_000_000L;
+                if (failure != null || closed || left <= 0) {
+                    return false;
+                }
+                durable.wait(left);
+            }
+            return true;
+        }
+    }
+
+    // Commits what is queued, then stops the writer. Blocks until it has.
+    @Override
+    public void close() throws IOException {
+        Thread thread;
+        synchronized (this) {
+            thread = writer;
+        }
+        if (thread == null) {
+            return;
+        }
+        queue.add(CLOSE);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (durable) {
+            closed = true;
+            durable.notifyAll();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private void run(Listener listener) {
+        IOException openError = null;
+        Replay replay = new Replay();
+        try {
+            replay = replay(file);
+        } catch (IOException e) {
+            openError = e;
+            File aside = new File(file.getPath() + ".unreadable-" + System.currentTimeMillis());
+            if (!file.renameTo(aside)) {
+                fail(new IOException("unreadable journal could not be moved aside: " + file, e));
+                listener.opened(e);
+                return;
+            }
+        }
+        listener.replayed(replay);
+        try {
+            compact(file, replay);
+        } catch (IOException e) {
+            // The old file still holds every record; appending to it loses nothing,
+            // once a torn tail is cut off so new records do not follow it.
+            openError = openError != null ? openError : e;
+            if (replay.truncated) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(replay.length);
+                } catch (IOException truncateError) {
+                    fail(truncateError);
+                    listener.opened(openError);
+                    return;
+                }
+            }
+        }
+        listener.opened(openError);
+        write();
+    }
+
+    // Group commit: blocks for the first record, then takes whatever else queued up
+    // meanwhile and pays for a single fsync per batch.
+    private void write() {
+        ArrayList<Record> batch = new ArrayList<>(MAX_BATCH);
+        boolean headerNeeded = !file.exists() || file.length() < 4;
+        try (FileOutputStream fos = new FileOutputStream(file, true);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 16 * 1024))) {
+            if (headerNeeded) {
+                out.writeInt(FILE_MAGIC);
+            }
+            boolean stop = false;
+            while (!stop) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                long last = -1;
+                for (Record record : batch) {
+                    if (record == CLOSE) {
+                        stop = true;
+                        continue;
+                    }
+                    writeRecord(out, record.type, record.id, record.body);
+                    last = record.sequence;
+                }
+                out.flush();
+                fos.getFD().sync();
+                batch.clear();
+                if (last >= 0) {
+                    synchronized (durable) {
+                        durableSequence = last;
+                        durable.notifyAll();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(IOException e) {
+        synchronized (durable) {
+            failure = e;
+            durable.notifyAll();
+        }
+    }
+
+    // Reads the whole log. A torn or corrupt record ends it: everything before it
+    // is intact, and nothing after it can be trusted.
+    static Replay replay(File file) throws IOException {
+        Replay replay = new Replay();
+        if (!file.exists() || file.length() == 0) {
+            return replay;
+        }
+        CRC32 crc = new CRC32();
+        byte[] payload = new byte[512];
+        long offset = 4;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            int magic;
+            try {
+                magic = in.readInt();
+            } catch (EOFException e) {
+                // Died while writing the header of a new log.
+                replay.truncated = true;
+                return replay;
+            }
+            if (magic != FILE_MAGIC) {
+                throw new IOException("unknown journal format: " + file);
+            }
+            while (true) {
+                int length;
+                int checksum;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < 9 || length > MAX_RECORD) {
+                        break;
+                    }
+                    if (length > payload.length) {
+                        payload = new byte[Integer.highestOneBit(length) * 2];
+                    }
+                    in.readFully(payload, 0, length);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                apply(replay, payload, length);
+                replay.records++;
+                offset += 8 + length;
+            }
+        }
+        replay.length = offset;
+        replay.truncated = offset < file.length();
+        return replay;
+    }
+
+    private static void apply(Replay replay, byte[] payload, int length) {
+        byte type = payload[0];
+        long id = 0;
+        for (int i = 1; i < 9; i++) {
+            id = id << 8 | (payload[i] & 0xff);
+        }
+        replay.lastId = Math.max(replay.lastId, id);
+        String body = length > 9 ? new String(payload, 9, length - 9, StandardCharsets.UTF_8) : null;
+        if (type == INTENT) {
+            Entry entry = new Entry(id);
+            entry.intent = body;
+            replay.entries.put(id, entry);
+        } else if (type == ACK) {
+            replay.entries.remove(id);
+        } else {
+            Entry entry = replay.entries.get(id);
+            if (entry == null) {
+                return;
+            }
+            if (type == RESULT) {
+                entry.result = body;
+            } else if (type == RECONCILE) {
+                entry.reconcile = body;
+            }
+        }
+    }
+
+    // Rewrites the log with only the pending entries, through a synced temp file,
+    // so a crash mid-way leaves the old log in place.
+    static void compact(File file, Replay replay) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp, false);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024))) {
+            out.writeInt(FILE_MAGIC);
+            for (Entry entry : replay.entries.values()) {
+                writeRecord(out, INTENT, entry.id, bytes(entry.intent));
+                if (entry.result != null) {
+                    writeRecord(out, RESULT, entry.id, bytes(entry.result));
+                }
+                if (entry.reconcile != null) {
+                    writeRecord(out, RECONCILE, entry.id, bytes(entry.reconcile));
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("failed to replace journal after compaction: " + file);
+        }
+    }
+
+    private static byte[] bytes(String body) {
+        return body == null ? null : body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void writeRecord(DataOutputStream out, byte type, long id, byte[] body) throws IOException {
+        int bodyLength = body == null ? 0 : body.length;
+        byte[] head = new byte[9];
+        head[0] = type;
+        for (int i = 8; i >= 1; i--) {
+            head[i] = (byte) id;
+            id >>>= 8;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(head, 0, 9);
+        if (body != null) {
+            crc.update(body, 0, bodyLength);
+        }
+        out.writeInt(9 + bodyLength);
+        out.writeInt((int) crc.getValue());
+        out.write(head);
+        if (body != null) {
+            out.write(body);
+        }
+    }
+}
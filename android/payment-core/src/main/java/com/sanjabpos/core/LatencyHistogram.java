@@ -0,0 +1,130 @@
+package com.sanjabpos.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Log-linear latency histogram in microseconds, HDR style: values below 16 get
+// their own bucket, above that every power of two is split into 8 sub-buckets, so
+// any recorded value is within 12.5% of its bucket. Recording is one atomic
+// increment per bucket plus count and sum, with no locks and no allocation.
+public final class LatencyHistogram {
+    private static final int LINEAR = 16;
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // Up to 2^40 us, about 12 days; larger values land in the last bucket.
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = LINEAR + (MAX_EXPONENT - 4 + 1) * SUB_BUCKETS;
+
+    // Slots past the buckets hold the count, sum and max.
+    private static final int COUNT = BUCKETS;
+    private static final int SUM = BUCKETS + 1;
+    private static final int MAX = BUCKETS + 2;
+
+    private final AtomicLongArray slots = new AtomicLongArray(BUCKETS + 3);
+
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        slots.incrementAndGet(index(micros));
+        slots.incrementAndGet(COUNT);
+        slots.addAndGet(SUM, micros);
+        long max;
+        while (micros > (max = slots.get(MAX)) && !slots.compareAndSet(MAX, max, micros)) {
+            // Lost a race with a larger value; check again.
+        }
+    }
+
+    public long count() {
+        return slots.get(COUNT);
+    }
+
+    public static int index(long micros) {
+        if (micros < LINEAR) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+    }
+
+    // Upper bound of a bucket, which is what percentiles report.
+    public static long upperBound(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int exponent = (index - LINEAR) / SUB_BUCKETS + 4;
+        int sub = (index - LINEAR) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    // Read without stopping writers, so a summary can be off by the samples
+    // recorded while it is being taken.
+    public Map<String, Object> summarize() {
+        Map<String, Object> summary = new HashMap<>();
+        long count = slots.get(COUNT);
+        summary.put("count", (double) count);
+        if (count == 0) {
+            return summary;
+        }
+        summary.put("meanMs", slots.get(SUM) / 1000.0 / count);
+        summary.put("maxMs", slots.get(MAX) / 1000.0);
+        summary.put("p50Ms", percentile(count, 0.50) / 1000.0);
+        summary.put("p90Ms", percentile(count, 0.90) / 1000.0);
+        summary.put("p99Ms", percentile(count, 0.99) / 1000.0);
+        return summary;
+    }
+
+    private long percentile(long count, double fraction) {
+        long target = Math.max(1, (long) Math.ceil(count * fraction));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += slots.get(i);
+            if (seen >= target) {
+                return Math.min(upperBound(i), slots.get(MAX));
+            }
+        }
+        return slots.get(MAX);
+    }
+
+    // Sparse form for the snapshot file: non-empty buckets as (index, count) pairs.
+    public void write(DataOutputStream out) throws IOException {
+        int used = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (slots.get(i) != 0) {
+                used++;
+            }
+        }
+        out.writeLong(slots.get(COUNT));
+        out.writeLong(slots.get(SUM));
+        out.writeLong(slots.get(MAX));
+        out.writeShort(used);
+        for (int i = 0; i < BUCKETS && used > 0; i++) {
+            long value = slots.get(i);
+            if (value != 0) {
+                out.writeShort(i);
+                out.writeLong(value);
+                used--;
+            }
+        }
+    }
+
+    public void read(DataInputStream in) throws IOException {
+        slots.set(COUNT, in.readLong());
+        slots.set(SUM, in.readLong());
+        slots.set(MAX, in.readLong());
+        int used = in.readUnsignedShort();
+        for (int i = 0; i < used; i++) {
+            int index = in.readUnsignedShort();
+            long value = in.readLong();
+            if (index < BUCKETS) {
+                slots.set(index, value);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.sanjabpos.core;
+
+// Argument checks shared by the PSP providers. Each throws IllegalArgumentException
+// with the message shown to the cashier.
+public final class PaymentValidation {
+    private PaymentValidation() {
+    }
+
+    public static void requireAmount(String amount) {
+        if (isEmpty(amount)) {
+            throw new IllegalArgumentException("مبلغ نباید خالی باشد");
+        }
+    }
+
+    public static void requireAmountAndId(String amount, String id) {
+        if (isEmpty(amount) || isEmpty(id)) {
+            throw new IllegalArgumentException("مبلغ و شناسه نباید خالی باشند");
+        }
+    }
+
+    public static void requireBill(String billId, String billPaymentId) {
+        if (isEmpty(billId) || isEmpty(billPaymentId)) {
+            throw new IllegalArgumentException("شناسه قبض و شناسه پرداخت نباید خالی باشند");
+        }
+    }
+
+    public static void requireSearchValue(SearchKey key, String value) {
+        if (!isEmpty(value)) {
+            return;
+        }
+        switch (key) {
+            case STAN:
+                throw new IllegalArgumentException("شماره پیگیری نباید خالی باشد");
+            case RRN:
+                throw new IllegalArgumentException("شماره مرجع نباید خالی باشد");
+            default:
+                throw new IllegalArgumentException("شناسه نباید خالی باشد");
+        }
+    }
+
+    public static void requireApdu(String apdu) {
+        if (isEmpty(apdu)) {
+            throw new IllegalArgumentException("کد APDU نباید خالی باشد");
+        }
+    }
+
+    // Installment date is yyyy-MM-dd (Jalali).
+    public static void requireInstallments(String amount, String installmentDate) {
+        if (isEmpty(amount) || isEmpty(installmentDate) || installmentDate.length() != 10) {
+            throw new IllegalArgumentException("اطلاعات نادرست");
+        }
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+}
@@ -0,0 +1,141 @@
+package com.sanjabpos.core;
+
+import java.util.Arrays;
+
+// Turns an image into printer dots one source row at a time: rows are box-filtered
+// down to the printer's dot width, composited on white, and Floyd-Steinberg dithered
+// to black and white. Only a few rows of working state are held, so an image never
+// has to be decoded whole; the caller decodes it in bands and pushes the rows in
+// order. Images narrower than the paper are not enlarged.
+public final class PrintRaster {
+    public static final int BLACK = 0xFF000000;
+    public static final int WHITE = 0xFFFFFFFF;
+    // Gray level at or below which a pixel prints, before error diffusion.
+    private static final int THRESHOLD = 128;
+
+    public interface Sink {
+        // pixels holds width() BLACK or WHITE values; it is reused for the next row.
+        void row(int y, int[] pixels);
+    }
+
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int width;
+    private final int height;
+    private final Sink sink;
+
+    // Destination column of each source column.
+    private final int[] column;
+    // Source columns averaged into each destination column.
+    private final int[] columnWeight;
+    private final int[] sums;
+    private final int[] out;
+    // Diffused error for the current and next destination row, with a guard column each side.
+    private int[] error;
+    private int[] nextError;
+
+    private int sourceRow;
+    private int rowsInSum;
+    private int destinationRow;
+
+    public PrintRaster(int sourceWidth, int sourceHeight, int dotWidth, Sink sink) {
+        if (sourceWidth <= 0 || sourceHeight <= 0 || dotWidth <= 0) {
+            throw new IllegalArgumentException("ابعاد تصویر نادرست است");
+        }
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.width = Math.min(sourceWidth, dotWidth);
+        this.height = Math.max(1, (int) ((long) sourceHeight * width / sourceWidth));
+        this.sink = sink;
+        column = new int[sourceWidth];
+        columnWeight = new int[width];
+        for (int x = 0; x < sourceWidth; x++) {
+            column[x] = (int) ((long) x * width / sourceWidth);
+            columnWeight[column[x]]++;
+        }
+        sums = new int[width];
+        out = new int[width];
+        error = new int[width + 2];
+        nextError = new int[width + 2];
+    }
+
+    // Largest power-of-two decoder subsampling that still leaves the image at least
+    // dotWidth wide, so the decoder does most of the shrinking and the box filter the rest.
+    public static int sampleSize(int sourceWidth, int dotWidth) {
+        int sample = 1;
+        while (sourceWidth / (sample * 2) >= dotWidth) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    // Bytes of working state, which is all the memory a conversion needs besides the
+    // caller's band buffer.
+    public long footprintBytes() {
+        return 4L * (column.length + columnWeight.length + sums.length + out.length + error.length + nextError.length);
+    }
+
+    // One source row of ARGB pixels starting at offset.
+    public void push(int[] argb, int offset) {
+        if (sourceRow >= sourceHeight) {
+            throw new IllegalStateException("همه سطرهای تصویر قبلا دریافت شده است");
+        }
+        for (int x = 0; x < sourceWidth; x++) {
+            sums[column[x]] += gray(argb[offset + x]);
+        }
+        rowsInSum++;
+        sourceRow++;
+        // Fewer destination rows than source rows, so each push completes at most one.
+        if ((long) sourceRow * height / sourceHeight > destinationRow) {
+            emit();
+        }
+    }
+
+    // A band of rows laid out with the given stride, e.g. from Bitmap.getPixels.
+    public void push(int[] argb, int offset, int stride, int rows) {
+        for (int r = 0; r < rows; r++) {
+            push(argb, offset + r * stride);
+        }
+    }
+
+    public boolean done() {
+        return sourceRow >= sourceHeight;
+    }
+
+    private void emit() {
+        int[] err = error;
+        int[] next = nextError;
+        for (int x = 0; x < width; x++) {
+            int value = sums[x] / (columnWeight[x] * rowsInSum) + (err[x + 1] >> 4);
+            sums[x] = 0;
+            int quantized = value > THRESHOLD ? 255 : 0;
+            out[x] = quantized == 0 ? BLACK : WHITE;
+            int e = value - quantized;
+            // 7/16 right, 3/16 down-left, 5/16 down, 1/16 down-right, kept in sixteenths.
+            err[x + 2] += e * 7;
+            next[x] += e * 3;
+            next[x + 1] += e * 5;
+            next[x + 2] += e;
+        }
+        error = next;
+        nextError = err;
+        Arrays.fill(err, 0);
+        rowsInSum = 0;
+        sink.row(destinationRow++, out);
+    }
+
+    // Luma in 0..255 with transparency composited over white paper.
+    static int gray(int argb) {
+        int luma = (((argb >> 16) & 0xFF) * 77 + ((argb >> 8) & 0xFF) * 150 + (argb & 0xFF) * 29) >> 8;
+        int alpha = argb >>> 24;
+        return alpha == 255 ? luma : (luma * alpha + 255 * (255 - alpha)) / 255;
+    }
+}
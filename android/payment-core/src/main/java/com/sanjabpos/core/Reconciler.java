@@ -0,0 +1,274 @@
+package com.sanjabpos.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Settles journaled card sales whose PSP result never arrived (a null intent, or the
+// app killed while the PSP activity was in front) by searching the PSP for them.
+// Searches run one at a time with a minimum gap, and a run stops after a fixed
+// number of searches or a deadline, whichever comes first. Progress lives on each
+// Sale (attempts, last attempt), which the caller persists through the Listener, so
+// the next run picks up where this one stopped.
+public final class Reconciler {
+    public enum Verdict {
+        // The PSP has the transaction and it went through / was declined.
+        APPROVED, DECLINED,
+        // The PSP said in so many words that it has no such transaction. Only when
+        // every search for a sale says so does it settle as DECLINED.
+        NOT_FOUND,
+        // No usable answer (no result, timeout, a failed or abandoned search); says
+        // nothing about the sale, which is flagged for a person once its attempts run out.
+        ERROR,
+        // The search could not be sent (no activity, another request in flight). The
+        // run stops there without counting it against the sale.
+        UNAVAILABLE
+    }
+
+    public static final class Sale {
+        public final long journalId;
+        public final long createdAt;
+        // Rials, or -1 if the journal does not know it.
+        public final long amount;
+        public final String paymentId;
+        public final String stan;
+        public final String rrn;
+        public int attempts;
+        public int notFound;
+        public long lastAttemptAt;
+
+        public Sale(long journalId, long createdAt, long amount, String paymentId, String stan, String rrn) {
+            this.journalId = journalId;
+            this.createdAt = createdAt;
+            this.amount = amount;
+            this.paymentId = paymentId;
+            this.stan = stan;
+            this.rrn = rrn;
+        }
+    }
+
+    // What a search returned. Identifiers the PSP left out are null, amount -1.
+    public static final class Found {
+        public final Verdict verdict;
+        public final long amount;
+        public final String paymentId;
+        public final String stan;
+        public final String rrn;
+        public final Object details;
+
+        public Found(Verdict verdict, long amount, String paymentId, String stan, String rrn, Object details) {
+            this.verdict = verdict;
+            this.amount = amount;
+            this.paymentId = paymentId;
+            this.stan = stan;
+            this.rrn = rrn;
+            this.details = details;
+        }
+
+        public static Found error(Object details) {
+            return new Found(Verdict.ERROR, -1, null, null, null, details);
+        }
+
+        public static Found unavailable(Object details) {
+            return new Found(Verdict.UNAVAILABLE, -1, null, null, null, details);
+        }
+    }
+
+    public interface Psp {
+        // Blocks until the PSP answers. createdAt is the sale's time, for searches by date.
+        Found search(SearchKey key, String value, long createdAt) throws InterruptedException;
+    }
+
+    public interface Listener {
+        // verdict is APPROVED or DECLINED; a sale the PSP never saw settles as DECLINED.
+        void settled(Sale sale, Verdict verdict, Found found);
+
+        // The sale's attempt counters changed and should be saved.
+        void attempted(Sale sale);
+
+        // Needs a person: no identifier to search by, mismatching answers or too many errors.
+        void flagged(Sale sale, String reason);
+    }
+
+    public static final class Limits {
+        public int maxSearches = 20;
+        public long maxDurationMs = 5 * 60 * 1000;
+        public long minIntervalMs = 3000;
+        public int maxAttempts = 3;
+        // A sale this young may still have its PSP activity open.
+        public long minAgeMs = 5 * 60 * 1000;
+        // Doubled after every attempt.
+        public long retryBackoffMs = 10 * 60 * 1000;
+    }
+
+    public static final class Report {
+        public int candidates;
+        public int searches;
+        public int approved;
+        public int declined;
+        public int flagged;
+        public int retryLater;
+        // Stopped by maxSearches or maxDurationMs with candidates left.
+        public boolean truncated;
+        public long elapsedMs;
+    }
+
+    public static final String FLAG_NO_IDENTIFIER = "NO_IDENTIFIER";
+    public static final String FLAG_MISMATCH = "MISMATCH";
+    public static final String FLAG_UNANSWERED = "UNANSWERED";
+
+    private final Psp psp;
+    private final Listener listener;
+    private final Limits limits;
+
+    public Reconciler(Psp psp, Listener listener, Limits limits) {
+        this.psp = psp;
+        this.listener = listener;
+        this.limits = limits;
+    }
+
+    // The sales a run at nowMs would search, fewest attempts first so a sale that
+    // keeps failing does not hold back the rest, then oldest first.
+    public List<Sale> due(List<Sale> sales, long nowMs) {
+        List<Sale> due = new ArrayList<>();
+        for (Sale sale : sales) {
+            if (nowMs - sale.createdAt < limits.minAgeMs || sale.attempts >= limits.maxAttempts) {
+                continue;
+            }
+            if (sale.attempts > 0 && nowMs - sale.lastAttemptAt < backoff(sale.attempts)) {
+                continue;
+            }
+            due.add(sale);
+        }
+        Collections.sort(due, (a, b) -> a.attempts != b.attempts
+                ? Integer.compare(a.attempts, b.attempts)
+                : Long.compare(a.journalId, b.journalId));
+        return due;
+    }
+
+    public Report run(List<Sale> sales, long nowMs) throws InterruptedException {
+        long start = System.nanoTime();
+        long maxDuration = limits.maxDurationMs * 1_000_000L;
+        long minInterval = limits.minIntervalMs * 1_000_000L;
+        long lastSearch = Long.MIN_VALUE;
+        Report report = new Report();
+
+        List<Sale> due = due(sales, nowMs);
+        report.candidates = due.size();
+        for (Sale sale : due) {
+            if (report.searches >= limits.maxSearches || System.nanoTime() - start >= maxDuration) {
+                report.truncated = true;
+                break;
+            }
+            SearchKey key = searchKey(sale);
+            if (key == null) {
+                listener.flagged(sale, FLAG_NO_IDENTIFIER);
+                report.flagged++;
+                continue;
+            }
+            if (lastSearch != Long.MIN_VALUE) {
+                long wait = lastSearch + minInterval - System.nanoTime();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1_000_000L, (int) (wait % 1_000_000L));
+                }
+            }
+            lastSearch = System.nanoTime();
+            Found found = psp.search(key, searchValue(sale, key), sale.createdAt);
+            if (found != null && found.verdict == Verdict.UNAVAILABLE) {
+                report.truncated = true;
+                break;
+            }
+            report.searches++;
+            apply(sale, found, nowMs + (System.nanoTime() - start) / 1_000_000L, report);
+        }
+        report.elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+        return report;
+    }
+
+    private void apply(Sale sale, Found found, long nowMs, Report report) {
+        Verdict verdict = found == null ? Verdict.ERROR : found.verdict;
+        if ((verdict == Verdict.APPROVED || verdict == Verdict.DECLINED) && matches(sale, found)) {
+            listener.settled(sale, verdict, found);
+            if (verdict == Verdict.APPROVED) {
+                report.approved++;
+            } else {
+                report.declined++;
+            }
+            return;
+        }
+        sale.attempts++;
+        sale.lastAttemptAt = nowMs;
+        if (verdict == Verdict.NOT_FOUND) {
+            sale.notFound++;
+        }
+        listener.attempted(sale);
+        if (sale.attempts < limits.maxAttempts) {
+            report.retryLater++;
+        } else if (sale.notFound == sale.attempts) {
+            // Every search came back empty: the PSP never charged the card
+            listener.settled(sale, Verdict.DECLINED, found);
+            report.declined++;
+        } else {
+            boolean answered = verdict == Verdict.APPROVED || verdict == Verdict.DECLINED;
+            listener.flagged(sale, answered ? FLAG_MISMATCH : FLAG_UNANSWERED);
+            report.flagged++;
+        }
+    }
+
+    // Every identifier both sides know must agree, at least one of them must be
+    // there, and so must the amount when both know it.
+    public static boolean matches(Sale sale, Found found) {
+        int agreed = 0;
+        String[][] pairs = {
+                {sale.paymentId, found.paymentId},
+                {sale.stan, found.stan},
+                {sale.rrn, found.rrn},
+        };
+        for (String[] pair : pairs) {
+            if (isEmpty(pair[0]) || isEmpty(pair[1])) {
+                continue;
+            }
+            if (!pair[0].trim().equals(pair[1].trim())) {
+                return false;
+            }
+            agreed++;
+        }
+        if (sale.amount >= 0 && found.amount >= 0 && sale.amount != found.amount) {
+            return false;
+        }
+        return agreed > 0;
+    }
+
+    // RRN and STAN name a single transaction; a payment id needs the date as well.
+    static SearchKey searchKey(Sale sale) {
+        if (!isEmpty(sale.rrn)) {
+            return SearchKey.RRN;
+        }
+        if (!isEmpty(sale.stan)) {
+            return SearchKey.STAN;
+        }
+        if (!isEmpty(sale.paymentId)) {
+            return SearchKey.PAYMENT_ID;
+        }
+        return null;
+    }
+
+    private static String searchValue(Sale sale, SearchKey key) {
+        switch (key) {
+            case RRN:
+                return sale.rrn;
+            case STAN:
+                return sale.stan;
+            default:
+                return sale.paymentId;
+        }
+    }
+
+    private long backoff(int attempts) {
+        return limits.retryBackoffMs << Math.min(attempts - 1, 10);
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+}
@@ -0,0 +1,202 @@
+package com.sanjabpos.core;
+
+import java.util.HashMap;
+
+// Table-driven decoder for PSP result intents. Each request code maps to a schema
+// built once per provider; decoding walks the result extras a single time and looks
+// every extra up in that schema, instead of probing hasExtra/getStringExtra for each
+// field the request type might carry.
+public final class ResultDecoder {
+    public enum Type { STRING, INT, AMOUNT, DATE_TIME }
+
+    // The result extras as the PSP returned them (a Bundle on the device).
+    public interface Source {
+        Iterable<String> keys();
+
+        Object get(String key);
+    }
+
+    // Where decoded fields go (the WritableMap sent to JS on the device).
+    public interface Sink {
+        void putString(String key, String value);
+
+        void putInt(String key, int value);
+
+        void putDouble(String key, double value);
+
+        void putNull(String key);
+
+        // The first count names and values as a nested map under key.
+        void putInts(String key, String[] names, int[] values, int count);
+    }
+
+    private static final class Field {
+        final String key;
+        final Type type;
+
+        Field(String key, Type type) {
+            this.key = key;
+            this.type = type;
+        }
+    }
+
+    public static final class Schema {
+        private final HashMap<String, Field> fields = new HashMap<>();
+
+        public Schema string(String extra) {
+            return field(extra, extra, Type.STRING);
+        }
+
+        // Extras some PSPs misspell or reuse are renamed on the way out.
+        public Schema string(String extra, String key) {
+            return field(extra, key, Type.STRING);
+        }
+
+        public Schema integer(String extra) {
+            return field(extra, extra, Type.INT);
+        }
+
+        // Kept as the original string and also as "<key>Value", a number of rials.
+        public Schema amount(String extra) {
+            return field(extra, extra, Type.AMOUNT);
+        }
+
+        // Kept as the original string and also as "<key>Parts", its numeric components.
+        public Schema dateTime(String extra) {
+            return field(extra, extra, Type.DATE_TIME);
+        }
+
+        public Schema extend() {
+            Schema copy = new Schema();
+            copy.fields.putAll(fields);
+            return copy;
+        }
+
+        private Schema field(String extra, String key, Type type) {
+            fields.put(extra, new Field(key, type));
+            return this;
+        }
+    }
+
+    private static final String[] DATE_PARTS = {"year", "month", "day", "hour", "minute", "second"};
+
+    private final HashMap<Integer, Schema> schemas = new HashMap<>();
+
+    public ResultDecoder register(Schema schema, int... requestCodes) {
+        for (int requestCode : requestCodes) {
+            schemas.put(requestCode, schema);
+        }
+        return this;
+    }
+
+    public void decode(int requestCode, Source extras, Sink result) {
+        Schema schema = schemas.get(requestCode);
+        if (schema == null || extras == null) {
+            return;
+        }
+        for (String extra : extras.keys()) {
+            Field field = schema.fields.get(extra);
+            if (field != null) {
+                write(field, extras.get(extra), result);
+            }
+        }
+    }
+
+    private static void write(Field field, Object value, Sink result) {
+        if (value == null) {
+            result.putNull(field.key);
+            return;
+        }
+        switch (field.type) {
+            case INT:
+                if (value instanceof Number) {
+                    result.putInt(field.key, ((Number) value).intValue());
+                } else {
+                    long parsed = parseDigits(value.toString());
+                    if (parsed >= 0) {
+                        result.putInt(field.key, (int) parsed);
+                    }
+                }
+                break;
+            case AMOUNT: {
+                String text = value.toString();
+                result.putString(field.key, text);
+                long rials = value instanceof Number ? ((Number) value).longValue() : parseDigits(text);
+                if (rials >= 0) {
+                    result.putDouble(field.key + "Value", rials);
+                }
+                break;
+            }
+            case DATE_TIME: {
+                String text = value.toString();
+                result.putString(field.key, text);
+                int[] parts = new int[DATE_PARTS.length];
+                int count = parseDateTime(text, parts);
+                if (count > 0) {
+                    result.putInts(field.key + "Parts", DATE_PARTS, parts, count);
+                }
+                break;
+            }
+            default:
+                result.putString(field.key, value.toString());
+                break;
+        }
+    }
+
+    // Digits only, ignoring grouping separators; -1 if there are none.
+    static long parseDigits(String text) {
+        long value = 0;
+        boolean any = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                any = true;
+            } else if (c == '.') {
+                break;
+            }
+        }
+        return any ? value : -1;
+    }
+
+    // PSPs send either separated values ("1402/05/12 14:33:21") or a packed
+    // yyyyMMddHHmmss string. The calendar is left as sent (IKC uses Jalali dates).
+    // Fills year, month, day, hour, minute, second in order and returns how many
+    // were found, or 0 if the text is not a date.
+    public static int parseDateTime(String text, int[] values) {
+        int count = 0;
+        int current = 0;
+        int digits = 0;
+        for (int i = 0; i <= text.length() && count < values.length; i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (c >= '0' && c <= '9') {
+                current = current * 10 + (c - '0');
+                digits++;
+            } else if (digits > 0) {
+                values[count++] = current;
+                current = 0;
+                digits = 0;
+            }
+        }
+        if (count == 1 && text.trim().length() >= 12) {
+            return parsePacked(text.trim(), values);
+        }
+        return count < 3 ? 0 : count;
+    }
+
+    private static int parsePacked(String text, int[] values) {
+        int[] widths = {4, 2, 2, 2, 2, 2};
+        int offset = 0;
+        int count = 0;
+        try {
+            for (int i = 0; i < widths.length && i < values.length && offset + widths[i] <= text.length(); i++) {
+                values[i] = Integer.parseInt(text.substring(offset, offset + widths[i]));
+                offset += widths[i];
+                count++;
+            }
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,106 @@
+package com.sanjabpos.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+// Wire format and retry rules of the sale upload. A batch is
+// {"items":[{"idempotencyKey":...,"transaction":<sale>}]} with each sale's JSON
+// embedded as it was queued, gzip-compressed. Only the server's verdict on one
+// sale can drop it from the queue: an HTTP status that applies to the whole
+// request (auth, routing, throttling, outages) never does.
+public final class SaleBatch {
+    public enum Outcome {
+        ACCEPTED,
+        // The server looked at the sale and refused it; retrying cannot help.
+        REJECTED,
+        // Keep the sale queued and try again later.
+        RETRY
+    }
+
+    private SaleBatch() {
+    }
+
+    // For a status or result Code the server gave about one sale.
+    public static Outcome classify(int code) {
+        if (code >= 200 && code < 300) {
+            return Outcome.ACCEPTED;
+        }
+        if (code < 400 || code >= 500) {
+            return Outcome.RETRY;
+        }
+        switch (code) {
+            case 401: // token expired; JS configures a new one after login
+            case 403:
+            case 404:
+            case 408:
+            case 409: // the same key is still being processed
+            case 425:
+            case 429:
+                return Outcome.RETRY;
+            default:
+                return Outcome.REJECTED;
+        }
+    }
+
+    // Exponential, from baseMs for the first retry, capped at maxMs.
+    public static long backoffMs(int attempt, long baseMs, long maxMs) {
+        if (attempt <= 1) {
+            return Math.min(baseMs, maxMs);
+        }
+        int shift = Math.min(attempt - 1, 30);
+        long delay = baseMs << shift;
+        return delay <= 0 || delay > maxMs ? maxMs : delay;
+    }
+
+    // The uncompressed request body. Payloads must already be JSON objects.
+    public static String body(List<String> keys, List<String> payloads) {
+        if (keys.size() != payloads.size()) {
+            throw new IllegalArgumentException("keys and payloads differ in size");
+        }
+        int size = 16;
+        for (String payload : payloads) {
+            size += payload.length() + 64;
+        }
+        StringBuilder out = new StringBuilder(size);
+        out.append("{\"items\":[");
+        for (int i = 0; i < keys.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append("{\"idempotencyKey\":");
+            quote(out, keys.get(i));
+            out.append(",\"transaction\":").append(payloads.get(i)).append('}');
+        }
+        return out.append("]}").toString();
+    }
+
+    public static byte[] gzip(byte[] raw) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(raw);
+        }
+        return compressed.toByteArray();
+    }
+
+    public static byte[] encode(List<String> keys, List<String> payloads) throws IOException {
+        return gzip(body(keys, payloads).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void quote(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
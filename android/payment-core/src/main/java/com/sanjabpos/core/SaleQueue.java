@@ -0,0 +1,342 @@
+package com.sanjabpos.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+// Persistent queue of sales waiting for the backend. Sales are written to disk
+// before they are sent, survive restarts and offline periods, and leave the queue
+// only once the server acknowledged their idempotency key. While online the queue
+// drains with a bounded number of sales in flight so a long backlog does not
+// flood a weak link. Sales the server could not be reached for stay queued, and
+// the owner is told so it can retry them with backoff (BackgroundSync's "sales" job).
+//
+// On disk the queue is a log framed like JournalLog's: an add record, fsynced
+// before add returns, and a done record when a sale leaves, which is not synced
+// (a sale replayed after a crash goes up again under the same key). Opening the
+// log replays it; it is rewritten with only the queued sales once done records
+// outnumber them, so each add or removal costs one append, not a rewrite.
+public final class SaleQueue implements Closeable {
+    private static final int FILE_MAGIC = 0x53514c31; // "SQL1"
+    private static final byte ADD = 'Q';
+    private static final byte DONE = 'D';
+    private static final int MAX_IN_FLIGHT = 40;
+    private static final int MAX_RECORD = 4 * 1024 * 1024;
+    // Compaction waits for this many records beyond twice the queued sales.
+    private static final int COMPACT_SLACK = 256;
+
+    public interface Sender {
+        void send(String idempotencyKey, String payload);
+    }
+
+    private final File file;
+    private final Sender sender;
+    private final Runnable onBacklog;
+    // Queued sales by idempotency key, oldest first. Guarded by this.
+    private final LinkedHashMap<String, String> items = new LinkedHashMap<>();
+    private final Set<String> inFlight = new HashSet<>();
+    private RandomAccessFile out;
+    private int records;
+    private int failures;
+    // Starts offline until the owner reports connectivity.
+    private boolean online;
+    private final boolean truncated;
+
+    public SaleQueue(File file, Sender sender, Runnable onBacklog) throws IOException {
+        this.file = file;
+        this.sender = sender;
+        this.onBacklog = onBacklog;
+        long length = replay();
+        truncated = length < file.length();
+        if (truncated || records > 2 * items.size() + COMPACT_SLACK) {
+            try {
+                compact();
+                return;
+            } catch (IOException e) {
+                // Appending to the old log loses nothing once a torn tail is cut off.
+            }
+        }
+        openForAppend(length);
+    }
+
+    // Returns false if a sale with the same key is already queued. Throws if the
+    // sale could not be written; it is not queued then.
+    public synchronized boolean add(String idempotencyKey, String payload) throws IOException {
+        if (items.containsKey(idempotencyKey)) {
+            return false;
+        }
+        append(ADD, idempotencyKey, payload);
+        // Synced before returning: the caller may treat a queued sale as settled.
+        out.getFD().sync();
+        items.put(idempotencyKey, payload);
+        drain();
+        return true;
+    }
+
+    public synchronized void setOnline(boolean online) {
+        this.online = online;
+        if (online) {
+            drain();
+        }
+    }
+
+    public synchronized boolean isOnline() {
+        return online;
+    }
+
+    public synchronized int size() {
+        return items.size();
+    }
+
+    // True if the log ended in a torn write when it was opened.
+    public boolean wasTruncated() {
+        return truncated;
+    }
+
+    // Waits until no sale is in flight; false if some still are after the timeout.
+    public synchronized boolean awaitSettled(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        long left;
+        while (!inFlight.isEmpty() && (left = deadline - System.currentTimeMillis()) > 0) {
+            wait(left);
+        }
+        return inFlight.isEmpty();
+    }
+
+    // Returns the accepted sale's payload, or null if it was no longer queued.
+    public synchronized String onAccepted(String idempotencyKey) {
+        inFlight.remove(idempotencyKey);
+        String payload = remove(idempotencyKey);
+        drain();
+        settled();
+        return payload;
+    }
+
+    // A permanent rejection (the server refused the sale) drops it; a transient one
+    // keeps it queued for the owner to retry.
+    public synchronized void onRejected(String idempotencyKey, boolean permanent) {
+        inFlight.remove(idempotencyKey);
+        if (permanent) {
+            remove(idempotencyKey);
+            drain();
+        } else {
+            onBacklog.run();
+        }
+        settled();
+    }
+
+    // Bytes on disk, for tests and stats.
+    public synchronized long fileLength() {
+        return file.length();
+    }
+
+    // Removals whose done record or compaction could not be written.
+    public synchronized int writeFailures() {
+        return failures;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    // A done record that cannot be written only means the sale goes up again, under
+    // the same key, after a restart; so does a compaction that failed, which the
+    // next removal tries again.
+    private String remove(String idempotencyKey) {
+        String payload = items.remove(idempotencyKey);
+        if (payload == null) {
+            return null;
+        }
+        try {
+            append(DONE, idempotencyKey, null);
+            if (records > 2 * items.size() + COMPACT_SLACK) {
+                compact();
+            }
+        } catch (IOException e) {
+            failures++;
+        }
+        return payload;
+    }
+
+    private void settled() {
+        if (inFlight.isEmpty()) {
+            notifyAll();
+        }
+    }
+
+    private void drain() {
+        if (!online) {
+            return;
+        }
+        for (Map.Entry<String, String> entry : items.entrySet()) {
+            if (inFlight.size() >= MAX_IN_FLIGHT) {
+                return;
+            }
+            if (inFlight.add(entry.getKey())) {
+                sender.send(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void append(byte type, String key, String payload) throws IOException {
+        if (out == null) {
+            throw new IOException("sale queue is closed");
+        }
+        out.write(record(type, key, payload));
+        records++;
+    }
+
+    // Length, CRC32 of the rest, type, then key and payload as length-prefixed UTF-8.
+    private static byte[] record(byte type, String key, String payload) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(64 + (payload == null ? 0 : payload.length() * 2));
+        DataOutputStream data = new DataOutputStream(body);
+        data.writeByte(type);
+        writeString(data, key);
+        if (payload != null) {
+            writeString(data, payload);
+        }
+        byte[] bytes = body.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        ByteArrayOutputStream framed = new ByteArrayOutputStream(bytes.length + 8);
+        DataOutputStream frame = new DataOutputStream(framed);
+        frame.writeInt(bytes.length);
+        frame.writeInt((int) crc.getValue());
+        frame.write(bytes);
+        return framed.toByteArray();
+    }
+
+    // A sale can be longer than writeUTF's 64 KB.
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_RECORD) {
+            throw new IOException("bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Fills items from the log and returns the offset after the last intact record.
+    // A torn or corrupt record ends the log; a file that is not a queue is set aside.
+    private long replay() throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            return 0;
+        }
+        long offset = 4;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            int magic;
+            try {
+                magic = in.readInt();
+            } catch (EOFException e) {
+                return 0;
+            }
+            if (magic != FILE_MAGIC) {
+                File aside = new File(file.getPath() + ".unreadable-" + System.currentTimeMillis());
+                if (!file.renameTo(aside)) {
+                    throw new IOException("unreadable sale queue could not be moved aside: " + file);
+                }
+                return 0;
+            }
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] body;
+                int checksum;
+                try {
+                    int length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < 1 || length > MAX_RECORD) {
+                        break;
+                    }
+                    body = new byte[length];
+                    in.readFully(body);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(body, 0, body.length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+                byte type = record.readByte();
+                String key = readString(record);
+                if (type == ADD) {
+                    items.put(key, readString(record));
+                } else if (type == DONE) {
+                    items.remove(key);
+                }
+                records++;
+                offset += 8 + body.length;
+            }
+        }
+        return offset;
+    }
+
+    private void openForAppend(long length) throws IOException {
+        out = new RandomAccessFile(file, "rw");
+        if (length < 4) {
+            out.setLength(0);
+            out.writeInt(FILE_MAGIC);
+            out.getFD().sync();
+        } else {
+            out.setLength(length);
+            out.seek(length);
+        }
+    }
+
+    // Rewrites the log with only the queued sales, through a synced temp file, so a
+    // crash mid-way leaves the old log in place.
+    private void compact() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp, false);
+             BufferedOutputStream buffered = new BufferedOutputStream(fos, 64 * 1024)) {
+            DataOutputStream data = new DataOutputStream(buffered);
+            data.writeInt(FILE_MAGIC);
+            for (Map.Entry<String, String> entry : items.entrySet()) {
+                data.write(record(ADD, entry.getKey(), entry.getValue()));
+            }
+            data.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("failed to replace sale queue after compaction: " + file);
+        }
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        records = items.size();
+        openForAppend(file.length());
+    }
+}
@@ -0,0 +1,4 @@
+package com.sanjabpos.core;
+
+// What a transaction search looks up by.
+public enum SearchKey { STAN, RRN, PAYMENT_ID }
@@ -0,0 +1,117 @@
+package com.sanjabpos.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// A card for ApduScript without a terminal: answers commands from a table of
+// prefixes, after a fixed latency standing in for the PSP's ICC round trip. A
+// response marked chained comes back as 61XX first and its data on GET RESPONSE,
+// the way T=0 cards return long records. loyalty() is the card the loyalty flow
+// talks to.
+public final class SimulatedCard implements ApduScript.Card {
+    private static final class Rule {
+        final String prefix;
+        final String response;
+        final boolean chained;
+
+        Rule(String prefix, String response, boolean chained) {
+            this.prefix = prefix;
+            this.response = response;
+            this.chained = chained;
+        }
+    }
+
+    private final List<Rule> rules = new ArrayList<>();
+    private final long latencyMs;
+    private String pending;
+    private int transmits;
+    // Failing every n-th command with no response; 0 never fails.
+    private int failEvery;
+
+    public SimulatedCard(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    // The first rule whose prefix the command starts with answers it; unknown
+    // commands get 6D00.
+    public SimulatedCard respond(String prefix, String response) {
+        rules.add(new Rule(ApduScript.hex(prefix), ApduScript.hex(response), false));
+        return this;
+    }
+
+    public SimulatedCard respondChained(String prefix, String data) {
+        rules.add(new Rule(ApduScript.hex(prefix), ApduScript.hex(data), true));
+        return this;
+    }
+
+    public SimulatedCard failEvery(int n) {
+        this.failEvery = n;
+        return this;
+    }
+
+    public int transmits() {
+        return transmits;
+    }
+
+    // SELECT of the loyalty applet with its FCI chained, two customer records (a third
+    // is missing), VERIFY accepting PIN 1234 and GET BALANCE.
+    public static SimulatedCard loyalty(long latencyMs) {
+        return new SimulatedCard(latencyMs)
+                .respondChained("00A4040006F0534E4A4142", "6F188406F0534E4A4142A50E500C53414E4A41422D4C4F59414C")
+                .respond("00B2010C", "70135A0862738711234567895F200653414E4A41429000")
+                .respond("00B2020C", "700E9F5004000012C4DF0104000003E89000")
+                .respond("00B2", "6A83")
+                .respond("002000800824" + "1234FFFFFFFFFF", "9000")
+                .respond("00200080", "63C2")
+                .respond("805C000204", "0001E2409000");
+    }
+
+    // The script the loyalty flow runs on it.
+    public static List<ApduScript.Step> loyaltyScript(String pin) {
+        List<ApduScript.Step> steps = new ArrayList<>();
+        steps.add(new ApduScript.Step(null, "00A4040006F0534E4A414200", null, null, null));
+        steps.add(new ApduScript.Step(null, "00B2010C00", null, null, null));
+        steps.add(new ApduScript.Step(null, "00B2020C00", null, null, "verify"));
+        steps.add(new ApduScript.Step(null, "00B2030C00", null, null, "verify"));
+        steps.add(new ApduScript.Step("verify", "0020008008" + pinBlock(pin), null, null, null));
+        steps.add(new ApduScript.Step(null, "805C000204", null, null, null));
+        return steps;
+    }
+
+    @Override
+    public String transmit(String command) throws IOException, InterruptedException {
+        if (latencyMs > 0) {
+            Thread.sleep(latencyMs);
+        }
+        transmits++;
+        if (failEvery > 0 && transmits % failEvery == 0) {
+            throw new IOException("خطا در برقراری ارتباط با کارت");
+        }
+        if (command.startsWith("00C00000") && pending != null) {
+            String data = pending;
+            pending = null;
+            return data + "9000";
+        }
+        pending = null;
+        for (Rule rule : rules) {
+            if (command.startsWith(rule.prefix)) {
+                if (rule.chained) {
+                    pending = rule.response;
+                    return String.format("61%02X", rule.response.length() / 2);
+                }
+                return rule.response;
+            }
+        }
+        return "6D00";
+    }
+
+    // ISO 9564 format 2 plaintext PIN block.
+    private static String pinBlock(String pin) {
+        StringBuilder block = new StringBuilder("2").append(Integer.toHexString(pin.length()).toUpperCase()).append(pin);
+        while (block.length() < 16) {
+            block.append('F');
+        }
+        return block.toString();
+    }
+}
@@ -0,0 +1,263 @@
+package com.sanjabpos.core;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Decides which background jobs (sale uploads, catalog and customer refreshes) run
+// when. A job is known by its key and is queued at most once: requesting a job
+// that is already waiting folds into it, and a request made while the job runs
+// queues one more run after it, so any burst of requests leaves at most one
+// waiting and one running run per key. A job waits for its constraints, is retried
+// with exponential backoff while it fails (requests do not cut the backoff short),
+// and a periodic one is due again a period after each run. Nothing here runs a job
+// or reads a clock; the app's BackgroundSync keeps its books here while WorkManager
+// runs the jobs, and times are passed in.
+public final class SyncScheduler {
+    // Constraint flags.
+    public static final int NETWORK = 1;
+    public static final int BATTERY_NOT_LOW = 2;
+
+    public enum Result {
+        SUCCESS,
+        // Failed for now; runs again after the backoff.
+        RETRY,
+        // Failed for good; only a new request or the next period runs it again.
+        FAILURE
+    }
+
+    private static final class Job {
+        final String key;
+        int constraints;
+        long periodMs;
+        boolean queued;
+        boolean running;
+        // Requested while running.
+        boolean again;
+        long dueAt;
+        // When the run now owed was first wanted; latency runs from here to success.
+        long wantedAt;
+        long againWantedAt;
+        int failures;
+        long requests;
+        long coalesced;
+        long runs;
+        long successes;
+        long retries;
+        long failed;
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        Job(String key) {
+            this.key = key;
+        }
+    }
+
+    private final long baseBackoffMs;
+    private final long maxBackoffMs;
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+    private boolean online = true;
+    private boolean batteryLow;
+    private int maxQueued;
+
+    public SyncScheduler(long baseBackoffMs, long maxBackoffMs) {
+        if (baseBackoffMs <= 0 || maxBackoffMs < baseBackoffMs) {
+            throw new IllegalArgumentException("زمان‌بندی تلاش دوباره نادرست است");
+        }
+        this.baseBackoffMs = baseBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    // Adds the job or changes its constraints and period (0 for a one-off job). A
+    // periodic job is due right away the first time it is defined.
+    public synchronized void define(String key, int constraints, long periodMs, long now) {
+        if (key == null || key.isEmpty() || periodMs < 0) {
+            throw new IllegalArgumentException("کار پس‌زمینه نادرست است");
+        }
+        Job job = jobs.get(key);
+        boolean added = job == null;
+        if (added) {
+            job = new Job(key);
+            jobs.put(key, job);
+        }
+        job.constraints = constraints;
+        job.periodMs = periodMs;
+        if (added && periodMs > 0) {
+            queue(job, now, now);
+        }
+    }
+
+    // Drops the job; a run in progress finishes but is not repeated.
+    public synchronized void remove(String key) {
+        jobs.remove(key);
+    }
+
+    // Returns true if this queued a new run, false if it folded into one already owed.
+    public synchronized boolean request(String key, long now) {
+        Job job = jobs.get(key);
+        if (job == null) {
+            throw new IllegalArgumentException("کار پس‌زمینه ناشناخته: " + key);
+        }
+        job.requests++;
+        if (job.running) {
+            if (job.again) {
+                job.coalesced++;
+                return false;
+            }
+            job.again = true;
+            job.againWantedAt = now;
+            updateMaxQueued();
+            return true;
+        }
+        if (job.queued) {
+            job.coalesced++;
+            // A periodic run not yet due is brought forward; a backoff is kept.
+            if (job.failures == 0 && job.dueAt > now) {
+                job.dueAt = now;
+                job.wantedAt = now;
+            }
+            return false;
+        }
+        queue(job, now, now);
+        return true;
+    }
+
+    public synchronized void setConditions(boolean online, boolean batteryLow) {
+        this.online = online;
+        this.batteryLow = batteryLow;
+    }
+
+    // The job to run now, marked running, or null. The one due longest runs first.
+    public synchronized String next(long now) {
+        Job next = null;
+        for (Job job : jobs.values()) {
+            if (job.queued && !job.running && job.dueAt <= now && allowed(job)
+                    && (next == null || job.dueAt < next.dueAt)) {
+                next = job;
+            }
+        }
+        if (next == null) {
+            return null;
+        }
+        begin(next);
+        return next.key;
+    }
+
+    // Marks the job running when something else timed the run (WorkManager waits
+    // for the constraints and the backoff itself). False if no run is owed on it.
+    public synchronized boolean start(String key) {
+        Job job = jobs.get(key);
+        if (job == null || !job.queued || job.running) {
+            return false;
+        }
+        begin(job);
+        return true;
+    }
+
+    // When next() will have a job under the current conditions, Long.MAX_VALUE if
+    // none is waiting for time alone.
+    public synchronized long nextDueAt() {
+        long due = Long.MAX_VALUE;
+        for (Job job : jobs.values()) {
+            if (job.queued && !job.running && allowed(job)) {
+                due = Math.min(due, job.dueAt);
+            }
+        }
+        return due;
+    }
+
+    public synchronized void finish(String key, Result result, long now) {
+        Job job = jobs.get(key);
+        if (job == null || !job.running) {
+            return;
+        }
+        job.running = false;
+        switch (result) {
+            case SUCCESS:
+                job.successes++;
+                job.failures = 0;
+                job.latency.recordNanos((now - job.wantedAt) * 1_000_000L);
+                break;
+            case RETRY:
+                job.retries++;
+                job.failures++;
+                job.again = false;
+                // Still the same run owed, so its latency keeps counting.
+                queue(job, now + backoff(job.failures), job.wantedAt);
+                return;
+            default:
+                job.failed++;
+                job.failures = 0;
+                break;
+        }
+        if (job.again) {
+            job.again = false;
+            queue(job, now, job.againWantedAt);
+        } else if (job.periodMs > 0) {
+            queue(job, now + job.periodMs, now + job.periodMs);
+        }
+    }
+
+    // Runs owed across all jobs, the ones running excluded.
+    public synchronized int queued() {
+        int queued = 0;
+        for (Job job : jobs.values()) {
+            if (job.queued || job.again) {
+                queued++;
+            }
+        }
+        return queued;
+    }
+
+    public synchronized Map<String, Object> stats(long now) {
+        Map<String, Object> byKey = new HashMap<>();
+        for (Job job : jobs.values()) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("requests", (double) job.requests);
+            map.put("coalesced", (double) job.coalesced);
+            map.put("runs", (double) job.runs);
+            map.put("successes", (double) job.successes);
+            map.put("retries", (double) job.retries);
+            map.put("failures", (double) job.failed);
+            map.put("queued", job.queued || job.again);
+            map.put("running", job.running);
+            map.put("dueInMs", job.queued ? (double) Math.max(0, job.dueAt - now) : -1.0);
+            map.put("latency", job.latency.summarize());
+            byKey.put(job.key, map);
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("jobs", byKey);
+        stats.put("queued", (double) queued());
+        stats.put("maxQueued", (double) maxQueued);
+        stats.put("online", online);
+        stats.put("batteryLow", batteryLow);
+        return stats;
+    }
+
+    // base, 2 base, 4 base, ... up to the maximum.
+    long backoff(int failures) {
+        int shift = Math.min(failures - 1, 30);
+        return Math.min(maxBackoffMs, baseBackoffMs << shift);
+    }
+
+    private boolean allowed(Job job) {
+        return ((job.constraints & NETWORK) == 0 || online)
+                && ((job.constraints & BATTERY_NOT_LOW) == 0 || !batteryLow);
+    }
+
+    private void begin(Job job) {
+        job.queued = false;
+        job.running = true;
+        job.runs++;
+    }
+
+    private void queue(Job job, long dueAt, long wantedAt) {
+        job.queued = true;
+        job.dueAt = dueAt;
+        job.wantedAt = wantedAt;
+        updateMaxQueued();
+    }
+
+    private void updateMaxQueued() {
+        maxQueued = Math.max(maxQueued, queued());
+    }
+}
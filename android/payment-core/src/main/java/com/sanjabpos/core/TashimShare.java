@@ -0,0 +1,27 @@
+package com.sanjabpos.core;
+
+// One settlement account of a split (tashim) payment, either a percent of what the
+// fixed shares leave (in basis points) or a fixed amount of rials; the other is -1.
+public final class TashimShare {
+    public final String iban;
+    public final int basisPoints;
+    public final long amount;
+
+    public TashimShare(String iban, int percent) {
+        this(iban, percent * 100, -1);
+    }
+
+    private TashimShare(String iban, int basisPoints, long amount) {
+        this.iban = iban;
+        this.basisPoints = basisPoints;
+        this.amount = amount;
+    }
+
+    public static TashimShare ofPercent(String iban, double percent) {
+        return new TashimShare(iban, (int) Math.round(percent * 100), -1);
+    }
+
+    public static TashimShare ofAmount(String iban, long amount) {
+        return new TashimShare(iban, -1, amount);
+    }
+}
@@ -0,0 +1,209 @@
+package com.sanjabpos.core;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// Splits a tashim (split settlement) payment over any number of accounts in exact
+// rials. Fixed-amount shares are taken first; percent shares divide what is left
+// using largest-remainder rounding, so the parts always add up to the total and no
+// account is off by more than one rial from its exact share. IBANs are checked with
+// the same rules as utils/ibanValidator.ts.
+public final class TashimSplit {
+    private static final int FULL = 10000; // 100% in basis points
+
+    public static final class Allocation {
+        public final String iban;
+        public final long amount;
+        // Share of the whole payment in basis points when it was given as a percent, else -1.
+        public final int basisPoints;
+
+        Allocation(String iban, long amount, int basisPoints) {
+            this.iban = iban;
+            this.amount = amount;
+            this.basisPoints = basisPoints;
+        }
+
+        // For PSPs that only take whole percents (IKC); -1 if this share is not one.
+        public int wholePercent(long total) {
+            if (basisPoints >= 0) {
+                return basisPoints % 100 == 0 ? basisPoints / 100 : -1;
+            }
+            return amount * 100 % total == 0 ? (int) (amount * 100 / total) : -1;
+        }
+    }
+
+    private TashimSplit() {
+    }
+
+    // Shares with a zero percent or amount are left out, so callers can pass
+    // optional accounts without an IBAN.
+    public static List<Allocation> allocate(long total, List<TashimShare> shares) {
+        if (total <= 0) {
+            throw new IllegalArgumentException("مبلغ نادرست است");
+        }
+        List<TashimShare> fixed = new ArrayList<>();
+        List<TashimShare> percent = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        long fixedTotal = 0;
+        int basisPoints = 0;
+        for (TashimShare share : shares) {
+            if (share.amount < 0 && share.basisPoints < 0) {
+                throw new IllegalArgumentException("درصد نادرست است");
+            }
+            if (share.amount == 0 || share.basisPoints == 0) {
+                continue;
+            }
+            String error = validateIban(share.iban);
+            if (error != null) {
+                throw new IllegalArgumentException(error);
+            }
+            if (!seen.add(cleanIban(share.iban))) {
+                throw new IllegalArgumentException("شماره شبا تکراری است");
+            }
+            if (share.amount > 0) {
+                fixed.add(share);
+                fixedTotal += share.amount;
+            } else {
+                percent.add(share);
+                basisPoints += share.basisPoints;
+            }
+        }
+        if (fixed.isEmpty() && percent.isEmpty()) {
+            throw new IllegalArgumentException("حداقل یک حساب شبا معتبر مورد نیاز است");
+        }
+        if (fixedTotal > total) {
+            throw new IllegalArgumentException("مجموع سهم‌ها از مبلغ بیشتر است");
+        }
+        long rest = total - fixedTotal;
+        if (percent.isEmpty() ? rest != 0 : basisPoints != FULL) {
+            throw new IllegalArgumentException("مجموع سهم‌ها باید برابر مبلغ کل باشد");
+        }
+
+        List<Allocation> allocations = new ArrayList<>(fixed.size() + percent.size());
+        for (TashimShare share : fixed) {
+            allocations.add(new Allocation(cleanIban(share.iban), share.amount, -1));
+        }
+        if (!percent.isEmpty()) {
+            int count = percent.size();
+            long[] parts = new long[count];
+            long[] remainders = new long[count];
+            long assigned = 0;
+            for (int i = 0; i < count; i++) {
+                long exact = rest * percent.get(i).basisPoints;
+                parts[i] = exact / FULL;
+                remainders[i] = exact % FULL;
+                assigned += parts[i];
+            }
+            // Hand the leftover rials to the largest remainders, earlier accounts first on ties.
+            for (long left = rest - assigned; left > 0; left--) {
+                int best = 0;
+                for (int i = 1; i < count; i++) {
+                    if (remainders[i] > remainders[best]) {
+                        best = i;
+                    }
+                }
+                parts[best]++;
+                remainders[best] = -1;
+            }
+            for (int i = 0; i < count; i++) {
+                // Percents only describe the whole payment when there are no fixed shares.
+                int whole = fixed.isEmpty() ? percent.get(i).basisPoints : -1;
+                allocations.add(new Allocation(cleanIban(percent.get(i).iban), parts[i], whole));
+            }
+        }
+        return allocations;
+    }
+
+    // Sepehr's "IBAN:amount" lines.
+    public static ArrayList<String> toSepehrLines(List<Allocation> allocations) {
+        ArrayList<String> lines = new ArrayList<>(allocations.size());
+        for (Allocation allocation : allocations) {
+            lines.add(allocation.iban + ":" + allocation.amount);
+        }
+        return lines;
+    }
+
+    // Parses "IBAN:amount" or "IBAN:percent%" lines as sent from JS.
+    public static List<TashimShare> parseLines(List<String> lines) {
+        List<TashimShare> shares = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            int colon = line == null ? -1 : line.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("اطلاعات تسهیم نادرست است");
+            }
+            String iban = line.substring(0, colon);
+            String value = line.substring(colon + 1).trim();
+            try {
+                if (value.endsWith("%")) {
+                    double percent = Double.parseDouble(value.substring(0, value.length() - 1));
+                    shares.add(TashimShare.ofPercent(iban, percent));
+                } else {
+                    shares.add(TashimShare.ofAmount(iban, parseRials(value)));
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("اطلاعات تسهیم نادرست است");
+            }
+        }
+        return shares;
+    }
+
+    public static long parseRials(String amount) {
+        if (amount == null || amount.isEmpty()) {
+            throw new IllegalArgumentException("مبلغ نباید خالی باشد");
+        }
+        try {
+            return Long.parseLong(amount.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("مبلغ نادرست است");
+        }
+    }
+
+    public static String cleanIban(String iban) {
+        StringBuilder clean = new StringBuilder(26);
+        for (int i = 0; i < iban.length(); i++) {
+            char c = iban.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                clean.append(c);
+            }
+        }
+        return clean.toString().toUpperCase(Locale.ROOT);
+    }
+
+    // Same checks and messages as validateIranianIBAN; returns null when valid.
+    public static String validateIban(String iban) {
+        String clean = iban == null ? "" : cleanIban(iban);
+        if (clean.isEmpty()) {
+            return "شماره شبا نمی‌تواند خالی باشد";
+        }
+        if (!clean.startsWith("IR")) {
+            return "شماره شبا باید با IR شروع شود";
+        }
+        if (clean.length() != 26) {
+            return "شماره شبا باید 26 کاراکتر باشد";
+        }
+        for (int i = 2; i < clean.length(); i++) {
+            char c = clean.charAt(i);
+            if (c < '0' || c > '9') {
+                return "بعد از IR باید 24 رقم باشد";
+            }
+        }
+        return mod97(clean) == 1 ? null : "شماره شبا نامعتبر است";
+    }
+
+    // ISO 13616: move the first four characters to the end, letters become 10..35.
+    private static int mod97(String iban) {
+        int remainder = 0;
+        for (int i = 0; i < iban.length(); i++) {
+            char c = iban.charAt((i + 4) % iban.length());
+            if (c >= 'A' && c <= 'Z') {
+                remainder = (remainder * 100 + (c - 'A' + 10)) % 97;
+            } else {
+                remainder = (remainder * 10 + (c - '0')) % 97;
+            }
+        }
+        return remainder;
+    }
+}
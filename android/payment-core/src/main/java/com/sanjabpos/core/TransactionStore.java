@@ -0,0 +1,819 @@
+package com.sanjabpos.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+
+// On-device record of completed sales for reports. Sales are appended to a log file
+// as records framed with their length and a CRC32, as in JournalLog; a sale that learns more later (the PSP fields after
+// the sale payload, the cashback once the backend settled it) is appended again in
+// full and its row points at the newest copy, so every read is a single seek.
+//
+// In memory there are only indexes: per-row file offset and time, a posting list of
+// rows per calendar day, and chained hash indexes on sale key, stan, rrn and card.
+// Daily and per-shift totals by line and payment method are kept as running sums:
+// each append subtracts what the previous copy of the sale contributed and adds the
+// new copy's share, so totals never need a scan. Opening the store replays the log
+// to rebuild all of it; the log ends at the first record that is torn, zeroed or
+// fails its checksum, and is cut back to the last good one. When older copies of
+// sales make up much of the file, opening also compacts it to the newest copy of
+// each, so the next open is one sequential read. Thread-safe.
+public final class TransactionStore implements Closeable {
+    private static final int FILE_MAGIC = 0x54585332; // "TXS2"
+    // Records framed with their length only; upgraded when opened.
+    private static final int LEGACY_MAGIC = 0x54585331; // "TXS1"
+    // Larger lengths can only come from a torn or foreign write.
+    private static final int MAX_RECORD = 1024 * 1024;
+    // Compacted once older copies take more than a third of the file and at least
+    // this; a settled copy follows most sales, so older copies rarely pass half.
+    private static final long MIN_COMPACT_BYTES = 1024 * 1024;
+    // Sales decoded during replay kept for the copies that follow them; a settled
+    // copy usually comes within minutes of the first.
+    private static final int REPLAY_CACHE = 4096;
+    private static final byte TYPE_SALE = 'S';
+    private static final byte TYPE_SHIFT = 'H';
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final int NONE = -1;
+
+    public static final class Line {
+        public final int lineId;
+        public final String method;
+        public final long amount;
+        public final long credit;
+        public final long cashback;
+
+        public Line(int lineId, String method, long amount, long credit, long cashback) {
+            this.lineId = lineId;
+            this.method = method;
+            this.amount = amount;
+            this.credit = credit;
+            this.cashback = cashback;
+        }
+    }
+
+    // One sale, keyed by its idempotency key. Unknown fields are null or -1; an empty
+    // line list means only the card payment is known so far.
+    public static final class Sale {
+        public final String key;
+        public final long time;
+        // What the PSP charged, or -1 for a sale without a card payment.
+        public long paid = -1;
+        public String stan;
+        public String rrn;
+        public String card;
+        // The PSP, for card payments
+        public String provider;
+        public boolean settled;
+        public List<Line> lines = new ArrayList<>();
+        // Assigned by the store
+        public int shift;
+        // Row of the copy this was read from
+        int row = NONE;
+
+        public Sale(String key, long time) {
+            this.key = key;
+            this.time = time;
+        }
+
+        public long amount() {
+            if (lines.isEmpty()) {
+                return Math.max(paid, 0);
+            }
+            long amount = 0;
+            for (Line line : lines) {
+                amount += line.amount;
+            }
+            return amount;
+        }
+    }
+
+    public static class Sums {
+        public long count;
+        public long amount;
+        public long credit;
+        public long cashback;
+
+        void add(Sums other, int sign) {
+            count += sign * other.count;
+            amount += sign * other.amount;
+            credit += sign * other.credit;
+            cashback += sign * other.cashback;
+        }
+
+        boolean isEmpty() {
+            return count == 0 && amount == 0 && credit == 0 && cashback == 0;
+        }
+    }
+
+    // Sums of one line and payment method; count is the sales that include it.
+    public static final class Group extends Sums {
+        public final int lineId;
+        public final String method;
+
+        Group(int lineId, String method) {
+            this.lineId = lineId;
+            this.method = method;
+        }
+    }
+
+    // count is the number of sales; groups break the amounts down by line and method.
+    public static final class Totals extends Sums {
+        public final List<Group> groups = new ArrayList<>();
+    }
+
+    // Running sums of one day or one shift.
+    private static final class Bucket {
+        final Sums all = new Sums();
+        final HashMap<Long, Sums> groups = new HashMap<>();
+    }
+
+    // Gives writeRecord the bytes to checksum without a copy.
+    private static final class Encoder extends ByteArrayOutputStream {
+        Encoder() {
+            super(256);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    private static final class IntList {
+        int[] items = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = value;
+        }
+    }
+
+    private final File file;
+    private final TimeZone zone;
+    private RandomAccessFile reader;
+    private final DataOutputStream writer;
+    private final Encoder encoded = new Encoder();
+    private final CRC32 crc = new CRC32();
+    private byte[] readBuffer = new byte[512];
+    private long fileLength;
+    // Bytes of older copies of sales in the file.
+    private long garbage;
+    // Newest copies met during replay, by row; null once open.
+    private LinkedHashMap<Integer, Sale> replayed;
+
+    // Per row (sale), in the order sales were first recorded.
+    private int rows;
+    private long[] offsets = new long[1024];
+    // Framed size of the newest copy.
+    private int[] sizes = new int[1024];
+    private long[] times = new long[1024];
+    private int[] nextByKey = new int[1024];
+    private int[] nextByStan = new int[1024];
+    private int[] nextByRrn = new int[1024];
+    private int[] nextByCard = new int[1024];
+    // Newest row per fingerprint; older rows with the same fingerprint follow the next* chain.
+    private final HashedPanTable keyHeads = new HashedPanTable(1024);
+    private final HashedPanTable stanHeads = new HashedPanTable(1024);
+    private final HashedPanTable rrnHeads = new HashedPanTable(1024);
+    private final HashedPanTable cardHeads = new HashedPanTable(1024);
+    private final HashMap<Integer, IntList> rowsByDay = new HashMap<>();
+
+    private final HashMap<Integer, Bucket> days = new HashMap<>();
+    private final HashMap<Integer, Bucket> shifts = new HashMap<>();
+    private final ArrayList<String> methods = new ArrayList<>();
+    private final HashMap<String, Integer> methodCodes = new HashMap<>();
+    private int shift;
+    private long shiftOpenedAt;
+
+    public TransactionStore(File file, TimeZone zone) throws IOException {
+        this(file, zone, true);
+    }
+
+    // compact false only for measuring a replay of the log as written.
+    TransactionStore(File file, TimeZone zone, boolean compact) throws IOException {
+        this.file = file;
+        this.zone = zone;
+        prepare(file);
+        reader = new RandomAccessFile(file, "rw");
+        replay();
+        if (compact && garbage >= MIN_COMPACT_BYTES && garbage > fileLength / 3) {
+            compact();
+        }
+        writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 16 * 1024));
+    }
+
+    public synchronized int size() {
+        return rows;
+    }
+
+    public synchronized int currentShift() {
+        return shift;
+    }
+
+    public synchronized long shiftOpenedAt() {
+        return shiftOpenedAt;
+    }
+
+    // Records a sale or what became known about it. Fields already known are kept;
+    // a non-empty line list replaces the old one.
+    public synchronized void record(Sale update) throws IOException {
+        Sale previous = find(update.key);
+        Sale sale = previous == null ? update : merge(previous, update);
+        if (previous == null) {
+            sale.shift = shift;
+        }
+        long offset = append(TYPE_SALE, sale);
+        apply(sale, previous, offset, (int) (fileLength - offset));
+    }
+
+    // Starts a new shift; sales from now on count towards it.
+    public synchronized int openShift(long nowMs) throws IOException {
+        encoded.reset();
+        DataOutputStream out = new DataOutputStream(encoded);
+        out.writeByte(TYPE_SHIFT);
+        out.writeInt(shift + 1);
+        out.writeLong(nowMs);
+        writeRecord();
+        shift++;
+        shiftOpenedAt = nowMs;
+        return shift;
+    }
+
+    public synchronized Sale findByKey(String key) throws IOException {
+        return find(key);
+    }
+
+    // Newest first, at most limit sales.
+    public synchronized List<Sale> findByStan(String stan, int limit) throws IOException {
+        return collect(stanHeads, nextByStan, stan, limit, 0);
+    }
+
+    public synchronized List<Sale> findByRrn(String rrn, int limit) throws IOException {
+        return collect(rrnHeads, nextByRrn, rrn, limit, 1);
+    }
+
+    public synchronized List<Sale> findByCard(String card, int limit) throws IOException {
+        return collect(cardHeads, nextByCard, card, limit, 2);
+    }
+
+    // Sales with fromMs <= time < toMs, newest first, skipping the first offset.
+    // Whole days inside the range are skipped by their size, so a deep page costs
+    // no more than a shallow one.
+    public synchronized List<Sale> page(long fromMs, long toMs, int offset, int limit) throws IOException {
+        List<Sale> page = new ArrayList<>(Math.min(limit, 64));
+        if (toMs <= fromMs) {
+            return page;
+        }
+        int firstDay = day(fromMs);
+        int lastDay = day(toMs - 1);
+        int skip = offset;
+        for (int d = lastDay; d >= firstDay && page.size() < limit; d--) {
+            IntList dayRows = rowsByDay.get(d);
+            if (dayRows == null) {
+                continue;
+            }
+            boolean whole = d > firstDay && d < lastDay;
+            if (whole && skip >= dayRows.size) {
+                skip -= dayRows.size;
+                continue;
+            }
+            for (int i = dayRows.size - 1; i >= 0 && page.size() < limit; i--) {
+                int row = dayRows.items[i];
+                if (times[row] < fromMs || times[row] >= toMs) {
+                    continue;
+                }
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                page.add(read(row));
+            }
+        }
+        return page;
+    }
+
+    // Sales with time in [fromMs, toMs), counted by whole calendar days.
+    public synchronized Totals dayTotals(long fromMs, long toMs) {
+        Totals totals = new Totals();
+        if (toMs <= fromMs) {
+            return totals;
+        }
+        for (int d = day(fromMs), last = day(toMs - 1); d <= last; d++) {
+            addTo(totals, days.get(d));
+        }
+        return totals;
+    }
+
+    public synchronized Totals shiftTotals(int shiftId) {
+        Totals totals = new Totals();
+        addTo(totals, shifts.get(shiftId));
+        return totals;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            writer.close();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private Sale merge(Sale previous, Sale update) {
+        Sale merged = new Sale(previous.key, previous.time);
+        merged.shift = previous.shift;
+        merged.paid = previous.paid >= 0 ? previous.paid : update.paid;
+        merged.stan = previous.stan != null ? previous.stan : update.stan;
+        merged.rrn = previous.rrn != null ? previous.rrn : update.rrn;
+        merged.card = previous.card != null ? previous.card : update.card;
+        merged.provider = previous.provider != null ? previous.provider : update.provider;
+        merged.settled = previous.settled || update.settled;
+        merged.lines = update.lines.isEmpty() ? previous.lines : update.lines;
+        return merged;
+    }
+
+    // Indexes a copy of the sale written at offset and moves the running sums from
+    // the previous copy (if any) to this one. Returns the sale's row.
+    private int apply(Sale sale, Sale previous, long offset, int size) {
+        int row;
+        if (previous == null) {
+            row = addRow(sale, offset);
+        } else {
+            row = previous.row;
+            offsets[row] = offset;
+            garbage += sizes[row];
+        }
+        sizes[row] = size;
+        if (sale.stan != null && (previous == null || previous.stan == null)) {
+            nextByStan[row] = stanHeads.put(HashedPanTable.fingerprint(sale.stan), row);
+        }
+        if (sale.rrn != null && (previous == null || previous.rrn == null)) {
+            nextByRrn[row] = rrnHeads.put(HashedPanTable.fingerprint(sale.rrn), row);
+        }
+        if (sale.card != null && (previous == null || previous.card == null)) {
+            nextByCard[row] = cardHeads.put(HashedPanTable.fingerprint(sale.card), row);
+        }
+        Bucket dayBucket = bucket(days, day(sale.time));
+        Bucket shiftBucket = bucket(shifts, sale.shift);
+        if (previous != null) {
+            contribute(dayBucket, previous, -1);
+            contribute(shiftBucket, previous, -1);
+        }
+        contribute(dayBucket, sale, 1);
+        contribute(shiftBucket, sale, 1);
+        return row;
+    }
+
+    private int addRow(Sale sale, long offset) {
+        if (rows == offsets.length) {
+            int capacity = rows * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            times = Arrays.copyOf(times, capacity);
+            nextByKey = Arrays.copyOf(nextByKey, capacity);
+            nextByStan = Arrays.copyOf(nextByStan, capacity);
+            nextByRrn = Arrays.copyOf(nextByRrn, capacity);
+            nextByCard = Arrays.copyOf(nextByCard, capacity);
+        }
+        int row = rows++;
+        offsets[row] = offset;
+        times[row] = sale.time;
+        nextByStan[row] = NONE;
+        nextByRrn[row] = NONE;
+        nextByCard[row] = NONE;
+        nextByKey[row] = keyHeads.put(HashedPanTable.fingerprint(sale.key), row);
+        int d = day(sale.time);
+        IntList dayRows = rowsByDay.get(d);
+        if (dayRows == null) {
+            dayRows = new IntList();
+            rowsByDay.put(d, dayRows);
+        }
+        dayRows.add(row);
+        return row;
+    }
+
+    private void contribute(Bucket bucket, Sale sale, int sign) {
+        bucket.all.count += sign;
+        if (sale.lines.isEmpty()) {
+            // Card payment whose sale payload has not arrived: counted under line 0
+            long amount = Math.max(sale.paid, 0);
+            bucket.all.amount += sign * amount;
+            Sums group = group(bucket, 0, sale.provider);
+            group.count += sign;
+            group.amount += sign * amount;
+            dropIfEmpty(bucket, 0, sale.provider, group);
+            return;
+        }
+        for (Line line : sale.lines) {
+            Sums sums = new Sums();
+            sums.count = 1;
+            sums.amount = line.amount;
+            sums.credit = line.credit;
+            sums.cashback = line.cashback;
+            Sums group = group(bucket, line.lineId, line.method);
+            group.add(sums, sign);
+            dropIfEmpty(bucket, line.lineId, line.method, group);
+            sums.count = 0;
+            bucket.all.add(sums, sign);
+        }
+    }
+
+    private Sums group(Bucket bucket, int lineId, String method) {
+        long key = groupKey(lineId, method);
+        Sums group = bucket.groups.get(key);
+        if (group == null) {
+            group = new Sums();
+            bucket.groups.put(key, group);
+        }
+        return group;
+    }
+
+    private void dropIfEmpty(Bucket bucket, int lineId, String method, Sums group) {
+        if (group.isEmpty()) {
+            bucket.groups.remove(groupKey(lineId, method));
+        }
+    }
+
+    private long groupKey(int lineId, String method) {
+        String name = method == null ? "" : method;
+        Integer code = methodCodes.get(name);
+        if (code == null) {
+            code = methods.size();
+            methods.add(name);
+            methodCodes.put(name, code);
+        }
+        return (long) lineId << 32 | code;
+    }
+
+    private void addTo(Totals totals, Bucket bucket) {
+        if (bucket == null) {
+            return;
+        }
+        totals.add(bucket.all, 1);
+        for (Map.Entry<Long, Sums> entry : bucket.groups.entrySet()) {
+            long key = entry.getKey();
+            int lineId = (int) (key >> 32);
+            String method = methods.get((int) key);
+            Group group = null;
+            for (Group existing : totals.groups) {
+                if (existing.lineId == lineId && existing.method.equals(method)) {
+                    group = existing;
+                    break;
+                }
+            }
+            if (group == null) {
+                group = new Group(lineId, method);
+                totals.groups.add(group);
+            }
+            group.add(entry.getValue(), 1);
+        }
+    }
+
+    private static Bucket bucket(HashMap<Integer, Bucket> buckets, int id) {
+        Bucket bucket = buckets.get(id);
+        if (bucket == null) {
+            bucket = new Bucket();
+            buckets.put(id, bucket);
+        }
+        return bucket;
+    }
+
+    private Sale find(String key) throws IOException {
+        for (int row = keyHeads.get(HashedPanTable.fingerprint(key)); row != NONE; row = nextByKey[row]) {
+            Sale sale = replayed != null ? replayed.get(row) : null;
+            if (sale == null) {
+                sale = read(row);
+            }
+            if (key.equals(sale.key)) {
+                return sale;
+            }
+        }
+        return null;
+    }
+
+    // Walks a fingerprint's chain and keeps the sales whose field really matches.
+    private List<Sale> collect(HashedPanTable heads, int[] next, String value, int limit, int field)
+            throws IOException {
+        List<Sale> found = new ArrayList<>();
+        if (value == null || value.isEmpty()) {
+            return found;
+        }
+        for (int row = heads.get(HashedPanTable.fingerprint(value)); row != NONE && found.size() < limit; row = next[row]) {
+            Sale sale = read(row);
+            String actual = field == 0 ? sale.stan : field == 1 ? sale.rrn : sale.card;
+            if (value.equals(actual)) {
+                found.add(sale);
+            }
+        }
+        return found;
+    }
+
+    // Calendar day in the store's time zone, counted from the epoch.
+    private int day(long ms) {
+        long local = ms + zone.getOffset(ms);
+        return (int) ((local >= 0 ? local : local - DAY_MS + 1) / DAY_MS);
+    }
+
+    private long append(byte type, Sale sale) throws IOException {
+        encoded.reset();
+        DataOutputStream out = new DataOutputStream(encoded);
+        out.writeByte(type);
+        out.writeUTF(sale.key);
+        out.writeLong(sale.time);
+        out.writeInt(sale.shift);
+        out.writeLong(sale.paid);
+        writeNullable(out, sale.stan);
+        writeNullable(out, sale.rrn);
+        writeNullable(out, sale.card);
+        writeNullable(out, sale.provider);
+        out.writeBoolean(sale.settled);
+        out.writeShort(sale.lines.size());
+        for (Line line : sale.lines) {
+            out.writeInt(line.lineId);
+            writeNullable(out, line.method);
+            out.writeLong(line.amount);
+            out.writeLong(line.credit);
+            out.writeLong(line.cashback);
+        }
+        return writeRecord();
+    }
+
+    // Appends the encoded record and returns its offset. Flushed to the OS right
+    // away so reads through the other handle see it; not fsynced, since the journal
+    // and the backend hold the sales of record and this file only derives from them.
+    private long writeRecord() throws IOException {
+        long offset = fileLength;
+        frame(writer, encoded.buffer(), encoded.size(), crc);
+        writer.flush();
+        fileLength += 8 + encoded.size();
+        return offset;
+    }
+
+    private Sale read(int row) throws IOException {
+        int length = readRecord(offsets[row]);
+        Sale sale = decodeSale(new DataInputStream(new ByteArrayInputStream(readBuffer, 8, length)));
+        sale.row = row;
+        return sale;
+    }
+
+    // Reads the framed record at offset into readBuffer and returns its payload
+    // length. One read call for a typical record; RandomAccessFile.readInt alone
+    // would be four.
+    private int readRecord(long offset) throws IOException {
+        reader.seek(offset);
+        int got = Math.max(0, reader.read(readBuffer, 0, readBuffer.length));
+        if (got < 8) {
+            throw new EOFException("truncated transaction record");
+        }
+        int length = (readBuffer[0] & 0xff) << 24 | (readBuffer[1] & 0xff) << 16
+                | (readBuffer[2] & 0xff) << 8 | (readBuffer[3] & 0xff);
+        if (length < 1 || length > MAX_RECORD) {
+            throw new IOException("bad transaction record length " + length);
+        }
+        if (length + 8 > readBuffer.length) {
+            byte[] grown = new byte[Integer.highestOneBit(length + 8) * 2];
+            System.arraycopy(readBuffer, 0, grown, 0, got);
+            readBuffer = grown;
+        }
+        if (got < length + 8) {
+            reader.readFully(readBuffer, got, length + 8 - got);
+        }
+        return length;
+    }
+
+    private static Sale decodeSale(DataInputStream in) throws IOException {
+        if (in.readByte() != TYPE_SALE) {
+            throw new IOException("not a sale record");
+        }
+        Sale sale = new Sale(in.readUTF(), in.readLong());
+        sale.shift = in.readInt();
+        sale.paid = in.readLong();
+        sale.stan = readNullable(in);
+        sale.rrn = readNullable(in);
+        sale.card = readNullable(in);
+        sale.provider = readNullable(in);
+        sale.settled = in.readBoolean();
+        int lines = in.readUnsignedShort();
+        for (int i = 0; i < lines; i++) {
+            sale.lines.add(new Line(in.readInt(), readNullable(in), in.readLong(), in.readLong(), in.readLong()));
+        }
+        return sale;
+    }
+
+    // Makes sure the file is a log in the current format: a new or header-less file
+    // gets a header, a legacy log is rewritten, and a file that is neither is kept
+    // aside and a new log started, so the store always opens.
+    private static void prepare(File file) throws IOException {
+        int magic = 0;
+        if (file.exists() && file.length() >= 4) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                magic = in.readInt();
+            }
+        }
+        if (magic == FILE_MAGIC) {
+            return;
+        }
+        if (magic == LEGACY_MAGIC) {
+            upgrade(file);
+            return;
+        }
+        if (magic != 0 || file.length() >= 4) {
+            File aside = new File(file.getPath() + ".unreadable-" + System.currentTimeMillis());
+            if (!file.renameTo(aside)) {
+                throw new IOException("unreadable transaction store could not be moved aside: " + file);
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file, false))) {
+            out.writeInt(FILE_MAGIC);
+        }
+    }
+
+    // Rewrites a legacy log in the current framing through a temp file, up to its
+    // first record with an impossible length or cut short.
+    private static void upgrade(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        byte[] payload = new byte[512];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+             FileOutputStream fos = new FileOutputStream(tmp, false);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024))) {
+            in.readInt();
+            out.writeInt(FILE_MAGIC);
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                    if (length < 1 || length > MAX_RECORD) {
+                        break;
+                    }
+                    if (length > payload.length) {
+                        payload = new byte[Integer.highestOneBit(length) * 2];
+                    }
+                    in.readFully(payload, 0, length);
+                } catch (EOFException e) {
+                    break;
+                }
+                frame(out, payload, length, crc);
+            }
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("failed to replace transaction store after upgrade: " + file);
+        }
+    }
+
+    // Rebuilds the indexes and sums from the log. The log ends at the first record
+    // that is torn (the app died mid-append), zeroed (a power cut left the tail
+    // unwritten), has an impossible length or checksum, or does not decode; nothing
+    // after it can be trusted, and it is cut off so new records follow the last
+    // good one.
+    private void replay() throws IOException {
+        long offset = 4;
+        byte[] payload = new byte[512];
+        replayed = new LinkedHashMap<Integer, Sale>(REPLAY_CACHE * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Sale> eldest) {
+                return size() > REPLAY_CACHE;
+            }
+        };
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            in.readInt();
+            while (true) {
+                int length;
+                int checksum;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < 1 || length > MAX_RECORD) {
+                        break;
+                    }
+                    if (length > payload.length) {
+                        payload = new byte[Integer.highestOneBit(length) * 2];
+                    }
+                    in.readFully(payload, 0, length);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                try {
+                    replayRecord(payload, length, offset);
+                } catch (IOException e) {
+                    break;
+                }
+                offset += 8 + length;
+            }
+        }
+        replayed = null;
+        if (offset < reader.length()) {
+            reader.setLength(offset);
+        }
+        fileLength = offset;
+    }
+
+    private void replayRecord(byte[] payload, int length, long offset) throws IOException {
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload, 0, length));
+        if (payload[0] == TYPE_SHIFT) {
+            record.readByte();
+            int id = record.readInt();
+            long openedAt = record.readLong();
+            shift = id;
+            shiftOpenedAt = openedAt;
+        } else {
+            Sale sale = decodeSale(record);
+            sale.row = apply(sale, find(sale.key), offset, 8 + length);
+            replayed.put(sale.row, sale);
+        }
+    }
+
+    // Rewrites the log with the current shift and the newest copy of each sale, in
+    // row order so rows keep their numbers, through a synced temp file; a crash
+    // mid-way leaves the old log in place. If it fails the old log is kept as is and
+    // compaction is tried again on the next open.
+    private void compact() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        long[] moved = new long[offsets.length];
+        long length = 4;
+        try (FileOutputStream fos = new FileOutputStream(tmp, false);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024))) {
+            out.writeInt(FILE_MAGIC);
+            if (shift > 0) {
+                encoded.reset();
+                DataOutputStream shiftRecord = new DataOutputStream(encoded);
+                shiftRecord.writeByte(TYPE_SHIFT);
+                shiftRecord.writeInt(shift);
+                shiftRecord.writeLong(shiftOpenedAt);
+                frame(out, encoded.buffer(), encoded.size(), crc);
+                length += 8 + encoded.size();
+            }
+            for (int row = 0; row < rows; row++) {
+                int size = readRecord(offsets[row]) + 8;
+                out.write(readBuffer, 0, size);
+                moved[row] = length;
+                length += size;
+            }
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            tmp.delete();
+            return;
+        }
+        reader.close();
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            reader = new RandomAccessFile(file, "rw");
+            return;
+        }
+        reader = new RandomAccessFile(file, "rw");
+        offsets = moved;
+        fileLength = length;
+        garbage = 0;
+    }
+
+    private static void frame(DataOutputStream out, byte[] payload, int length, CRC32 crc) throws IOException {
+        crc.reset();
+        crc.update(payload, 0, length);
+        out.writeInt(length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload, 0, length);
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,88 @@
+package com.sanjabpos.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ApduScriptTest {
+    @Test
+    public void runsTheLoyaltyFlow() throws InterruptedException {
+        ApduScript.Result result = new ApduScript(SimulatedCard.loyaltyScript("1234")).run(SimulatedCard.loyalty(0));
+        assertEquals(ApduScript.Outcome.COMPLETED, result.outcome);
+        // The missing third record branches to VERIFY; SELECT costs a GET RESPONSE.
+        assertEquals(6, result.responses.size());
+        assertEquals(7, result.commands);
+        assertTrue(result.responses.get(0).data.startsWith("6F18"));
+        assertEquals("9000", result.responses.get(0).sw);
+        assertEquals("6A83", result.responses.get(3).sw);
+        assertFalse(result.responses.get(3).matched);
+        assertEquals("0001E240", result.responses.get(5).data);
+    }
+
+    @Test
+    public void stopsOnAWrongPin() throws InterruptedException {
+        ApduScript.Result result = new ApduScript(SimulatedCard.loyaltyScript("0000")).run(SimulatedCard.loyalty(0));
+        assertEquals(ApduScript.Outcome.STATUS_MISMATCH, result.outcome);
+        assertEquals(4, result.failedStep);
+        assertEquals("63C2", result.responses.get(4).sw);
+    }
+
+    @Test
+    public void stopsWhenTheCardFails() throws InterruptedException {
+        ApduScript.Result result = new ApduScript(SimulatedCard.loyaltyScript("1234"))
+                .run(SimulatedCard.loyalty(0).failEvery(3));
+        assertEquals(ApduScript.Outcome.CARD_ERROR, result.outcome);
+        assertEquals(1, result.failedStep);
+        assertEquals(2, result.responses.size());
+        assertNull(result.responses.get(1).sw);
+    }
+
+    @Test
+    public void resendsWithTheLengthA6cxxAsksFor() throws InterruptedException {
+        SimulatedCard card = new SimulatedCard(0)
+                .respond("00B2010C13", "70135A0862738711234567895F200653414E4A41429000")
+                .respond("00B2010C", "6C13");
+        ApduScript.Result result = new ApduScript(Collections.singletonList(
+                new ApduScript.Step(null, "00B2010C00", null, null, null))).run(card);
+        assertEquals(ApduScript.Outcome.COMPLETED, result.outcome);
+        assertEquals(2, result.commands);
+        assertTrue(result.responses.get(0).data.startsWith("7013"));
+    }
+
+    @Test
+    public void endsALoopAtTheCommandLimit() throws InterruptedException {
+        List<ApduScript.Step> looping = new ArrayList<>();
+        looping.add(new ApduScript.Step("poll", "80CA9F3600", new String[]{"6D00"}, "poll", null));
+        ApduScript.Result result = new ApduScript(looping).run(new SimulatedCard(0));
+        assertEquals(ApduScript.Outcome.LIMIT, result.outcome);
+        assertEquals(ApduScript.MAX_COMMANDS, result.commands);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOddHex() {
+        new ApduScript.Step(null, "00A404000", null, null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAShortApdu() {
+        new ApduScript.Step(null, "00A4", null, null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAShortStatusPattern() {
+        new ApduScript.Step(null, "00A40400", new String[]{"90"}, null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAJumpToAnUnknownLabel() {
+        new ApduScript(Arrays.asList(new ApduScript.Step(null, "00A40400", null, "missing", null)));
+    }
+}
@@ -0,0 +1,206 @@
+package com.sanjabpos.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Bill against an independent check digit implementation, and BillBatch and
+// InquiryCache against their rules.
+public class BillBatchTest {
+    private static final int BILLS = 20_000;
+
+    // Valid bills parse to their amount and service; a bill with one digit changed
+    // parses exactly when the reference still finds it valid.
+    @Test
+    public void parsesExactlyTheBillsTheReferenceAccepts() {
+        Random random = new Random(17);
+        for (int n = 0; n < BILLS; n++) {
+            String[] ids = validBill(random);
+            Bill bill = Bill.parse(ids[0], ids[1]);
+            assertEquals("bill " + n, ids[0], bill.billId);
+            assertEquals("bill " + n, ids[1], bill.paymentId);
+            assertEquals("bill " + n, Long.parseLong(ids[1].substring(0, ids[1].length() - 5)) * 1000, bill.amount);
+            assertEquals("bill " + n, ids[0].charAt(ids[0].length() - 2) - '0', bill.serviceType);
+            assertEquals("bill " + n, bill.key(), Bill.fromBarcode(pad(ids[0]) + pad(ids[1])).key());
+
+            int which = random.nextInt(2);
+            char[] changed = ids[which].toCharArray();
+            int at = random.nextInt(changed.length);
+            changed[at] = (char) ('0' + (changed[at] - '0' + 1 + random.nextInt(9)) % 10);
+            String billId = which == 0 ? new String(changed) : ids[0];
+            String paymentId = which == 1 ? new String(changed) : ids[1];
+            boolean parsed;
+            try {
+                Bill.parse(billId, paymentId);
+                parsed = true;
+            } catch (IllegalArgumentException e) {
+                parsed = false;
+            }
+            assertEquals("changed digit " + n + " " + billId + " " + paymentId,
+                    referenceValid(billId, paymentId), parsed);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyBill() {
+        Bill.parse("", "123");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLetters() {
+        Bill.parse("12a45678", "123456");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAShortBarcode() {
+        Bill.fromBarcode("123");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTheSameBillTwice() {
+        Bill bill = stack().get(0);
+        new BillBatch(Arrays.asList(bill, bill));
+    }
+
+    // Declined, paid, declined goes on; unknown stops; a second run resumes after it.
+    @Test
+    public void stopsOnAnUnknownResultAndResumes() throws InterruptedException {
+        List<Bill> stack = stack();
+        BillBatch.Status[] answers = {BillBatch.Status.DECLINED, BillBatch.Status.PAID, BillBatch.Status.DECLINED,
+                BillBatch.Status.UNKNOWN, BillBatch.Status.PAID, BillBatch.Status.PAID};
+        BillBatch batch = new BillBatch(stack);
+        int[] calls = {0};
+        BillBatch.Report report = batch.run(bill -> new BillBatch.Payment(answers[calls[0]++], null, null, null, null));
+        assertEquals(3, report.stoppedAt);
+        assertEquals(1, report.paid);
+        assertEquals(2, report.declined);
+        assertEquals(2, report.pending);
+
+        report = batch.run(bill -> new BillBatch.Payment(answers[calls[0]++], null, null, null, null));
+        assertEquals(6, calls[0]);
+        assertEquals(-1, report.stoppedAt);
+        assertEquals(3, report.paid);
+        assertEquals(0, report.pending);
+        assertEquals(stack.get(1).amount + stack.get(4).amount + stack.get(5).amount, report.paidAmount);
+    }
+
+    @Test
+    public void stopsAfterTwoDeclinesInARow() throws InterruptedException {
+        BillBatch.Report report = new BillBatch(stack())
+                .run(bill -> new BillBatch.Payment(BillBatch.Status.DECLINED, null, null, "51", null));
+        assertEquals(1, report.stoppedAt);
+        assertEquals(2, report.declined);
+        assertEquals(4, report.pending);
+    }
+
+    @Test
+    public void leavesABillThatWasNotSentPending() throws InterruptedException {
+        BillBatch.Report report = new BillBatch(stack())
+                .run(bill -> new BillBatch.Payment(BillBatch.Status.NOT_SENT, null, null, "no activity", null));
+        assertEquals(0, report.stoppedAt);
+        assertEquals(6, report.pending);
+        assertEquals("no activity", report.message);
+    }
+
+    @Test
+    public void stopsWhenCancelled() throws InterruptedException {
+        BillBatch batch = new BillBatch(stack());
+        BillBatch.Report report = batch.run(bill -> {
+            batch.cancel();
+            return new BillBatch.Payment(BillBatch.Status.PAID, null, null, null, null);
+        });
+        assertTrue(report.cancelled);
+        assertEquals(1, report.paid);
+        assertEquals(5, report.pending);
+    }
+
+    @Test
+    public void cachesInquiriesForTheirTtlAndEvictsTheLeastRecentlyUsed() {
+        InquiryCache<String> cache = new InquiryCache<>(1000, 2);
+        cache.put("a", "1", 0);
+        cache.put("b", "2", 0);
+        assertEquals("1", cache.get("a", 999));
+        assertNull(cache.get("a", 1000));
+        cache.put("a", "1", 0);
+        cache.get("a", 1);
+        cache.put("c", "3", 1);
+        assertNull(cache.get("b", 2));
+        assertEquals("1", cache.get("a", 2));
+        assertEquals(3, cache.hits());
+        assertEquals(2, cache.misses());
+    }
+
+    private static List<Bill> stack() {
+        Random random = new Random(29);
+        List<Bill> stack = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            String[] ids = validBill(random);
+            stack.add(Bill.parse(ids[0], ids[1]));
+        }
+        return stack;
+    }
+
+    // A random bill with its check digits worked out digit by digit, independently
+    // of Bill.checkDigit.
+    private static String[] validBill(Random random) {
+        StringBuilder bill = new StringBuilder();
+        bill.append(1 + random.nextInt(9));
+        int fileDigits = random.nextInt(7);
+        for (int i = 0; i < fileDigits; i++) {
+            bill.append(random.nextInt(10));
+        }
+        bill.append(String.format("%03d", random.nextInt(1000)));
+        int[] services = {1, 2, 3, 4, 5, 6, 8, 9};
+        bill.append(services[random.nextInt(services.length)]);
+        bill.append(reference(bill.toString()));
+        StringBuilder payment = new StringBuilder();
+        payment.append(1 + random.nextInt(9));
+        int amountDigits = random.nextInt(5);
+        for (int i = 0; i < amountDigits; i++) {
+            payment.append(random.nextInt(10));
+        }
+        payment.append(random.nextInt(10)).append(String.format("%02d", random.nextInt(100)));
+        payment.append(reference(payment.toString()));
+        payment.append(reference(bill.toString() + payment));
+        return new String[]{bill.toString(), payment.toString()};
+    }
+
+    private static int reference(String digits) {
+        int[] weights = {2, 3, 4, 5, 6, 7};
+        int sum = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            sum += Character.getNumericValue(digits.charAt(digits.length() - 1 - i)) * weights[i % 6];
+        }
+        return sum % 11 < 2 ? 0 : 11 - sum % 11;
+    }
+
+    // Leading zeros do not count, as on the printed bill.
+    private static boolean referenceValid(String bill, String payment) {
+        bill = bill.replaceFirst("^0+", "");
+        payment = payment.replaceFirst("^0+", "");
+        if (bill.length() < 6 || payment.length() < 6) {
+            return false;
+        }
+        int serviceType = bill.charAt(bill.length() - 2) - '0';
+        return serviceType != 0 && serviceType != 7
+                && reference(bill.substring(0, bill.length() - 1)) == bill.charAt(bill.length() - 1) - '0'
+                && reference(payment.substring(0, payment.length() - 2)) == payment.charAt(payment.length() - 2) - '0'
+                && reference(bill + payment.substring(0, payment.length() - 1)) == payment.charAt(payment.length() - 1) - '0'
+                && Long.parseLong(payment.substring(0, payment.length() - 5)) > 0;
+    }
+
+    private static String pad(String digits) {
+        StringBuilder padded = new StringBuilder();
+        while (padded.length() + digits.length() < 13) {
+            padded.append('0');
+        }
+        return padded.append(digits).toString();
+    }
+}
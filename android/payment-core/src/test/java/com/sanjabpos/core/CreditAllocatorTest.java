@@ -0,0 +1,123 @@
+package com.sanjabpos.core;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+// The engine on random baskets against two references: the float formula Credit.tsx
+// used (for baskets it handled: whole tomans, no line limits) and a BigDecimal
+// version of the documented rules (for everything else).
+public class CreditAllocatorTest {
+    private static final int BASKETS = 2_000;
+
+    // calculateCreditSpending() and calculateTotalCreditUsed() as Credit.tsx had them.
+    @Test
+    public void matchesTheLegacyFormulaOnBasketsItHandled() {
+        Random random = new Random(11);
+        for (int n = 0; n < BASKETS; n++) {
+            int count = 1 + random.nextInt(12);
+            List<CreditAllocator.Line> items = new ArrayList<>(count);
+            List<String> typed = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String amount = amount(random, false);
+                typed.add(amount);
+                items.add(line(random, i, CreditAllocator.parseToman(amount), false));
+            }
+            long credit = credit(random);
+            boolean useCredit = random.nextInt(5) != 0;
+            CreditAllocator.Allocation actual = CreditAllocator.allocate(items, credit * 10, useCredit);
+
+            double remaining = useCredit ? credit : 0;
+            double total = 0;
+            double used = 0;
+            for (int i = 0; i < typed.size(); i++) {
+                String message = "basket " + n + " line " + i;
+                double amount = Double.parseDouble(typed.get(i).replace(",", ""));
+                double payFromCredit = 0;
+                if (remaining > 0 && amount > 0) {
+                    payFromCredit = Math.min(amount, remaining);
+                    remaining -= payFromCredit;
+                }
+                total += amount;
+                used += payFromCredit;
+                assertEquals(message, Math.round(payFromCredit) * 10, actual.shares.get(i).payFromCredit);
+                assertEquals(message, typed.get(i).replace(",", ""),
+                        CreditAllocator.formatToman(actual.shares.get(i).line.price));
+            }
+            assertEquals("basket " + n, Math.round(used) * 10, actual.creditUsed);
+            assertEquals("basket " + n, Math.round(Math.max(0, total - used) * 10), actual.payable);
+        }
+    }
+
+    @Test
+    public void matchesTheReferenceRulesWithDecimalsAndLimits() {
+        Random random = new Random(13);
+        BigDecimal ten = BigDecimal.TEN;
+        for (int n = 0; n < BASKETS; n++) {
+            int count = 1 + random.nextInt(150);
+            List<CreditAllocator.Line> items = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                items.add(line(random, i, CreditAllocator.parseToman(amount(random, true)), true));
+            }
+            long credit = credit(random) * 10;
+            boolean useCredit = random.nextInt(5) != 0;
+            CreditAllocator.Allocation actual = CreditAllocator.allocate(items, credit, useCredit);
+
+            BigDecimal remaining = useCredit
+                    ? new BigDecimal(credit).divide(ten, 0, RoundingMode.DOWN) : BigDecimal.ZERO;
+            BigDecimal payable = BigDecimal.ZERO;
+            for (int i = 0; i < items.size(); i++) {
+                String message = "basket " + n + " line " + i;
+                CreditAllocator.Line line = items.get(i);
+                BigDecimal price = new BigDecimal(line.price).divide(ten);
+                BigDecimal fromCredit = price.min(remaining);
+                if (line.maxCredit >= 0) {
+                    fromCredit = fromCredit.min(new BigDecimal(line.maxCredit).divide(ten));
+                }
+                fromCredit = fromCredit.setScale(0, RoundingMode.DOWN);
+                remaining = remaining.subtract(fromCredit);
+                BigDecimal rest = price.subtract(fromCredit);
+                BigDecimal back = rest.multiply(new BigDecimal(line.cashbackBasisPoints))
+                        .divide(new BigDecimal(10_000)).setScale(0, RoundingMode.DOWN);
+                BigDecimal branch = back.multiply(new BigDecimal(line.branchShareBasisPoints))
+                        .divide(new BigDecimal(10_000)).setScale(0, RoundingMode.DOWN);
+                CreditAllocator.Share share = actual.shares.get(i);
+                assertEquals(message, fromCredit.multiply(ten).longValueExact(), share.payFromCredit);
+                assertEquals(message, rest.multiply(ten).longValueExact(), share.totalPrice);
+                assertEquals(message, back.multiply(ten).longValueExact(), share.payBack);
+                assertEquals(message, branch.multiply(ten).longValueExact(), share.branchShare);
+                payable = payable.add(rest);
+            }
+            assertEquals("basket " + n, payable.multiply(ten).longValueExact(), actual.payable);
+        }
+    }
+
+    // In tomans; a quarter of the baskets get none.
+    private static long credit(Random random) {
+        return random.nextInt(4) == 0 ? 0 : random.nextInt(3_000_000);
+    }
+
+    // Whole tomans with or without grouping; with decimals allowed, sometimes one or two.
+    private static String amount(Random random, boolean decimals) {
+        long tomans = 1_000 + random.nextInt(5_000_000);
+        String text = random.nextBoolean() ? String.format(Locale.US, "%,d", tomans) : Long.toString(tomans);
+        if (decimals && random.nextInt(4) == 0) {
+            text += "." + (random.nextBoolean() ? random.nextInt(10) : 10 + random.nextInt(90));
+        }
+        return text;
+    }
+
+    private static CreditAllocator.Line line(Random random, int i, long price, boolean limits) {
+        long maxCredit = limits && random.nextBoolean() ? random.nextInt(2_000_000) * 10L + random.nextInt(10) : -1;
+        int cashback = limits ? random.nextInt(2_001) : 0;
+        int branchShare = limits ? random.nextInt(10_001) : 0;
+        return new CreditAllocator.Line(i + 1, "خط " + (i + 1), price, maxCredit, cashback, branchShare);
+    }
+}
@@ -0,0 +1,123 @@
+package com.sanjabpos.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class CustomerTableTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("customer-credit", ".bin");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static CustomerTable.Customer customer(long credit, String phone) {
+        CustomerTable.Customer customer = new CustomerTable.Customer();
+        customer.credit = credit;
+        customer.userPhoneNumber = phone;
+        return customer;
+    }
+
+    @Test
+    public void savesAndLoadsCustomersLinksAndVersion() throws IOException {
+        CustomerTable table = new CustomerTable();
+        table.put("6037990000000001", customer(1_500_000, "09120000001"));
+        table.put("6037990000000002", customer(0, null));
+        table.linkCard("pan-a", "6037990000000001");
+        table.advanceVersion(42);
+        table.advanceVersion(7);
+        table.save(file);
+
+        CustomerTable loaded = new CustomerTable();
+        loaded.load(file);
+        assertEquals(2, loaded.size());
+        assertEquals(42, loaded.getVersion());
+        assertEquals(1_500_000, loaded.get("6037990000000001").credit);
+        assertNull(loaded.get("6037990000000002").userPhoneNumber);
+        assertEquals("6037990000000001", loaded.keyForPan("pan-a"));
+        assertNull(loaded.keyForPan("pan-b"));
+    }
+
+    @Test
+    public void keepsACardLinkedWhenItsCustomerIsReplaced() {
+        CustomerTable table = new CustomerTable();
+        table.put("c-1", customer(100, null));
+        table.linkCard("pan-a", "c-1");
+        table.remove("c-1");
+        assertNull(table.keyForPan("pan-a"));
+        table.put("c-1", customer(200, null));
+        assertEquals("c-1", table.keyForPan("pan-a"));
+        table.linkCard("pan-a", "c-2");
+        assertNull(table.keyForPan("pan-a"));
+    }
+
+    @Test
+    public void reconcilesCreditWithoutGoingNegative() {
+        CustomerTable table = new CustomerTable();
+        table.put("c-1", customer(10_000, null));
+        assertEquals(7_000, table.reconcile("c-1", 5_000, 2_000).credit);
+        assertEquals(0, table.reconcile("c-1", 50_000, 0).credit);
+        assertNull(table.reconcile("c-2", 1, 0));
+    }
+
+    @Test
+    public void handsOutCopies() {
+        CustomerTable table = new CustomerTable();
+        table.put("c-1", customer(10_000, null));
+        table.get("c-1").credit = 1;
+        assertEquals(10_000, table.get("c-1").credit);
+    }
+
+    @Test
+    public void readsTheFormatWithoutCardLinks() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(0x43434931);
+            out.writeLong(9);
+            out.writeInt(1);
+            out.writeUTF("c-1");
+            out.writeLong(3_000);
+            out.writeBoolean(true);
+            out.writeUTF("09120000001");
+            out.writeBoolean(false);
+            out.writeBoolean(false);
+        }
+        CustomerTable table = new CustomerTable();
+        table.load(file);
+        assertEquals(9, table.getVersion());
+        assertEquals("09120000001", table.get("c-1").userPhoneNumber);
+        assertEquals(0, table.cardCount());
+    }
+
+    @Test
+    public void startsEmptyFromADamagedFile() throws IOException {
+        CustomerTable table = new CustomerTable();
+        table.put("c-1", customer(100, null));
+        table.save(file);
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.getChannel().truncate(20);
+        }
+        try {
+            table.load(file);
+            fail("loaded a damaged file");
+        } catch (IOException expected) {
+            assertEquals(0, table.size());
+            assertEquals(0, table.getVersion());
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.sanjabpos.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JournalLogTest {
+    private File file;
+    private JournalLog log;
+
+    // What the listener saw while the log opened.
+    private static final class Opened {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<JournalLog.Replay> replay = new AtomicReference<>();
+        final AtomicReference<String> thread = new AtomicReference<>();
+        volatile IOException error;
+
+        JournalLog.Replay await() throws InterruptedException {
+            assertTrue("journal did not open", latch.await(10, TimeUnit.SECONDS));
+            return replay.get();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("journal", ".wal");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (log != null) {
+            log.close();
+        }
+        file.delete();
+    }
+
+    private Opened open() {
+        Opened opened = new Opened();
+        log = new JournalLog(file);
+        log.open(new JournalLog.Listener() {
+            @Override
+            public void replayed(JournalLog.Replay replay) {
+                opened.replay.set(replay);
+                opened.thread.set(Thread.currentThread().getName());
+            }
+
+            @Override
+            public void opened(IOException error) {
+                opened.error = error;
+                opened.latch.countDown();
+            }
+        }, "journal-writer");
+        return opened;
+    }
+
+    private void closeLog() throws IOException {
+        log.close();
+        log = null;
+    }
+
+    @Test
+    public void opensOnTheWriterThread() throws Exception {
+        Opened opened = open();
+        assertEquals(0, opened.await().entries.size());
+        assertEquals("journal-writer", opened.thread.get());
+        assertNull(opened.error);
+    }
+
+    @Test
+    public void replaysPendingEntriesAndDropsAcknowledgedOnes() throws Exception {
+        open().await();
+        log.append(JournalLog.INTENT, 1, "{\"amount\":1000}");
+        log.append(JournalLog.INTENT, 2, "{\"amount\":2000}");
+        log.append(JournalLog.RESULT, 1, "{\"resultCode\":0}");
+        log.append(JournalLog.RECONCILE, 2, "{\"attempts\":1}");
+        log.append(JournalLog.RECONCILE, 2, "{\"attempts\":2}");
+        log.append(JournalLog.INTENT, 3, "{\"amount\":3000}");
+        assertTrue(log.awaitDurable(log.append(JournalLog.ACK, 1, null), 5000));
+        closeLog();
+
+        JournalLog.Replay replay = open().await();
+        assertEquals(2, replay.entries.size());
+        assertFalse(replay.entries.containsKey(1L));
+        JournalLog.Entry second = replay.entries.get(2L);
+        assertEquals("{\"amount\":2000}", second.intent);
+        assertNull(second.result);
+        assertEquals("{\"attempts\":2}", second.reconcile);
+        assertEquals(3, replay.lastId);
+        assertFalse(replay.truncated);
+    }
+
+    @Test
+    public void compactsToThePendingEntries() throws Exception {
+        open().await();
+        long last = 0;
+        for (long id = 1; id <= 1000; id++) {
+            log.append(JournalLog.INTENT, id, "{\"amount\":1000}");
+            log.append(JournalLog.RESULT, id, "{\"resultCode\":0}");
+            if (id != 500) {
+                last = log.append(JournalLog.ACK, id, null);
+            }
+        }
+        assertTrue(log.awaitDurable(last, 5000));
+        closeLog();
+        long before = file.length();
+
+        JournalLog.Replay replay = open().await();
+        assertEquals(3000 - 1, replay.records);
+        assertEquals(1, replay.entries.size());
+        assertEquals(1000, replay.lastId);
+        assertTrue(file.length() < before / 100);
+        closeLog();
+
+        replay = open().await();
+        assertEquals(2, replay.records);
+        assertEquals("{\"resultCode\":0}", replay.entries.get(500L).result);
+    }
+
+    @Test
+    public void cutsOffATornTailAndKeepsAppending() throws Exception {
+        open().await();
+        log.append(JournalLog.INTENT, 1, "{\"amount\":1000}");
+        assertTrue(log.awaitDurable(log.append(JournalLog.INTENT, 2, "{\"amount\":2000}"), 5000));
+        closeLog();
+        // Half a record, as a crash mid-write leaves it.
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[]{0, 0, 0, 40, 1, 2, 3, 4, 'I', 0, 0});
+        }
+
+        JournalLog.Replay replay = open().await();
+        assertTrue(replay.truncated);
+        assertEquals(2, replay.entries.size());
+        assertTrue(log.awaitDurable(log.append(JournalLog.INTENT, 3, "{\"amount\":3000}"), 5000));
+        closeLog();
+
+        replay = open().await();
+        assertFalse(replay.truncated);
+        assertEquals(3, replay.entries.size());
+    }
+
+    @Test
+    public void stopsAtACorruptRecord() throws Exception {
+        open().await();
+        log.append(JournalLog.INTENT, 1, "{\"amount\":1000}");
+        assertTrue(log.awaitDurable(log.append(JournalLog.INTENT, 2, "{\"amount\":2000}"), 5000));
+        closeLog();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // Flips a byte in the second record's body.
+            raf.seek(raf.length() - 3);
+            raf.write('X');
+        }
+
+        JournalLog.Replay replay = JournalLog.replay(file);
+        assertTrue(replay.truncated);
+        assertEquals(1, replay.entries.size());
+        assertNotNull(replay.entries.get(1L));
+    }
+
+    @Test
+    public void setsAsideALogItCannotRead() throws Exception {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("{\"t\":\"I\",\"id\":1}\n".getBytes("UTF-8"));
+        }
+        Opened opened = open();
+        assertEquals(0, opened.await().entries.size());
+        assertNotNull(opened.error);
+        assertTrue(log.awaitDurable(log.append(JournalLog.INTENT, 1, "{}"), 5000));
+        File[] aside = file.getParentFile().listFiles((dir, name) -> name.startsWith(file.getName() + ".unreadable-"));
+        assertNotNull(aside);
+        assertEquals(1, aside.length);
+        aside[0].delete();
+    }
+
+    @Test
+    public void groupCommitsConcurrentAppends() throws Exception {
+        open().await();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            long base = t * 1000L;
+            threads[t] = new Thread(() -> {
+                for (long id = base; id < base + 200; id++) {
+                    try {
+                        assertTrue(log.awaitDurable(log.append(JournalLog.INTENT, id, "{}"), 5000));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        closeLog();
+        assertEquals(1600, open().await().entries.size());
+    }
+
+    @Test
+    public void nothingIsDurableWithoutAWriter() throws Exception {
+        JournalLog unopened = new JournalLog(file);
+        assertFalse(unopened.awaitDurable(unopened.append(JournalLog.INTENT, 1, "{}"), 100));
+    }
+}
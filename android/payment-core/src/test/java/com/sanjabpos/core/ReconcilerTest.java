@@ -0,0 +1,131 @@
+package com.sanjabpos.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReconcilerTest {
+    private static final long NOW = 1_700_000_000_000L;
+    private static final long HOUR = 60 * 60 * 1000;
+
+    // What the listener was told, in order.
+    private static final class Events implements Reconciler.Listener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void settled(Reconciler.Sale sale, Reconciler.Verdict verdict, Reconciler.Found found) {
+            events.add("settled " + sale.journalId + " " + verdict);
+        }
+
+        @Override
+        public void attempted(Reconciler.Sale sale) {
+        }
+
+        @Override
+        public void flagged(Reconciler.Sale sale, String reason) {
+            events.add("flagged " + sale.journalId + " " + reason);
+        }
+    }
+
+    private static Reconciler.Sale sale(long id) {
+        return new Reconciler.Sale(id, NOW - 2 * HOUR, 50_000, "sale-" + id, "00000" + id, null);
+    }
+
+    private static Reconciler.Found answer(Reconciler.Verdict verdict, long id) {
+        return new Reconciler.Found(verdict, 50_000, "sale-" + id, "00000" + id, "1402051200" + id, null);
+    }
+
+    private static Reconciler.Limits limits() {
+        Reconciler.Limits limits = new Reconciler.Limits();
+        limits.minIntervalMs = 0;
+        limits.retryBackoffMs = 0;
+        return limits;
+    }
+
+    // Runs until the sale's attempts are used up, answering every search the same way.
+    private static List<String> exhaust(Reconciler.Sale sale, Reconciler.Found found) throws InterruptedException {
+        Events events = new Events();
+        Reconciler.Limits limits = limits();
+        Reconciler reconciler = new Reconciler((key, value, createdAt) -> found, events, limits);
+        for (int run = 0; run < limits.maxAttempts; run++) {
+            reconciler.run(Collections.singletonList(sale), NOW + run * HOUR);
+        }
+        return events.events;
+    }
+
+    @Test
+    public void settlesAMatchingAnswer() throws InterruptedException {
+        Reconciler.Sale sale = sale(1);
+        Events events = new Events();
+        Reconciler.Report report = new Reconciler((key, value, createdAt) -> answer(Reconciler.Verdict.APPROVED, 1),
+                events, limits()).run(Collections.singletonList(sale), NOW);
+        assertEquals(1, report.approved);
+        assertEquals(Collections.singletonList("settled 1 APPROVED"), events.events);
+    }
+
+    @Test
+    public void declinesOnlyASaleThePspSaidItNeverSaw() throws InterruptedException {
+        Reconciler.Found notFound = new Reconciler.Found(Reconciler.Verdict.NOT_FOUND, -1, null, null, null, null);
+        assertEquals(Collections.singletonList("settled 1 DECLINED"), exhaust(sale(1), notFound));
+    }
+
+    @Test
+    public void neverDeclinesASaleTheSearchesFailedFor() throws InterruptedException {
+        assertEquals(Collections.singletonList("flagged 1 " + Reconciler.FLAG_UNANSWERED),
+                exhaust(sale(1), Reconciler.Found.error("service unavailable")));
+        assertEquals(Collections.singletonList("flagged 2 " + Reconciler.FLAG_UNANSWERED), exhaust(sale(2), null));
+    }
+
+    @Test
+    public void flagsASaleWithMixedAnswers() throws InterruptedException {
+        Reconciler.Sale sale = sale(1);
+        Events events = new Events();
+        Reconciler.Limits limits = limits();
+        List<Reconciler.Found> answers = new ArrayList<>(Arrays.asList(
+                new Reconciler.Found(Reconciler.Verdict.NOT_FOUND, -1, null, null, null, null),
+                Reconciler.Found.error("timeout"),
+                new Reconciler.Found(Reconciler.Verdict.NOT_FOUND, -1, null, null, null, null)));
+        Reconciler reconciler = new Reconciler((key, value, createdAt) -> answers.remove(0), events, limits);
+        for (int run = 0; run < limits.maxAttempts; run++) {
+            reconciler.run(Collections.singletonList(sale), NOW + run * HOUR);
+        }
+        assertEquals(Collections.singletonList("flagged 1 " + Reconciler.FLAG_UNANSWERED), events.events);
+    }
+
+    @Test
+    public void flagsAnAnswerForAnotherTransaction() throws InterruptedException {
+        Reconciler.Found other = new Reconciler.Found(Reconciler.Verdict.APPROVED, 70_000, "sale-1", "000001", null, null);
+        assertEquals(Collections.singletonList("flagged 1 " + Reconciler.FLAG_MISMATCH), exhaust(sale(1), other));
+    }
+
+    @Test
+    public void stopsWithoutCountingWhenThePspIsBusy() throws InterruptedException {
+        Reconciler.Sale first = sale(1);
+        Reconciler.Sale second = sale(2);
+        Events events = new Events();
+        Reconciler.Report report = new Reconciler(
+                (key, value, createdAt) -> Reconciler.Found.unavailable("REQUEST_IN_FLIGHT"), events, limits())
+                .run(Arrays.asList(first, second), NOW);
+        assertTrue(report.truncated);
+        assertEquals(0, report.searches);
+        assertEquals(0, first.attempts);
+        assertEquals(0, second.attempts);
+        assertTrue(events.events.isEmpty());
+    }
+
+    @Test
+    public void flagsASaleWithNothingToSearchBy() throws InterruptedException {
+        Reconciler.Sale sale = new Reconciler.Sale(1, NOW - 2 * HOUR, 50_000, null, null, null);
+        Events events = new Events();
+        new Reconciler((key, value, createdAt) -> {
+            throw new AssertionError("searched without an identifier");
+        }, events, limits()).run(Collections.singletonList(sale), NOW);
+        assertEquals(Collections.singletonList("flagged 1 " + Reconciler.FLAG_NO_IDENTIFIER), events.events);
+    }
+}
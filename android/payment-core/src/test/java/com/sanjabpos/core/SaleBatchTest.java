@@ -0,0 +1,73 @@
+package com.sanjabpos.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SaleBatchTest {
+    @Test
+    public void onlyTheServersVerdictOnASaleIsFinal() {
+        assertEquals(SaleBatch.Outcome.ACCEPTED, SaleBatch.classify(200));
+        assertEquals(SaleBatch.Outcome.ACCEPTED, SaleBatch.classify(201));
+        assertEquals(SaleBatch.Outcome.REJECTED, SaleBatch.classify(400));
+        assertEquals(SaleBatch.Outcome.REJECTED, SaleBatch.classify(422));
+        for (int code : new int[]{0, 302, 401, 403, 404, 408, 409, 425, 429, 500, 502, 503, 504}) {
+            assertEquals("code " + code, SaleBatch.Outcome.RETRY, SaleBatch.classify(code));
+        }
+    }
+
+    @Test
+    public void backsOffExponentiallyUpToTheCap() {
+        assertEquals(2000, SaleBatch.backoffMs(1, 2000, 60000));
+        assertEquals(4000, SaleBatch.backoffMs(2, 2000, 60000));
+        assertEquals(32000, SaleBatch.backoffMs(5, 2000, 60000));
+        assertEquals(60000, SaleBatch.backoffMs(6, 2000, 60000));
+        assertEquals(60000, SaleBatch.backoffMs(80, 2000, 60000));
+    }
+
+    @Test
+    public void embedsEachSaleUnderItsKey() throws IOException {
+        byte[] wire = SaleBatch.encode(Arrays.asList("k-1", "k\"2\\"), Arrays.asList("{\"amount\":1000}", "{\"amount\":2000}"));
+        assertEquals("{\"items\":[{\"idempotencyKey\":\"k-1\",\"transaction\":{\"amount\":1000}},"
+                + "{\"idempotencyKey\":\"k\\\"2\\\\\",\"transaction\":{\"amount\":2000}}]}", gunzip(wire));
+    }
+
+    @Test
+    public void compressesRepetitiveSales() throws IOException {
+        String sale = "{\"branchId\":12,\"lineId\":3,\"items\":[{\"lineId\":3,\"amount\":10000,\"credit\":0}],"
+                + "\"paymentMethod\":\"پوز - پوز آبی\"}";
+        String[] keys = new String[20];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "sale-" + i;
+        }
+        String body = SaleBatch.body(Arrays.asList(keys), Collections.nCopies(keys.length, sale));
+        byte[] wire = SaleBatch.encode(Arrays.asList(keys), Collections.nCopies(keys.length, sale));
+        assertTrue(wire.length * 4 < body.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesKeysWithoutPayloads() {
+        SaleBatch.body(Arrays.asList("k-1", "k-2"), Collections.singletonList("{}"));
+    }
+
+    private static String gunzip(byte[] wire) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(wire))) {
+            byte[] chunk = new byte[4096];
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                out.write(chunk, 0, n);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
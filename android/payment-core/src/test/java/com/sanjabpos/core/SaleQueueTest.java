@@ -0,0 +1,225 @@
+package com.sanjabpos.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SaleQueueTest {
+    private static final String SALE = "{\"branchId\":12,\"lineId\":3,\"items\":[{\"lineId\":3,\"amount\":10000}]}";
+
+    private File file;
+    private SaleQueue queue;
+    private final List<String> sent = new ArrayList<>();
+    private int backlogs;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("sale-queue", ".log");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (queue != null) {
+            queue.close();
+        }
+        file.delete();
+    }
+
+    private SaleQueue open() throws IOException {
+        if (queue != null) {
+            queue.close();
+        }
+        sent.clear();
+        queue = new SaleQueue(file, (key, payload) -> sent.add(key), () -> backlogs++);
+        return queue;
+    }
+
+    @Test
+    public void keepsQueuedSalesAcrossARestart() throws IOException {
+        open();
+        queue.add("k-1", SALE);
+        queue.add("k-2", SALE);
+        queue.add("k-3", SALE);
+        assertFalse(queue.add("k-2", SALE));
+        queue.setOnline(true);
+        assertEquals(3, sent.size());
+        queue.onAccepted("k-2");
+        queue.onRejected("k-3", false);
+        assertEquals(1, backlogs);
+
+        open().setOnline(true);
+        assertEquals(2, queue.size());
+        assertEquals("k-1", sent.get(0));
+        assertEquals("k-3", sent.get(1));
+    }
+
+    @Test
+    public void dropsOnlyPermanentRejections() throws IOException {
+        open().setOnline(true);
+        queue.add("k-1", SALE);
+        queue.add("k-2", SALE);
+        queue.onRejected("k-1", true);
+        queue.onRejected("k-2", false);
+        assertEquals(1, open().size());
+    }
+
+    @Test
+    public void addsByAppendingNotRewriting() throws IOException {
+        open();
+        long before = 0;
+        for (int i = 0; i < 2000; i++) {
+            before = queue.fileLength();
+            queue.add("sale-" + i, SALE);
+        }
+        long record = queue.fileLength() - before;
+        assertTrue(record < SALE.length() + 64);
+        assertTrue(queue.fileLength() < 2000 * record + 8);
+    }
+
+    @Test
+    public void compactsOnceDoneRecordsPileUp() throws IOException {
+        open().setOnline(true);
+        long largest = 0;
+        for (int i = 0; i < 5000; i++) {
+            queue.add("sale-" + i, SALE);
+            queue.onAccepted("sale-" + i);
+            largest = Math.max(largest, queue.fileLength());
+        }
+        queue.add("last", SALE);
+        assertTrue("log grew to " + largest, largest < 600 * (SALE.length() + 32));
+        assertEquals(0, queue.writeFailures());
+        assertEquals(1, open().size());
+    }
+
+    @Test
+    public void cutsOffATornTailAndKeepsAppending() throws IOException {
+        open();
+        queue.add("k-1", SALE);
+        queue.add("k-2", SALE);
+        queue.close();
+        queue = null;
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[]{0, 0, 0, 90, 1, 2, 3, 4, 'Q', 0});
+        }
+        open();
+        assertTrue(queue.wasTruncated());
+        assertEquals(2, queue.size());
+        queue.add("k-3", SALE);
+        assertEquals(3, open().size());
+        assertFalse(queue.wasTruncated());
+    }
+
+    @Test
+    public void setsAsideAFileItCannotRead() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("[{\"idempotencyKey\":\"k-1\",\"payload\":\"{}\"}]".getBytes("UTF-8"));
+        }
+        assertEquals(0, open().size());
+        queue.add("k-1", SALE);
+        assertEquals(1, open().size());
+        File[] aside = file.getParentFile().listFiles((dir, name) -> name.startsWith(file.getName() + ".unreadable-"));
+        assertEquals(1, aside.length);
+        aside[0].delete();
+    }
+
+    // A terminal on a flaky link: sales keep coming while the network drops, answers
+    // time out after the server took the sale, the server refuses some, and the
+    // process dies now and then with uploads in flight. No sale may be lost, and
+    // none sent again once the queue knew it was settled.
+    @Test
+    public void losesNoSaleOnAFlakyNetwork() throws IOException {
+        Random random = new Random(42);
+        Set<String> added = new HashSet<>();
+        Set<String> acknowledged = new HashSet<>();
+        Set<String> serverTook = new HashSet<>();
+        Set<String> refused = new HashSet<>();
+        List<String> outstanding = new ArrayList<>();
+        int[] duplicates = new int[1];
+        SaleQueue.Sender network = (key, payload) -> {
+            assertFalse("resent a settled sale " + key, acknowledged.contains(key));
+            outstanding.add(key);
+        };
+        queue = new SaleQueue(file, network, () -> backlogs++);
+        boolean online = false;
+        int next = 0;
+        int crashes = 0;
+        for (int step = 0; step < 20000; step++) {
+            int roll = random.nextInt(100);
+            if (roll < 30) {
+                String key = "sale-" + next++;
+                added.add(key);
+                queue.add(key, SALE);
+            } else if (roll < 35) {
+                online = !online;
+                queue.setOnline(online);
+            } else if (roll < 37) {
+                // The process dies; what was in flight never gets an answer.
+                queue.close();
+                outstanding.clear();
+                queue = new SaleQueue(file, network, () -> backlogs++);
+                online = false;
+                crashes++;
+            } else if (roll < 39 && online) {
+                // The sales job's retry after its backoff.
+                queue.setOnline(true);
+            } else if (!outstanding.isEmpty()) {
+                String key = outstanding.remove(random.nextInt(outstanding.size()));
+                int answer = random.nextInt(100);
+                if (!online || answer < 30) {
+                    queue.onRejected(key, false);
+                } else if (answer < 40) {
+                    // Taken, but the answer was lost on the way back.
+                    if (!serverTook.add(key)) {
+                        duplicates[0]++;
+                    }
+                    queue.onRejected(key, false);
+                } else if (answer < 42) {
+                    refused.add(key);
+                    queue.onRejected(key, true);
+                    acknowledged.add(key);
+                } else {
+                    if (!serverTook.add(key)) {
+                        duplicates[0]++;
+                    }
+                    queue.onAccepted(key);
+                    acknowledged.add(key);
+                }
+            }
+        }
+        // The link recovers.
+        queue.setOnline(true);
+        for (int round = 0; queue.size() > 0 && round < 100000; round++) {
+            if (outstanding.isEmpty()) {
+                queue.setOnline(true);
+                continue;
+            }
+            String key = outstanding.remove(0);
+            serverTook.add(key);
+            queue.onAccepted(key);
+            acknowledged.add(key);
+        }
+
+        assertTrue(crashes > 100);
+        assertEquals(0, queue.size());
+        for (String key : added) {
+            assertTrue("lost " + key, serverTook.contains(key) || refused.contains(key));
+        }
+        assertEquals(0, open().size());
+        assertTrue(queue.fileLength() < 1024);
+        assertTrue(duplicates[0] > 0);
+    }
+}
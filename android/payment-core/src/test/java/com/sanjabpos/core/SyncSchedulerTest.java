@@ -0,0 +1,147 @@
+package com.sanjabpos.core;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SyncSchedulerTest {
+    // However many requests arrive, a job owes at most one run besides the one in
+    // progress, and latency runs from the first request folded in.
+    @Test
+    public void foldsABurstIntoOneOwedRun() {
+        SyncScheduler scheduler = new SyncScheduler(1000, 8000);
+        scheduler.define("sales", SyncScheduler.NETWORK, 0, 0);
+        assertTrue(scheduler.request("sales", 0));
+        assertFalse(scheduler.request("sales", 5));
+        assertEquals("sales", scheduler.next(10));
+        assertNull(scheduler.next(10));
+        for (int i = 0; i < 1000; i++) {
+            scheduler.request("sales", 20 + i);
+        }
+        assertEquals(1, scheduler.queued());
+        scheduler.finish("sales", SyncScheduler.Result.SUCCESS, 2000);
+        assertEquals("sales", scheduler.next(2000));
+        scheduler.finish("sales", SyncScheduler.Result.SUCCESS, 2500);
+        assertNull(scheduler.next(2500));
+        assertEquals(0, scheduler.queued());
+
+        Map<String, Object> stats = stats(scheduler, "sales");
+        assertEquals(1002.0, stats.get("requests"));
+        assertEquals(1000.0, stats.get("coalesced"));
+        assertEquals(2.0, stats.get("runs"));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> latency = (Map<String, Object>) stats.get("latency");
+        assertEquals(2480.0, latency.get("maxMs"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnUnknownJob() {
+        new SyncScheduler(1000, 8000).request("unknown", 0);
+    }
+
+    @Test
+    public void waitsForNetworkAndBattery() {
+        SyncScheduler scheduler = new SyncScheduler(1000, 8000);
+        scheduler.define("sales", SyncScheduler.NETWORK, 0, 0);
+        scheduler.define("refresh", SyncScheduler.NETWORK | SyncScheduler.BATTERY_NOT_LOW, 0, 0);
+        scheduler.define("local", 0, 0, 0);
+        scheduler.setConditions(false, true);
+        scheduler.request("refresh", 0);
+        scheduler.request("sales", 1);
+        scheduler.request("local", 2);
+        assertEquals(2, scheduler.nextDueAt());
+        assertEquals("local", scheduler.next(5));
+        scheduler.finish("local", SyncScheduler.Result.SUCCESS, 5);
+        assertNull(scheduler.next(5));
+        assertEquals(Long.MAX_VALUE, scheduler.nextDueAt());
+
+        scheduler.setConditions(true, true);
+        assertEquals("sales", scheduler.next(6));
+        scheduler.finish("sales", SyncScheduler.Result.SUCCESS, 6);
+        assertNull(scheduler.next(6));
+
+        scheduler.setConditions(true, false);
+        assertEquals("refresh", scheduler.next(7));
+    }
+
+    // Backoff doubles up to the maximum, requests do not cut it short, and success
+    // starts over.
+    @Test
+    public void backsOffExponentially() {
+        SyncScheduler scheduler = new SyncScheduler(1000, 8000);
+        scheduler.define("sales", SyncScheduler.NETWORK, 0, 0);
+        scheduler.request("sales", 0);
+        long now = 0;
+        for (long backoff : new long[]{1000, 2000, 4000, 8000, 8000}) {
+            assertEquals("due after " + now, "sales", scheduler.next(now));
+            scheduler.finish("sales", SyncScheduler.Result.RETRY, now);
+            scheduler.request("sales", now + 1);
+            assertNull("backoff " + backoff, scheduler.next(now + backoff - 1));
+            assertEquals("backoff " + backoff, now + backoff, scheduler.nextDueAt());
+            now += backoff;
+        }
+        scheduler.next(now);
+        scheduler.finish("sales", SyncScheduler.Result.SUCCESS, now);
+        scheduler.request("sales", now);
+        scheduler.next(now);
+        scheduler.finish("sales", SyncScheduler.Result.RETRY, now);
+        assertEquals(now + 1000, scheduler.nextDueAt());
+
+        scheduler.next(now + 1000);
+        scheduler.finish("sales", SyncScheduler.Result.FAILURE, now + 1000);
+        assertEquals(0, scheduler.queued());
+    }
+
+    @Test
+    public void runsPeriodicJobsAPeriodAfterTheLastRun() {
+        SyncScheduler scheduler = new SyncScheduler(1000, 8000);
+        scheduler.define("refresh", SyncScheduler.NETWORK, 60_000, 0);
+        assertEquals("refresh", scheduler.next(0));
+        scheduler.finish("refresh", SyncScheduler.Result.SUCCESS, 100);
+        assertEquals(60_100, scheduler.nextDueAt());
+        scheduler.request("refresh", 1000);
+        assertEquals("refresh", scheduler.next(1000));
+        scheduler.finish("refresh", SyncScheduler.Result.FAILURE, 1200);
+        assertEquals(61_200, scheduler.nextDueAt());
+        scheduler.define("refresh", SyncScheduler.NETWORK, 30_000, 1200);
+        assertEquals(61_200, scheduler.nextDueAt());
+        scheduler.remove("refresh");
+        assertEquals(Long.MAX_VALUE, scheduler.nextDueAt());
+        assertEquals(0, scheduler.queued());
+    }
+
+    // A run timed outside starts whenever one is owed, whatever its due time, and
+    // is booked like any other.
+    @Test
+    public void startsAnOwedRunOnRequest() {
+        SyncScheduler scheduler = new SyncScheduler(1000, 8000);
+        scheduler.define("sales", SyncScheduler.NETWORK, 0, 0);
+        assertFalse(scheduler.start("sales"));
+        assertFalse(scheduler.start("unknown"));
+        scheduler.request("sales", 0);
+        scheduler.request("sales", 1);
+        assertTrue(scheduler.start("sales"));
+        assertFalse(scheduler.start("sales"));
+        scheduler.finish("sales", SyncScheduler.Result.RETRY, 100);
+        assertTrue(scheduler.start("sales"));
+        scheduler.finish("sales", SyncScheduler.Result.SUCCESS, 200);
+        assertFalse(scheduler.start("sales"));
+
+        Map<String, Object> stats = stats(scheduler, "sales");
+        assertEquals(2.0, stats.get("runs"));
+        assertEquals(1.0, stats.get("retries"));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> latency = (Map<String, Object>) stats.get("latency");
+        assertEquals(200.0, latency.get("maxMs"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> stats(SyncScheduler scheduler, String key) {
+        return (Map<String, Object>) ((Map<String, Object>) scheduler.stats(0).get("jobs")).get(key);
+    }
+}
@@ -0,0 +1,226 @@
+package com.sanjabpos.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Properties of the split over many random payments; a seed per run keeps a failure
+// reproducible.
+public class TashimSplitTest {
+    private static final int RUNS = 5000;
+
+    private static String iban(Random random) {
+        StringBuilder account = new StringBuilder(22);
+        for (int i = 0; i < 22; i++) {
+            account.append((char) ('0' + random.nextInt(10)));
+        }
+        for (int check = 2; check < 100; check++) {
+            String iban = String.format("IR%02d%s", check, account);
+            if (TashimSplit.validateIban(iban) == null) {
+                return iban;
+            }
+        }
+        throw new IllegalStateException(account.toString());
+    }
+
+    // Basis points that add up to 100%, each at least 1.
+    private static int[] basisPoints(Random random, int count) {
+        int[] cuts = new int[count - 1];
+        for (int i = 0; i < cuts.length; i++) {
+            cuts[i] = 1 + random.nextInt(9999);
+        }
+        Arrays.sort(cuts);
+        int[] points = new int[count];
+        int previous = 0;
+        for (int i = 0; i < cuts.length; i++) {
+            points[i] = cuts[i] - previous;
+            previous = cuts[i];
+        }
+        points[count - 1] = 10000 - previous;
+        for (int point : points) {
+            if (point <= 0) {
+                return basisPoints(random, count);
+            }
+        }
+        return points;
+    }
+
+    @Test
+    public void partsAddUpAndStayWithinARialOfTheirExactShare() {
+        Random random = new Random(8);
+        for (int run = 0; run < RUNS; run++) {
+            long total = 1 + (long) (Math.pow(10, 1 + random.nextInt(12)) * random.nextDouble());
+            int fixedCount = random.nextInt(3);
+            int percentCount = 1 + random.nextInt(20);
+            List<TashimShare> shares = new ArrayList<>();
+            long fixedTotal = 0;
+            boolean anyFixed = false;
+            for (int i = 0; i < fixedCount && fixedTotal < total; i++) {
+                long amount = 1 + (long) (random.nextDouble() * (total - fixedTotal) / 2);
+                shares.add(TashimShare.ofAmount(iban(random), amount));
+                fixedTotal += amount;
+                anyFixed = true;
+            }
+            int[] points = basisPoints(random, percentCount);
+            for (int point : points) {
+                shares.add(TashimShare.ofPercent(iban(random), point / 100.0));
+            }
+            long rest = total - fixedTotal;
+            String context = "run " + run + ", total " + total;
+
+            List<TashimSplit.Allocation> allocations = TashimSplit.allocate(total, shares);
+            assertEquals(context, shares.size(), allocations.size());
+            long sum = 0;
+            int roundedUp = 0;
+            long floors = 0;
+            for (int i = 0; i < allocations.size(); i++) {
+                TashimSplit.Allocation allocation = allocations.get(i);
+                TashimShare share = shares.get(i);
+                assertEquals(context, TashimSplit.cleanIban(share.iban), allocation.iban);
+                assertTrue(context, allocation.amount >= 0);
+                sum += allocation.amount;
+                if (share.amount > 0) {
+                    assertEquals(context, share.amount, allocation.amount);
+                    continue;
+                }
+                long floor = rest * share.basisPoints / 10000;
+                floors += floor;
+                assertTrue(context, allocation.amount == floor || allocation.amount == floor + 1);
+                if (allocation.amount == floor + 1) {
+                    roundedUp++;
+                }
+                assertEquals(context, anyFixed ? -1 : share.basisPoints,
+                        allocation.basisPoints);
+            }
+            assertEquals(context, total, sum);
+            assertEquals(context, rest - floors, roundedUp);
+        }
+    }
+
+    @Test
+    public void leftoverRialsGoToTheLargestRemainders() {
+        Random random = new Random(88);
+        for (int run = 0; run < RUNS / 4; run++) {
+            long total = 1 + random.nextInt(1_000_000);
+            int[] points = basisPoints(random, 2 + random.nextInt(10));
+            List<TashimShare> shares = new ArrayList<>();
+            for (int point : points) {
+                shares.add(TashimShare.ofPercent(iban(random), point / 100.0));
+            }
+            List<TashimSplit.Allocation> allocations = TashimSplit.allocate(total, shares);
+            long smallestUp = Long.MAX_VALUE;
+            long largestDown = -1;
+            for (int i = 0; i < points.length; i++) {
+                long remainder = total * points[i] % 10000;
+                if (allocations.get(i).amount > total * points[i] / 10000) {
+                    smallestUp = Math.min(smallestUp, remainder);
+                } else {
+                    largestDown = Math.max(largestDown, remainder);
+                }
+            }
+            assertTrue("run " + run, smallestUp == Long.MAX_VALUE || smallestUp >= largestDown);
+        }
+    }
+
+    @Test
+    public void reorderingSharesMovesNoAccountByMoreThanARial() {
+        Random random = new Random(888);
+        for (int run = 0; run < RUNS / 4; run++) {
+            long total = 1 + random.nextInt(100_000_000);
+            int[] points = basisPoints(random, 2 + random.nextInt(10));
+            List<TashimShare> shares = new ArrayList<>();
+            for (int point : points) {
+                shares.add(TashimShare.ofPercent(iban(random), point / 100.0));
+            }
+            List<TashimShare> shuffled = new ArrayList<>(shares);
+            Collections.shuffle(shuffled, random);
+            List<TashimSplit.Allocation> first = TashimSplit.allocate(total, shares);
+            List<TashimSplit.Allocation> second = TashimSplit.allocate(total, shuffled);
+            for (TashimSplit.Allocation a : first) {
+                for (TashimSplit.Allocation b : second) {
+                    if (a.iban.equals(b.iban)) {
+                        assertTrue("run " + run, Math.abs(a.amount - b.amount) <= 1);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sepehrLinesParseBackToTheSameSplit() {
+        Random random = new Random(8888);
+        for (int run = 0; run < 2000; run++) {
+            long total = 1 + random.nextInt(1_000_000_000);
+            int[] points = basisPoints(random, 1 + random.nextInt(8));
+            List<TashimShare> shares = new ArrayList<>();
+            for (int point : points) {
+                shares.add(TashimShare.ofPercent(iban(random), point / 100.0));
+            }
+            List<TashimSplit.Allocation> allocations = TashimSplit.allocate(total, shares);
+            List<TashimSplit.Allocation> again = TashimSplit.allocate(total,
+                    TashimSplit.parseLines(TashimSplit.toSepehrLines(allocations)));
+            assertEquals(TashimSplit.toSepehrLines(allocations), TashimSplit.toSepehrLines(again));
+        }
+    }
+
+    @Test
+    public void refusesSplitsThatDoNotCoverTheTotal() {
+        Random random = new Random(88888);
+        for (int run = 0; run < 2000; run++) {
+            long total = 2 + random.nextInt(1_000_000);
+            int[] points = basisPoints(random, 2 + random.nextInt(5));
+            points[0] += random.nextBoolean() ? 1 + random.nextInt(50) : -Math.min(points[0] - 1, 1 + random.nextInt(50));
+            List<TashimShare> shares = new ArrayList<>();
+            int sum = 0;
+            for (int point : points) {
+                shares.add(TashimShare.ofPercent(iban(random), point / 100.0));
+                sum += point;
+            }
+            if (sum == 10000) {
+                continue;
+            }
+            assertRefused(total, shares);
+        }
+        String iban = iban(random);
+        assertRefused(1000, Collections.singletonList(TashimShare.ofAmount(iban, 999)));
+        assertRefused(1000, Collections.singletonList(TashimShare.ofAmount(iban, 1001)));
+        List<TashimShare> duplicate = new ArrayList<>();
+        duplicate.add(TashimShare.ofPercent(iban, 50));
+        duplicate.add(TashimShare.ofPercent(iban.toLowerCase().replace("ir", "IR "), 50));
+        assertRefused(1000, duplicate);
+        assertRefused(0, Collections.singletonList(TashimShare.ofPercent(iban, 100)));
+    }
+
+    @Test
+    public void catchesEverySingleDigitTypoInAnIban() {
+        Random random = new Random(888888);
+        for (int run = 0; run < 2000; run++) {
+            String iban = iban(random);
+            assertNull(TashimSplit.validateIban(iban));
+            int position = 2 + random.nextInt(24);
+            char digit = iban.charAt(position);
+            char typo = (char) ('0' + (digit - '0' + 1 + random.nextInt(9)) % 10);
+            String wrong = iban.substring(0, position) + typo + iban.substring(position + 1);
+            assertNotNull(wrong, TashimSplit.validateIban(wrong));
+        }
+    }
+
+    private static void assertRefused(long total, List<TashimShare> shares) {
+        try {
+            TashimSplit.allocate(total, shares);
+            fail("allocated " + total + " over an invalid split");
+        } catch (IllegalArgumentException expected) {
+            assertNotNull(expected.getMessage());
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.sanjabpos.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Opening the store on logs a crash or a power cut can leave behind.
+public class TransactionStoreTest {
+    private static final TimeZone TEHRAN = TimeZone.getTimeZone("Asia/Tehran");
+    private static final long START = 1_700_000_000_000L;
+    private static final int SALES = 50;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("transactions", ".log");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] leftovers = file.getParentFile().listFiles((dir, name) -> name.startsWith(file.getName()));
+        if (leftovers != null) {
+            for (File leftover : leftovers) {
+                leftover.delete();
+            }
+        }
+    }
+
+    @Test
+    public void reopensWithItsSalesAndTotals() throws IOException {
+        long total;
+        try (TransactionStore store = new TransactionStore(file, TEHRAN)) {
+            store.openShift(START);
+            total = fill(store);
+        }
+        try (TransactionStore store = new TransactionStore(file, TEHRAN)) {
+            assertEquals(SALES, store.size());
+            assertEquals(1, store.currentShift());
+            assertEquals(total, store.shiftTotals(1).amount);
+            assertEquals("000007", store.findByKey("sale-7").stan);
+            assertTrue(store.findByKey("sale-7").settled);
+        }
+    }
+
+    // What a power cut can leave: the file grew, its last blocks never written.
+    @Test
+    public void cutsOffAZeroFilledTail() throws IOException {
+        long length = writeSales();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[4096]);
+        }
+        try (TransactionStore store = new TransactionStore(file, TEHRAN)) {
+            assertEquals(SALES, store.size());
+            assertEquals(length, file.length());
+            store.record(sale(SALES));
+        }
+        try (TransactionStore store = new TransactionStore(file, TEHRAN)) {
+            assertEquals(SALES + 1, store.size());
+            assertNotNull(store.findByKey("sale-" + SALES));
+        }
+    }
+
+    @Test
+    public void cutsOffATornRecord() throws IOException {
+        long length = writeSales();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length - 5);
+        }
+        try (TransactionStore store = new TransactionStore(file, TEHRAN)) {
+            // The last append was the settled copy of the last sale.
+            assertEquals(SALES, store.size());
+            assertFalse(store.findByKey("sale-" + (SALES - 1)).settled);
+        }
+    }
+
+    // A record whose length says 2 GB is not allocated, and nothing after it is read.
+    @Test
+    public void stopsAtAnImpossibleLength() throws IOException {
+        long length = writeSales();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true))) {
+            out.writeInt(Integer.MAX_VALUE);
+            out.writeInt(0);
+            out.write(new byte[64]);
+        }
+        try (TransactionStore store = new TransactionStore(file, TEHRAN)) {
+            assertEquals(SALES, store.size());
+            assertEquals(length, file.length());
+        }
+    }
+
+    @Test
+    public void stopsAtARecordThatFailsItsChecksum() throws IOException {
+        writeSales();
+        long second;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readInt();
+            second = 4 + 8 + in.readInt();
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(second + 12);
+            int b = raf.read();
+            raf.seek(second + 12);
+            raf.write(b ^ 0xff);
+        }
+        try (TransactionStore store = new TransactionStore(file, TEHRAN)) {
+            assertEquals(1, store.size());
+            assertEquals(second, file.length());
+            assertNull(store.findByKey("sale-1"));
+        }
+    }
+
+    @Test
+    public void movesAsideAFileItCannotRead() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[4096]);
+        }
+        try (TransactionStore store = new TransactionStore(file, TEHRAN)) {
+            assertEquals(0, store.size());
+            store.record(sale(0));
+        }
+        File[] aside = file.getParentFile().listFiles((dir, name) -> name.startsWith(file.getName() + ".unreadable-"));
+        assertEquals(1, aside.length);
+        assertEquals(4096, aside[0].length());
+    }
+
+    // A log written before records had a checksum is rewritten when opened.
+    @Test
+    public void upgradesALegacyLog() throws IOException {
+        writeSales();
+        File legacy = new File(file.getPath() + ".legacy");
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file));
+             DataOutputStream out = new DataOutputStream(new FileOutputStream(legacy))) {
+            in.readInt();
+            out.writeInt(0x54585331);
+            long left = file.length() - 4;
+            while (left > 0) {
+                int length = in.readInt();
+                in.readInt();
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                out.writeInt(length);
+                out.write(payload);
+                left -= 8 + length;
+            }
+        }
+        assertTrue(file.delete() && legacy.renameTo(file));
+        try (TransactionStore store = new TransactionStore(file, TEHRAN)) {
+            assertEquals(SALES, store.size());
+            store.record(sale(SALES));
+        }
+        try (TransactionStore store = new TransactionStore(file, TEHRAN)) {
+            assertEquals(SALES + 1, store.size());
+        }
+    }
+
+    // A log that is mostly older copies of sales is rewritten to the newest copy of
+    // each when opened, keeping rows in order, the totals and the current shift.
+    @Test
+    public void compactsALogOfMostlyOlderCopies() throws IOException {
+        long total = 0;
+        try (TransactionStore store = new TransactionStore(file, TEHRAN)) {
+            store.openShift(START);
+            for (int i = 0; i < SALES; i++) {
+                TransactionStore.Sale sale = sale(i);
+                store.record(sale);
+                total += sale.amount();
+            }
+            // Each re-record is a full copy; about 2 MB of them.
+            for (int round = 0; round < 400; round++) {
+                for (int i = 0; i < SALES; i++) {
+                    TransactionStore.Sale copy = new TransactionStore.Sale("sale-" + i, START + i * 60_000L);
+                    copy.settled = round > 0;
+                    store.record(copy);
+                }
+            }
+        }
+        long written = file.length();
+        try (TransactionStore store = new TransactionStore(file, TEHRAN)) {
+            assertTrue(file.length() < written / 100);
+            assertEquals(SALES, store.size());
+            assertEquals(1, store.currentShift());
+            assertEquals(total, store.shiftTotals(1).amount);
+            assertTrue(store.findByKey("sale-7").settled);
+            assertEquals("000007", store.findByKey("sale-7").stan);
+            store.record(sale(SALES));
+        }
+        try (TransactionStore store = new TransactionStore(file, TEHRAN)) {
+            assertEquals(SALES + 1, store.size());
+            assertEquals(total + sale(SALES).amount(), store.shiftTotals(1).amount);
+            assertFalse(new File(file.getPath() + ".tmp").exists());
+        }
+    }
+
+    // The file length after SALES sales, each recorded and then settled.
+    private long writeSales() throws IOException {
+        try (TransactionStore store = new TransactionStore(file, TEHRAN)) {
+            fill(store);
+        }
+        return file.length();
+    }
+
+    private static long fill(TransactionStore store) throws IOException {
+        long total = 0;
+        for (int i = 0; i < SALES; i++) {
+            TransactionStore.Sale sale = sale(i);
+            store.record(sale);
+            TransactionStore.Sale settled = new TransactionStore.Sale(sale.key, sale.time);
+            settled.settled = true;
+            store.record(settled);
+            total += sale.amount();
+        }
+        return total;
+    }
+
+    private static TransactionStore.Sale sale(int i) {
+        TransactionStore.Sale sale = new TransactionStore.Sale("sale-" + i, START + i * 60_000L);
+        sale.stan = String.format("%06d", i);
+        sale.rrn = String.format("%012d", 140000000000L + i);
+        sale.provider = "ikc";
+        sale.lines.add(new TransactionStore.Line(1 + i % 3, "نقد", 10_000 + i * 1_000L, 0, 0));
+        sale.paid = sale.amount();
+        return sale;
+    }
+}
@@ -1,6 +1,7 @@
 import React from 'react';
-import { View, ActivityIndicator, StyleSheet } from 'react-native';
+import { View, Text, ActivityIndicator, StyleSheet } from 'react-native';
 import { useInternet } from '../providers/InternetProvider';
+import { useAuth } from '../hooks/useAuth';
 import NoInternet from '../screens/NoInternet';
 
 interface InternetGuardProps {
@@ -9,6 +10,7 @@ interface InternetGuardProps {
 
 const InternetGuard: React.FC<InternetGuardProps> = ({ children }) => {
     const { isConnected, isChecking, checkConnection } = useInternet();
+    const { isAuthenticated, isLoading } = useAuth();
 
     // Show loading while checking connection
     if (isChecking) {
@@ -19,16 +21,40 @@ const InternetGuard: React.FC<InternetGuardProps> = ({ children }) => {
         );
     }
 
-    // Show NoInternet screen if not connected
-    if (isConnected === false) {
+    // Show NoInternet screen if not connected and not logged in (login needs the backend)
+    if (isConnected === false && !isAuthenticated && !isLoading) {
         return <NoInternet onRetry={checkConnection} />;
     }
 
-    // Show app content if connected
-    return <>{children}</>;
+    // A logged-in terminal keeps selling offline: card payments go through the PSP app
+    // and sales wait in the native queue until the connection comes back.
+    // The wrapper stays the same either way so the navigator is not remounted.
+    return (
+        <View style={styles.container}>
+            {isConnected === false && (
+                <View style={styles.offlineBanner}>
+                    <Text style={styles.offlineText}>حالت آفلاین - فروش‌ها پس از اتصال ارسال می‌شوند</Text>
+                </View>
+            )}
+            {children}
+        </View>
+    );
 };
 
 const styles = StyleSheet.create({
+    container: {
+        flex: 1,
+    },
+    offlineBanner: {
+        backgroundColor: '#264653',
+        paddingVertical: 4,
+        alignItems: 'center',
+    },
+    offlineText: {
+        color: 'white',
+        fontSize: 12,
+        fontFamily: 'IRANSansWebFaNum',
+    },
     loadingContainer: {
         flex: 1,
         justifyContent: 'center',
@@ -1,6 +1,11 @@
+import { useEffect } from 'react';
 import { useQuery, useMutation, useQueryClient } from '@tanstack/react-query';
-import { apiClient, API_ENDPOINTS, type ApiResponse, type SendOtpRequest, type SendOtpResponse, type VerifyOtpRequest, type VerifyOtpResponse, type Payment, type Report, type Service, type Credit, type MobileOperator, type Price, type UserProfile, type UserProfileResponse, type Branch, type Line, type BranchesResponse, type BranchResponse, type LinesDropdownResponse, type Customer, type CustomerResponse, type TransactionRequest, type TransactionResponse, type BusinessInfoResponse } from '../services/api';
+import { apiClient, API_ENDPOINTS, type ApiResponse, type SendOtpRequest, type SendOtpResponse, type VerifyOtpRequest, type VerifyOtpResponse, type Payment, type Report, type Service, type Credit, type MobileOperator, type Price, type UserProfile, type UserProfileResponse, type Branch, type Line, type BranchesResponse, type BranchResponse, type LinesDropdownResponse, type Customer, type CustomerResponse, type UploadTransactionRequest, type TransactionResponse, type BusinessInfoResponse } from '../services/api';
 import { TokenManager } from '../utils/tokenManager';
+import { uploadTransaction } from '../services/transactionUpload';
+import { lookupLocalCustomer, rememberCustomer } from '../services/customerCredit';
+import { getTodayTotals } from '../services/localTransactions';
+import { scheduleRefresh, cancelRefresh, onSyncResult } from '../services/backgroundSync';
 
 // Query keys for React Query
 export const queryKeys = {
@@ -14,6 +19,7 @@ export const queryKeys = {
     // Reports
     reports: ['reports'] as const,
     report: (id: string) => ['reports', id] as const,
+    todaySales: ['reports', 'today'] as const,
 
     // Services
     services: ['services'] as const,
@@ -164,6 +170,17 @@ export const useReport = (id: string) => {
     });
 };
 
+// Today's totals from the on-device sales log; they change with every sale, so
+// nothing is cached
+export const useTodaySales = () => {
+    return useQuery({
+        queryKey: queryKeys.todaySales,
+        queryFn: getTodayTotals,
+        staleTime: 0,
+        gcTime: 0,
+    });
+};
+
 // Service hooks (using branches and lines)
 export const useServices = () => {
     return useQuery({
@@ -267,6 +284,7 @@ export const useMobileRecharge = () => {
         onSuccess: () => {
             // Invalidate relevant queries
             queryClient.invalidateQueries({ queryKey: queryKeys.credits });
+            queryClient.invalidateQueries({ queryKey: queryKeys.todaySales });
         },
     });
 };
@@ -337,7 +355,15 @@ export const useCustomer = (cardNumber: string, branchId: number) => {
     return useQuery({
         queryKey: queryKeys.customer(cardNumber, branchId),
         queryFn: async (): Promise<CustomerResponse> => {
+            // Serve from the on-device index first; it is kept current by delta sync
+            const local = await lookupLocalCustomer(cardNumber, branchId);
+            if (local) {
+                return { Message: '', Code: 200, Data: local };
+            }
             const response = await apiClient.get(API_ENDPOINTS.CUSTOMER(cardNumber, branchId));
+            if (response.data?.Code === 200 && response.data?.Data) {
+                rememberCustomer(cardNumber, branchId, response.data.Data);
+            }
             return response.data;
         },
         enabled: !!cardNumber && !!branchId,
@@ -349,13 +375,45 @@ export const useCreateTransaction = () => {
     const queryClient = useQueryClient();
 
     return useMutation({
-        mutationFn: async (transactionData: TransactionRequest): Promise<TransactionResponse> => {
-            const response = await apiClient.post(API_ENDPOINTS.TRANSACTION, transactionData);
-            return response.data;
+        mutationFn: async ({ idempotencyKey, ...transactionData }: UploadTransactionRequest): Promise<TransactionResponse> => {
+            return uploadTransaction(transactionData, idempotencyKey);
         },
         onSuccess: () => {
             // Invalidate relevant queries
             queryClient.invalidateQueries({ queryKey: queryKeys.credits });
+            queryClient.invalidateQueries({ queryKey: queryKeys.todaySales });
         },
     });
-}; 
\ No newline at end of file
+}; 
+
+// Catalogs refreshed natively in the background, and how often
+const BACKGROUND_REFRESH_INTERVAL_MS = 15 * 60 * 1000;
+const backgroundRefreshes = [
+    { path: API_ENDPOINTS.BRANCHES, queryKey: queryKeys.branches },
+    { path: API_ENDPOINTS.CREDITS, queryKey: queryKeys.credits },
+    { path: API_ENDPOINTS.MOBILE_OPERATORS, queryKey: queryKeys.mobileOperators },
+    { path: API_ENDPOINTS.PRICES, queryKey: queryKeys.prices },
+];
+
+// Keep the catalogs fresh while the app is in the background or the cashier is in
+// the PSP app; each refreshed body goes straight into the query cache
+export const useBackgroundRefresh = (enabled: boolean) => {
+    const queryClient = useQueryClient();
+
+    useEffect(() => {
+        if (!enabled) {
+            return;
+        }
+        const unsubscribe = onSyncResult((event) => {
+            const refresh = backgroundRefreshes.find(item => item.path === event.path);
+            if (refresh && event.data) {
+                queryClient.setQueryData(refresh.queryKey, event.data);
+            }
+        });
+        backgroundRefreshes.forEach(item => scheduleRefresh(item.path, BACKGROUND_REFRESH_INTERVAL_MS));
+        return () => {
+            backgroundRefreshes.forEach(item => cancelRefresh(item.path));
+            unsubscribe();
+        };
+    }, [enabled, queryClient]);
+};
@@ -1,5 +1,6 @@
 import { useState, useEffect } from 'react';
 import { TokenManager, type UserData, type BusinessProfile, type Branch } from '../utils/tokenManager';
+import { sessionStore, type Session } from '../utils/sessionStore';
 
 export interface AuthState {
     isAuthenticated: boolean;
@@ -10,68 +11,39 @@ export interface AuthState {
     token: string | null;
 }
 
+const toAuthState = (session: Session, isLoading: boolean): AuthState => ({
+    isAuthenticated: !!session.token,
+    isLoading,
+    userData: session.userData,
+    businessProfile: session.businessProfile,
+    selectedBranch: session.selectedBranch,
+    token: session.token,
+});
+
+// Every mounted useAuth follows the shared session store, so a login, logout or
+// expiry anywhere is seen by AuthGuard and the screens without re-reading storage.
 export const useAuth = () => {
-    const [authState, setAuthState] = useState<AuthState>({
-        isAuthenticated: false,
-        isLoading: true,
-        userData: null,
-        businessProfile: null,
-        selectedBranch: null,
-        token: null,
-    });
+    const [authState, setAuthState] = useState<AuthState>(() =>
+        toAuthState(sessionStore.get(), !sessionStore.isLoaded())
+    );
 
     // Check authentication status on mount
     useEffect(() => {
+        const unsubscribe = sessionStore.subscribe((session) => {
+            setAuthState(toAuthState(session, false));
+        });
         checkAuthStatus();
+        return unsubscribe;
     }, []);
 
     const checkAuthStatus = async () => {
-        try {
-            setAuthState(prev => ({ ...prev, isLoading: true }));
-
-            const [token, userData, businessProfile, selectedBranch] = await Promise.all([
-                TokenManager.getToken(),
-                TokenManager.getUserData(),
-                TokenManager.getBusinessProfile(),
-                TokenManager.getSelectedBranch(),
-            ]);
-
-            setAuthState({
-                isAuthenticated: !!token,
-                isLoading: false,
-                userData,
-                businessProfile,
-                selectedBranch,
-                token,
-            });
-        } catch (error) {
-            console.error('Error checking auth status:', error);
-            setAuthState({
-                isAuthenticated: false,
-                isLoading: false,
-                userData: null,
-                businessProfile: null,
-                selectedBranch: null,
-                token: null,
-            });
-        }
+        const session = await sessionStore.load();
+        setAuthState(toAuthState(session, false));
     };
 
     const login = async (token: string, userData?: UserData) => {
         try {
-            await TokenManager.storeToken(token);
-            if (userData) {
-                await TokenManager.storeUserData(userData);
-            }
-
-            setAuthState({
-                isAuthenticated: true,
-                isLoading: false,
-                userData: userData || null,
-                businessProfile: null,
-                selectedBranch: null,
-                token,
-            });
+            await sessionStore.update({ token, userData: userData || null, businessProfile: null, selectedBranch: null });
 
             return true;
         } catch (error) {
@@ -83,10 +55,6 @@ export const useAuth = () => {
     const setSelectedBranch = async (branch: Branch) => {
         try {
             await TokenManager.storeSelectedBranch(branch);
-            setAuthState(prev => ({
-                ...prev,
-                selectedBranch: branch,
-            }));
             return true;
         } catch (error) {
             console.error('Error setting selected branch:', error);
@@ -97,10 +65,6 @@ export const useAuth = () => {
     const setBusinessProfile = async (businessProfile: BusinessProfile) => {
         try {
             await TokenManager.storeBusinessProfile(businessProfile);
-            setAuthState(prev => ({
-                ...prev,
-                businessProfile: businessProfile,
-            }));
             return true;
         } catch (error) {
             console.error('Error setting business profile:', error);
@@ -111,14 +75,6 @@ export const useAuth = () => {
     const logout = async () => {
         try {
             await TokenManager.clearAuthData();
-            setAuthState({
-                isAuthenticated: false,
-                isLoading: false,
-                userData: null,
-                businessProfile: null,
-                selectedBranch: null,
-                token: null,
-            });
             return true;
         } catch (error) {
             console.error('Error during logout:', error);
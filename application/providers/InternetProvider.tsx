@@ -1,5 +1,6 @@
-import React, { createContext, useContext, ReactNode } from 'react';
+import React, { createContext, useContext, useEffect, ReactNode } from 'react';
 import { useInternetConnection } from '../hooks/useInternetConnection';
+import { setSaleQueueOnline } from '../services/transactionUpload';
 
 interface InternetContextType {
     isConnected: boolean | null;
@@ -16,6 +17,13 @@ interface InternetProviderProps {
 export const InternetProvider: React.FC<InternetProviderProps> = ({ children }) => {
     const { isConnected, isChecking, checkConnection } = useInternetConnection();
 
+    // Let the native sale queue drain only while we are online
+    useEffect(() => {
+        if (isConnected !== null) {
+            setSaleQueueOnline(isConnected);
+        }
+    }, [isConnected]);
+
     return (
         <InternetContext.Provider
             value={{
@@ -1,5 +1,7 @@
-import React from 'react';
+import React, { useEffect, useState } from 'react';
 import { QueryClient, QueryClientProvider } from '@tanstack/react-query';
+import { sessionStore } from '../utils/sessionStore';
+import { persistQuerySnapshot, restoreQuerySnapshot } from '../utils/querySnapshot';
 
 // Create a client
 const queryClient = new QueryClient({
@@ -7,7 +9,9 @@ const queryClient = new QueryClient({
         queries: {
             // Global query options
             staleTime: 5 * 60 * 1000, // 5 minutes
-            gcTime: 10 * 60 * 1000, // 10 minutes (formerly cacheTime)
+            // Kept as long as the on-disk snapshot, so catalog lists are still there to
+            // persist when no screen is using them (formerly cacheTime)
+            gcTime: 24 * 60 * 60 * 1000,
             retry: (failureCount, error: any) => {
                 // Don't retry on 4xx errors
                 if (error?.response?.status >= 400 && error?.response?.status < 500) {
@@ -26,11 +30,52 @@ const queryClient = new QueryClient({
     },
 });
 
+// Started on import so the disk read overlaps with the rest of start-up
+const restoring = sessionStore.load().then(async (session) => {
+    await restoreQuerySnapshot(queryClient, !!session.token);
+}).catch((error) => {
+    console.error('Error restoring query cache:', error);
+});
+let restored = false;
+restoring.then(() => {
+    restored = true;
+});
+
 interface QueryProviderProps {
     children: React.ReactNode;
 }
 
 export const QueryProvider: React.FC<QueryProviderProps> = ({ children }) => {
+    const [isRestoring, setIsRestoring] = useState(!restored);
+
+    useEffect(() => {
+        let mounted = true;
+        let stopPersisting: (() => void) | null = null;
+        restoring.then(() => {
+            if (!mounted) {
+                return;
+            }
+            setIsRestoring(false);
+            stopPersisting = persistQuerySnapshot(queryClient);
+        });
+        // Another user's lists must not survive a logout or an expired session
+        const unsubscribe = sessionStore.subscribe((session) => {
+            if (!session.token) {
+                queryClient.clear();
+            }
+        });
+        return () => {
+            mounted = false;
+            unsubscribe();
+            stopPersisting?.();
+        };
+    }, []);
+
+    // Render nothing until the snapshot is in the cache, so screens mount with it
+    if (isRestoring) {
+        return null;
+    }
+
     return (
         <QueryClientProvider client={queryClient}>
             {children}
@@ -38,4 +83,4 @@ export const QueryProvider: React.FC<QueryProviderProps> = ({ children }) => {
     );
 };
 
-export { queryClient }; 
\ No newline at end of file
+export { queryClient };
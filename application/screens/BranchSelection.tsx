@@ -13,6 +13,7 @@ import { useBranches } from '../hooks/useApi';
 import { useAuth } from '../hooks/useAuth';
 import { AuthGuard } from '../components/AuthGuard';
 import { useSnackbarContext } from '../providers/SnackbarProvider';
+import { useTimeToInteractive } from '../utils/tti';
 
 interface BranchSelectionProps {
     navigation: any;
@@ -22,6 +23,7 @@ interface BranchSelectionProps {
 function BranchSelection({ navigation, route }: BranchSelectionProps): React.JSX.Element {
     const { data: branchesData, isLoading, error, refetch } = useBranches();
     const { setSelectedBranch } = useAuth();
+    useTimeToInteractive('BranchSelection', !!branchesData);
 
     return (
         <AuthGuard navigation={navigation} route={route} requireAuth={true} requireBranch={false}>
@@ -5,7 +5,7 @@
  * @format
  */
 
-import React, { useState, useEffect } from 'react';
+import React, { useState, useEffect, useMemo } from 'react';
 import {
   SafeAreaView,
   StatusBar,
@@ -20,7 +20,8 @@ import ArrowRight from '../components/ArrowRight';
 import MoneyIcon from '../components/MoneyIcon';
 import AsyncStorage from '@react-native-async-storage/async-storage';
 import { useServiceContext } from '../providers/ServiceProvider';
-import { useCreateTransaction } from '../hooks/useApi';
+import { useCreateTransaction, useLinesDropdown } from '../hooks/useApi';
+import { allocateCredit } from '../services/creditAllocation';
 import { useSnackbarContext } from '../providers/SnackbarProvider';
 
 const { width, height } = Dimensions.get('window');
@@ -35,13 +36,13 @@ function Credit({ navigation }: { navigation: any }): React.JSX.Element {
   const { showError } = useSnackbarContext();
   const [selectedOption, setSelectedOption] = useState<string>('useCredit');
   const [credit, setCredit] = useState<number>(0);
-  const [totalAmount, setTotalAmount] = useState<number>(0);
-  const [finalAmountToPay, setFinalAmountToPay] = useState<number>(0);
   const [customerData, setCustomerData] = useState<any>(null);
   const [branchId, setBranchId] = useState<number>(92); // Default branch ID
 
   // Get service context to access selected services and amounts
-  const { selectedServices, getTotalAmount, getServicesWithPrices } = useServiceContext();
+  const { selectedServices, getServicesWithPrices } = useServiceContext();
+  // Per-line credit limits and cashback percents
+  const { data: linesResponse } = useLinesDropdown(branchId);
 
   // Transaction mutation
   const createTransactionMutation = useCreateTransaction();
@@ -60,70 +61,15 @@ function Credit({ navigation }: { navigation: any }): React.JSX.Element {
     setSelectedOption(optionId);
   };
 
-  // Calculate total credit used across all services
-  const calculateTotalCreditUsed = (): number => {
-    if (selectedOption !== 'useCredit' || credit <= 0) {
-      return 0;
-    }
-
-    const servicesWithPrices = getServicesWithPrices();
-    let remainingCredit = credit;
-    let totalCreditUsed = 0;
-
-    servicesWithPrices.forEach(service => {
-      const serviceAmount = parseFloat(service.amount?.replace(/,/g, '') || '0');
-      if (remainingCredit > 0 && serviceAmount > 0) {
-        const creditUsedForService = Math.min(serviceAmount, remainingCredit);
-        totalCreditUsed += creditUsedForService;
-        remainingCredit -= creditUsedForService;
-      }
-    });
-
-    return totalCreditUsed;
-  };
-
-  // Calculate total amount and final amount to pay
-  const calculateAmounts = () => {
-    const total = getTotalAmount();
-    setTotalAmount(total);
-
-    // Calculate final amount based on credit usage
-    let finalAmount = total;
-    if (selectedOption === 'useCredit' && credit > 0) {
-      // Calculate actual credit used and deduct from total
-      const actualCreditUsed = calculateTotalCreditUsed();
-      finalAmount = Math.max(0, total - actualCreditUsed);
-    }
-    setFinalAmountToPay(finalAmount);
-  };
-
-  // Function to calculate credit spending for each service
-  const calculateCreditSpending = () => {
-    const servicesWithPrices = getServicesWithPrices();
-    let remainingCredit = selectedOption === 'useCredit' ? credit : 0;
-
-    return servicesWithPrices.map(service => {
-      const serviceAmount = parseFloat(service.amount?.replace(/,/g, '') || '0');
-      let payFromCredit = 0;
-
-      if (remainingCredit > 0 && serviceAmount > 0) {
-        // Spend credit on this service (up to the service amount or remaining credit)
-        payFromCredit = Math.min(serviceAmount, remainingCredit);
-        remainingCredit -= payFromCredit;
-      }
+  // Credit spending per line and the amount left for the card, in one native call
+  const allocation = useMemo(
+    () => allocateCredit(getServicesWithPrices(), linesResponse?.Data?.lines ?? [], credit, selectedOption === 'useCredit'),
+    [selectedServices, linesResponse, credit, selectedOption]
+  );
+  const totalAmount = allocation?.totalAmount ?? 0;
+  const finalAmountToPay = allocation?.finalAmountToPay ?? 0;
+  const creditUsed = allocation?.creditUsed ?? 0;
 
-      return {
-        lineId: parseInt(service.id),
-        lineTitle: service.title,
-        price: service.amount?.replace(/,/g, '') || '0',
-        payFromCredit: Math.round(payFromCredit),
-        description: '',
-        PaymentMethod: 'پوز - پوز آبی'
-      };
-    });
-  };
-  console.log('customerData', calculateCreditSpending());
-  console.log('Total credit used:', calculateTotalCreditUsed());
   // Function to convert Persian numbers to English
   const convertPersianToEnglish = (persianNumber: string): string => {
     const persianNumbers = ['۰', '۱', '۲', '۳', '۴', '۵', '۶', '۷', '۸', '۹'];
@@ -154,7 +100,11 @@ function Credit({ navigation }: { navigation: any }): React.JSX.Element {
       return;
     }
 
-    const cashBackDto = calculateCreditSpending();
+    if (!allocation) {
+      showError('مبلغ وارد شده نادرست است');
+      return;
+    }
+    const cashBackDto = allocation.cashBackDto;
 
     const transactionData = {
       cashBackDto,
@@ -168,7 +118,8 @@ function Credit({ navigation }: { navigation: any }): React.JSX.Element {
       navigation.navigate('Payment', {
         totalAmount: finalAmountToPay,
         finalAmountToPay: finalAmountToPay,
-        creditUsed: calculateTotalCreditUsed(),
+        payableRials: allocation.payableRials,
+        creditUsed,
         creditOption: selectedOption,
         transactionResult: transactionData
       });
@@ -178,7 +129,7 @@ function Credit({ navigation }: { navigation: any }): React.JSX.Element {
       navigation.navigate('Success', {
         totalAmount: totalAmount,
         finalAmountToPay: finalAmountToPay,
-        creditUsed: calculateTotalCreditUsed(),
+        creditUsed,
         creditOption: selectedOption,
         transactionResult: transactionData,
         result: '',
@@ -247,11 +198,6 @@ function Credit({ navigation }: { navigation: any }): React.JSX.Element {
     loadSavedData();
   }, []);
 
-  // Calculate amounts when selected services or credit option changes
-  useEffect(() => {
-    calculateAmounts();
-  }, [selectedServices, selectedOption, credit]);
-
   return (
     <SafeAreaView style={styles.container}>
       <StatusBar barStyle="light-content" backgroundColor="#FF6B35" />
@@ -326,7 +272,7 @@ function Credit({ navigation }: { navigation: any }): React.JSX.Element {
             </View>
             <View style={[styles.summaryRow, { marginBottom: 0 }]}>
               <Text style={styles.summaryValue}>
-                {formatNumberWithSeparator(calculateTotalCreditUsed())} تومان
+                {formatNumberWithSeparator(creditUsed)} تومان
               </Text>
               <Text style={styles.summaryLabel}>اعتبار استفاده شده:</Text>
             </View>
@@ -345,7 +291,7 @@ function Credit({ navigation }: { navigation: any }): React.JSX.Element {
         {selectedOption === 'useCredit' && credit > 0 && totalAmount > 0 && (
           <View style={styles.creditInfo}>
             <Text style={styles.originalAmountText}>
-              {formatNumberWithSeparator(calculateTotalCreditUsed())} تومان
+              {formatNumberWithSeparator(creditUsed)} تومان
             </Text>
             <Text style={styles.creditDeductionText}>
               اعتبار استفاده شده
@@ -21,6 +21,7 @@ import {
 } from 'react-native';
 import GiftIcon from '../components/GiftIcon';
 import { useCustomer } from '../hooks/useApi';
+import { identifyCustomerBySwipe, linkCardToCustomer } from '../services/customerCredit';
 import AsyncStorage from '@react-native-async-storage/async-storage';
 import type { NativeStackNavigationProp } from '@react-navigation/native-stack';
 import { KeyboardAvoidingView, KeyboardAwareScrollView, KeyboardStickyView } from 'react-native-keyboard-controller';
@@ -43,6 +44,9 @@ function Mobile({ navigation }: MobileProps): React.JSX.Element {
   const [branchId, setBranchId] = useState(92); // Default branch ID as per your request
   const [isValidPhone, setIsValidPhone] = useState(false);
   const [isDataSaved, setIsDataSaved] = useState(false);
+  // Hashed PAN of a swiped card no customer is linked to yet; linked to the phone number on continue
+  const [swipedPan, setSwipedPan] = useState<string | null>(null);
+  const [isSwiping, setIsSwiping] = useState(false);
   const phoneInputRef = useRef<TextInput>(null);
 
   // Convert Persian numbers to English for API call
@@ -90,6 +94,31 @@ function Mobile({ navigation }: MobileProps): React.JSX.Element {
     }
   };
 
+  // Identify the customer by card: a linked card skips the phone number entirely
+  const swipeCard = async () => {
+    setIsSwiping(true);
+    try {
+      const swiped = await identifyCustomerBySwipe(branchId);
+      if (swiped?.customer) {
+        const { cardNumber, ...customer } = swiped.customer;
+        await AsyncStorage.multiSet([
+          ['customerData', JSON.stringify(customer)],
+          ['phoneNumber', cardNumber],
+          ['branchId', branchId.toString()],
+        ]);
+        setIsDataSaved(true);
+        // @ts-ignore - Navigation type issue
+        navigation.navigate('Credit', { customerData: customer });
+      } else if (swiped) {
+        setSwipedPan(swiped.hashedPan);
+      }
+    } catch (error) {
+      console.error('Error identifying customer by card:', error);
+    } finally {
+      setIsSwiping(false);
+    }
+  };
+
   // Load saved data on component mount
   useEffect(() => {
     const loadSavedData = async () => {
@@ -164,6 +193,16 @@ function Mobile({ navigation }: MobileProps): React.JSX.Element {
             )}
           </View>
 
+          <TouchableOpacity onPress={swipeCard} disabled={isSwiping} style={styles.swipeButton}>
+            {isSwiping ? (
+              <ActivityIndicator color="#FF6B35" size="small" />
+            ) : (
+              <Text style={styles.swipeButtonText}>
+                {swipedPan ? 'کارت ثبت نشده؛ شماره همراه را وارد کنید' : 'شناسایی با کشیدن کارت'}
+              </Text>
+            )}
+          </TouchableOpacity>
+
 
 
           {/* Customer Information Display */}
@@ -197,6 +236,10 @@ function Mobile({ navigation }: MobileProps): React.JSX.Element {
 
       <TouchableOpacity
         onPress={() => {
+          if (swipedPan) {
+            linkCardToCustomer(swipedPan, englishPhoneNumber, branchId);
+            setSwipedPan(null);
+          }
           if (customerData?.Code === 200 && customerData?.Data) {
             // User found - save and navigate with existing data
             saveCustomerData();
@@ -412,6 +455,20 @@ const styles = StyleSheet.create({
     marginTop: 8,
     fontFamily: 'IRANSansWebFaNum',
   },
+  swipeButton: {
+    borderWidth: 1,
+    borderColor: '#FF6B35',
+    borderRadius: 12,
+    paddingVertical: 14,
+    marginBottom: 20,
+    alignItems: 'center',
+  },
+  swipeButtonText: {
+    fontSize: 14,
+    color: '#FF6B35',
+    fontFamily: 'IRANSansWebFaNum-Medium',
+    textAlign: 'center',
+  },
   continueButtonDisabled: {
     backgroundColor: '#ccc',
   },
@@ -1,9 +1,18 @@
 import React, { useState, useEffect } from 'react';
 import { View, Text, TextInput, Button, Switch, ScrollView, StyleSheet } from 'react-native';
-import { NativeModules, NativeEventEmitter } from 'react-native';
+import { NativeEventEmitter } from 'react-native';
 import { useSnackbarContext } from '../providers/SnackbarProvider';
+import NativePaymentModule from '../specs/NativePaymentModule';
+import NativePaymentSepehrModule from '../specs/NativePaymentSepehrModule';
+import { measureRoundTrip } from '../utils/bridgeTiming';
+import { measureHttpClients } from '../utils/httpTiming';
+import { getTtiHistory } from '../utils/tti';
+import { getSyncStats, requestSync } from '../services/backgroundSync';
+import { getLastRestore, isSnapshotEnabled, setSnapshotEnabled } from '../utils/querySnapshot';
 
-const { PaymentModule, PaymentSepehrModule } = NativeModules;
+// Called by name from the buttons below
+const PaymentModule = NativePaymentModule as any;
+const PaymentSepehrModule = NativePaymentSepehrModule as any;
 const paymentEvents = new NativeEventEmitter(PaymentModule);
 const paymentSepehrEvents = new NativeEventEmitter(PaymentSepehrModule);
 
@@ -16,9 +25,11 @@ export default function NativePaymentTest() {
     const [showReceipt, setShowReceipt] = useState(false);
     const [billId, setBillId] = useState('');
     const [billPaymentId, setBillPaymentId] = useState('');
+    const [billBarcodes, setBillBarcodes] = useState('');
     const [stan, setStan] = useState('');
     const [rrn, setRrn] = useState('');
     const [paymentId, setPaymentId] = useState('');
+    const [mockApiUrl, setMockApiUrl] = useState('http://localhost:8787/api');
     const [persianDate, setPersianDate] = useState('');
     const [imagePath, setImagePath] = useState('drawable/factor.jpg');
     const [installmentCount, setInstallmentCount] = useState('2');
@@ -63,6 +74,8 @@ export default function NativePaymentTest() {
         }
     };
 
+    const batchBills = () => billBarcodes.split('\n').map(line => line.trim()).filter(Boolean).map(barcode => ({ barcode }));
+
     const callSepehr = async (fn: string, ...args: any[]) => {
         try {
             const res = await PaymentSepehrModule[fn](...args);
@@ -72,6 +85,89 @@ export default function NativePaymentTest() {
         }
     };
 
+    // The loyalty card script run natively against sending it one APDU at a time
+    // from JS, both on the simulated card
+    const apduLatencyTest = async () => {
+        const steps = [
+            { apdu: '00A4040006F0534E4A414200' },
+            { apdu: '00B2010C00' },
+            { apdu: '00B2020C00', onMismatch: 'verify' },
+            { apdu: '00B2030C00', onMismatch: 'verify' },
+            { apdu: '002000800824' + '1234FFFFFFFFFF', label: 'verify' },
+            { apdu: '805C000204' },
+        ];
+        try {
+            PaymentModule.setSimulatedCard(true, 150);
+            const script = await PaymentModule.runApduScript(steps);
+            let perCommand = 0;
+            for (const step of steps) {
+                const start = Date.now();
+                await PaymentModule.runApduScript([{ ...step, label: undefined, onMismatch: step.onMismatch && 'END' }]);
+                perCommand += Date.now() - start;
+            }
+            setResult(JSON.stringify({ scriptMs: script.elapsedMs, perCommandMs: perCommand, script }, null, 2));
+        } catch (e: any) {
+            setResult(e.message || JSON.stringify(e));
+        } finally {
+            PaymentModule.setSimulatedCard(false, 0);
+        }
+    };
+
+    // Bridge round trip and module start-up cost, for comparing architectures on the device
+    const measureBridge = async () => {
+        try {
+            const roundTrip = await measureRoundTrip(PaymentModule);
+            const stats = await PaymentModule.getStats();
+            setResult(JSON.stringify({ roundTrip, moduleInitMs: stats.moduleInitMs }, null, 2));
+        } catch (e: any) {
+            setResult(e.message || JSON.stringify(e));
+        }
+    };
+
+    // Catalog requests through the JS and native HTTP clients, against scripts/mock-api-server.js
+    const measureHttp = async () => {
+        try {
+            const timings = await measureHttpClients(mockApiUrl);
+            setResult(JSON.stringify(timings, null, 2));
+        } catch (e: any) {
+            setResult(e.message || JSON.stringify(e));
+        }
+    };
+
+    // Cold-start TTI of BranchSelection and Service; restart the app after toggling the snapshot
+    const showStartupTimings = async () => {
+        try {
+            const history = await getTtiHistory();
+            setResult(JSON.stringify({ snapshotEnabled: isSnapshotEnabled(), restore: getLastRestore(), history }, null, 2));
+        } catch (e: any) {
+            setResult(e.message || JSON.stringify(e));
+        }
+    };
+
+    // Runs, coalescing, retries and request-to-success latency of each background job
+    const showSyncStats = async () => {
+        try {
+            setResult(JSON.stringify(await getSyncStats(), null, 2));
+        } catch (e: any) {
+            setResult(e.message || JSON.stringify(e));
+        }
+    };
+
+    const syncSalesNow = async () => {
+        try {
+            const queued = await requestSync('sales');
+            setResult(queued ? 'Sales upload queued' : 'Joined an upload already owed');
+        } catch (e: any) {
+            setResult(e.message || JSON.stringify(e));
+        }
+    };
+
+    const toggleQuerySnapshot = async () => {
+        const enabled = !isSnapshotEnabled();
+        await setSnapshotEnabled(enabled);
+        showInfo(enabled ? 'Query snapshot on from next launch' : 'Query snapshot off from next launch');
+    };
+
     // Helper function to handle array input parsing
     const parseArrayInput = (input: string): string[] => {
         return input.split(',').map(item => item.trim()).filter(item => item.length > 0);
@@ -93,6 +189,14 @@ export default function NativePaymentTest() {
             <Text style={styles.text}>Result: {result}</Text>
             <Text style={styles.text}>Event Result: {eventResult}</Text>
 
+            <Button title="Measure Bridge Round Trip" onPress={measureBridge} />
+            <TextInput style={styles.input} placeholder="Mock API URL" value={mockApiUrl} onChangeText={setMockApiUrl} autoCapitalize="none" />
+            <Button title="Measure HTTP Clients" onPress={measureHttp} />
+            <Button title="Startup Timings" onPress={showStartupTimings} />
+            <Button title="Background Sync Stats" onPress={showSyncStats} />
+            <Button title="Sync Sales Now" onPress={syncSalesNow} />
+            <Button title="Toggle Query Snapshot" onPress={toggleQuerySnapshot} />
+
             <Text style={styles.section}>Purchase With ID</Text>
             <TextInput style={styles.input} placeholder="Amount" value={amount} onChangeText={setAmount} keyboardType="numeric" />
             <TextInput style={styles.input} placeholder="ID" value={id} onChangeText={setId} />
@@ -117,12 +221,14 @@ export default function NativePaymentTest() {
             <TextInput style={styles.input} placeholder="Payment ID" value={paymentId} onChangeText={setPaymentId} />
             <TextInput style={styles.input} placeholder="Persian Date" value={persianDate} onChangeText={setPersianDate} />
             <Button title="Search By Payment ID" onPress={() => call('searchByPaymentId', paymentId, persianDate)} />
+            <Button title="Reconcile Pending" onPress={() => call('reconcilePending', 20, 300000)} />
 
             <Text style={styles.section}>Print Actions</Text>
             <Button title="Print Receipt" onPress={() => call('printReceipt')} />
             <Button title="Print Big Bitmap" onPress={() => call('printBigBitmap')} />
             <TextInput style={styles.input} placeholder="Image Path" value={imagePath} onChangeText={setImagePath} />
             <Button title="Print Image Path" onPress={() => call('printImagePath', imagePath)} />
+            <Button title="Print Stats" onPress={() => call('getPrintStats')} />
 
             <Text style={styles.section}>Check Update</Text>
             <Button title="Check Update" onPress={() => call('checkUpdate')} />
@@ -133,6 +239,8 @@ export default function NativePaymentTest() {
             <Text style={styles.section}>Send APDU</Text>
             <TextInput style={styles.input} placeholder="APDU" value={apdu} onChangeText={setApdu} />
             <Button title="Send APDU" onPress={() => call('sendApdu', apdu)} />
+            <Button title="Run APDU Script" onPress={() => call('runApduScript', apdu.split(/[\s,]+/).filter(Boolean).map(command => ({ apdu: command })))} />
+            <Button title="APDU Script Latency (simulated)" onPress={apduLatencyTest} />
 
             <Text style={styles.section}>Asan Kharid</Text>
             <TextInput style={styles.input} placeholder="Installment Count" value={installmentCount} onChangeText={setInstallmentCount} keyboardType="numeric" />
@@ -169,6 +277,13 @@ export default function NativePaymentTest() {
                 call('sendBill', billId, billPaymentId, print, showReceipt);
             }} />
 
+            <Text style={styles.section}>Bill Batch</Text>
+            <TextInput style={styles.input} placeholder="Bill barcodes, one per line" value={billBarcodes} onChangeText={setBillBarcodes} multiline />
+            <Button title="Validate Bills" onPress={() => call('validateBills', batchBills())} />
+            <Button title="Inquire Bills" onPress={() => call('inquireBills', batchBills())} />
+            <Button title="Pay Bills" onPress={() => call('payBills', batchBills(), print)} />
+            <Button title="Cancel Bill Batch" onPress={() => call('cancelBillBatch')} />
+
             <Text style={styles.section}>Swipe Card For Hash</Text>
             <Button title="Swipe Card For Hash" onPress={() => call('swipeCardForHash')} />
 
@@ -3,7 +3,7 @@
  * Exact replica of the payment processing screen
  */
 
-import React, { useEffect, useState } from 'react';
+import React, { useEffect, useRef, useState } from 'react';
 import {
   SafeAreaView,
   StatusBar,
@@ -11,8 +11,6 @@ import {
   Text,
   View,
   Dimensions,
-  NativeEventEmitter,
-  NativeModules,
   ScrollView,
   Alert,
 } from 'react-native';
@@ -20,103 +18,76 @@ import PaymentIcon from '../components/PaymentIcon';
 import { useSnackbarContext } from '../providers/SnackbarProvider';
 import { useBusinessInfo } from '../hooks/useApi';
 import { validateIranianIBAN, formatIBAN, cleanIBAN } from '../utils/ibanValidator';
+import { attachSaleToNextPayment } from '../utils/paymentJournal';
+import { startPaymentRequest, cancelPaymentRequest, isRequestInFlight, isRequestCancelled } from '../utils/paymentRequest';
+import PaymentModule from '../specs/NativePaymentModule';
+import PaymentSepehrModule from '../specs/NativePaymentSepehrModule';
 import { POS_TYPE } from '@env';
 
 const { width, height } = Dimensions.get('window');
-const { PaymentModule, PaymentSepehrModule } = NativeModules;
-const paymentEvents = new NativeEventEmitter(PaymentModule);
-const paymentSepehrEvents = new NativeEventEmitter(PaymentSepehrModule);
 
 function Payment({ navigation, route }: { navigation: any, route: any }): React.JSX.Element {
-  const { totalAmount, finalAmountToPay, creditUsed, creditOption, transactionResult } = route.params;
+  const { totalAmount, finalAmountToPay, payableRials, creditUsed, creditOption, transactionResult } = route.params;
+  // Exact rials from the allocation engine; tomans * 10 only for callers that do not pass it
+  const amountRials = String(payableRials ?? Math.round(finalAmountToPay * 10));
   const { showError } = useSnackbarContext();
   //console.log('transactionResult', transactionResult);
-  const [result, setResult] = useState('');
-  const [eventResult, setEventResult] = useState('');
-  const [sepehrResult, setSepehrResult] = useState('');
-  const [sepehrEventResult, setSepehrEventResult] = useState('');
+  // Request currently waiting for the PSP app, cancelled if the screen goes away
+  const pending = useRef<{ module: any; requestId?: string } | null>(null);
 
-  const callSepehr = async (fn: string, ...args: any[]) => {
-    try {
-      const res = await PaymentSepehrModule[fn](...args);
-      setSepehrResult(JSON.stringify(res, null, 2));
-    } catch (e: any) {
-      setSepehrResult(e.message || JSON.stringify(e));
-    }
+  const goToSuccess = (sent: object, res: object) => {
+    navigation.reset({
+      index: 0,
+      routes: [{
+        name: 'Success', params: {
+          totalAmount: totalAmount,
+          finalAmountToPay: finalAmountToPay,
+          creditUsed: creditUsed,
+          creditOption: creditOption,
+          transactionResult: transactionResult,
+          result: JSON.stringify(sent, null, 2),
+          eventResult: JSON.stringify(res, null, 2)
+        }
+      }],
+    });
   };
 
-  const call = async (fn: string, ...args: any[]) => {
+  const run = async (module: any, fn: string, ...args: any[]) => {
     try {
-      const res = await PaymentModule[fn](...args);
-      setResult(JSON.stringify(res, null, 2));
+      const { sent, result } = await startPaymentRequest(module, fn, args);
+      pending.current = { module, requestId: sent.requestId };
+      const res = await result;
+      pending.current = null;
+      // The native engine decides approval per provider
+      if (res.approved) {
+        goToSuccess(sent, res);
+      } else {
+        showError('پرداخت انجام نشد');
+        navigation.goBack();
+      }
     } catch (e: any) {
-      setResult(e.message || JSON.stringify(e));
+      // A repeated trigger while the first request is open is not a failure
+      if (isRequestInFlight(e) || isRequestCancelled(e)) {
+        return;
+      }
+      pending.current = null;
+      showError(e.message || 'پرداخت انجام نشد');
+      navigation.goBack();
     }
   };
 
-  useEffect(() => {
-    const sub = paymentSepehrEvents.addListener('SepehrPaymentResult', (res) => {
-      setSepehrEventResult(JSON.stringify(res, null, 2));
-      //Alert.alert('SepehrPaymentResult Event', JSON.stringify(res, null, 2));
-      if (res.resultCode2 == '00') {
-        navigation.reset({
-          index: 0,
-          routes: [{
-            name: 'Success', params: {
-              totalAmount: totalAmount,
-              finalAmountToPay: finalAmountToPay,
-              creditUsed: creditUsed,
-              creditOption: creditOption,
-              transactionResult: transactionResult,
-              result: sepehrResult,
-              eventResult: JSON.stringify(res, null, 2)
-            }
-          }],
-        });
+  const callSepehr = (fn: string, ...args: any[]) => run(PaymentSepehrModule, fn, ...args);
 
-      } else {
-        showError('پرداخت انجام نشد');
-        navigation.goBack();
-      }
-    });
-    return () => sub.remove();
-  }, []);
+  const call = (fn: string, ...args: any[]) => run(PaymentModule, fn, ...args);
 
   useEffect(() => {
-    const sub = paymentEvents.addListener('PaymentResult', (res) => {
-      setEventResult(JSON.stringify(res, null, 2));
-      //Alert.alert('PaymentResult Event', JSON.stringify(res, null, 2));
-      if (res.resultCode === 0) {
-        navigation.reset({
-          index: 0,
-          routes: [{
-            name: 'Success', params: {
-              totalAmount: totalAmount,
-              finalAmountToPay: finalAmountToPay,
-              creditUsed: creditUsed,
-              creditOption: creditOption,
-              transactionResult: transactionResult,
-              result: result,
-              eventResult: JSON.stringify(res, null, 2)
-            }
-          }],
-        });
-        /* navigation.navigate('Success', {
-          totalAmount: totalAmount,
-          finalAmountToPay: finalAmountToPay,
-          creditUsed: creditUsed,
-          creditOption: creditOption,
-          transactionResult: transactionResult,
-          result: result,
-          eventResult: JSON.stringify(res, null, 2)
-        }) */
-      } else {
-        showError('پرداخت انجام نشد');
-        navigation.goBack();
+    return () => {
+      if (pending.current) {
+        cancelPaymentRequest(pending.current.module, pending.current.requestId);
       }
-    });
-    return () => sub.remove();
+    };
   }, []);
+
   const businessInfo = useBusinessInfo();
   const calcTashimPercent = () => {
     if (finalAmountToPay > 3000000) {
@@ -213,8 +184,10 @@ function Payment({ navigation, route }: { navigation: any, route: any }): React.
       return;
     }
 
+    // Journal the sale with the card payment so it can be replayed if the app dies before Success
+    attachSaleToNextPayment(transactionResult);
     if (POS_TYPE === 'sepehr') {
-      callSepehr('purchase', (finalAmountToPay * 10).toString(), "1");
+      callSepehr('purchase', amountRials, "1");
     } else {
       console.log('POS_TYPE', POS_TYPE);
       // Use clean IBAN for payment processing
@@ -223,7 +196,7 @@ function Payment({ navigation, route }: { navigation: any, route: any }): React.
       const iban1ToUse = tashimPercent1 > 0 ? iban1 : "";
       const iban2ToUse = tashimPercent2 > 0 ? iban2 : "";
 
-      call('buttonTashim', (finalAmountToPay * 10).toString(), (Math.random() * 1000000).toString(), parseInt(tashimPercent1.toString()), parseInt(tashimPercent2.toString()), iban1ToUse, iban2ToUse, true, true);
+      call('buttonTashim', amountRials, (Math.random() * 1000000).toString(), parseInt(tashimPercent1.toString()), parseInt(tashimPercent2.toString()), iban1ToUse, iban2ToUse, true, true);
     }
   };
 
@@ -19,10 +19,18 @@ import ArrowRight from '../components/ArrowRight';
 import SaleIcon from '../components/SaleIcon';
 import CashbackIcon from '../components/CashbackIcon';
 import CreditIcon from '../components/CreditIcon';
+import { useTodaySales } from '../hooks/useApi';
 
 const { width, height } = Dimensions.get('window');
 
+// Rials from the local sales log, shown in tomans with dot grouping (the font
+// renders the digits in Persian)
+const formatToman = (rials?: number): string =>
+  rials == null ? '-' : Math.round(rials / 10).toString().replace(/\B(?=(\d{3})+(?!\d))/g, '.');
+
 function Report(): React.JSX.Element {
+  const { data: totals } = useTodaySales();
+
   return (
     <SafeAreaView style={styles.container}>
       <StatusBar barStyle="light-content" backgroundColor="#F76B1C" />
@@ -44,7 +52,7 @@ function Report(): React.JSX.Element {
           <View style={styles.cardContent}>
             <View style={styles.cardText}>
               <Text style={styles.cardTitle}>تعداد تراکنش</Text>
-              <Text style={styles.cardValue}>۱۴۸</Text>
+              <Text style={styles.cardValue}>{totals ? totals.count : '-'}</Text>
             </View>
             <View style={styles.cardIcon}>
               <TransactionIcon height={40} />
@@ -58,7 +66,7 @@ function Report(): React.JSX.Element {
             <View style={styles.cardText}>
               <Text style={styles.cardTitle}>مجموع فروش</Text>
               <View style={styles.valueContainer}>
-                <Text style={styles.cardValue}>۱۹.۰۰۰.۰۰۰</Text>
+                <Text style={styles.cardValue}>{formatToman(totals?.amount)}</Text>
                 <Text style={styles.currency}> تومان</Text>
               </View>
             </View>
@@ -74,7 +82,7 @@ function Report(): React.JSX.Element {
             <View style={styles.cardText}>
               <Text style={styles.cardTitle}>کش بک کل</Text>
               <View style={styles.valueContainer}>
-                <Text style={styles.cardValue}>۹۶.۵۰۰</Text>
+                <Text style={styles.cardValue}>{formatToman(totals?.cashback)}</Text>
                 <Text style={styles.currency}> تومان</Text>
               </View>
             </View>
@@ -90,7 +98,7 @@ function Report(): React.JSX.Element {
             <View style={styles.cardText}>
               <Text style={styles.cardTitle}>اعتبار استفاده شده</Text>
               <View style={styles.valueContainer}>
-                <Text style={styles.cardValue}>۱۰۷۱۸۰۵۰۰</Text>
+                <Text style={styles.cardValue}>{formatToman(totals?.credit)}</Text>
                 <Text style={styles.currency}> تومان</Text>
               </View>
             </View>
@@ -25,6 +25,8 @@ import { useServiceContext } from '../providers/ServiceProvider';
 import { AuthGuard } from '../components/AuthGuard';
 import { LogoutModal } from '../components/LogoutModal';
 import { useSnackbarContext } from '../providers/SnackbarProvider';
+import { useTimeToInteractive } from '../utils/tti';
+import { reconcilePendingJournal } from '../utils/paymentJournal';
 
 const { width, height } = Dimensions.get('window');
 
@@ -43,6 +45,7 @@ function Service({ navigation, route }: { navigation: any; route: any }): React.
 
     // Use the selected branch to get services
     const { data: servicesData, isLoading, error, refetch } = useLinesDropdown(selectedBranch?.id || 0);
+    useTimeToInteractive('Service', !!servicesData);
 
     return (
         <AuthGuard navigation={navigation} route={route} requireAuth={true} requireBranch={true}>
@@ -76,9 +79,10 @@ function ServiceContent({
     error,
     refetch
 }: any): React.JSX.Element {
-    const { showError } = useSnackbarContext();
+    const { showError, showSuccess, showWarning } = useSnackbarContext();
 
     const [showLogoutModal, setShowLogoutModal] = useState(false);
+    const [reconciling, setReconciling] = useState(false);
 
     console.log(servicesData);
     const toggleService = (service: any) => {
@@ -112,6 +116,25 @@ function ServiceContent({
         setShowLogoutModal(false);
     };
 
+    // Looks up card sales whose result never came back from the PSP app
+    const handleReconcilePress = async () => {
+        setReconciling(true);
+        try {
+            const report = await reconcilePendingJournal();
+            if (!report) {
+                showError('تطبیق تراکنش‌ها انجام نشد');
+            } else if (report.flagged > 0) {
+                showWarning(`${report.flagged} تراکنش نیاز به بررسی دستی دارد`);
+            } else {
+                showSuccess(`تراکنش‌های تأییدشده: ${report.approved}، ردشده: ${report.declined}`);
+            }
+        } catch (e: any) {
+            showError(e?.message || 'تطبیق تراکنش‌ها انجام نشد');
+        } finally {
+            setReconciling(false);
+        }
+    };
+
     // Handle loading state
     if (isLoading) {
         return (
@@ -170,6 +193,11 @@ function ServiceContent({
                     <TouchableOpacity style={styles.logoutButton} onPress={handleLogoutPress}>
                         <Text style={styles.logoutButtonText}>خروج</Text>
                     </TouchableOpacity>
+                    <TouchableOpacity style={styles.reconcileButton} onPress={handleReconcilePress} disabled={reconciling}>
+                        {reconciling
+                            ? <ActivityIndicator size="small" color="white" />
+                            : <Text style={styles.logoutButtonText}>تطبیق تراکنش‌ها</Text>}
+                    </TouchableOpacity>
                 </View>
                 {/* <View style={styles.branchInfo}>
                     <Text style={styles.branchTitle}>{selectedBranch.title}</Text>
@@ -426,6 +454,15 @@ const styles = StyleSheet.create({
         paddingVertical: 8,
         borderRadius: 8,
     },
+    reconcileButton: {
+        position: 'absolute',
+        left: 20,
+        top: 40,
+        backgroundColor: 'rgba(255, 255, 255, 0.2)',
+        paddingHorizontal: 15,
+        paddingVertical: 8,
+        borderRadius: 8,
+    },
     logoutButtonText: {
         color: 'white',
         fontSize: 14,
@@ -23,6 +23,8 @@ import { ScrollView } from 'react-native-gesture-handler';
 import { useCreateTransaction } from '../hooks/useApi';
 import AsyncStorage from '@react-native-async-storage/async-storage';
 import { useSnackbarContext } from '../providers/SnackbarProvider';
+import { acknowledgeJournalEntry, getJournalId, journalIdempotencyKey } from '../utils/paymentJournal';
+import { reconcileCustomerCredit } from '../services/customerCredit';
 
 const { width, height } = Dimensions.get('window');
 
@@ -35,7 +37,7 @@ function Success({ navigation, route }: { navigation: any; route: any }): React.
   // Get service context to clear services after transaction
   const { clearServices } = useServiceContext();
   const createTransactionMutation = useCreateTransaction();
-  const { showError } = useSnackbarContext();
+  const { showError, showInfo } = useSnackbarContext();
   // Get transaction data from navigation params
   const transactionData = route?.params;
   console.log('transactionData', transactionData);
@@ -56,9 +58,21 @@ function Success({ navigation, route }: { navigation: any; route: any }): React.
   useEffect(() => {
     const sendTransaction = async () => {
       try {
-        const response = await createTransactionMutation.mutateAsync(transactionData?.transactionResult);
+        const journalId = getJournalId(eventResult);
+        const response = await createTransactionMutation.mutateAsync({
+          ...transactionData?.transactionResult,
+          idempotencyKey: journalIdempotencyKey(journalId),
+        });
         console.log('response', response.Data);
         setResponseData(response.Data);
+        // A queued sale is already persisted natively, so the journal entry can be released
+        await acknowledgeJournalEntry(journalId);
+        if (response.queued) {
+          showInfo('تراکنش در صف ارسال قرار گرفت');
+        } else {
+          const sale = transactionData?.transactionResult;
+          await reconcileCustomerCredit(sale?.cardNumber, sale?.branchId, response.Data?.result);
+        }
       } catch (error) {
         console.error('Transaction error:', error);
         showError('خطا در ارتباط با سرور');
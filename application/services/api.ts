@@ -1,5 +1,6 @@
 import axios from 'axios';
-import AsyncStorage from '@react-native-async-storage/async-storage';
+import { sessionStore } from '../utils/sessionStore';
+import { installNativeHttp } from './nativeHttp';
 
 // Create axios instance with default configuration
 export const apiClient = axios.create({
@@ -11,11 +12,20 @@ export const apiClient = axios.create({
     },
 });
 
-// Request interceptor for adding auth token
+// Send requests through the native OkHttp client (connection reuse, HTTP/2, ETag cache)
+installNativeHttp(apiClient);
+
+// Request interceptor for adding auth token. The token comes from the in-memory
+// session; only the very first request waits for it to be read from disk.
 apiClient.interceptors.request.use(
     async (config) => {
         try {
-            const token = await AsyncStorage.getItem('authToken');
+            await sessionStore.load();
+            if (sessionStore.isExpired()) {
+                // Don't send a token the server is about to reject
+                await sessionStore.expire();
+            }
+            const { token } = sessionStore.get();
             if (token) {
                 config.headers.Authorization = `Bearer ${token}`;
             }
@@ -29,16 +39,55 @@ apiClient.interceptors.request.use(
     }
 );
 
+// A 401 may be about the request (an endpoint or branch the cashier has no access
+// to) rather than the session. The session is only dropped once the token itself is
+// refused: the cashier's own profile, fetched with it, is a 401 as well. The 401s of
+// one burst share that check.
+let tokenCheck: { token: string; rejected: Promise<boolean> } | null = null;
+
+const isTokenRejected = (token: string, config: { method?: string; url?: string }): Promise<boolean> => {
+    if ((config.method || 'get').toLowerCase() === 'get' && config.url === API_ENDPOINTS.USER_PROFILE) {
+        return Promise.resolve(true);
+    }
+    if (!tokenCheck || tokenCheck.token !== token) {
+        const rejected = apiClient
+            // no-cache: the answer must come from the server, not a cached 200
+            .get(API_ENDPOINTS.USER_PROFILE, { headers: { 'Cache-Control': 'no-cache' } })
+            .then(() => false, (error) => error.response?.status === 401);
+        const check = { token, rejected };
+        tokenCheck = check;
+        rejected.finally(() => {
+            if (tokenCheck === check) {
+                tokenCheck = null;
+            }
+        });
+    }
+    return tokenCheck.rejected;
+};
+
 // Response interceptor for handling errors
 apiClient.interceptors.response.use(
     (response) => {
         return response;
     },
-    (error) => {
+    async (error) => {
         // Handle common errors here
-        if (error.response?.status === 401) {
-            // Handle unauthorized access
-            console.log('Unauthorized access');
+        if (error.response?.status === 401 && error.config) {
+            const sent = error.config.headers?.Authorization;
+            const { token } = sessionStore.get();
+            const current = token ? `Bearer ${token}` : undefined;
+            if (current && sent !== current && !error.config._retriedWithNewToken) {
+                // The user logged in again while this request was in flight; replay it once
+                error.config._retriedWithNewToken = true;
+                return apiClient.request(error.config);
+            }
+            if (current && sent === current && await isTokenRejected(token as string, error.config)
+                // Not if the cashier logged in again while the token was checked
+                && sessionStore.get().token === token) {
+                // Every request that 401s with the refused token shares one session teardown
+                console.log('Unauthorized access');
+                await sessionStore.expire();
+            }
         }
         return Promise.reject(error);
     }
@@ -94,6 +143,8 @@ export const API_ENDPOINTS = {
 
     // Transaction endpoints
     TRANSACTION: '/Transaction',
+    // Gzip-compressed batches from the native sale queue
+    TRANSACTION_BATCH: '/Transaction/batch',
 } as const;
 
 // Types for API responses
@@ -272,6 +323,10 @@ export interface TransactionRequest {
     branchId: number;
 }
 
+export interface UploadTransactionRequest extends TransactionRequest {
+    idempotencyKey?: string;
+}
+
 export interface TransactionResult {
     payFromCredit: number;
     payBackAmount: number;
@@ -0,0 +1,50 @@
+import { NativeEventEmitter, NativeModules } from 'react-native';
+
+const { BackgroundSyncModule } = NativeModules;
+
+// The native background scheduler. Sale uploads ('sales'), catalog refreshes
+// ('refresh:<path>') and customer index syncs ('customers:<branchId>') run there
+// while the cashier is in the PSP app or the app is in the background, coalesced
+// per job, only on a network (refreshes also not on a low battery), with
+// exponential backoff on failure.
+
+export type SyncResult = {
+    key: string;
+    // SUCCESS, RETRY or FAILURE
+    result: string;
+    elapsedMs: number;
+    // For refreshes: the path, and the response body when it succeeded
+    path?: string;
+    data?: any;
+};
+
+const syncEvents = BackgroundSyncModule ? new NativeEventEmitter(BackgroundSyncModule) : null;
+
+// Fetches the path now and then every intervalMs through the native HTTP client
+export const scheduleRefresh = (path: string, intervalMs: number): void => {
+    BackgroundSyncModule?.scheduleRefresh(path, intervalMs);
+};
+
+export const cancelRefresh = (path: string): void => {
+    BackgroundSyncModule?.cancelRefresh(path);
+};
+
+// Runs a registered job as soon as its constraints allow; false if it joined a run already owed
+export const requestSync = async (key: string): Promise<boolean> => {
+    return BackgroundSyncModule ? BackgroundSyncModule.request(key) : false;
+};
+
+// Per job: requests, coalesced, runs, successes, retries, failures and latency
+// from request to success; plus queued, maxQueued, online and batteryLow
+export const getSyncStats = async (): Promise<Object | null> => {
+    return BackgroundSyncModule ? BackgroundSyncModule.getStats() : null;
+};
+
+// Returns the unsubscribe function
+export const onSyncResult = (listener: (result: SyncResult) => void): (() => void) => {
+    if (!syncEvents) {
+        return () => undefined;
+    }
+    const subscription = syncEvents.addListener('BackgroundSyncResult', listener);
+    return () => subscription.remove();
+};
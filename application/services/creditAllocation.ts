@@ -0,0 +1,90 @@
+import PaymentModule, { type CreditAllocation, type CreditBasketLine } from '../specs/NativePaymentModule';
+import type { LineDetail } from './api';
+
+// Spends the customer's credit over the basket through the native allocation
+// engine (CreditAllocator), which works in integer rials and follows the
+// /Transaction rules: credit in basket order, capped per line by
+// maxPayAmountByCashBack, moved in whole tomans.
+
+export interface BasketService {
+    id: string;
+    title: string;
+    amount?: string;
+}
+
+const DEFAULT_METHOD = 'پوز - پوز آبی';
+
+const toBasketLine = (service: BasketService, detail?: LineDetail): CreditBasketLine => ({
+    lineId: parseInt(service.id, 10),
+    title: service.title,
+    amount: service.amount?.replace(/,/g, '') || '0',
+    maxPayAmountByCashBack: detail?.maxPayAmountByCashBack ?? 0,
+    cashbackPercentage: detail?.credit ?? 0,
+    branchSharePercentage: detail?.branchSharePercentage ?? 0,
+});
+
+// Without the native module (e.g. in tests): same rules without the cashback
+// estimate, in rials so no float rounding creeps in.
+const allocateInJs = (lines: CreditBasketLine[], credit: number, useCredit: boolean, method: string): CreditAllocation => {
+    let remaining = useCredit ? Math.floor(credit) * 10 : 0;
+    let total = 0;
+    let creditUsed = 0;
+    const cashBackDto: CreditAllocation['cashBackDto'] = [];
+    const results: CreditAllocation['results'] = [];
+    lines.forEach(line => {
+        const price = Math.round(parseFloat(line.amount) * 10) || 0;
+        let fromCredit = Math.min(price, remaining);
+        if (line.maxPayAmountByCashBack && line.maxPayAmountByCashBack > 0) {
+            fromCredit = Math.min(fromCredit, Math.round(line.maxPayAmountByCashBack * 10));
+        }
+        fromCredit -= fromCredit % 10;
+        remaining -= fromCredit;
+        total += price;
+        creditUsed += fromCredit;
+        cashBackDto.push({
+            lineId: line.lineId,
+            lineTitle: line.title,
+            price: line.amount,
+            payFromCredit: fromCredit / 10,
+            description: '',
+            PaymentMethod: method,
+        });
+        results.push({
+            lineId: line.lineId,
+            payFromCredit: fromCredit / 10,
+            payBackAmount: 0,
+            branchShare: 0,
+            totalPrice: (price - fromCredit) / 10,
+            totalPriceWithoutCreditPayment: price / 10,
+        });
+    });
+    return {
+        cashBackDto,
+        results,
+        totalAmount: total / 10,
+        creditUsed: creditUsed / 10,
+        finalAmountToPay: (total - creditUsed) / 10,
+        payableRials: total - creditUsed,
+        payBackAmount: 0,
+    };
+};
+
+// Returns null for a basket the engine rejects (a malformed amount or percent).
+export const allocateCredit = (
+    services: BasketService[],
+    details: LineDetail[],
+    credit: number,
+    useCredit: boolean,
+    paymentMethod: string = DEFAULT_METHOD,
+): CreditAllocation | null => {
+    const byId = new Map(details.map(detail => [detail.id, detail]));
+    const lines = services.map(service => toBasketLine(service, byId.get(parseInt(service.id, 10))));
+    try {
+        return PaymentModule
+            ? PaymentModule.allocateCredit({ lines, credit, useCredit, paymentMethod })
+            : allocateInJs(lines, credit, useCredit, paymentMethod);
+    } catch (error) {
+        console.error('Error allocating credit:', error);
+        return null;
+    }
+};
@@ -0,0 +1,105 @@
+import { NativeModules } from 'react-native';
+import { apiClient, API_ENDPOINTS, type Customer, type TransactionResult } from './api';
+import PaymentModule from '../specs/NativePaymentModule';
+import { startPaymentRequest } from '../utils/paymentRequest';
+
+const { CustomerCreditModule } = NativeModules;
+
+// Look a customer up in the on-device per-branch credit index
+export const lookupLocalCustomer = async (cardNumber: string, branchId: number): Promise<Customer | null> => {
+    if (!CustomerCreditModule) {
+        return null;
+    }
+    try {
+        return await CustomerCreditModule.lookup(cardNumber, branchId);
+    } catch (error) {
+        console.error('Error reading local customer index:', error);
+        return null;
+    }
+};
+
+export const rememberCustomer = (cardNumber: string, branchId: number, customer: Customer): void => {
+    CustomerCreditModule?.remember(cardNumber, branchId, customer);
+};
+
+// A swiped card resolved from the local index; cardNumber is the customer's key (phone number)
+export interface SwipedCustomer {
+    hashedPan: string;
+    customer: (Customer & { cardNumber: string }) | null;
+}
+
+// Ask the cashier to swipe the customer's card and look the hashed PAN up locally.
+// A match is returned at once and refreshed from /Customer/credit in the background;
+// without one the caller identifies the customer by phone and calls linkCardToCustomer.
+export const identifyCustomerBySwipe = async (branchId: number): Promise<SwipedCustomer | null> => {
+    if (!PaymentModule || !CustomerCreditModule) {
+        return null;
+    }
+    const { result } = await startPaymentRequest(PaymentModule, 'swipeCardForHash', []);
+    const hashedPan: string | undefined = (await result)?.cardNumber;
+    if (!hashedPan) {
+        return null;
+    }
+    let customer: SwipedCustomer['customer'] = null;
+    try {
+        customer = await CustomerCreditModule.lookupByPan(hashedPan, branchId);
+    } catch (error) {
+        console.error('Error reading local card index:', error);
+    }
+    if (customer) {
+        refreshCustomer(customer.cardNumber, branchId);
+    }
+    return { hashedPan, customer };
+};
+
+export const linkCardToCustomer = (hashedPan: string, cardNumber: string, branchId: number): void => {
+    CustomerCreditModule?.linkCard(hashedPan, cardNumber, branchId);
+};
+
+const refreshCustomer = (cardNumber: string, branchId: number): void => {
+    apiClient
+        .get(API_ENDPOINTS.CUSTOMER(cardNumber, branchId))
+        .then(response => {
+            if (response.data?.Code === 200 && response.data?.Data) {
+                rememberCustomer(cardNumber, branchId, response.data.Data);
+            }
+        })
+        .catch(error => console.error('Error refreshing customer:', error));
+};
+
+// Pull customer changes since the last synced version for this branch
+export const syncCustomerCredits = async (branchId: number): Promise<void> => {
+    if (!CustomerCreditModule) {
+        return;
+    }
+    try {
+        const result = await CustomerCreditModule.sync(branchId);
+        console.log('Customer index synced', result);
+    } catch (error) {
+        console.error('Error syncing customer index:', error);
+    }
+};
+
+// Keep the branch's index in sync natively every intervalMs, starting now, also
+// while the app is in the background
+export const scheduleCustomerCreditSync = (branchId: number, intervalMs: number): void => {
+    CustomerCreditModule?.syncInBackground(branchId, intervalMs);
+};
+
+// Apply the credit movement of a settled sale to the local index
+export const reconcileCustomerCredit = async (
+    cardNumber: string,
+    branchId: number,
+    results: TransactionResult[]
+): Promise<void> => {
+    if (!CustomerCreditModule || !cardNumber || !results?.length) {
+        return;
+    }
+    const payFromCredit = results.reduce((sum, result) => sum + (result.payFromCredit || 0), 0);
+    const payBackAmount = results.reduce((sum, result) => sum + (result.payBackAmount || 0), 0);
+    try {
+        await CustomerCreditModule.reconcile(cardNumber, branchId, payFromCredit, payBackAmount);
+    } catch (error) {
+        console.error('Error reconciling customer credit:', error);
+    }
+};
@@ -0,0 +1,43 @@
+import TransactionStoreModule, { type LocalSale, type SalesTotals } from '../specs/NativeTransactionStoreModule';
+
+// The on-device sales log. Every approved card payment and every sale sent to
+// /Transaction is recorded natively, so reports read here instead of the backend.
+
+export const isLocalStoreAvailable = (): boolean => !!TransactionStoreModule;
+
+const startOfDay = (date: Date): number =>
+    new Date(date.getFullYear(), date.getMonth(), date.getDate()).getTime();
+
+// Totals of today's sales, or null when the store is not available
+export const getTodayTotals = async (): Promise<SalesTotals | null> => {
+    if (!TransactionStoreModule) {
+        return null;
+    }
+    const now = new Date();
+    return TransactionStoreModule.getDayTotals(startOfDay(now), now.getTime());
+};
+
+export const getShiftTotals = async (shiftId: number = -1): Promise<SalesTotals | null> => {
+    return TransactionStoreModule ? TransactionStoreModule.getShiftTotals(shiftId) : null;
+};
+
+export const openShift = async (): Promise<number | null> => {
+    return TransactionStoreModule ? TransactionStoreModule.openShift() : null;
+};
+
+export const getLocalTransactions = async (
+    fromMs: number,
+    toMs: number,
+    offset: number = 0,
+    limit: number = 20,
+): Promise<LocalSale[]> => {
+    return TransactionStoreModule ? TransactionStoreModule.getTransactions(fromMs, toMs, offset, limit) : [];
+};
+
+export const findLocalTransactions = async (
+    field: 'stan' | 'rrn' | 'card',
+    value: string,
+    limit: number = 20,
+): Promise<LocalSale[]> => {
+    return TransactionStoreModule ? TransactionStoreModule.findTransactions(field, value, limit) : [];
+};
@@ -0,0 +1,149 @@
+import axios, { AxiosError, AxiosHeaders, type AxiosAdapter, type AxiosInstance, type AxiosResponse, type InternalAxiosRequestConfig } from 'axios';
+import { AppState } from 'react-native';
+import NativeHttpClientModule from '../specs/NativeHttpClientModule';
+import { sessionStore } from '../utils/sessionStore';
+
+interface NativeHttpResponse {
+    status: number;
+    statusText: string;
+    headers: Record<string, string>;
+    data: any;
+    source: 'network' | 'cache' | 'revalidated';
+    durationMs: number;
+}
+
+let nextRequestId = 0;
+
+// Per-customer balances must never come from the disk cache, with or without a token
+const NO_STORE_PATH = /\/(customer\/credit|credits)(\/|\?|$)/i;
+
+const toHeaderStrings = (config: InternalAxiosRequestConfig): Record<string, string> => {
+    const headers: Record<string, string> = {};
+    const json = AxiosHeaders.from(config.headers).toJSON();
+    Object.keys(json).forEach((name) => {
+        const value = json[name];
+        if (value !== null && value !== undefined && value !== false) {
+            headers[name] = Array.isArray(value) ? value.join(', ') : String(value);
+        }
+    });
+    return headers;
+};
+
+const toAxiosError = (error: any, config: InternalAxiosRequestConfig): Error => {
+    switch (error?.code) {
+        case 'CANCELED':
+            return new axios.CanceledError(undefined, undefined, config);
+        case 'TIMEOUT':
+            return new AxiosError(`timeout of ${config.timeout}ms exceeded`, AxiosError.ECONNABORTED, config);
+        default:
+            return new AxiosError('Network Error', AxiosError.ERR_NETWORK, config);
+    }
+};
+
+// axios adapter over HttpClientModule. The request/response interceptors and
+// transforms still run in JS as before; only the transport and JSON parsing move to
+// OkHttp. Bodies axios has not already turned into a string (FormData, blobs) keep
+// going through the default adapter.
+export const createNativeHttpAdapter = (fallback: AxiosAdapter): AxiosAdapter => {
+    return (config) => {
+        const module = NativeHttpClientModule;
+        if (!module || (config.data != null && typeof config.data !== 'string')) {
+            return fallback(config);
+        }
+        const requestId = `http-${++nextRequestId}`;
+        const responseType = !config.responseType || config.responseType === 'json' ? 'json' : 'text';
+        const url = axios.getUri(config);
+        const headers = toHeaderStrings(config);
+        if (NO_STORE_PATH.test(url)) {
+            headers['Cache-Control'] = 'no-store';
+        }
+
+        return new Promise<AxiosResponse>((resolve, reject) => {
+            const signal = config.signal as AbortSignal | undefined;
+            if (signal?.aborted) {
+                reject(new axios.CanceledError(undefined, undefined, config));
+                return;
+            }
+            const onAbort = () => module.cancel(requestId);
+            signal?.addEventListener?.('abort', onAbort);
+
+            module.request({
+                method: (config.method || 'get').toUpperCase(),
+                url,
+                headers,
+                body: config.data ?? null,
+                timeoutMs: config.timeout || 0,
+                responseType,
+                requestId,
+            }).then((result) => {
+                const native = result as NativeHttpResponse;
+                const response: AxiosResponse = {
+                    data: native.data,
+                    status: native.status,
+                    statusText: native.statusText,
+                    headers: AxiosHeaders.from(native.headers),
+                    config,
+                    request: { source: native.source, durationMs: native.durationMs },
+                };
+                const validateStatus = config.validateStatus;
+                if (!native.status || !validateStatus || validateStatus(native.status)) {
+                    resolve(response);
+                } else {
+                    reject(new AxiosError(
+                        `Request failed with status code ${native.status}`,
+                        native.status >= 500 ? AxiosError.ERR_BAD_RESPONSE : AxiosError.ERR_BAD_REQUEST,
+                        config,
+                        response.request,
+                        response,
+                    ));
+                }
+            }, (error) => {
+                reject(toAxiosError(error, config));
+            }).finally(() => {
+                signal?.removeEventListener?.('abort', onAbort);
+            });
+        });
+    };
+};
+
+// Routes the client through OkHttp when the native module is present, and opens a
+// connection to the backend up front and again each time the app comes back to the
+// foreground (PSP activities often leave it in the background long enough for the
+// server to drop idle connections). The disk cache is emptied when the session ends
+// or another user logs in.
+export const installNativeHttp = (client: AxiosInstance): void => {
+    const module = NativeHttpClientModule;
+    if (!module) {
+        return;
+    }
+    const fallback = axios.getAdapter(client.defaults.adapter);
+    client.defaults.adapter = createNativeHttpAdapter(fallback);
+
+    let lastToken = sessionStore.get().token;
+    sessionStore.subscribe(({ token }) => {
+        if (lastToken && token !== lastToken) {
+            module.clearCache().catch(() => undefined);
+        }
+        lastToken = token;
+    });
+
+    const baseURL = client.defaults.baseURL;
+    if (baseURL) {
+        const warmUp = () => {
+            module.warmUp(baseURL).catch(() => undefined);
+        };
+        warmUp();
+        AppState.addEventListener('change', (state) => {
+            if (state === 'active') {
+                warmUp();
+            }
+        });
+    }
+};
+
+export const getHttpClientStats = async () => {
+    if (!NativeHttpClientModule) {
+        return null;
+    }
+    return NativeHttpClientModule.getStats();
+};
@@ -0,0 +1,28 @@
+import { type BusinessProfile, type Branch } from '../utils/tokenManager';
+import PaymentModule, { type ReceiptTemplate } from '../specs/NativePaymentModule';
+
+// Compile the receipt header/footer for this business and branch once, so prints
+// only have to draw their own lines
+export const configureReceiptTemplate = async (
+    businessProfile: BusinessProfile | null,
+    branch: Branch
+): Promise<void> => {
+    if (!PaymentModule) {
+        return;
+    }
+    const template: ReceiptTemplate = {
+        title: businessProfile?.title,
+        subtitle: branch.title,
+        logoPath: businessProfile?.logo?.startsWith('/') ? businessProfile.logo : undefined,
+        footer: businessProfile?.phone ? `تلفن: ${businessProfile.phone}` : undefined,
+    };
+    try {
+        await PaymentModule.setReceiptTemplate(`branch-${branch.id}`, template);
+    } catch (error) {
+        console.error('Error setting receipt template:', error);
+    }
+};
+
+export const getReceiptStats = async (): Promise<Object | null> => {
+    return PaymentModule ? PaymentModule.getReceiptStats() : null;
+};
@@ -0,0 +1,57 @@
+import { NativeModules } from 'react-native';
+import { apiClient, API_ENDPOINTS, type TransactionRequest, type TransactionResponse } from './api';
+import { TokenManager } from '../utils/tokenManager';
+
+const { TransactionUploadModule } = NativeModules;
+
+// Send a sale through the native sale queue. The sale is persisted first and then
+// uploaded in gzip-compressed TRANSACTION_BATCH requests (one by one on TRANSACTION if
+// the backend has no batch endpoint); while offline, or while the server is failing,
+// it stays queued and the response comes back with `queued: true`. Only the server
+// refusing that sale rejects it. Falls back to a plain POST when the native module is
+// not available (e.g. in tests).
+export const uploadTransaction = async (
+    transactionData: TransactionRequest,
+    idempotencyKey?: string
+): Promise<TransactionResponse & { queued?: boolean }> => {
+    if (!TransactionUploadModule) {
+        const response = await apiClient.post(API_ENDPOINTS.TRANSACTION, transactionData, {
+            headers: idempotencyKey ? { 'Idempotency-Key': idempotencyKey } : undefined,
+        });
+        return response.data;
+    }
+    await configureUploader();
+    return TransactionUploadModule.upload(JSON.stringify(transactionData), idempotencyKey ?? '');
+};
+
+export const getUploadStats = async (): Promise<{ batchesSent: number; itemsSent: number; rawBytes: number; wireBytes: number } | null> => {
+    if (!TransactionUploadModule) {
+        return null;
+    }
+    return TransactionUploadModule.getStats();
+};
+
+export const configureUploader = async (): Promise<void> => {
+    if (!TransactionUploadModule) {
+        return;
+    }
+    const token = await TokenManager.getToken();
+    TransactionUploadModule.configure(
+        apiClient.defaults.baseURL,
+        token,
+        API_ENDPOINTS.TRANSACTION_BATCH,
+        API_ENDPOINTS.TRANSACTION
+    );
+};
+
+// Queued sales only drain while the terminal reports connectivity
+export const setSaleQueueOnline = (isConnected: boolean): void => {
+    TransactionUploadModule?.setOnline(isConnected);
+};
+
+export const getQueuedSaleCount = async (): Promise<number> => {
+    if (!TransactionUploadModule) {
+        return 0;
+    }
+    return TransactionUploadModule.getQueueSize();
+};
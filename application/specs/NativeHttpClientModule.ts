@@ -0,0 +1,41 @@
+import type { TurboModule } from 'react-native';
+import { TurboModuleRegistry } from 'react-native';
+
+// Codegen spec for HttpClientModule, the OkHttp transport behind apiClient.
+
+export type HttpRequestConfig = {
+    method: string;
+    url: string;
+    headers: Object;
+    body: string | null;
+    timeoutMs: number;
+    // 'json' parses the body natively; anything else returns it as text
+    responseType: string;
+    // Pass the same id to cancel()
+    requestId: string;
+};
+
+export type HttpClientStats = {
+    requests: number;
+    fromCache: number;
+    revalidated: number;
+    http2: number;
+    failures: number;
+    avgMs: number;
+    connections: number;
+    idleConnections: number;
+    cacheBytes?: number;
+};
+
+export interface Spec extends TurboModule {
+    // Resolves { status, statusText, headers, data, source, durationMs } for any HTTP
+    // status, where source is 'network', 'cache' or 'revalidated' (a 304 answered from
+    // the disk cache). Rejects with NETWORK_ERROR, TIMEOUT or CANCELED.
+    request(config: HttpRequestConfig): Promise<Object>;
+    cancel(requestId: string): void;
+    warmUp(url: string): Promise<boolean>;
+    getStats(): Promise<HttpClientStats>;
+    clearCache(): Promise<boolean>;
+}
+
+export default TurboModuleRegistry.get<Spec>('HttpClientModule');
@@ -0,0 +1,277 @@
+import type { TurboModule } from 'react-native';
+import { TurboModuleRegistry } from 'react-native';
+
+// Codegen spec for the IKC PaymentModule; android/app generates NativePaymentModuleSpec from it.
+
+export type SendResult = {
+    success: boolean;
+    message: string;
+    // Set for payment requests; pass to awaitResult to get the PSP result
+    requestId?: string;
+    // Set for journaled payments (purchase, tashim, bill, installments)
+    journalId?: number;
+};
+
+export type PrintJobResult = {
+    success: boolean;
+    message: string;
+    jobId: number;
+    queueDepth: number;
+};
+
+export type ReceiptTemplate = {
+    title?: string;
+    subtitle?: string;
+    // Local image file; remote logos are not downloaded here
+    logoPath?: string;
+    footer?: string;
+    printerSize?: string;
+    textSize?: number;
+};
+
+export type ReconcileReport = {
+    candidates: number;
+    searches: number;
+    approved: number;
+    declined: number;
+    // Need a person: no identifier, mismatching answers or no answer after all attempts
+    flagged: number;
+    retryLater: number;
+    // The search budget or deadline ran out, or the PSP could not take a search
+    truncated: boolean;
+    elapsedMs: number;
+};
+
+// Amounts are tomans as typed, except payableRials
+export type CreditBasketLine = {
+    lineId: number;
+    title: string;
+    amount: string;
+    // From the line's LineDetail; 0 or absent means no limit
+    maxPayAmountByCashBack?: number;
+    // LineDetail.credit, the line's cashback percent
+    cashbackPercentage?: number;
+    branchSharePercentage?: number;
+};
+
+export type CreditBasket = {
+    lines: CreditBasketLine[];
+    credit: number;
+    useCredit: boolean;
+    paymentMethod?: string;
+};
+
+export type CreditBasketDto = {
+    lineId: number;
+    lineTitle: string;
+    price: string;
+    payFromCredit: number;
+    description: string;
+    PaymentMethod: string;
+};
+
+export type CreditBasketResult = {
+    lineId: number;
+    payFromCredit: number;
+    // Estimated; the backend's payBackAmount is the one that counts
+    payBackAmount: number;
+    branchShare: number;
+    totalPrice: number;
+    totalPriceWithoutCreditPayment: number;
+};
+
+export type CreditAllocation = {
+    cashBackDto: CreditBasketDto[];
+    results: CreditBasketResult[];
+    totalAmount: number;
+    creditUsed: number;
+    finalAmountToPay: number;
+    payableRials: number;
+    payBackAmount: number;
+};
+
+// A bill as typed ({billId, paymentId}) or scanned ({barcode}, 26 digits)
+export type BillInput = {
+    billId?: string;
+    paymentId?: string;
+    barcode?: string;
+};
+
+// Amounts in rials, read from the payment id
+export type BillCheck = {
+    valid: boolean;
+    message?: string;
+    billId?: string;
+    paymentId?: string;
+    amount?: number;
+    serviceType?: number;
+    serviceName?: string;
+};
+
+export type BillInquiry = {
+    billId: string;
+    paymentId: string;
+    amount: number;
+    serviceType: number;
+    serviceName: string;
+    // Answered from the inquiry cache (10 minutes) rather than the PSP
+    cached?: boolean;
+    // The PSP result, as awaitResult gives it
+    result?: Object;
+    message?: string;
+};
+
+export type BillBatchItem = {
+    billId: string;
+    paymentId: string;
+    amount: number;
+    serviceType: number;
+    serviceName: string;
+    // PENDING, PAID, DECLINED, UNKNOWN (left for reconcilePending) or NOT_SENT
+    status: string;
+    stan?: string;
+    rrn?: string;
+    message?: string;
+};
+
+export type BillBatchReport = {
+    paid: number;
+    paidAmount: number;
+    declined: number;
+    // Not reached; may be passed to payBills again
+    pending: number;
+    // The bill the batch stopped on (not sent, unknown outcome or a second decline in a row), or -1
+    stoppedAt: number;
+    message?: string;
+    cancelled: boolean;
+    elapsedMs: number;
+    // The combined receipt's print job, or -1
+    receiptJobId: number;
+    items: BillBatchItem[];
+};
+
+// Status words may use X for any nibble ("63CX"); expect defaults to ["9000"].
+// next and onMismatch name another step's label or END; without onMismatch an
+// unexpected status word stops the script
+export type ApduStep = {
+    apdu: string;
+    expect?: Array<string>;
+    label?: string;
+    next?: string;
+    onMismatch?: string;
+};
+
+// sw is null when the card gave no response
+export type ApduResponse = {
+    step: number;
+    label?: string;
+    apdu: string;
+    data: string;
+    sw?: string;
+    matched: boolean;
+    commands: number;
+    elapsedMs: number;
+};
+
+export type ApduScriptResult = {
+    completed: boolean;
+    // COMPLETED, STATUS_MISMATCH, CARD_ERROR or LIMIT
+    outcome: string;
+    message?: string;
+    failedStep: number;
+    commands: number;
+    elapsedMs: number;
+    responses: ApduResponse[];
+};
+
+export interface Spec extends TurboModule {
+    purchaseWithId(amount: string, id: string, print: boolean, showReceipt: boolean): Promise<SendResult>;
+    purchaseTashim(
+        amount: string,
+        id: string,
+        tashimData: Array<string>,
+        print: boolean,
+        showReceipt: boolean
+    ): Promise<SendResult>;
+    sendTashim(amount: string, id: string, print: boolean, showReceipt: boolean): Promise<SendResult>;
+    buttonTashim(
+        amount: string,
+        id: string,
+        percent1: number,
+        percent2: number,
+        iban1: string,
+        iban2: string,
+        print: boolean,
+        showReceipt: boolean
+    ): Promise<SendResult>;
+    asanKharidSend(
+        amount: string,
+        installmentCount: number,
+        installmentDate: string,
+        print: boolean,
+        showReceipt: boolean
+    ): Promise<SendResult>;
+    sendTestAsankharid(): Promise<SendResult>;
+    billInquiry(billId: string, billPaymentId: string, print: boolean, showReceipt: boolean): Promise<SendResult>;
+    sendBill(billId: string, billPaymentId: string, print: boolean, showReceipt: boolean): Promise<SendResult>;
+    // Synchronous; checks the check digits locally
+    validateBills(bills: Array<BillInput>): Array<BillCheck>;
+    inquireBills(bills: Array<BillInput>): Promise<Array<BillInquiry>>;
+    // Pays the bills one after another without a PSP receipt each, then prints one
+    // receipt for the batch when printReceipt is set
+    payBills(bills: Array<BillInput>, printReceipt: boolean): Promise<BillBatchReport>;
+    cancelBillBatch(): Promise<boolean>;
+    searchByStan(stan: string): Promise<SendResult>;
+    searchByRrn(rrn: string): Promise<SendResult>;
+    searchByPaymentId(paymentId: string, persianDate: string): Promise<SendResult>;
+    checkUpdate(): Promise<SendResult>;
+    swipeCard(): Promise<SendResult>;
+    swipeCardForHash(): Promise<SendResult>;
+    sendApdu(apdu: string): Promise<SendResult>;
+    // Runs the steps in one go natively, each command an ICC round trip, answering
+    // 61XX/6CXX itself; resolves with every response however the script ended
+    runApduScript(steps: Array<ApduStep>): Promise<ApduScriptResult>;
+    // Debug builds only; a release build ignores it and keeps the terminal's reader
+    setSimulatedCard(enabled: boolean, latencyMs: number): void;
+
+    // Resolves with the PaymentResult payload of the request started under requestId
+    awaitResult(requestId: string, timeoutMs: number): Promise<Object>;
+    // The request code stays taken (REQUEST_IN_FLIGHT) until the PSP's answer to
+    // the cancelled request has come back, marked cancelled: true, or 10 minutes passed
+    cancelRequest(requestId: string): Promise<boolean>;
+
+    printReceipt(): Promise<PrintJobResult>;
+    printCustomReceipt(
+        leftTexts: Array<string>,
+        rightTexts: Array<string>,
+        centerTexts: Array<string>
+    ): Promise<PrintJobResult>;
+    // Images are scaled and dithered to the paper's dot width before printing;
+    // one that cannot be decoded is passed to the PSP as is
+    printBigBitmap(): Promise<PrintJobResult>;
+    printImagePath(imagePath: string): Promise<PrintJobResult>;
+    setReceiptTemplate(key: string, template: ReceiptTemplate): Promise<boolean>;
+
+    setSaleContext(saleJson: string): void;
+    getPendingJournalEntries(): Promise<Array<Object>>;
+    acknowledgeJournalEntry(journalId: number): Promise<boolean>;
+    // Searches the PSP for journaled sales left without a result; see ReconcileReport.
+    // Rejects REQUEST_IN_FLIGHT while any other request waits for the PSP
+    reconcilePending(maxSearches: number, maxDurationMs: number): Promise<ReconcileReport>;
+
+    getStats(): Promise<Object>;
+    getMetrics(): Promise<Object>;
+    resetMetrics(): void;
+    getReceiptStats(): Promise<Object>;
+    getPrintStats(): Promise<Object>;
+    // Resolves right away; for timing a bridge round trip
+    ping(): Promise<number>;
+    // Synchronous; throws on a malformed basket
+    allocateCredit(basket: CreditBasket): CreditAllocation;
+
+    // Results are also emitted as 'PaymentResult' events
+    addListener(eventName: string): void;
+    removeListeners(count: number): void;
+}
+
+export default TurboModuleRegistry.get<Spec>('PaymentModule');
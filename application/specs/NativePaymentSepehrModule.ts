@@ -0,0 +1,36 @@
+import type { TurboModule } from 'react-native';
+import { TurboModuleRegistry } from 'react-native';
+
+// Codegen spec for PaymentSepehrModule; android/app generates NativePaymentSepehrModuleSpec from it.
+
+export type SepehrSendResult = {
+    success: boolean;
+    message: string;
+    requestId?: string;
+    journalId?: number;
+};
+
+export interface Spec extends TurboModule {
+    // type "1" is a regular payment, "2" a test tashim split evenly over two accounts
+    purchase(amount: string, type: string): Promise<SepehrSendResult>;
+    // Each line is "IBAN:amount" or "IBAN:percent%"; percents split what the fixed
+    // amounts leave, and the parts must add up to amount. Rejects with INVALID_INPUT
+    // for an invalid IBAN or split.
+    purchaseTashim(amount: string, tashimData: Array<string>): Promise<SepehrSendResult>;
+
+    // Resolves with the SepehrPaymentResult payload of the request started under requestId
+    awaitResult(requestId: string, timeoutMs: number): Promise<Object>;
+    // The request code stays taken (REQUEST_IN_FLIGHT) until the PSP's answer to
+    // the cancelled request has come back, marked cancelled: true, or 10 minutes passed
+    cancelRequest(requestId: string): Promise<boolean>;
+
+    // Same engine-wide metrics as PaymentModule.getMetrics
+    getMetrics(): Promise<Object>;
+    ping(): Promise<number>;
+
+    // Results are also emitted as 'SepehrPaymentResult' events
+    addListener(eventName: string): void;
+    removeListeners(count: number): void;
+}
+
+export default TurboModuleRegistry.get<Spec>('PaymentSepehrModule');
@@ -0,0 +1,62 @@
+import type { TurboModule } from 'react-native';
+import { TurboModuleRegistry } from 'react-native';
+
+// Codegen spec for TransactionStoreModule, the on-device sales log behind the report
+// screen. Amounts are rials.
+
+export type SalesTotalsGroup = {
+    lineId: number;
+    // PaymentMethod of the line, or the PSP for a card payment without sale lines
+    method: string | null;
+    count: number;
+    amount: number;
+    credit: number;
+    cashback: number;
+};
+
+export type SalesTotals = {
+    count: number;
+    amount: number;
+    credit: number;
+    cashback: number;
+    groups: SalesTotalsGroup[];
+};
+
+export type LocalSaleLine = {
+    lineId: number;
+    method: string | null;
+    amount: number;
+    credit: number;
+    cashback: number;
+};
+
+export type LocalSale = {
+    key: string;
+    time: number;
+    amount: number;
+    // What the card was charged, when the PSP reported it
+    paid?: number;
+    stan: string | null;
+    rrn: string | null;
+    card: string | null;
+    provider: string | null;
+    // True once the backend accepted the sale
+    settled: boolean;
+    shift: number;
+    lines: LocalSaleLine[];
+};
+
+export interface Spec extends TurboModule {
+    // Totals of the local days touching [fromMs, toMs]
+    getDayTotals(fromMs: number, toMs: number): Promise<SalesTotals>;
+    // -1 for the current shift
+    getShiftTotals(shiftId: number): Promise<SalesTotals>;
+    // Starts a new shift and resolves its id
+    openShift(): Promise<number>;
+    // Newest first
+    getTransactions(fromMs: number, toMs: number, offset: number, limit: number): Promise<LocalSale[]>;
+    // field is 'stan', 'rrn' or 'card'
+    findTransactions(field: string, value: string, limit: number): Promise<LocalSale[]>;
+}
+
+export default TurboModuleRegistry.get<Spec>('TransactionStoreModule');
@@ -0,0 +1,2 @@
+// Imported first in index.js, so this is the moment the JS bundle starts running
+export const appStart = performance.now();
@@ -0,0 +1,34 @@
+// Round-trip timing of a native module's ping(), to compare the legacy bridge with
+// TurboModules on the terminal itself. Run it on the device; numbers from an emulator
+// say little about low-end POS hardware.
+
+export interface RoundTripTiming {
+    iterations: number;
+    meanMs: number;
+    p50Ms: number;
+    p90Ms: number;
+    maxMs: number;
+}
+
+export const measureRoundTrip = async (
+    module: { ping(): Promise<number> },
+    iterations: number = 200,
+): Promise<RoundTripTiming> => {
+    // Warm up so the first lazy module load is not counted
+    await module.ping();
+    const samples: number[] = [];
+    for (let i = 0; i < iterations; i++) {
+        const start = performance.now();
+        await module.ping();
+        samples.push(performance.now() - start);
+    }
+    samples.sort((a, b) => a - b);
+    const at = (fraction: number) => samples[Math.min(samples.length - 1, Math.floor(samples.length * fraction))];
+    return {
+        iterations,
+        meanMs: samples.reduce((sum, value) => sum + value, 0) / samples.length,
+        p50Ms: at(0.5),
+        p90Ms: at(0.9),
+        maxMs: samples[samples.length - 1],
+    };
+};
@@ -0,0 +1,49 @@
+import axios, { type AxiosAdapter } from 'axios';
+import NativeHttpClientModule from '../specs/NativeHttpClientModule';
+import { createNativeHttpAdapter } from '../services/nativeHttp';
+
+// Cold and warm request timings for the JS (XMLHttpRequest) and native (OkHttp)
+// transports against the same server, normally scripts/mock-api-server.js reached
+// through `adb reverse`. Cold is the first request after dropping the HTTP cache and
+// pooled connections; warm is the mean of the repeats that follow.
+
+export interface HttpTiming {
+    coldMs: number;
+    warmMeanMs: number;
+    warmP90Ms: number;
+}
+
+const timeRequests = async (adapter: AxiosAdapter, baseURL: string, paths: string[], iterations: number): Promise<HttpTiming> => {
+    const client = axios.create({ baseURL, timeout: 10000, adapter });
+    const start = performance.now();
+    await Promise.all(paths.map((path) => client.get(path)));
+    const coldMs = performance.now() - start;
+
+    const samples: number[] = [];
+    for (let i = 0; i < iterations; i++) {
+        const begin = performance.now();
+        await Promise.all(paths.map((path) => client.get(path)));
+        samples.push(performance.now() - begin);
+    }
+    samples.sort((a, b) => a - b);
+    return {
+        coldMs,
+        warmMeanMs: samples.reduce((sum, value) => sum + value, 0) / samples.length,
+        warmP90Ms: samples[Math.min(samples.length - 1, Math.floor(samples.length * 0.9))],
+    };
+};
+
+export const measureHttpClients = async (
+    baseURL: string,
+    paths: string[] = ['/branch', '/Line/dropdown/1', '/Business', '/services'],
+    iterations: number = 20,
+): Promise<{ js: HttpTiming; native: HttpTiming | null; nativeStats: object | null }> => {
+    const jsAdapter = axios.getAdapter('xhr');
+    const js = await timeRequests(jsAdapter, baseURL, paths, iterations);
+    if (!NativeHttpClientModule) {
+        return { js, native: null, nativeStats: null };
+    }
+    await NativeHttpClientModule.clearCache();
+    const native = await timeRequests(createNativeHttpAdapter(jsAdapter), baseURL, paths, iterations);
+    return { js, native, nativeStats: await NativeHttpClientModule.getStats() };
+};
@@ -0,0 +1,118 @@
+import { type TransactionRequest } from '../services/api';
+import { uploadTransaction } from '../services/transactionUpload';
+import PaymentModule, { type ReconcileReport } from '../specs/NativePaymentModule';
+
+export interface JournalEntry {
+    id: number;
+    requestCode: number;
+    createdAt: number;
+    intent: {
+        transactionType: string;
+        amount?: string;
+        id?: string;
+        sale?: TransactionRequest;
+    };
+    resultCode?: number;
+    completedAt?: number;
+    result?: { [key: string]: any };
+    // Set once reconciliation has searched the PSP for this entry
+    reconcile?: { attempts: number; notFound: number; lastAttemptAt: number; flag?: string };
+}
+
+// Attach the backend sale payload to the next card payment so it is journaled with it
+export const attachSaleToNextPayment = (sale: TransactionRequest): void => {
+    PaymentModule?.setSaleContext(JSON.stringify(sale));
+};
+
+// Read the journal id the native module put on a PaymentResult event
+export const getJournalId = (eventResult: string | object | undefined): number | undefined => {
+    if (!eventResult) {
+        return undefined;
+    }
+    try {
+        const parsed = typeof eventResult === 'string' ? JSON.parse(eventResult) : eventResult;
+        return typeof parsed?.journalId === 'number' ? parsed.journalId : undefined;
+    } catch (error) {
+        return undefined;
+    }
+};
+
+// Idempotency key shared by Success and journal replay so a sale is never settled twice
+export const journalIdempotencyKey = (journalId: number | undefined): string | undefined => {
+    return journalId === undefined ? undefined : `journal-${journalId}`;
+};
+
+export const acknowledgeJournalEntry = async (journalId: number | undefined): Promise<void> => {
+    if (journalId === undefined || !PaymentModule) {
+        return;
+    }
+    try {
+        await PaymentModule.acknowledgeJournalEntry(journalId);
+    } catch (error) {
+        console.error('Error acknowledging journal entry:', error);
+    }
+};
+
+export const getPendingJournalEntries = async (): Promise<JournalEntry[]> => {
+    if (!PaymentModule) {
+        return [];
+    }
+    try {
+        return (await PaymentModule.getPendingJournalEntries()) as JournalEntry[];
+    } catch (error) {
+        console.error('Error reading payment journal:', error);
+        return [];
+    }
+};
+
+// Settle approved payments whose /Transaction call never completed (app killed, bridge
+// reloaded or network lost after the PSP approved the card). Declined payments are simply
+// acknowledged; payments still waiting for a PSP result are left for reconciliation.
+export const replayPendingJournal = async (): Promise<void> => {
+    const entries = await getPendingJournalEntries();
+    for (const entry of entries) {
+        // No result, or one without data: left for reconcilePendingJournal
+        if (entry.resultCode === undefined || entry.result?.outcomeUnknown) {
+            continue;
+        }
+        const approved = entry.result?.approved ?? entry.resultCode === 0;
+        if (!approved || !entry.intent?.sale) {
+            await acknowledgeJournalEntry(entry.id);
+            continue;
+        }
+        try {
+            await uploadTransaction(entry.intent.sale, journalIdempotencyKey(entry.id));
+            await acknowledgeJournalEntry(entry.id);
+            console.log('Replayed journaled transaction', entry.id);
+        } catch (error) {
+            console.error('Error replaying journaled transaction:', error);
+            return;
+        }
+    }
+};
+
+// Search the PSP for sales whose result never came back, then settle whatever it found.
+// Only on the cashier's request: each search opens the PSP app, and native refuses
+// to start while another payment request is in flight. The budget keeps a run
+// short; entries left over are picked up next time.
+export const reconcilePendingJournal = async (
+    maxSearches = 5,
+    maxDurationMs = 60000
+): Promise<ReconcileReport | null> => {
+    if (!PaymentModule) {
+        return null;
+    }
+    try {
+        const report = await PaymentModule.reconcilePending(maxSearches, maxDurationMs);
+        if (report.approved > 0 || report.declined > 0) {
+            await replayPendingJournal();
+        }
+        return report;
+    } catch (error: any) {
+        if (error?.code === 'REQUEST_IN_FLIGHT' || error?.code === 'RECONCILE_RUNNING') {
+            throw error;
+        }
+        console.error('Error reconciling payment journal:', error);
+        return null;
+    }
+};
@@ -0,0 +1,35 @@
+// Start a native payment call and wait for the result of that very request.
+// The native modules tag each request with an id and resolve awaitResult once
+// the PSP app answers it, so no global event listener has to guess which
+// result belongs to which tap.
+
+export const PAYMENT_RESULT_TIMEOUT_MS = 3 * 60 * 1000;
+
+export interface PaymentRequestHandle {
+    sent: { success: boolean; message: string; requestId?: string; journalId?: number };
+    result: Promise<{ [key: string]: any }>;
+}
+
+export const startPaymentRequest = async (
+    module: any,
+    fn: string,
+    args: any[],
+    timeoutMs: number = PAYMENT_RESULT_TIMEOUT_MS,
+): Promise<PaymentRequestHandle> => {
+    const sent = await module[fn](...args);
+    if (!sent?.success || !sent.requestId) {
+        throw new Error(sent?.message || 'خطا در ارسال');
+    }
+    return { sent, result: module.awaitResult(sent.requestId, timeoutMs) };
+};
+
+export const cancelPaymentRequest = (module: any, requestId?: string): void => {
+    if (requestId) {
+        module?.cancelRequest?.(requestId).catch(() => undefined);
+    }
+};
+
+// A second tap while the first request is still open is rejected natively.
+export const isRequestInFlight = (error: any): boolean => error?.code === 'REQUEST_IN_FLIGHT';
+
+export const isRequestCancelled = (error: any): boolean => error?.code === 'CANCELLED';
@@ -0,0 +1,180 @@
+import AsyncStorage from '@react-native-async-storage/async-storage';
+import { AppState, InteractionManager } from 'react-native';
+import { hashKey, hydrate, type QueryClient, type Query } from '@tanstack/react-query';
+
+// On-disk snapshot of the catalog queries (business info, branches, lines, services,
+// operators, prices) so a restarted terminal can show them before the network answers.
+// Only the data and its fetch time are kept; restored queries are treated as stale
+// and refetched in the background as soon as a screen uses them.
+
+const SNAPSHOT_KEY = 'queryCacheSnapshot';
+const DISABLED_KEY = 'queryCacheSnapshotDisabled';
+const SNAPSHOT_VERSION = 1;
+const MAX_AGE_MS = 24 * 60 * 60 * 1000;
+const WRITE_THROTTLE_MS = 2000;
+
+const PERSISTED_ROOTS = ['business', 'branches', 'lines', 'services', 'mobile', 'prices'];
+
+// [queryKey, data, dataUpdatedAt]
+type SnapshotEntry = [readonly unknown[], unknown, number];
+
+interface Snapshot {
+    v: number;
+    t: number;
+    q: SnapshotEntry[];
+}
+
+export interface SnapshotRestore {
+    restored: boolean;
+    queries: number;
+    bytes: number;
+    ms: number;
+}
+
+let lastRestore: SnapshotRestore = { restored: false, queries: 0, bytes: 0, ms: 0 };
+// Read with the snapshot at start-up
+let disabled = false;
+
+const isPersisted = (query: Query): boolean =>
+    query.state.status === 'success' &&
+    query.state.data !== undefined &&
+    PERSISTED_ROOTS.includes(String(query.queryKey[0]));
+
+const buildSnapshot = (client: QueryClient): Snapshot => ({
+    v: SNAPSHOT_VERSION,
+    t: Date.now(),
+    q: client.getQueryCache().getAll()
+        .filter(isPersisted)
+        .map((query): SnapshotEntry => [query.queryKey, query.state.data, query.state.dataUpdatedAt]),
+});
+
+export const isSnapshotEnabled = (): boolean => !disabled;
+
+// For measuring cold starts without the snapshot; takes effect on the next launch
+export const setSnapshotEnabled = async (enabled: boolean): Promise<void> => {
+    disabled = !enabled;
+    if (enabled) {
+        await AsyncStorage.removeItem(DISABLED_KEY);
+    } else {
+        await AsyncStorage.multiRemove([DISABLED_KEY, SNAPSHOT_KEY]);
+        await AsyncStorage.setItem(DISABLED_KEY, '1');
+    }
+};
+
+export const getLastRestore = (): SnapshotRestore => lastRestore;
+
+// The snapshot belongs to the signed-in session; with signedIn false it is dropped
+// instead of restored.
+export const restoreQuerySnapshot = async (client: QueryClient, signedIn: boolean): Promise<SnapshotRestore> => {
+    const start = performance.now();
+    try {
+        const [[, disabledFlag], [, text]] = await AsyncStorage.multiGet([DISABLED_KEY, SNAPSHOT_KEY]);
+        disabled = disabledFlag === '1';
+        if (!text) {
+            return lastRestore;
+        }
+        if (disabled || !signedIn) {
+            await AsyncStorage.removeItem(SNAPSHOT_KEY);
+            return lastRestore;
+        }
+        const snapshot: Snapshot = JSON.parse(text);
+        if (snapshot.v !== SNAPSHOT_VERSION || Date.now() - snapshot.t > MAX_AGE_MS) {
+            await AsyncStorage.removeItem(SNAPSHOT_KEY);
+            return lastRestore;
+        }
+        hydrate(client, {
+            mutations: [],
+            queries: snapshot.q.map(([queryKey, data, dataUpdatedAt]) => ({
+                queryKey,
+                queryHash: hashKey(queryKey),
+                state: {
+                    data,
+                    dataUpdateCount: 1,
+                    dataUpdatedAt,
+                    error: null,
+                    errorUpdateCount: 0,
+                    errorUpdatedAt: 0,
+                    fetchFailureCount: 0,
+                    fetchFailureReason: null,
+                    fetchMeta: null,
+                    // Show the snapshot, but refetch on first use
+                    isInvalidated: true,
+                    status: 'success' as const,
+                    fetchStatus: 'idle' as const,
+                },
+            })),
+        });
+        lastRestore = { restored: true, queries: snapshot.q.length, bytes: text.length, ms: performance.now() - start };
+    } catch (error) {
+        console.error('Error restoring query snapshot:', error);
+        await AsyncStorage.removeItem(SNAPSHOT_KEY).catch(() => undefined);
+    }
+    return lastRestore;
+};
+
+// Keeps the snapshot in step with the cache. Writes are throttled, wait for running
+// animations and interactions to finish, and are flushed right away when the app goes
+// to the background, since a PSP activity in front of us is when Android may kill it.
+export const persistQuerySnapshot = (client: QueryClient): (() => void) => {
+    let timer: ReturnType<typeof setTimeout> | null = null;
+    // null until the first write, so an empty cache also removes a restored snapshot
+    let lastWritten: string | null = null;
+
+    const write = async () => {
+        timer = null;
+        if (disabled) {
+            return;
+        }
+        const snapshot = buildSnapshot(client);
+        if (snapshot.q.length === 0) {
+            if (lastWritten !== '') {
+                lastWritten = '';
+                await AsyncStorage.removeItem(SNAPSHOT_KEY);
+            }
+            return;
+        }
+        const text = JSON.stringify(snapshot);
+        // Only the timestamp changes when a refetch returns the same lists
+        const body = text.slice(text.indexOf('"q":'));
+        if (body === lastWritten) {
+            return;
+        }
+        lastWritten = body;
+        await AsyncStorage.setItem(SNAPSHOT_KEY, text);
+    };
+
+    const flush = () => {
+        if (timer) {
+            clearTimeout(timer);
+        }
+        write().catch((error) => console.error('Error writing query snapshot:', error));
+    };
+
+    const schedule = () => {
+        if (timer) {
+            return;
+        }
+        timer = setTimeout(() => {
+            InteractionManager.runAfterInteractions(flush);
+        }, WRITE_THROTTLE_MS);
+    };
+
+    const unsubscribeCache = client.getQueryCache().subscribe((event) => {
+        if (event.type === 'removed' || (event.type === 'updated' && event.action.type === 'success')) {
+            schedule();
+        }
+    });
+    const appState = AppState.addEventListener('change', (state) => {
+        if (state === 'background' && timer) {
+            flush();
+        }
+    });
+
+    return () => {
+        unsubscribeCache();
+        appState.remove();
+        if (timer) {
+            clearTimeout(timer);
+        }
+    };
+};
@@ -0,0 +1,248 @@
+import AsyncStorage from '@react-native-async-storage/async-storage';
+import type { UserData, BusinessProfile, Branch } from './tokenManager';
+
+const TOKEN_KEY = 'authToken';
+const USER_DATA_KEY = 'userData';
+const BUSINESS_PROFILE_KEY = 'businessProfile';
+const SELECTED_BRANCH_KEY = 'selectedBranch';
+
+// Treat the token as expired a little early so a request never leaves with a token
+// that runs out on the way to the server
+const EXPIRY_SKEW_MS = 30 * 1000;
+
+export interface Session {
+    token: string | null;
+    // Epoch ms from the token's exp claim, null when the token does not carry one
+    expiresAt: number | null;
+    userData: UserData | null;
+    businessProfile: BusinessProfile | null;
+    selectedBranch: Branch | null;
+}
+
+type SessionPatch = Partial<Omit<Session, 'expiresAt'>>;
+type Listener = (session: Session) => void;
+
+const EMPTY: Session = {
+    token: null,
+    expiresAt: null,
+    userData: null,
+    businessProfile: null,
+    selectedBranch: null,
+};
+
+const BASE64 = 'ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/';
+
+// JWT segments are base64url; decode without relying on atob being present
+const decodeBase64Url = (input: string): string => {
+    const text = input.replace(/-/g, '+').replace(/_/g, '/');
+    let output = '';
+    let buffer = 0;
+    let bits = 0;
+    for (let i = 0; i < text.length; i++) {
+        const value = BASE64.indexOf(text.charAt(i));
+        if (value < 0) {
+            continue;
+        }
+        buffer = (buffer << 6) | value;
+        bits += 6;
+        if (bits >= 8) {
+            bits -= 8;
+            output += String.fromCharCode((buffer >> bits) & 0xff);
+        }
+    }
+    return output;
+};
+
+export const readTokenExpiry = (token: string | null): number | null => {
+    if (!token) {
+        return null;
+    }
+    const parts = token.split('.');
+    if (parts.length !== 3) {
+        return null;
+    }
+    try {
+        const payload = JSON.parse(decodeBase64Url(parts[1]));
+        return typeof payload.exp === 'number' ? payload.exp * 1000 : null;
+    } catch {
+        return null;
+    }
+};
+
+const parse = <T>(value: string | null | undefined): T | null => {
+    if (!value) {
+        return null;
+    }
+    try {
+        return JSON.parse(value);
+    } catch {
+        return null;
+    }
+};
+
+// Keeps the session in memory. It is read from AsyncStorage once at startup; every
+// change updates memory and listeners synchronously and is then written to disk in
+// order, so readers never wait on storage.
+class SessionStore {
+    private session: Session = EMPTY;
+    private loaded = false;
+    private loading: Promise<Session> | null = null;
+    private expiring: Promise<void> | null = null;
+    private writes: Promise<void> = Promise.resolve();
+    private expiryTimer: ReturnType<typeof setTimeout> | null = null;
+    private listeners = new Set<Listener>();
+
+    get(): Session {
+        return this.session;
+    }
+
+    isLoaded(): boolean {
+        return this.loaded;
+    }
+
+    load(): Promise<Session> {
+        if (this.loaded) {
+            return Promise.resolve(this.session);
+        }
+        if (!this.loading) {
+            this.loading = AsyncStorage.multiGet([TOKEN_KEY, USER_DATA_KEY, BUSINESS_PROFILE_KEY, SELECTED_BRANCH_KEY])
+                .then((entries) => {
+                    const stored = new Map(entries);
+                    const token = stored.get(TOKEN_KEY) || null;
+                    return {
+                        token,
+                        expiresAt: readTokenExpiry(token),
+                        userData: parse<UserData>(stored.get(USER_DATA_KEY)),
+                        businessProfile: parse<BusinessProfile>(stored.get(BUSINESS_PROFILE_KEY)),
+                        selectedBranch: parse<Branch>(stored.get(SELECTED_BRANCH_KEY)),
+                    };
+                })
+                .catch((error) => {
+                    console.error('Error loading session:', error);
+                    return EMPTY;
+                })
+                .then((session) => {
+                    this.loaded = true;
+                    this.loading = null;
+                    this.apply(session);
+                    if (this.isExpired()) {
+                        this.expire();
+                    }
+                    return this.session;
+                });
+        }
+        return this.loading;
+    }
+
+    update(patch: SessionPatch): Promise<void> {
+        // Merge onto what is on disk, not onto the empty placeholder
+        if (!this.loaded) {
+            return this.load().then(() => this.update(patch));
+        }
+        const next: Session = { ...this.session, ...patch };
+        if (patch.token !== undefined) {
+            next.expiresAt = readTokenExpiry(patch.token);
+        }
+        this.apply(next);
+        return this.persist(patch);
+    }
+
+    clear(): Promise<void> {
+        return this.update({ token: null, userData: null, businessProfile: null, selectedBranch: null });
+    }
+
+    isExpired(now: number = Date.now()): boolean {
+        const { token, expiresAt } = this.session;
+        return !!token && expiresAt !== null && now >= expiresAt - EXPIRY_SKEW_MS;
+    }
+
+    // Drops the session once no matter how many callers notice it has gone stale
+    // (a burst of 401s, the expiry timer); they all wait on the same clear.
+    expire(): Promise<void> {
+        if (!this.expiring) {
+            console.log('Session expired');
+            this.expiring = this.clear().finally(() => {
+                this.expiring = null;
+            });
+        }
+        return this.expiring;
+    }
+
+    subscribe(listener: Listener): () => void {
+        this.listeners.add(listener);
+        return () => {
+            this.listeners.delete(listener);
+        };
+    }
+
+    private apply(session: Session): void {
+        this.session = session;
+        this.scheduleExpiry();
+        this.listeners.forEach((listener) => {
+            try {
+                listener(session);
+            } catch (error) {
+                console.error('Error in session listener:', error);
+            }
+        });
+    }
+
+    private scheduleExpiry(): void {
+        if (this.expiryTimer) {
+            clearTimeout(this.expiryTimer);
+            this.expiryTimer = null;
+        }
+        const { token, expiresAt } = this.session;
+        if (!token || expiresAt === null) {
+            return;
+        }
+        // setTimeout overflows past ~24.8 days; re-arm from the timer instead
+        const delay = Math.min(expiresAt - EXPIRY_SKEW_MS - Date.now(), 0x7fffffff);
+        if (delay <= 0) {
+            return;
+        }
+        this.expiryTimer = setTimeout(() => {
+            this.expiryTimer = null;
+            if (this.isExpired()) {
+                this.expire();
+            } else {
+                this.scheduleExpiry();
+            }
+        }, delay);
+    }
+
+    private persist(patch: SessionPatch): Promise<void> {
+        const sets: [string, string][] = [];
+        const removes: string[] = [];
+        const stage = (key: string, value: unknown, raw: boolean) => {
+            if (value === undefined) {
+                return;
+            }
+            if (value === null) {
+                removes.push(key);
+            } else {
+                sets.push([key, raw ? (value as string) : JSON.stringify(value)]);
+            }
+        };
+        stage(TOKEN_KEY, patch.token, true);
+        stage(USER_DATA_KEY, patch.userData, false);
+        stage(BUSINESS_PROFILE_KEY, patch.businessProfile, false);
+        stage(SELECTED_BRANCH_KEY, patch.selectedBranch, false);
+
+        const write = this.writes.then(async () => {
+            if (sets.length > 0) {
+                await AsyncStorage.multiSet(sets);
+            }
+            if (removes.length > 0) {
+                await AsyncStorage.multiRemove(removes);
+            }
+        });
+        // Keep the chain alive after a failed write; the caller still sees the error
+        this.writes = write.catch((error) => {
+            console.error('Error persisting session:', error);
+        });
+        return write;
+    }
+}
+
+export const sessionStore = new SessionStore();
@@ -1,9 +1,4 @@
-import AsyncStorage from '@react-native-async-storage/async-storage';
-
-const TOKEN_KEY = 'authToken';
-const USER_DATA_KEY = 'userData';
-const BUSINESS_PROFILE_KEY = 'businessProfile';
-const SELECTED_BRANCH_KEY = 'selectedBranch';
+import { sessionStore } from './sessionStore';
 
 export interface UserData {
     id: string;
@@ -30,11 +25,12 @@ export interface Branch {
     }>;
 }
 
+// Reads come from the in-memory session store; writes go through it to AsyncStorage
 export class TokenManager {
     // Store authentication token
     static async storeToken(token: string): Promise<void> {
         try {
-            await AsyncStorage.setItem(TOKEN_KEY, token);
+            await sessionStore.update({ token });
             console.log('Token stored successfully');
         } catch (error) {
             console.error('Error storing token:', error);
@@ -44,19 +40,14 @@ export class TokenManager {
 
     // Retrieve authentication token
     static async getToken(): Promise<string | null> {
-        try {
-            const token = await AsyncStorage.getItem(TOKEN_KEY);
-            return token;
-        } catch (error) {
-            console.error('Error getting token:', error);
-            return null;
-        }
+        const session = await sessionStore.load();
+        return session.token;
     }
 
     // Store user data
     static async storeUserData(userData: UserData): Promise<void> {
         try {
-            await AsyncStorage.setItem(USER_DATA_KEY, JSON.stringify(userData));
+            await sessionStore.update({ userData });
             console.log('User data stored successfully');
         } catch (error) {
             console.error('Error storing user data:', error);
@@ -66,22 +57,14 @@ export class TokenManager {
 
     // Retrieve user data
     static async getUserData(): Promise<UserData | null> {
-        try {
-            const userDataString = await AsyncStorage.getItem(USER_DATA_KEY);
-            if (userDataString) {
-                return JSON.parse(userDataString);
-            }
-            return null;
-        } catch (error) {
-            console.error('Error getting user data:', error);
-            return null;
-        }
+        const session = await sessionStore.load();
+        return session.userData;
     }
 
     // Store business profile
     static async storeBusinessProfile(profile: BusinessProfile): Promise<void> {
         try {
-            await AsyncStorage.setItem(BUSINESS_PROFILE_KEY, JSON.stringify(profile));
+            await sessionStore.update({ businessProfile: profile });
             console.log('Business profile stored successfully');
         } catch (error) {
             console.error('Error storing business profile:', error);
@@ -91,33 +74,20 @@ export class TokenManager {
 
     // Retrieve business profile
     static async getBusinessProfile(): Promise<BusinessProfile | null> {
-        try {
-            const profileString = await AsyncStorage.getItem(BUSINESS_PROFILE_KEY);
-            if (profileString) {
-                return JSON.parse(profileString);
-            }
-            return null;
-        } catch (error) {
-            console.error('Error getting business profile:', error);
-            return null;
-        }
+        const session = await sessionStore.load();
+        return session.businessProfile;
     }
 
     // Check if user is authenticated
     static async isAuthenticated(): Promise<boolean> {
-        try {
-            const token = await this.getToken();
-            return !!token;
-        } catch (error) {
-            console.error('Error checking authentication:', error);
-            return false;
-        }
+        await sessionStore.load();
+        return !!sessionStore.get().token && !sessionStore.isExpired();
     }
 
     // Store selected branch
     static async storeSelectedBranch(branch: Branch): Promise<void> {
         try {
-            await AsyncStorage.setItem(SELECTED_BRANCH_KEY, JSON.stringify(branch));
+            await sessionStore.update({ selectedBranch: branch });
             console.log('Selected branch stored successfully');
         } catch (error) {
             console.error('Error storing selected branch:', error);
@@ -127,22 +97,14 @@ export class TokenManager {
 
     // Retrieve selected branch
     static async getSelectedBranch(): Promise<Branch | null> {
-        try {
-            const branchString = await AsyncStorage.getItem(SELECTED_BRANCH_KEY);
-            if (branchString) {
-                return JSON.parse(branchString);
-            }
-            return null;
-        } catch (error) {
-            console.error('Error getting selected branch:', error);
-            return null;
-        }
+        const session = await sessionStore.load();
+        return session.selectedBranch;
     }
 
     // Clear all authentication data
     static async clearAuthData(): Promise<void> {
         try {
-            await AsyncStorage.multiRemove([TOKEN_KEY, USER_DATA_KEY, BUSINESS_PROFILE_KEY, SELECTED_BRANCH_KEY]);
+            await sessionStore.clear();
             console.log('Authentication data cleared successfully');
         } catch (error) {
             console.error('Error clearing authentication data:', error);
@@ -152,24 +114,12 @@ export class TokenManager {
 
     // Get stored data for debugging
     static async getStoredData(): Promise<{ token: string | null; userData: UserData | null; businessProfile: BusinessProfile | null; selectedBranch: Branch | null }> {
-        try {
-            const result = await AsyncStorage.multiGet([TOKEN_KEY, USER_DATA_KEY, BUSINESS_PROFILE_KEY, SELECTED_BRANCH_KEY]);
-            const token = result.find(([key]) => key === TOKEN_KEY)?.[1] || null;
-            const userDataString = result.find(([key]) => key === USER_DATA_KEY)?.[1] || null;
-            const businessProfileString = result.find(([key]) => key === BUSINESS_PROFILE_KEY)?.[1] || null;
-            const selectedBranchString = result.find(([key]) => key === SELECTED_BRANCH_KEY)?.[1] || null;
-            const userData = userDataString ? JSON.parse(userDataString) : null;
-            const businessProfile = businessProfileString ? JSON.parse(businessProfileString) : null;
-            const selectedBranch = selectedBranchString ? JSON.parse(selectedBranchString) : null;
-            return {
-                token,
-                userData,
-                businessProfile,
-                selectedBranch,
-            };
-        } catch (error) {
-            console.error('Error getting stored data:', error);
-            return { token: null, userData: null, businessProfile: null, selectedBranch: null };
-        }
+        const { token, userData, businessProfile, selectedBranch } = await sessionStore.load();
+        return {
+            token,
+            userData,
+            businessProfile,
+            selectedBranch,
+        };
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,59 @@
+import { useEffect } from 'react';
+import AsyncStorage from '@react-native-async-storage/async-storage';
+import { appStart } from './appStart';
+import { getLastRestore } from './querySnapshot';
+
+// Time to interactive of the first screens after a cold start: from the JS bundle
+// starting (appStart, the first import in index.js) to the first frame that shows the screen's data.
+// Native start-up before the bundle runs is the same with or without the query
+// snapshot, so it is left out. Each launch's marks are kept so runs with the snapshot
+// on and off can be compared on the NativePaymentTest screen.
+
+const HISTORY_KEY = 'ttiHistory';
+const HISTORY_LIMIT = 40;
+
+export interface TtiMark {
+    screen: string;
+    ms: number;
+    snapshot: boolean;
+    at: number;
+}
+
+const marked = new Set<string>();
+
+export const markInteractive = (screen: string): void => {
+    // Only the first time per launch; later visits are warm
+    if (marked.has(screen)) {
+        return;
+    }
+    marked.add(screen);
+    requestAnimationFrame(() => {
+        const mark: TtiMark = {
+            screen,
+            ms: Math.round(performance.now() - appStart),
+            snapshot: getLastRestore().restored,
+            at: Date.now(),
+        };
+        console.log(`TTI ${screen}: ${mark.ms}ms (snapshot ${mark.snapshot ? 'on' : 'off'})`);
+        AsyncStorage.getItem(HISTORY_KEY)
+            .then((text) => {
+                const history: TtiMark[] = text ? JSON.parse(text) : [];
+                history.push(mark);
+                return AsyncStorage.setItem(HISTORY_KEY, JSON.stringify(history.slice(-HISTORY_LIMIT)));
+            })
+            .catch((error) => console.error('Error saving TTI mark:', error));
+    });
+};
+
+export const useTimeToInteractive = (screen: string, ready: boolean): void => {
+    useEffect(() => {
+        if (ready) {
+            markInteractive(screen);
+        }
+    }, [screen, ready]);
+};
+
+export const getTtiHistory = async (): Promise<TtiMark[]> => {
+    const text = await AsyncStorage.getItem(HISTORY_KEY);
+    return text ? JSON.parse(text) : [];
+};
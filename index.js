@@ -2,6 +2,8 @@
  * @format
  */
 
+// Must stay the first import; start-up timings are measured from here
+import './application/utils/appStart';
 import { AppRegistry } from 'react-native';
 import App from './App';
 import { name as appName } from './app.json';
@@ -0,0 +1,63 @@
+// Local stand-in for the catalog endpoints, used to compare the JS and native HTTP
+// clients from the NativePaymentTest screen without touching the real backend.
+//
+//   node scripts/mock-api-server.js [port] [delayMs]
+//   adb reverse tcp:8787 tcp:8787
+//
+// Responses carry an ETag and no-cache, so every repeat request is a conditional GET
+// that comes back 304, the same pattern the catalog lists follow.
+const http = require('http');
+const crypto = require('crypto');
+const zlib = require('zlib');
+
+const port = Number(process.argv[2] || 8787);
+const delayMs = Number(process.argv[3] || 40);
+
+const list = (count, make) => Array.from({ length: count }, (_, i) => make(i + 1));
+const bodies = {
+    '/api/branch': { Message: 'OK', Code: 200, Data: { items: list(20, (id) => ({ id, title: `Branch ${id}`, lines: list(8, (line) => ({ id: id * 100 + line, title: `Line ${line}` })) })) } },
+    '/api/services': { Message: 'OK', Code: 200, Data: list(300, (id) => ({ id, title: `Service ${id}`, price: id * 10000, description: 'x'.repeat(120) })) },
+    '/api/Business': { Message: 'OK', Code: 200, Data: { title: 'Mock', phone: '02100000000', logo: '', description: 'y'.repeat(400) } },
+};
+
+const encoded = {};
+Object.keys(bodies).forEach((path) => {
+    const json = Buffer.from(JSON.stringify(bodies[path]));
+    encoded[path] = {
+        json,
+        gzip: zlib.gzipSync(json),
+        etag: `"${crypto.createHash('sha1').update(json).digest('hex').slice(0, 16)}"`,
+    };
+});
+
+http.createServer((req, res) => {
+    const path = req.url.split('?')[0].replace(/\/Line\/dropdown\/\d+$/, '/branch');
+    const entry = encoded[path];
+    setTimeout(() => {
+        if (req.method === 'HEAD') {
+            res.writeHead(entry ? 200 : 404);
+            res.end();
+            return;
+        }
+        if (!entry) {
+            res.writeHead(404, { 'Content-Type': 'application/json' });
+            res.end('{"Message":"Not found","Code":404}');
+            return;
+        }
+        const headers = { ETag: entry.etag, 'Cache-Control': 'no-cache', 'Content-Type': 'application/json' };
+        if (req.headers['if-none-match'] === entry.etag) {
+            res.writeHead(304, headers);
+            res.end();
+            return;
+        }
+        if (/\bgzip\b/.test(req.headers['accept-encoding'] || '')) {
+            res.writeHead(200, { ...headers, 'Content-Encoding': 'gzip' });
+            res.end(entry.gzip);
+        } else {
+            res.writeHead(200, headers);
+            res.end(entry.json);
+        }
+    }, delayMs);
+}).listen(port, () => {
+    console.log(`Mock API on http://localhost:${port}/api (delay ${delayMs}ms)`);
+});